@@ -0,0 +1,1646 @@
+package com.gelakinetic.mtgfam.helpers;
+
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.LargeTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
+import com.gelakinetic.GathererScraper.JsonTypes.Patch;
+import com.gelakinetic.GathererScraper.Language;
+import com.gelakinetic.GathererScraper.PrefixedFieldNamingStrategy;
+import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardDictionary;
+import com.gelakinetic.mtgfam.helpers.database.CardRowMapper;
+import com.gelakinetic.mtgfam.helpers.database.CardSnapshot;
+import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
+import com.gelakinetic.mtgfam.helpers.database.ForeignNameIndex;
+import com.gelakinetic.mtgfam.helpers.database.ForeignPrintings;
+import com.gelakinetic.mtgfam.helpers.database.FuzzyNameIndex;
+import com.gelakinetic.mtgfam.helpers.database.MoJhoStoIndex;
+import com.gelakinetic.mtgfam.helpers.database.SearchPlanner;
+import com.gelakinetic.mtgfam.helpers.database.SetCatalog;
+import com.gelakinetic.mtgfam.helpers.database.SetPatchDatabase;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Times database operations against the real card database and logs the results. This is an
+ * instrumented test so it never ships with the app. Run it by hand on a device when needed.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class CardDbBenchmark {
+
+    private static final String CDBB_TAG = "CDBB";
+
+    /* How many times each measurement is repeated. The fastest run is reported */
+    private static final int REPETITIONS = 3;
+
+    /* Seeded so that runs are comparable */
+    private final Random mRandom = new Random(0x4D544746);
+
+    /* The kinds of query replayed by benchmarkQueryMix() */
+    private static final String[] QUERY_MIX = {"name search", "text search",
+            "type and cmc search", "first printing search", "names and sets",
+            "legality", "unique column"};
+
+    /* The columns encoded by CardDictionary, and whether the search screen splits them into words */
+    private static final String[] DICTIONARY_COLUMNS = {CardDbAdapter.KEY_ARTIST,
+            CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUBTYPE, CardDbAdapter.KEY_WATERMARK};
+    private static final boolean[] DICTIONARY_COLUMNS_SPLIT = {false, true, true, false};
+
+    /* The kinds of search compared by benchmarkSearchPlanner() */
+    private static final String[] PLANNED_SEARCHES = {"name", "creature with text",
+            "mythic of one color", "format and cmc", "set and text", "first printing"};
+
+    /* The columns ResultListFragment asks Search() for */
+    private static final String[] SEARCH_RETURN_TYPES = {CardDbAdapter.KEY_ID,
+            CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_SET, CardDbAdapter.KEY_RARITY,
+            CardDbAdapter.KEY_MANACOST, CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUBTYPE,
+            CardDbAdapter.KEY_ABILITY, CardDbAdapter.KEY_POWER, CardDbAdapter.KEY_TOUGHNESS,
+            CardDbAdapter.KEY_LOYALTY, CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CMC,
+            CardDbAdapter.KEY_COLOR};
+
+    /* Rules text people commonly search for */
+    private static final String[] SEARCH_TEXTS = {"flying", "draw a card", "destroy target",
+            "counter target spell", "token", "sacrifice", "graveyard", "+1/+1 counter"};
+
+    /* The columns SearchViewFragment reads for its autocomplete lists, and whether to split them */
+    private static final String[] UNIQUE_COLUMNS = {CardDbAdapter.KEY_SUPERTYPE,
+            CardDbAdapter.KEY_SUBTYPE, CardDbAdapter.KEY_ARTIST, CardDbAdapter.KEY_WATERMARK};
+    private static final boolean[] UNIQUE_COLUMNS_SPLIT = {true, true, false, false};
+
+    /* The KEY_ID of every printing, filled in by getAllNamesAndSets() */
+    private long[] mAllIds = new long[0];
+
+    /**
+     * Run all of the benchmarks
+     *
+     * @throws FamiliarDbException If something goes wrong
+     */
+    @Test
+    public void runBenchmarks() throws FamiliarDbException {
+        Context context = InstrumentationRegistry.getTargetContext();
+
+        ArrayList<MtgCard> allCards = getAllNamesAndSets(context);
+        Log.d(CDBB_TAG, "Loaded " + allCards.size() + " printings");
+
+        benchmarkCardListHydration(context, allCards);
+        benchmarkFetchCardsById(context);
+        benchmarkRowDecoding(context);
+        benchmarkMoJhoStoActivation(context);
+        benchmarkFuzzyNames(context, allCards);
+        benchmarkForeignNames(context);
+        benchmarkForeignPrintings(context);
+        benchmarkQueryMix(context, allCards);
+        benchmarkSearchPlanner(context, allCards);
+        benchmarkDictionary(context);
+        benchmarkSnapshot(context, allCards);
+        benchmarkSetPatches(context);
+        benchmarkUpdateReaders(context, allCards);
+    }
+
+    /**
+     * Get the name and set of every printing in the database, to build synthetic lists from
+     *
+     * @param context A context to open the database with
+     * @return A list of cards with only the name and set filled in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    private ArrayList<MtgCard> getAllNamesAndSets(Context context) throws FamiliarDbException {
+        ArrayList<MtgCard> allCards = new ArrayList<>();
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            SearchCriteria criteria = new SearchCriteria();
+            criteria.superTypes = new ArrayList<>(1);
+            criteria.superTypes.add("!asdl");
+            String returnTypes[] = {CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_SET};
+            cursor = CardDbAdapter.Search(criteria, true, returnTypes, false, null, database);
+            if (null != cursor) {
+                mAllIds = new long[cursor.getCount()];
+                int idColumn = cursor.getColumnIndex(CardDbAdapter.KEY_ID);
+                int nameColumn = cursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+                int setColumn = cursor.getColumnIndex(CardDbAdapter.KEY_SET);
+                while (!cursor.isAfterLast()) {
+                    mAllIds[cursor.getPosition()] = cursor.getLong(idColumn);
+                    allCards.add(new MtgCard(cursor.getString(nameColumn), cursor.getString(setColumn), false, 1, false));
+                    cursor.moveToNext();
+                }
+            }
+            return allCards;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Build a synthetic card list by picking random printings. Some cards are picked more than
+     * once, like a card in both the main deck and the sideboard
+     *
+     * @param allCards The printings to pick from
+     * @param size     The size of the list to build
+     * @return A new list of new cards, with only the name and set filled in
+     */
+    private ArrayList<MtgCard> buildSyntheticList(ArrayList<MtgCard> allCards, int size) {
+        ArrayList<MtgCard> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            MtgCard picked = allCards.get(mRandom.nextInt(allCards.size()));
+            list.add(new MtgCard(picked.getName(), picked.getExpansion(), false, 1, false));
+        }
+        return list;
+    }
+
+    /**
+     * Time filling in wishlist-like lists with the batched IN lists and hashed matching
+     *
+     * @param context  A context to open the database with
+     * @param allCards All printings, to build synthetic lists from
+     */
+    private void benchmarkCardListHydration(Context context, ArrayList<MtgCard> allCards) {
+        for (int size : new int[]{100, 1000, 10000}) {
+            ArrayList<MtgCard> template = buildSyntheticList(allCards, size);
+
+            long best = Long.MAX_VALUE;
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                ArrayList<MtgCard> list = copyList(template);
+                long start = System.nanoTime();
+                try {
+                    MtgCard.initCardListFromDb(context, list);
+                    best = Math.min(best, System.nanoTime() - start);
+                } catch (FamiliarDbException e) {
+                    Log.d(CDBB_TAG, "Hydration failed: " + e.getMessage());
+                }
+            }
+            Log.d(CDBB_TAG, "hydrate " + size + " cards: " + toMs(best) + "ms");
+        }
+    }
+
+    /**
+     * Compare fetching cards by id with an OR chain over every column against batched, bound
+     * IN lists with only the columns a list view needs. Every row is read, so the cost of
+     * filling the cursor window is included
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkFetchCardsById(Context context) {
+        String[] projection = {CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_SET,
+                CardDbAdapter.KEY_RARITY, CardDbAdapter.KEY_MANACOST, CardDbAdapter.KEY_SUPERTYPE,
+                CardDbAdapter.KEY_SUBTYPE, CardDbAdapter.KEY_CMC};
+        if (0 == mAllIds.length) {
+            return;
+        }
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            for (int size : new int[]{10, 100, 1000, 10000, 50000}) {
+                /* Sample with replacement, so the largest lists have some duplicates */
+                long[] ids = new long[size];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = mAllIds[mRandom.nextInt(mAllIds.length)];
+                }
+
+                String legacyResult;
+                try {
+                    long bestLegacy = Long.MAX_VALUE;
+                    int rows = 0;
+                    for (int rep = 0; rep < REPETITIONS; rep++) {
+                        long start = System.nanoTime();
+                        rows = readAllRows(database.rawQuery(buildLegacyIdQuery(ids), null));
+                        bestLegacy = Math.min(bestLegacy, System.nanoTime() - start);
+                    }
+                    legacyResult = toMs(bestLegacy) + "ms (" + rows + " rows)";
+                } catch (SQLiteException e) {
+                    legacyResult = "failed (" + e.getMessage() + ")";
+                }
+
+                long bestChunked = Long.MAX_VALUE;
+                long bestChunkedAll = Long.MAX_VALUE;
+                int rows = 0;
+                for (int rep = 0; rep < REPETITIONS; rep++) {
+                    long start = System.nanoTime();
+                    rows = readAllRows(CardDbAdapter.fetchCards(ids, projection, null, database));
+                    bestChunked = Math.min(bestChunked, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    readAllRows(CardDbAdapter.fetchCards(ids, null, database));
+                    bestChunkedAll = Math.min(bestChunkedAll, System.nanoTime() - start);
+                }
+                Log.d(CDBB_TAG, "fetch " + size + " ids: legacy " + legacyResult +
+                        ", batched all columns " + toMs(bestChunkedAll) + "ms" +
+                        ", batched projection " + toMs(bestChunked) + "ms (" + rows + " rows)");
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "fetch by id failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Compare decoding every printing with a getColumnIndex() call per field per row against a
+     * CardRowMapper which looks the columns up once. Both read the same cursor, so the cost of
+     * filling the cursor window is included in both equally
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkRowDecoding(Context context) {
+        if (0 == mAllIds.length) {
+            return;
+        }
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            cursor = CardDbAdapter.fetchCards(mAllIds, null, database);
+            int rows = cursor.getCount();
+            if (0 == rows) {
+                return;
+            }
+
+            long bestLegacy = Long.MAX_VALUE;
+            long bestMapped = Long.MAX_VALUE;
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                long start = System.nanoTime();
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    for (CardRowMapper.Field field : CardRowMapper.CARD_FIELDS) {
+                        cursor.getString(cursor.getColumnIndex(field.getColumn()));
+                    }
+                }
+                bestLegacy = Math.min(bestLegacy, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                CardRowMapper mapper = new CardRowMapper(cursor, CardRowMapper.CARD_FIELDS);
+                CardRowMapper.CardRow row = new CardRowMapper.CardRow();
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    mapper.read(row);
+                }
+                bestMapped = Math.min(bestMapped, System.nanoTime() - start);
+            }
+            Log.d(CDBB_TAG, "decode " + rows + " rows: getColumnIndex per field " +
+                    (bestLegacy / rows) + "ns/row, mapper " + (bestMapped / rows) + "ns/row");
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "row decoding failed: " + e.getMessage());
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Compare the latency of a Momir, Stonehewer or Jhoira activation when searching for every
+     * eligible card against picking from the MoJhoSto index
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkMoJhoStoActivation(Context context) {
+        final int activations = 20;
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            boolean indexBuilt = MoJhoStoIndex.isBuilt(database);
+            if (!indexBuilt) {
+                Log.d(CDBB_TAG, "MoJhoSto index isn't built, only timing searches");
+            }
+
+            Object[][] activationTypes = {
+                    {MoJhoStoIndex.Bucket.CREATURE, 3, 1},
+                    {MoJhoStoIndex.Bucket.CREATURE, 16, 1},
+                    {MoJhoStoIndex.Bucket.EQUIPMENT, 5, 1},
+                    {MoJhoStoIndex.Bucket.INSTANT, -1, 3},
+                    {MoJhoStoIndex.Bucket.SORCERY, -1, 3},
+            };
+            for (Object[] type : activationTypes) {
+                MoJhoStoIndex.Bucket bucket = (MoJhoStoIndex.Bucket) type[0];
+                int cmc = (Integer) type[1];
+                int count = (Integer) type[2];
+
+                long start = System.nanoTime();
+                for (int i = 0; i < activations; i++) {
+                    MoJhoStoIndex.pickBySearch(bucket, cmc, count, mRandom, database);
+                }
+                long searchNanos = (System.nanoTime() - start) / activations;
+
+                String indexResult = "not built";
+                if (indexBuilt) {
+                    start = System.nanoTime();
+                    for (int i = 0; i < activations; i++) {
+                        MoJhoStoIndex.pick(bucket, cmc, count, mRandom, database);
+                    }
+                    indexResult = toMs((System.nanoTime() - start) / activations) + "ms";
+                }
+                Log.d(CDBB_TAG, "MoJhoSto " + bucket + " cmc " + cmc + ": search " +
+                        toMs(searchNanos) + "ms, index " + indexResult + " per activation");
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "MoJhoSto activation failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Measure recall and latency of the fuzzy name index against misspellings of real card names.
+     * Each misspelling is a real name with one random edit, or two for longer names. Recall is how
+     * often the real name is the "did you mean" answer, how often it's in the top five whole name
+     * matches, and how often it's in the top ten autocomplete suggestions for a misspelled prefix
+     *
+     * @param context  A context to open the database with
+     * @param allCards Every printing, to take names from
+     */
+    private void benchmarkFuzzyNames(Context context, ArrayList<MtgCard> allCards) {
+        final int corpusSize = 500;
+        final int prefixLength = 6;
+
+        /* Some real world mistakes, then generated ones */
+        ArrayList<String[]> corpus = new ArrayList<>();
+        corpus.add(new String[]{"Lilianna of the Veil", "Liliana of the Veil"});
+        corpus.add(new String[]{"Jace the Mind Sculpter", "Jace, the Mind Sculptor"});
+        corpus.add(new String[]{"Lightening Bolt", "Lightning Bolt"});
+        corpus.add(new String[]{"Tarmogoyph", "Tarmogoyf"});
+        corpus.add(new String[]{"Thoughtsieze", "Thoughtseize"});
+        ArrayList<String> names = new ArrayList<>(new LinkedHashSet<>(getNames(allCards)));
+        if (names.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < corpusSize; i++) {
+            String name = names.get(mRandom.nextInt(names.size()));
+            corpus.add(new String[]{misspell(name, name.length() > 10 ? 2 : 1), name});
+        }
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            if (!FuzzyNameIndex.isBuilt(database)) {
+                Log.d(CDBB_TAG, "Fuzzy name index isn't built");
+                return;
+            }
+
+            int topOne = 0;
+            int topFive = 0;
+            int prefixHits = 0;
+            int prefixQueries = 0;
+            long[] wholeNanos = new long[corpus.size()];
+            ArrayList<Long> prefixNanos = new ArrayList<>();
+            for (int i = 0; i < corpus.size(); i++) {
+                String misspelled = corpus.get(i)[0];
+                String name = corpus.get(i)[1];
+
+                long start = System.nanoTime();
+                ArrayList<FuzzyNameIndex.Match> matches = FuzzyNameIndex.findNames(misspelled, false, 5, database);
+                wholeNanos[i] = System.nanoTime() - start;
+                for (int j = 0; j < matches.size(); j++) {
+                    if (matches.get(j).mName.equals(name)) {
+                        topFive++;
+                        if (0 == j) {
+                            topOne++;
+                        }
+                        break;
+                    }
+                }
+
+                if (name.length() > prefixLength) {
+                    String prefix = misspell(name.substring(0, prefixLength), 1);
+                    start = System.nanoTime();
+                    matches = FuzzyNameIndex.findNames(prefix, true, 10, database);
+                    prefixNanos.add(System.nanoTime() - start);
+                    prefixQueries++;
+                    for (FuzzyNameIndex.Match match : matches) {
+                        if (match.mName.equals(name)) {
+                            prefixHits++;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            long[] prefixArray = new long[prefixNanos.size()];
+            for (int i = 0; i < prefixArray.length; i++) {
+                prefixArray[i] = prefixNanos.get(i);
+            }
+            Log.d(CDBB_TAG, "fuzzy names, " + corpus.size() + " misspellings: top 1 recall " +
+                    (100 * topOne / corpus.size()) + "%, top 5 recall " + (100 * topFive / corpus.size()) +
+                    "%, " + describeLatency(wholeNanos));
+            if (prefixQueries > 0) {
+                Log.d(CDBB_TAG, "fuzzy autocomplete, " + prefixQueries + " misspelled prefixes: top 10 recall " +
+                        (100 * prefixHits / prefixQueries) + "%, " + describeLatency(prefixArray));
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "fuzzy names failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Compare finding cards by the first word of a foreign name with LIKE over every foreign
+     * printing against the foreign name lookup table, for several languages
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkForeignNames(Context context) {
+        final int queriesPerLanguage = 50;
+        String[] benchmarkedLanguages = {Language.German, Language.French, Language.Spanish,
+                Language.Russian, Language.Japanese};
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            if (!ForeignNameIndex.isBuilt(database) || !ForeignPrintings.isBuilt(database)) {
+                Log.d(CDBB_TAG, "Foreign name index isn't built");
+                return;
+            }
+
+            for (String language : benchmarkedLanguages) {
+                /* Take the first word of some names in this language as queries */
+                ArrayList<String> queries = new ArrayList<>();
+                Cursor names = database.rawQuery("SELECT DISTINCT " + CardDbAdapter.KEY_NAME + " FROM " +
+                        CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS + " WHERE " +
+                        CardDbAdapter.KEY_LANGUAGE + " = ?", new String[]{language});
+                try {
+                    if (0 == names.getCount()) {
+                        continue;
+                    }
+                    for (int i = 0; i < queriesPerLanguage; i++) {
+                        names.moveToPosition(mRandom.nextInt(names.getCount()));
+                        queries.add(names.getString(0).split(" ")[0]);
+                    }
+                } finally {
+                    names.close();
+                }
+
+                long legacyNanos = 0;
+                long indexNanos = 0;
+                int legacyRows = 0;
+                int indexRows = 0;
+                for (String query : queries) {
+                    String sql = "SELECT " + CardDbAdapter.KEY_CARD_ID + " FROM " +
+                            CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS + " WHERE " +
+                            CardDbAdapter.KEY_NAME + " LIKE " + DatabaseUtils.sqlEscapeString("%" + query + "%");
+                    long start = System.nanoTime();
+                    legacyRows += readAllRows(database.rawQuery(sql, null));
+                    legacyNanos += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    indexRows += readAllRows(ForeignNameIndex.getSuggestions(query, Integer.MAX_VALUE, database));
+                    indexNanos += System.nanoTime() - start;
+                }
+                Log.d(CDBB_TAG, "foreign names, " + language + ": LIKE over every language " +
+                        toMs(legacyNanos / queries.size()) + "ms (" + legacyRows + " printings), index " +
+                        toMs(indexNanos / queries.size()) + "ms (" + indexRows + " names) per query");
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "foreign names failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Compare reading whole cards now that foreign printings are in a side table against the
+     * row shape the cards table used to have. The old shape is rebuilt by joining one
+     * translation per language onto each card, so it measures the cost of carrying the columns
+     * through the cursor and the CursorWindow, but not of storing them in the table
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkForeignPrintings(Context context) {
+        String[] languages = {Language.Chinese_Traditional, Language.Chinese_Simplified,
+                Language.French, Language.German, Language.Italian, Language.Japanese,
+                Language.Portuguese_Brazil, Language.Russian, Language.Spanish, Language.Korean};
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            if (!ForeignPrintings.isBuilt(database)) {
+                Log.d(CDBB_TAG, "Foreign printings aren't in a side table yet");
+                return;
+            }
+
+            StringBuilder narrow = new StringBuilder();
+            for (String field : CardDbAdapter.ALL_CARD_DATA_KEYS) {
+                narrow.append(narrow.length() == 0 ? "" : ", ").append(field);
+            }
+            StringBuilder wideColumns = new StringBuilder(narrow);
+            StringBuilder wideJoins = new StringBuilder();
+            for (int i = 0; i < languages.length; i++) {
+                String alias = "fp" + i;
+                wideColumns.append(", ").append(alias).append("." + CardDbAdapter.KEY_NAME + " AS ")
+                        .append(alias).append("_name, ").append(alias)
+                        .append("." + CardDbAdapter.KEY_MULTIVERSEID + " AS ").append(alias).append("_id");
+                wideJoins.append(" LEFT JOIN " + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS + " AS ")
+                        .append(alias).append(" ON ").append(alias).append("." + CardDbAdapter.KEY_CARD_ID +
+                        " = " + CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_ID + " AND ")
+                        .append(alias).append("." + CardDbAdapter.KEY_LANGUAGE + " = ")
+                        .append(DatabaseUtils.sqlEscapeString(languages[i]));
+            }
+
+            String[] shapes = {"side table", "old row shape"};
+            String[] queries = {
+                    "SELECT " + narrow + " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS,
+                    "SELECT " + wideColumns + " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS + wideJoins};
+            for (int i = 0; i < shapes.length; i++) {
+                long best = Long.MAX_VALUE;
+                int rows = 0;
+                int windowRows = 0;
+                for (int rep = 0; rep < REPETITIONS; rep++) {
+                    long start = System.nanoTime();
+                    Cursor cursor = database.rawQuery(queries[i], null);
+                    if (cursor instanceof AbstractWindowedCursor && cursor.moveToFirst()) {
+                        windowRows = ((AbstractWindowedCursor) cursor).getWindow().getNumRows();
+                    }
+                    rows = readAllRows(cursor);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                Log.d(CDBB_TAG, "foreign printings, " + shapes[i] + ": read " + rows + " cards in " +
+                        toMs(best) + "ms (" + String.format(Locale.US, "%.0f", rows / (best / 1000000000.0)) +
+                        " cards/s), " + windowRows + " cards fit in the first CursorWindow");
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "foreign printings failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Replay a mix of the queries the app makes most through the same CardDbAdapter methods the
+     * app uses, and report the throughput of the whole mix and the latency of each kind of query.
+     * The kinds are interleaved so that none of them has the page cache to itself
+     *
+     * @param context  A context to open the database with
+     * @param allCards The printings to pick names from
+     */
+    private void benchmarkQueryMix(Context context, ArrayList<MtgCard> allCards) {
+        final int queriesPerKind = 100;
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+
+            ArrayList<String> formats = getFormats(database);
+
+            long[][] nanos = new long[QUERY_MIX.length][queriesPerKind];
+            long[] rows = new long[QUERY_MIX.length];
+            long totalNanos = 0;
+            for (int i = 0; i < queriesPerKind; i++) {
+                for (int kind = 0; kind < QUERY_MIX.length; kind++) {
+                    long start = System.nanoTime();
+                    rows[kind] += runMixedQuery(kind, i, allCards, formats, database);
+                    nanos[kind][i] = System.nanoTime() - start;
+                    totalNanos += nanos[kind][i];
+                }
+            }
+
+            Log.d(CDBB_TAG, "query mix: " + (QUERY_MIX.length * queriesPerKind) + " queries, " +
+                    String.format(Locale.US, "%.1f", (QUERY_MIX.length * queriesPerKind) /
+                            (totalNanos / 1000000000.0)) + " queries/s");
+            for (int kind = 0; kind < QUERY_MIX.length; kind++) {
+                Log.d(CDBB_TAG, "query mix, " + QUERY_MIX[kind] + ": " + describeLatency(nanos[kind]) +
+                        ", " + (rows[kind] / queriesPerKind) + " rows per query");
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "query mix failed: " + e.getMessage());
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Run one query from the mix and read everything it returns
+     *
+     * @param kind      The index of the kind of query in QUERY_MIX
+     * @param iteration How many queries of this kind have been run before, to rotate through
+     *                  fixed inputs
+     * @param allCards  The printings to pick names from
+     * @param formats   The names of every format
+     * @param database  The database to query
+     * @return The number of rows or values the query returned
+     * @throws FamiliarDbException If the query fails
+     */
+    private int runMixedQuery(int kind, int iteration, ArrayList<MtgCard> allCards,
+                              ArrayList<String> formats, SQLiteDatabase database)
+            throws FamiliarDbException {
+        String name = allCards.get(mRandom.nextInt(allCards.size())).getName();
+        SearchCriteria criteria = new SearchCriteria();
+        switch (kind) {
+            case 0: {
+                criteria.name = name.split(" ")[0];
+                return readAllRows(CardDbAdapter.Search(criteria, true, SEARCH_RETURN_TYPES, true,
+                        CardDbAdapter.KEY_NAME, database));
+            }
+            case 1: {
+                criteria.text = SEARCH_TEXTS[iteration % SEARCH_TEXTS.length];
+                return readAllRows(CardDbAdapter.Search(criteria, true, SEARCH_RETURN_TYPES, true,
+                        CardDbAdapter.KEY_NAME, database));
+            }
+            case 2: {
+                criteria.superTypes = new ArrayList<>(1);
+                criteria.superTypes.add("Creature");
+                criteria.cmc = iteration % 8;
+                criteria.cmcLogic = "=";
+                return readAllRows(CardDbAdapter.Search(criteria, true, SEARCH_RETURN_TYPES, true,
+                        CardDbAdapter.KEY_NAME, database));
+            }
+            case 3: {
+                criteria.name = name.split(" ")[0];
+                criteria.setLogic = CardDbAdapter.FIRST_PRINTING;
+                return readAllRows(CardDbAdapter.Search(criteria, true, SEARCH_RETURN_TYPES, false,
+                        CardDbAdapter.KEY_NAME, database));
+            }
+            case 4: {
+                return readAllRows(CardDbAdapter.fetchCardsForList(
+                        buildSyntheticList(allCards, 20), database));
+            }
+            case 5: {
+                if (formats.isEmpty()) {
+                    return 0;
+                }
+                CardDbAdapter.checkLegality(name, formats.get(iteration % formats.size()), database);
+                return 1;
+            }
+            default: {
+                int column = iteration % UNIQUE_COLUMNS.length;
+                return CardDbAdapter.getUniqueColumnArray(UNIQUE_COLUMNS[column],
+                        UNIQUE_COLUMNS_SPLIT[column], database).length;
+            }
+        }
+    }
+
+    /**
+     * Compare searches with and without SearchPlanner ordering their terms and choosing whether
+     * to use the set index. Both runs make the same searches, in the same order
+     *
+     * @param context  A context to open the database with
+     * @param allCards The printings to pick names and sets from
+     */
+    private void benchmarkSearchPlanner(Context context, ArrayList<MtgCard> allCards) {
+        final int queriesPerSearch = 30;
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            ArrayList<String> formats = getFormats(database);
+
+            long seed = mRandom.nextLong();
+            for (boolean isPlanned : new boolean[]{false, true}) {
+                SearchPlanner.setEnabled(isPlanned);
+                Random random = new Random(seed);
+                long[][] nanos = new long[PLANNED_SEARCHES.length][queriesPerSearch];
+                long[] rows = new long[PLANNED_SEARCHES.length];
+                for (int i = 0; i < queriesPerSearch; i++) {
+                    for (int kind = 0; kind < PLANNED_SEARCHES.length; kind++) {
+                        SearchCriteria criteria = buildPlannerSearch(kind, i, allCards, formats, random);
+                        long start = System.nanoTime();
+                        rows[kind] += readAllRows(CardDbAdapter.Search(criteria, true,
+                                SEARCH_RETURN_TYPES, true, CardDbAdapter.KEY_NAME, database));
+                        nanos[kind][i] = System.nanoTime() - start;
+                    }
+                }
+                for (int kind = 0; kind < PLANNED_SEARCHES.length; kind++) {
+                    Log.d(CDBB_TAG, "search " + (isPlanned ? "planned" : "unplanned") + ", " +
+                            PLANNED_SEARCHES[kind] + ": " + describeLatency(nanos[kind]) + ", " +
+                            (rows[kind] / queriesPerSearch) + " rows per query");
+                }
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "search planner failed: " + e.getMessage());
+        } finally {
+            SearchPlanner.setEnabled(true);
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Compare the read-write working database against the read-only, memory mapped snapshot.
+     * Each repetition opens a new connection, so the first query runs with an empty SQLite page
+     * cache. The OS page cache can't be dropped without root, so only the first repetition is
+     * truly cold. Memory is the growth in the process' proportional set size over the query mix
+     *
+     * @param context  A context to find the database files with
+     * @param allCards The printings to pick names from
+     */
+    private void benchmarkSnapshot(Context context, ArrayList<MtgCard> allCards) {
+        final int queriesPerKind = 20;
+
+        if (!CardSnapshot.exists(context)) {
+            Log.d(CDBB_TAG, "snapshot: not published yet");
+            return;
+        }
+
+        for (boolean isSnapshot : new boolean[]{false, true}) {
+            long[] firstQueryNanos = new long[REPETITIONS];
+            long[] mixNanos = new long[REPETITIONS * queriesPerKind * QUERY_MIX.length];
+            long pssGrowthKb = 0;
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                SQLiteDatabase database = null;
+                try {
+                    long pssBefore = Debug.getPss();
+                    long start = System.nanoTime();
+                    if (isSnapshot) {
+                        database = CardSnapshot.open(context);
+                    } else {
+                        database = SQLiteDatabase.openDatabase(context.getDatabasePath(
+                                CardDbAdapter.DATABASE_NAME).getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+                    }
+                    if (null == database) {
+                        return;
+                    }
+                    ArrayList<String> formats = getFormats(database);
+                    firstQueryNanos[rep] = System.nanoTime() - start;
+
+                    for (int i = 0; i < queriesPerKind; i++) {
+                        for (int kind = 0; kind < QUERY_MIX.length; kind++) {
+                            start = System.nanoTime();
+                            runMixedQuery(kind, i, allCards, formats, database);
+                            mixNanos[(rep * queriesPerKind + i) * QUERY_MIX.length + kind] =
+                                    System.nanoTime() - start;
+                        }
+                    }
+                    pssGrowthKb = Math.max(pssGrowthKb, Debug.getPss() - pssBefore);
+                } catch (SQLiteException | FamiliarDbException e) {
+                    Log.d(CDBB_TAG, "snapshot failed: " + e.getMessage());
+                    return;
+                } finally {
+                    if (null != database) {
+                        database.close();
+                    }
+                }
+            }
+            String label = isSnapshot ? "snapshot" : "read-write";
+            Log.d(CDBB_TAG, label + ", open and first query: cold " + toMs(firstQueryNanos[0]) +
+                    "ms, then " + describeLatency(Arrays.copyOfRange(firstQueryNanos, 1, REPETITIONS)));
+            Log.d(CDBB_TAG, label + ", query mix: " + describeLatency(mixNanos) + ", PSS grew by up to " +
+                    pssGrowthKb + " KB");
+        }
+    }
+
+    /**
+     * Compare a full update from the JSON patches against one from SetPatchDatabases, with the
+     * same data. Both patches of every set are made from the working database first, gzipped like
+     * the downloads are, so only decompressing, decoding and inserting is timed. Each format is
+     * added to its own empty scratch database, one set at a time, like DbUpdaterService does
+     *
+     * @param context A context to find the database files with
+     */
+    private void benchmarkSetPatches(Context context) {
+        File source = context.getDatabasePath(CardDbAdapter.DATABASE_NAME);
+        File jsonFile = new File(context.getCacheDir(), "benchmark_json.db");
+        File sqliteFile = new File(context.getCacheDir(), "benchmark_sqlite.db");
+        File patchFile = new File(context.getCacheDir(), "benchmark_patch" + SetPatchDatabase.FILE_EXTENSION);
+        Gson gson = new GsonBuilder().setFieldNamingStrategy(new PrefixedFieldNamingStrategy("m")).create();
+
+        SQLiteDatabase sourceDb = null;
+        SQLiteDatabase jsonDb = null;
+        SQLiteDatabase sqliteDb = null;
+        Cursor cursor = null;
+        try {
+            sourceDb = SQLiteDatabase.openDatabase(source.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            jsonDb = createScratchDatabase(jsonFile);
+            sqliteDb = createScratchDatabase(sqliteFile);
+
+            ArrayList<String> setCodes = new ArrayList<>();
+            cursor = CardDbAdapter.fetchAllSets(sourceDb);
+            while (cursor.moveToNext()) {
+                setCodes.add(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_CODE)));
+            }
+            cursor.close();
+            cursor = null;
+
+            long jsonNanos = 0;
+            long sqliteNanos = 0;
+            long jsonBytes = 0;
+            long sqliteBytes = 0;
+            for (String setCode : setCodes) {
+                byte[] jsonPatch = writeJsonPatch(setCode, sourceDb);
+                SetPatchDatabase.export(source, setCode, patchFile);
+                byte[] sqlitePatch = gzip(patchFile);
+                jsonBytes += jsonPatch.length;
+                sqliteBytes += sqlitePatch.length;
+
+                /* What the updater does with a JSON patch */
+                long start = System.nanoTime();
+                JsonReader reader = new JsonReader(new InputStreamReader(
+                        new GZIPInputStream(new ByteArrayInputStream(jsonPatch)), "UTF-8"));
+                Patch patch = gson.fromJson(reader, Patch.class);
+                jsonDb.beginTransaction();
+                try {
+                    CardDbAdapter.createSet(patch.mExpansion, jsonDb);
+                    for (Card card : patch.mCards) {
+                        CardDbAdapter.createCard(card, jsonDb);
+                    }
+                    jsonDb.setTransactionSuccessful();
+                } finally {
+                    jsonDb.endTransaction();
+                }
+                jsonNanos += System.nanoTime() - start;
+
+                /* What the updater does with a database patch */
+                start = System.nanoTime();
+                gunzip(sqlitePatch, patchFile);
+                SetPatchDatabase.merge(patchFile, setCode, null, false, sqliteDb);
+                sqliteNanos += System.nanoTime() - start;
+            }
+
+            for (SQLiteDatabase database : new SQLiteDatabase[]{jsonDb, sqliteDb}) {
+                String label = (database == jsonDb) ? "json" : "sqlite";
+                long nanos = (database == jsonDb) ? jsonNanos : sqliteNanos;
+                long cards = DatabaseUtils.queryNumEntries(database, CardDbAdapter.DATABASE_TABLE_CARDS);
+                Log.d(CDBB_TAG, String.format(Locale.US, "set patches, %s: %d sets, %d cards, %d" +
+                                " foreign printings, %d gzipped bytes, %.1fms, %.0f cards/s",
+                        label, setCodes.size(), cards, DatabaseUtils.queryNumEntries(database,
+                                CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS),
+                        (database == jsonDb) ? jsonBytes : sqliteBytes, toMs(nanos),
+                        cards / (nanos / 1e9)));
+            }
+        } catch (SQLiteException | FamiliarDbException | IOException e) {
+            Log.d(CDBB_TAG, "set patches failed: " + e.getMessage());
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            for (SQLiteDatabase database : new SQLiteDatabase[]{sourceDb, jsonDb, sqliteDb}) {
+                if (null != database) {
+                    database.close();
+                }
+            }
+            for (File file : new File[]{jsonFile, sqliteFile, patchFile}) {
+                for (String suffix : new String[]{"", "-journal"}) {
+                    File toDelete = new File(file.getPath() + suffix);
+                    if (toDelete.exists() && !toDelete.delete()) {
+                        toDelete.deleteOnExit();
+                    }
+                }
+            }
+            /* createCard() cached the scratch database's dictionary ids */
+            CardDictionary.invalidate();
+        }
+    }
+
+    /**
+     * Measure how long searches take while an update writes to the card database. Before, readers
+     * read the database being written, so every one of the updater's exclusive transactions locked
+     * them out until it committed. Now they read the published snapshot while the working database
+     * is written, and the new snapshot is swapped in with a rename. Both runs replace the same sets
+     * in a scratch copy of the working database while a reader thread replays the query mix
+     *
+     * @param context  A context to find the database files with
+     * @param allCards The printings to pick names from
+     */
+    private void benchmarkUpdateReaders(Context context, ArrayList<MtgCard> allCards) {
+        final int setsToReplace = 5;
+
+        File source = context.getDatabasePath(CardDbAdapter.DATABASE_NAME);
+        File working = new File(context.getCacheDir(), "benchmark_working.db");
+        File published = new File(context.getCacheDir(), "benchmark_published.db");
+        File publishing = new File(context.getCacheDir(), "benchmark_published.db.tmp");
+        Gson gson = new GsonBuilder().setFieldNamingStrategy(new PrefixedFieldNamingStrategy("m")).create();
+
+        /* Decode the patches first, so the update is only database writes */
+        ArrayList<Patch> patches = new ArrayList<>();
+        SQLiteDatabase sourceDb = null;
+        Cursor cursor = null;
+        try {
+            sourceDb = SQLiteDatabase.openDatabase(source.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            cursor = sourceDb.rawQuery("SELECT " + CardDbAdapter.KEY_SET + " FROM " +
+                    CardDbAdapter.DATABASE_TABLE_CARDS + " GROUP BY " + CardDbAdapter.KEY_SET +
+                    " ORDER BY COUNT(*) DESC LIMIT " + setsToReplace, null);
+            while (cursor.moveToNext()) {
+                JsonReader reader = new JsonReader(new InputStreamReader(new GZIPInputStream(
+                        new ByteArrayInputStream(writeJsonPatch(cursor.getString(0), sourceDb))), "UTF-8"));
+                patches.add(gson.fromJson(reader, Patch.class));
+            }
+        } catch (SQLiteException | FamiliarDbException | IOException e) {
+            Log.d(CDBB_TAG, "update readers failed: " + e.getMessage());
+            return;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != sourceDb) {
+                sourceDb.close();
+            }
+        }
+
+        for (boolean isSnapshot : new boolean[]{false, true}) {
+            SQLiteDatabase database = null;
+            UpdateReader reader = null;
+            try {
+                copyFile(source, working);
+                if (isSnapshot) {
+                    copyFile(working, published);
+                }
+                database = SQLiteDatabase.openDatabase(working.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+                reader = new UpdateReader(isSnapshot ? published : working, allCards);
+                reader.start();
+                reader.awaitFirstQuery();
+
+                long start = System.nanoTime();
+                if (isSnapshot) {
+                    /* What DbUpdaterService does now, each set replaced in its own transaction */
+                    for (Patch patch : patches) {
+                        database.beginTransaction();
+                        try {
+                            CardDbAdapter.dropSetAndCards(patch.mExpansion.mCode_gatherer, database);
+                            addPatch(patch, database);
+                            database.setTransactionSuccessful();
+                        } finally {
+                            database.endTransaction();
+                        }
+                    }
+                } else {
+                    /* What it did before, every set dropped in one transaction, then added back */
+                    database.beginTransaction();
+                    try {
+                        for (Patch patch : patches) {
+                            CardDbAdapter.dropSetAndCards(patch.mExpansion.mCode_gatherer, database);
+                        }
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    for (Patch patch : patches) {
+                        database.beginTransaction();
+                        try {
+                            addPatch(patch, database);
+                            database.setTransactionSuccessful();
+                        } finally {
+                            database.endTransaction();
+                        }
+                    }
+                }
+                long updateNanos = System.nanoTime() - start;
+
+                /* Swap in the new snapshot like CardSnapshot.publish() does */
+                long swapNanos = 0;
+                if (isSnapshot) {
+                    database.close();
+                    database = null;
+                    start = System.nanoTime();
+                    copyFile(working, publishing);
+                    if (!publishing.renameTo(published)) {
+                        throw new IOException("Couldn't rename " + publishing);
+                    }
+                    swapNanos = System.nanoTime() - start;
+                    reader.reopen();
+                }
+
+                reader.finish();
+                String label = isSnapshot ? "snapshot" : "working database";
+                Log.d(CDBB_TAG, String.format(Locale.US, "update readers, %s: update %.1fms, swap" +
+                                " %.1fms, %d queries, %d locked out, %s", label, toMs(updateNanos),
+                        toMs(swapNanos), reader.mQueries, reader.mLockedOut,
+                        describeLatency(reader.getLatencies())));
+            } catch (SQLiteException | FamiliarDbException | IOException | InterruptedException e) {
+                Log.d(CDBB_TAG, "update readers failed: " + e.getMessage());
+            } finally {
+                if (null != reader) {
+                    reader.interrupt();
+                }
+                if (null != database) {
+                    database.close();
+                }
+                for (File file : new File[]{working, published, publishing}) {
+                    for (String suffix : new String[]{"", "-journal"}) {
+                        File toDelete = new File(file.getPath() + suffix);
+                        if (toDelete.exists() && !toDelete.delete()) {
+                            toDelete.deleteOnExit();
+                        }
+                    }
+                }
+                /* createCard() cached the scratch database's dictionary ids */
+                CardDictionary.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Replays the query mix against one database file for benchmarkUpdateReaders(), timing every
+     * query, until it's told to finish
+     */
+    private class UpdateReader extends Thread {
+        private final File mFile;
+        private final ArrayList<MtgCard> mAllCards;
+        private final CountDownLatch mFirstQuery = new CountDownLatch(1);
+        private volatile boolean mIsFinished = false;
+        private volatile boolean mShouldReopen = false;
+
+        private long[] mLatencies = new long[1024];
+        int mQueries = 0;
+        int mLockedOut = 0;
+
+        /**
+         * @param file     The database file to read
+         * @param allCards The printings to pick names from
+         */
+        UpdateReader(File file, ArrayList<MtgCard> allCards) {
+            mFile = file;
+            mAllCards = allCards;
+        }
+
+        @Override
+        public void run() {
+            SQLiteDatabase database = null;
+            try {
+                database = SQLiteDatabase.openDatabase(mFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+                ArrayList<String> formats = getFormats(database);
+                while (!mIsFinished || 0 == mQueries) {
+                    if (mShouldReopen) {
+                        /* Like DatabaseManager, a new connection opens the new snapshot */
+                        database.close();
+                        database = SQLiteDatabase.openDatabase(mFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+                        mShouldReopen = false;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        runMixedQuery(mQueries % QUERY_MIX.length, mQueries / QUERY_MIX.length,
+                                mAllCards, formats, database);
+                    } catch (SQLiteException e) {
+                        /* The update holds the lock. The wait still counts */
+                        mLockedOut++;
+                    }
+                    if (mQueries == mLatencies.length) {
+                        mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+                    }
+                    mLatencies[mQueries++] = System.nanoTime() - start;
+                    mFirstQuery.countDown();
+                }
+            } catch (SQLiteException | FamiliarDbException | CursorIndexOutOfBoundsException e) {
+                Log.d(CDBB_TAG, "update reader failed: " + e.getMessage());
+            } finally {
+                mFirstQuery.countDown();
+                if (null != database) {
+                    database.close();
+                }
+            }
+        }
+
+        /**
+         * Wait until the reader is running queries, so the update starts with one in progress
+         *
+         * @throws InterruptedException If the wait is interrupted
+         */
+        void awaitFirstQuery() throws InterruptedException {
+            mFirstQuery.await();
+        }
+
+        /**
+         * Have the reader open the database file again, once it's been replaced
+         */
+        void reopen() {
+            mShouldReopen = true;
+        }
+
+        /**
+         * Stop the reader after the query it's running, and wait for it
+         *
+         * @throws InterruptedException If the wait is interrupted
+         */
+        void finish() throws InterruptedException {
+            mIsFinished = true;
+            join();
+        }
+
+        /**
+         * @return How long each query took, only valid after finish()
+         */
+        long[] getLatencies() {
+            return Arrays.copyOf(mLatencies, mQueries);
+        }
+    }
+
+    /**
+     * Add a patch's set and cards to a database, like DbUpdaterService does
+     *
+     * @param patch    The patch to add
+     * @param database The database to add it to
+     */
+    private static void addPatch(Patch patch, SQLiteDatabase database) {
+        CardDbAdapter.createSet(patch.mExpansion, database);
+        for (Card card : patch.mCards) {
+            CardDbAdapter.createCard(card, database);
+        }
+    }
+
+    /**
+     * @param from The file to copy
+     * @param to   Where to copy it. Anything already there is overwritten
+     * @throws IOException If it can't be copied
+     */
+    private static void copyFile(File from, File to) throws IOException {
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(to);
+            try {
+                copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Make an empty card database to add patches to
+     *
+     * @param file Where to make it. Anything already there is overwritten
+     * @return The open database
+     * @throws FamiliarDbException If it can't be made
+     */
+    private static SQLiteDatabase createScratchDatabase(File file) throws FamiliarDbException {
+        if (file.exists() && !file.delete()) {
+            throw new FamiliarDbException(new IOException("Couldn't delete " + file));
+        }
+        SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        CardDbAdapter.dropCreateDB(database);
+        return database;
+    }
+
+    /**
+     * Write a set as a gzipped JSON patch, the same way the patches DbUpdaterService downloads are
+     * written
+     *
+     * @param setCode  The set to write
+     * @param database The database to read the set from
+     * @return The gzipped patch
+     * @throws FamiliarDbException If the set can't be read
+     * @throws IOException         If the patch can't be written
+     */
+    private static byte[] writeJsonPatch(String setCode, SQLiteDatabase database)
+            throws FamiliarDbException, IOException {
+        SetCatalog.SetInfo set = SetCatalog.getSet(setCode, database);
+        if (null == set) {
+            throw new FamiliarDbException(new IllegalStateException("No set " + setCode));
+        }
+        Expansion expansion = new Expansion();
+        expansion.mCode_gatherer = set.mCode;
+        expansion.mName_gatherer = set.mName;
+        expansion.mCode_mtgi = set.mCodeMtgi;
+        expansion.mName_tcgp = set.mNameTcgp;
+        expansion.mReleaseTimestamp = set.mDate;
+        expansion.mCanBeFoil = set.mCanBeFoil;
+        expansion.mIsOnlineOnly = set.mIsOnlineOnly;
+        expansion.mDigest = DatabaseUtils.stringForQuery(database, "SELECT " + CardDbAdapter.KEY_DIGEST +
+                " FROM " + CardDbAdapter.DATABASE_TABLE_SETS + " WHERE " + CardDbAdapter.KEY_CODE + " = ?",
+                new String[]{setCode});
+        Gson gson = new GsonBuilder().setFieldNamingStrategy(new PrefixedFieldNamingStrategy("m")).create();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8"));
+        Cursor cursor = null;
+        try {
+            writer.beginObject();
+            writer.name("expansion");
+            gson.toJson(expansion, Expansion.class, writer);
+            writer.name("cards").beginArray();
+            cursor = database.query(CardDbAdapter.DATABASE_TABLE_CARDS,
+                    CardDbAdapter.ALL_CARD_DATA_KEYS.toArray(new String[0]),
+                    CardDbAdapter.KEY_SET + " = ?", new String[]{setCode},
+                    null, null, CardDbAdapter.KEY_ID);
+            while (cursor.moveToNext()) {
+                String subtype = cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_SUBTYPE));
+                writer.beginObject();
+                writer.name("name").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_NAME)));
+                writer.name("manaCost").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_MANACOST)));
+                writer.name("cmc").value(cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_CMC)));
+                writer.name("type").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_SUPERTYPE)) +
+                        (subtype.isEmpty() ? "" : " - " + subtype));
+                writer.name("text").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_ABILITY)));
+                writer.name("flavor").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_FLAVOR)));
+                writer.name("expansion").value(setCode);
+                writer.name("rarity").value(String.valueOf((char) cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_RARITY))));
+                writer.name("number").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_NUMBER)));
+                writer.name("artist").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_ARTIST)));
+                writer.name("color").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_COLOR)));
+                writer.name("colorIdentity").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_COLOR_IDENTITY)));
+                writer.name("multiverseId").value(cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_MULTIVERSEID)));
+                writer.name("power").value(cursor.getFloat(cursor.getColumnIndex(CardDbAdapter.KEY_POWER)));
+                writer.name("toughness").value(cursor.getFloat(cursor.getColumnIndex(CardDbAdapter.KEY_TOUGHNESS)));
+                writer.name("loyalty").value(cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_LOYALTY)));
+                writer.name("watermark").value(cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_WATERMARK)));
+                writer.name("foreignPrintings");
+                gson.toJson(ForeignPrintings.getPrintings(cursor.getLong(cursor.getColumnIndex(CardDbAdapter.KEY_ID)),
+                        database), ArrayList.class, writer);
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            writer.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param file A file to compress
+     * @return The file, gzipped
+     * @throws IOException If the file can't be read
+     */
+    private static byte[] gzip(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(file);
+            out = new GZIPOutputStream(bytes);
+            copy(in, out);
+        } finally {
+            if (null != in) {
+                in.close();
+            }
+            if (null != out) {
+                out.close();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param gzipped Gzipped bytes
+     * @param file    The file to decompress them to. Anything already there is overwritten
+     * @throws IOException If the file can't be written
+     */
+    private static void gunzip(byte[] gzipped, File file) throws IOException {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new GZIPInputStream(new ByteArrayInputStream(gzipped));
+            out = new FileOutputStream(file);
+            copy(in, out);
+        } finally {
+            if (null != in) {
+                in.close();
+            }
+            if (null != out) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @param in  A stream to read until it ends
+     * @param out A stream to write everything read to
+     * @throws IOException If either stream fails
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        while ((length = in.read(buffer)) > 0) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Compare the text columns against CardDictionary: the bytes each takes, building the search
+     * screen's lists of values, and searching by each column. Both runs make the same searches,
+     * in the same order
+     *
+     * @param context A context to open the database with
+     */
+    private void benchmarkDictionary(Context context) {
+        final int queriesPerColumn = 30;
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabase(context, false, handle);
+            if (!CardDictionary.isBuilt(database)) {
+                Log.d(CDBB_TAG, "Card dictionary isn't built");
+                return;
+            }
+
+            long cards = DatabaseUtils.queryNumEntries(database, CardDbAdapter.DATABASE_TABLE_CARDS);
+            String[][] vocabularies = new String[DICTIONARY_COLUMNS.length][];
+            for (int column = 0; column < DICTIONARY_COLUMNS.length; column++) {
+                String textBytes = DatabaseUtils.stringForQuery(database, "SELECT TOTAL(LENGTH(" +
+                        DICTIONARY_COLUMNS[column] + ")) FROM " + CardDbAdapter.DATABASE_TABLE_CARDS, null);
+                String values = DatabaseUtils.stringForQuery(database, "SELECT COUNT(*) || ' values, ' ||" +
+                        " TOTAL(LENGTH(value)) FROM card_dictionary WHERE column_name = ?",
+                        new String[]{DICTIONARY_COLUMNS[column]});
+                Log.d(CDBB_TAG, "dictionary, " + DICTIONARY_COLUMNS[column] + ": " + textBytes +
+                        " bytes of text in " + cards + " cards, " + values + " bytes in the dictionary");
+
+                for (boolean isEncoded : new boolean[]{false, true}) {
+                    CardDictionary.setEnabled(isEncoded);
+                    long best = Long.MAX_VALUE;
+                    for (int rep = 0; rep < REPETITIONS; rep++) {
+                        long start = System.nanoTime();
+                        vocabularies[column] = CardDbAdapter.getUniqueColumnArray(DICTIONARY_COLUMNS[column],
+                                DICTIONARY_COLUMNS_SPLIT[column], database);
+                        best = Math.min(best, System.nanoTime() - start);
+                    }
+                    Log.d(CDBB_TAG, "dictionary, " + DICTIONARY_COLUMNS[column] + " values from " +
+                            (isEncoded ? "the dictionary: " : "every card: ") + toMs(best) + "ms, " +
+                            vocabularies[column].length + " values");
+                }
+            }
+
+            long seed = mRandom.nextLong();
+            for (boolean isEncoded : new boolean[]{false, true}) {
+                CardDictionary.setEnabled(isEncoded);
+                Random random = new Random(seed);
+                for (int column = 0; column < DICTIONARY_COLUMNS.length; column++) {
+                    if (0 == vocabularies[column].length) {
+                        continue;
+                    }
+                    long[] nanos = new long[queriesPerColumn];
+                    long rows = 0;
+                    for (int i = 0; i < queriesPerColumn; i++) {
+                        String value = vocabularies[column][random.nextInt(vocabularies[column].length)];
+                        SearchCriteria criteria = new SearchCriteria();
+                        switch (column) {
+                            case 0:
+                                /* Search for part of an artist's name, like people do */
+                                criteria.artist = value.split(" ")[0];
+                                break;
+                            case 1:
+                                criteria.superTypes = new ArrayList<>(Arrays.asList(value));
+                                break;
+                            case 2:
+                                criteria.subTypes = new ArrayList<>(Arrays.asList(value));
+                                break;
+                            default:
+                                criteria.watermark = value;
+                                break;
+                        }
+                        long start = System.nanoTime();
+                        rows += readAllRows(CardDbAdapter.Search(criteria, true,
+                                SEARCH_RETURN_TYPES, true, CardDbAdapter.KEY_NAME, database));
+                        nanos[i] = System.nanoTime() - start;
+                    }
+                    Log.d(CDBB_TAG, "dictionary, search by " + DICTIONARY_COLUMNS[column] + " " +
+                            (isEncoded ? "with" : "without") + " the dictionary: " + describeLatency(nanos) +
+                            ", " + (rows / queriesPerColumn) + " rows per query");
+                }
+            }
+        } catch (SQLiteException | FamiliarDbException e) {
+            Log.d(CDBB_TAG, "dictionary failed: " + e.getMessage());
+        } finally {
+            CardDictionary.setEnabled(true);
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Build one of the searches compared by benchmarkSearchPlanner()
+     *
+     * @param kind      The index of the kind of search in PLANNED_SEARCHES
+     * @param iteration How many searches of this kind have been built before, to rotate through
+     *                  fixed inputs
+     * @param allCards  The printings to pick names and sets from
+     * @param formats   The names of every format
+     * @param random    The source of randomness
+     * @return The criteria to search with
+     */
+    private static SearchCriteria buildPlannerSearch(int kind, int iteration,
+                                                     ArrayList<MtgCard> allCards,
+                                                     ArrayList<String> formats, Random random) {
+        MtgCard card = allCards.get(random.nextInt(allCards.size()));
+        SearchCriteria criteria = new SearchCriteria();
+        switch (kind) {
+            case 0: {
+                criteria.name = card.getName().split(" ")[0];
+                break;
+            }
+            case 1: {
+                criteria.superTypes = new ArrayList<>(1);
+                criteria.superTypes.add("Creature");
+                criteria.text = SEARCH_TEXTS[iteration % SEARCH_TEXTS.length];
+                break;
+            }
+            case 2: {
+                criteria.rarity = "M";
+                /* Select one color, and exclude the others */
+                char color = "wubrg".charAt(iteration % 5);
+                criteria.color = "wubrgl".replace(color, Character.toUpperCase(color));
+                criteria.colorLogic = 3;
+                break;
+            }
+            case 3: {
+                if (!formats.isEmpty()) {
+                    criteria.format = formats.get(iteration % formats.size());
+                }
+                criteria.cmc = iteration % 8;
+                criteria.cmcLogic = "=";
+                break;
+            }
+            case 4: {
+                criteria.sets = new ArrayList<>(1);
+                criteria.sets.add(card.getExpansion());
+                criteria.text = SEARCH_TEXTS[iteration % SEARCH_TEXTS.length];
+                break;
+            }
+            default: {
+                criteria.name = card.getName().split(" ")[0];
+                criteria.setLogic = CardDbAdapter.FIRST_PRINTING;
+                break;
+            }
+        }
+        return criteria;
+    }
+
+    /**
+     * @param database The database to query
+     * @return The name of every format
+     * @throws FamiliarDbException If the formats couldn't be read
+     */
+    private static ArrayList<String> getFormats(SQLiteDatabase database) throws FamiliarDbException {
+        ArrayList<String> formats = new ArrayList<>();
+        Cursor formatCursor = CardDbAdapter.fetchAllFormats(database);
+        try {
+            int nameColumn = formatCursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+            while (formatCursor.moveToNext()) {
+                formats.add(formatCursor.getString(nameColumn));
+            }
+        } finally {
+            formatCursor.close();
+        }
+        return formats;
+    }
+
+    /**
+     * @param cards A list of cards
+     * @return The names of the cards, in the same order
+     */
+    private static ArrayList<String> getNames(ArrayList<MtgCard> cards) {
+        ArrayList<String> names = new ArrayList<>(cards.size());
+        for (MtgCard card : cards) {
+            names.add(card.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Make random typos in a string. Each typo is a substitution, deletion, insertion, or swap of
+     * adjacent letters
+     *
+     * @param word  The string to misspell
+     * @param typos How many typos to make
+     * @return The misspelled string
+     */
+    private String misspell(String word, int typos) {
+        StringBuilder misspelled = new StringBuilder(word);
+        for (int i = 0; i < typos && misspelled.length() > 1; i++) {
+            int position = mRandom.nextInt(misspelled.length() - 1);
+            char letter = (char) ('a' + mRandom.nextInt(26));
+            switch (mRandom.nextInt(4)) {
+                case 0:
+                    misspelled.setCharAt(position, letter);
+                    break;
+                case 1:
+                    misspelled.deleteCharAt(position);
+                    break;
+                case 2:
+                    misspelled.insert(position, letter);
+                    break;
+                default:
+                    char swapped = misspelled.charAt(position);
+                    misspelled.setCharAt(position, misspelled.charAt(position + 1));
+                    misspelled.setCharAt(position + 1, swapped);
+                    break;
+            }
+        }
+        return misspelled.toString();
+    }
+
+    /**
+     * @param nanos Durations in nanoseconds. This array is sorted
+     * @return The mean and the 50th, 95th and 99th percentiles of the durations in milliseconds
+     */
+    private static String describeLatency(long[] nanos) {
+        if (0 == nanos.length) {
+            return "no queries";
+        }
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return "mean " + toMs(total / nanos.length) + "ms, p50 " +
+                toMs(nanos[(int) (nanos.length * 0.50)]) + "ms, p95 " +
+                toMs(nanos[(int) (nanos.length * 0.95)]) + "ms, p99 " +
+                toMs(nanos[(int) (nanos.length * 0.99)]) + "ms";
+    }
+
+    /**
+     * Build the query CardDbAdapter.fetchCards() used to run, one OR term per id over every column
+     *
+     * @param ids The ids to fetch
+     * @return The SQL for the query
+     */
+    private static String buildLegacyIdQuery(long[] ids) {
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT ");
+        boolean first = true;
+        for (String field : CardDbAdapter.ALL_CARD_DATA_KEYS) {
+            if (!first) {
+                sql.append(", ");
+            }
+            first = false;
+            sql.append(field);
+        }
+        sql.append(" FROM " + CardDbAdapter.DATABASE_TABLE_CARDS + " WHERE ");
+        first = true;
+        for (long id : ids) {
+            if (!first) {
+                sql.append(" OR ");
+            }
+            first = false;
+            sql.append(CardDbAdapter.KEY_ID + "=").append(id);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Read every column of every row in a cursor, then close it
+     *
+     * @param cursor The cursor to read
+     * @return The number of rows read
+     */
+    private static int readAllRows(Cursor cursor) {
+        if (null == cursor) {
+            return 0;
+        }
+        try {
+            int columns = cursor.getColumnCount();
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    cursor.getString(i);
+                }
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param template A list of cards to copy
+     * @return A new list of new cards with the same names and sets
+     */
+    private static ArrayList<MtgCard> copyList(ArrayList<MtgCard> template) {
+        ArrayList<MtgCard> copy = new ArrayList<>(template.size());
+        for (MtgCard card : template) {
+            copy.add(new MtgCard(card.getName(), card.getExpansion(), false, 1, false));
+        }
+        return copy;
+    }
+
+    /**
+     * @param nanos A duration in nanoseconds
+     * @return The duration in milliseconds
+     */
+    private static double toMs(long nanos) {
+        return nanos / 1000000.0;
+    }
+}
@@ -0,0 +1,115 @@
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.filters.SmallTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Replace the rules inside a transaction like DatabaseManager's, and make sure rules which stop
+ * partway through leave the old ones in place
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class RulesWriterTest {
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() throws FamiliarDbException {
+        mDatabase = SQLiteDatabase.create(null);
+        beginTransaction();
+        RulesWriter writer = new RulesWriter(mDatabase);
+        try {
+            writer.insertRule(1, -1, null, "Old Rules", -1);
+            writer.insertGlossaryTerm("Old Term", "An old definition.");
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        commit();
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void finishedRulesReplaceOldOnes() throws FamiliarDbException {
+        beginTransaction();
+        RulesWriter writer = new RulesWriter(mDatabase);
+        try {
+            writer.insertRule(1, -1, null, "New Rules", -1);
+            writer.insertRule(1, 0, "1a", "A new rule.", 0);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+        commit();
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(mDatabase, CardDbAdapter.DATABASE_TABLE_RULES));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDatabase, CardDbAdapter.DATABASE_TABLE_GLOSSARY));
+    }
+
+    @Test
+    public void unfinishedRulesKeepOldOnesAndTheTransaction() throws FamiliarDbException {
+        beginTransaction();
+        RulesWriter writer = new RulesWriter(mDatabase);
+        try {
+            writer.insertRule(1, -1, null, "New Rules", -1);
+            writer.insertGlossaryTerm("New Term", "A new definition.");
+            /* The rules were truncated, so they're never finished */
+        } finally {
+            writer.close();
+        }
+
+        /* DatabaseManager still closes its transaction, which is rolled back instead of committed */
+        assertTrue(mDatabase.inTransaction());
+        commit();
+        assertFalse(mDatabase.inTransaction());
+
+        assertEquals("Old Rules", getOnlyRow(CardDbAdapter.DATABASE_TABLE_RULES, CardDbAdapter.KEY_RULE_TEXT));
+        assertEquals("Old Term", getOnlyRow(CardDbAdapter.DATABASE_TABLE_GLOSSARY, CardDbAdapter.KEY_TERM));
+    }
+
+    /**
+     * Start a transaction the same way DatabaseManager.openDatabase() does
+     */
+    private void beginTransaction() {
+        QueryLog.execSQL(mDatabase, "BEGIN EXCLUSIVE TRANSACTION");
+    }
+
+    /**
+     * Commit the transaction the same way DatabaseManager.closeDatabase() does
+     */
+    private void commit() {
+        QueryLog.execSQL(mDatabase, "COMMIT");
+    }
+
+    /**
+     * @param table  A table with one row
+     * @param column The column to read
+     * @return The row's value in the column
+     */
+    private String getOnlyRow(String table, String column) {
+        Cursor cursor = mDatabase.query(table, new String[]{column}, null, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
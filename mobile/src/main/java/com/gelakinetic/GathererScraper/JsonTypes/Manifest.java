@@ -33,6 +33,12 @@ public class Manifest {
         public String mURL;
         public String mCode;
         public String mDigest;
+        /* The hex SHA-256 of the file at mURL, or null to not check it */
+        public String mSha256;
+        /* A gzipped SetPatchDatabase of the same set, or null if there isn't one */
+        public String mDatabaseURL;
+        /* The hex SHA-256 of the file at mDatabaseURL, or null to not check it */
+        public String mDatabaseSha256;
 
         @Override
         public int compareTo(@NonNull ManifestEntry o) {
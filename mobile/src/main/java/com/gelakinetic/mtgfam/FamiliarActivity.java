@@ -310,6 +310,22 @@ public class FamiliarActivity extends AppCompatActivity {
         return getHttpInputStream(url, logWriter, ctx, 0);
     }
 
+    /**
+     * Build the User-Agent which every request the app makes is sent with
+     *
+     * @param ctx A context to get the app's name and version with
+     * @return The app's name and version
+     */
+    public static String getUserAgent(Context ctx) {
+        String version = "";
+        try {
+            version = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            e.printStackTrace();
+        }
+        return ctx.getString(R.string.app_name) + "/" + version;
+    }
+
     /**
      * Open an inputStream to the HTML content at the given URL, making recursive calls for
      * redirection (HTTP 301, 302).
@@ -334,14 +350,7 @@ public class FamiliarActivity extends AppCompatActivity {
         /* Make the URL & connection objects, follow redirects, timeout after 5s */
         HttpURLConnection.setFollowRedirects(true);
         HttpURLConnection connection = (HttpURLConnection) (url).openConnection();
-        String version = "";
-        try {
-            version = ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).versionName;
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        connection.setRequestProperty("User-Agent", ctx.getString(R.string.app_name) + "/" + version);
+        connection.setRequestProperty("User-Agent", getUserAgent(ctx));
         connection.setConnectTimeout(5000);
         connection.setInstanceFollowRedirects(true);
 
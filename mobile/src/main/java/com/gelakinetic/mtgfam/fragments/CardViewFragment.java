@@ -86,6 +86,7 @@ import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
+import com.gelakinetic.mtgfam.helpers.database.ForeignPrintings;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 
 import org.apache.commons.io.IOUtils;
@@ -513,18 +514,6 @@ public class CardViewFragment extends FamiliarFragment {
                 mColorIndicatorLayout.setVisibility(View.GONE);
             }
 
-            String allLanguageKeys[][] = {
-                    {Language.Chinese_Traditional, CardDbAdapter.KEY_NAME_CHINESE_TRADITIONAL, CardDbAdapter.KEY_MULTIVERSEID_CHINESE_TRADITIONAL},
-                    {Language.Chinese_Simplified, CardDbAdapter.KEY_NAME_CHINESE_SIMPLIFIED, CardDbAdapter.KEY_MULTIVERSEID_CHINESE_SIMPLIFIED},
-                    {Language.French, CardDbAdapter.KEY_NAME_FRENCH, CardDbAdapter.KEY_MULTIVERSEID_FRENCH},
-                    {Language.German, CardDbAdapter.KEY_NAME_GERMAN, CardDbAdapter.KEY_MULTIVERSEID_GERMAN},
-                    {Language.Italian, CardDbAdapter.KEY_NAME_ITALIAN, CardDbAdapter.KEY_MULTIVERSEID_ITALIAN},
-                    {Language.Japanese, CardDbAdapter.KEY_NAME_JAPANESE, CardDbAdapter.KEY_MULTIVERSEID_JAPANESE},
-                    {Language.Portuguese_Brazil, CardDbAdapter.KEY_NAME_PORTUGUESE_BRAZIL, CardDbAdapter.KEY_MULTIVERSEID_PORTUGUESE_BRAZIL},
-                    {Language.Russian, CardDbAdapter.KEY_NAME_RUSSIAN, CardDbAdapter.KEY_MULTIVERSEID_RUSSIAN},
-                    {Language.Spanish, CardDbAdapter.KEY_NAME_SPANISH, CardDbAdapter.KEY_MULTIVERSEID_SPANISH},
-                    {Language.Korean, CardDbAdapter.KEY_NAME_KOREAN, CardDbAdapter.KEY_MULTIVERSEID_KOREAN}};
-
             // Clear the translations first
             mCard.getForeignPrintings().clear();
 
@@ -533,14 +522,7 @@ public class CardViewFragment extends FamiliarFragment {
             mCard.getForeignPrintings().add(englishPrinting);
 
             // Add all the others
-            for (String lang[] : allLanguageKeys) {
-                Card.ForeignPrinting fp = new Card.ForeignPrinting(
-                        cCardById.getString(cCardById.getColumnIndex(lang[1])), lang[0],
-                        cCardById.getInt(cCardById.getColumnIndex(lang[2])));
-                if (fp.getName() != null && !fp.getName().isEmpty()) {
-                    mCard.getForeignPrintings().add(fp);
-                }
-            }
+            mCard.getForeignPrintings().addAll(ForeignPrintings.getPrintings(id, database));
 
             mIsOnlineOnly = CardDbAdapter.isOnlineOnly(mCard.getExpansion(), database);
 
@@ -22,6 +22,7 @@ package com.gelakinetic.mtgfam.fragments;
 import android.support.annotation.IdRes;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.MenuRes;
+import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
 import android.support.v7.view.ActionMode;
 import android.support.v7.widget.LinearLayoutManager;
@@ -48,9 +49,13 @@ import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.gelakinetic.mtgfam.helpers.SnackbarWrapper;
 import com.gelakinetic.mtgfam.helpers.WishlistHelpers;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceFetcher;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * This class is for extension by any Fragment that has a custom list of cards at it's base that
@@ -74,6 +79,26 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
     private final ArrayList<CardDataAdapter> mCardDataAdapters = new ArrayList<>();
     private int mActionMenuResId;
 
+    /* Price load prioritization */
+    private final ArrayList<RecyclerView> mRecyclerViews = new ArrayList<>();
+    private final HashMap<String, Integer> mPriceLevels = new HashMap<>();
+    private final ArrayList<MtgCard> mCancelledPriceLoads = new ArrayList<>();
+    private int[] mLastVisibleRanges = new int[0];
+    private final RecyclerView.OnScrollListener mPricePrioritizer = new RecyclerView.OnScrollListener() {
+        /**
+         * Called when a list is scrolled, and after it's laid out. Reprioritize price loads for
+         * whatever is on screen now
+         *
+         * @param recyclerView The RecyclerView which scrolled
+         * @param dx           The amount of horizontal scroll
+         * @param dy           The amount of vertical scroll
+         */
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            prioritizePriceLoads();
+        }
+    };
+
     /**
      * Initializes common members. Must be called in onCreate
      *
@@ -114,10 +139,16 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
 
         // Set up the recycler views and adapters
         mCardDataAdapters.clear();
+        mRecyclerViews.clear();
+        mLastVisibleRanges = new int[recyclerViewIds.length * 2];
+        Arrays.fill(mLastVisibleRanges, Integer.MIN_VALUE);
+        mCancelledPriceLoads.clear();
         for (int i = 0; i < recyclerViewIds.length; i++) {
             RecyclerView recyclerView = fragmentView.findViewById(recyclerViewIds[i]);
             recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
             recyclerView.setAdapter(adapters[i]);
+            recyclerView.addOnScrollListener(mPricePrioritizer);
+            mRecyclerViews.add(recyclerView);
 
             ItemTouchHelper.SimpleCallback callback =
                     new CardDataTouchHelper(adapters[i]);
@@ -446,7 +477,94 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
     }
 
     /**
-     * Load the price for a given card. This handles all the spice stuff
+     * Reprioritize queued price loads so that rows on screen are served first, followed by rows
+     * within the prefetch distance of the screen. If the total price isn't shown, loads for rows
+     * further away are cancelled, and requested again when they come back into range
+     */
+    private void prioritizePriceLoads() {
+        /* Only do work if a visible range actually changed */
+        boolean changed = false;
+        for (int i = 0; i < mRecyclerViews.size(); i++) {
+            LinearLayoutManager manager = (LinearLayoutManager) mRecyclerViews.get(i).getLayoutManager();
+            if (null == manager) {
+                continue;
+            }
+            int first = manager.findFirstVisibleItemPosition();
+            int last = manager.findLastVisibleItemPosition();
+            if (mLastVisibleRanges[2 * i] != first || mLastVisibleRanges[2 * i + 1] != last) {
+                mLastVisibleRanges[2 * i] = first;
+                mLastVisibleRanges[2 * i + 1] = last;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+
+        /* Figure out the priority for every card name in range */
+        int prefetchDistance = PreferenceAdapter.getPricePrefetchDistance(getContext());
+        mPriceLevels.clear();
+        for (int i = 0; i < mRecyclerViews.size(); i++) {
+            int first = mLastVisibleRanges[2 * i];
+            int last = mLastVisibleRanges[2 * i + 1];
+            if (RecyclerView.NO_POSITION == first) {
+                continue;
+            }
+            CardDataAdapter adapter = mCardDataAdapters.get(i);
+            int end = Math.min(adapter.getItemCount() - 1, last + prefetchDistance);
+            for (int position = Math.max(0, first - prefetchDistance); position <= end; position++) {
+                MtgCard item = adapter.getItem(position);
+                if (null == item || null == item.getName()) {
+                    continue;
+                }
+                int level = (position >= first && position <= last) ?
+                        MarketPriceFetcher.PRIORITY_VISIBLE : MarketPriceFetcher.PRIORITY_PREFETCH;
+                Integer existing = mPriceLevels.get(item.getName());
+                if (null == existing || level < existing) {
+                    mPriceLevels.put(item.getName(), level);
+                }
+            }
+        }
+
+        /* Request loads which were cancelled earlier, if they're back in range */
+        ArrayList<MtgCard> backInRange = new ArrayList<>();
+        Iterator<MtgCard> iterator = mCancelledPriceLoads.iterator();
+        while (iterator.hasNext()) {
+            MtgCard card = iterator.next();
+            if (mPriceLevels.containsKey(card.getName())) {
+                iterator.remove();
+                backInRange.add(card);
+            }
+        }
+        for (MtgCard card : backInRange) {
+            loadPrice(card);
+        }
+
+        /* If every price is needed for the total, demote loads which are far away, otherwise
+         * cancel them */
+        mCancelledPriceLoads.addAll(getFamiliarActivity().mMarketPriceStore
+                .prioritizeRequests(mPriceLevels, !shouldShowPrice()));
+    }
+
+    /**
+     * Cancel any price loads which haven't started yet for the given list item, i.e. when it's
+     * deleted for good
+     *
+     * @param item The list item to cancel price loads for
+     */
+    public void cancelPriceLoads(MtgCard item) {
+        getFamiliarActivity().mMarketPriceStore.cancelRequests(item);
+        Iterator<MtgCard> iterator = mCancelledPriceLoads.iterator();
+        while (iterator.hasNext()) {
+            if (MarketPriceFetcher.isRequestFor(iterator.next(), item)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Load the price for a given card. This handles all the spice stuff. The load is prioritized
+     * by how close the card's row is to the screen
      *
      * @param data A card to load price info for
      */
@@ -499,13 +617,26 @@ public abstract class FamiliarListFragment extends FamiliarFragment {
                             if (FamiliarListFragment.this.isAdded()) {
                                 onAllPriceLookupsFinished();
                             }
-                        });
+                        },
+                        getPriceLoadPriority(data));
             } catch (java.lang.InstantiationException e) {
                 onCardPriceLookupFailure(data, e);
             }
         }
     }
 
+    /**
+     * @param data A card to load price info for
+     * @return The priority for loading this card's price, based on the last known visible rows
+     */
+    private int getPriceLoadPriority(MtgCard data) {
+        Integer level = mPriceLevels.get(data.getName());
+        if (null == level) {
+            return MarketPriceFetcher.PRIORITY_BACKGROUND;
+        }
+        return level;
+    }
+
     /**
      * Called when a price load fails. Should contain fragment-specific code
      *
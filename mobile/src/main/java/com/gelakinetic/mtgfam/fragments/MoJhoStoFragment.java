@@ -19,8 +19,6 @@
 
 package com.gelakinetic.mtgfam.fragments;
 
-import android.database.Cursor;
-import android.database.CursorIndexOutOfBoundsException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
@@ -38,13 +36,11 @@ import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.fragments.dialogs.FamiliarDialogFragment;
 import com.gelakinetic.mtgfam.fragments.dialogs.MoJhoStoDialogFragment;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
-import com.gelakinetic.mtgfam.helpers.SearchCriteria;
-import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
+import com.gelakinetic.mtgfam.helpers.database.MoJhoStoIndex;
 
-import java.util.Collections;
 import java.util.Random;
 
 /**
@@ -53,12 +49,6 @@ import java.util.Random;
  */
 public class MoJhoStoFragment extends FamiliarFragment {
 
-    /* Type constants */
-    private static final String EQUIPMENT = "equipment";
-    private static final String CREATURE = "creature";
-    private static final String INSTANT = "instant";
-    private static final String SORCERY = "sorcery";
-
     /* UI Elements */
     private Spinner mMomirCmcChoice;
     private Spinner mStonehewerCmcChoice;
@@ -98,7 +88,7 @@ public class MoJhoStoFragment extends FamiliarFragment {
         myFragmentView.findViewById(R.id.momir_button).setOnClickListener(v -> {
             try {
                 int cmc = Integer.parseInt((String) mMomirCmcChoice.getSelectedItem());
-                getOneSpell(CREATURE, cmc);
+                getOneSpell(MoJhoStoIndex.Bucket.CREATURE, cmc);
             } catch (NumberFormatException e) {
                 /* eat it */
             }
@@ -107,15 +97,15 @@ public class MoJhoStoFragment extends FamiliarFragment {
         myFragmentView.findViewById(R.id.stonehewer_button).setOnClickListener(v -> {
             try {
                 int cmc = Integer.parseInt((String) mStonehewerCmcChoice.getSelectedItem());
-                getOneSpell(EQUIPMENT, cmc);
+                getOneSpell(MoJhoStoIndex.Bucket.EQUIPMENT, cmc);
             } catch (NumberFormatException e) {
                 /* eat it */
             }
         });
 
-        myFragmentView.findViewById(R.id.jhorira_instant_button).setOnClickListener(v -> getThreeSpells(INSTANT));
+        myFragmentView.findViewById(R.id.jhorira_instant_button).setOnClickListener(v -> getThreeSpells(MoJhoStoIndex.Bucket.INSTANT));
 
-        myFragmentView.findViewById(R.id.jhorira_sorcery_button).setOnClickListener(v -> getThreeSpells(SORCERY));
+        myFragmentView.findViewById(R.id.jhorira_sorcery_button).setOnClickListener(v -> getThreeSpells(MoJhoStoIndex.Bucket.SORCERY));
 
         /* Save the spinners to pull out the CMCs later */
         mMomirCmcChoice = myFragmentView.findViewById(R.id.momir_spinner);
@@ -191,105 +181,63 @@ public class MoJhoStoFragment extends FamiliarFragment {
     }
 
     /**
-     * Convenience method to fetch a random card of the given supertype and cmc, and start a CardViewPagerFragment to
+     * Convenience method to fetch a random card of the given bucket and cmc, and start a CardViewPagerFragment to
      * display said card
      *
-     * @param type The supertype of the card to randomly fetch
-     * @param cmc  The converted mana cost of the card to randomly fetch
+     * @param bucket The bucket of the card to randomly fetch
+     * @param cmc    The converted mana cost of the card to randomly fetch
      */
-    private void getOneSpell(String type, int cmc) {
-        Cursor permanents = null;
+    private void getOneSpell(MoJhoStoIndex.Bucket bucket, int cmc) {
         FamiliarDbHandle handle = new FamiliarDbHandle();
         try {
-            SearchCriteria criteria = new SearchCriteria();
             SQLiteDatabase database = DatabaseManager.openDatabase(getActivity(), false, handle);
-            if (type.equals(EQUIPMENT)) {
-                criteria.cmcLogic = "<=";
-                criteria.subTypes = Collections.singletonList(type);
-            } else {
-                criteria.cmcLogic = "=";
-                criteria.superTypes = Collections.singletonList(type);
-            }
-            String[] returnTypes = new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME};
-            criteria.cmc = cmc;
-            criteria.moJhoStoFilter = true;
-            permanents = CardDbAdapter.Search(criteria, false, returnTypes, true, null, database);
+            long[] ids = MoJhoStoIndex.pick(bucket, cmc, 1, mRandom, database);
 
-            if (permanents == null) {
-                throw new FamiliarDbException(new Exception("permanents failure"));
-            }
-
-            if (permanents.getCount() == 0) {
+            if (ids.length == 0) {
                 return;
             }
-            int pos = mRandom.nextInt(permanents.getCount());
-            permanents.moveToPosition(pos);
 
             /* add a fragment */
             Bundle args = new Bundle();
-            args.putLongArray(CardViewPagerFragment.CARD_ID_ARRAY, new long[]{permanents.getLong(permanents.getColumnIndex(CardDbAdapter.KEY_ID))});
+            args.putLongArray(CardViewPagerFragment.CARD_ID_ARRAY, new long[]{ids[0]});
             args.putInt(CardViewPagerFragment.STARTING_CARD_POSITION, 0);
             CardViewPagerFragment cvpFrag = new CardViewPagerFragment();
             startNewFragment(cvpFrag, args);
-        } catch (SQLiteException | FamiliarDbException | CursorIndexOutOfBoundsException e) {
+        } catch (SQLiteException | FamiliarDbException e) {
             handleFamiliarDbException(true);
         } finally {
-            if (null != permanents) {
-                permanents.close();
-            }
             DatabaseManager.closeDatabase(getActivity(), handle);
         }
     }
 
     /**
-     * Convenience method to fetch three random cards of the given supertype, and start a ResultListFragment to
+     * Convenience method to fetch three random cards of the given bucket, and start a ResultListFragment to
      * display said cards
      *
-     * @param type The supertype of the card to randomly fetch
+     * @param bucket The bucket of the cards to randomly fetch
      */
-    private void getThreeSpells(String type) {
-        Cursor spells = null;
+    private void getThreeSpells(MoJhoStoIndex.Bucket bucket) {
         FamiliarDbHandle handle = new FamiliarDbHandle();
         try {
             SQLiteDatabase database = DatabaseManager.openDatabase(getActivity(), false, handle);
-            String[] returnTypes = new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME};
-            SearchCriteria criteria = new SearchCriteria();
-            criteria.superTypes = Collections.singletonList(type);
-            spells = CardDbAdapter.Search(criteria, false, returnTypes, true, null, database);
+            /* Get 3 random, distinct cards */
+            long[] ids = MoJhoStoIndex.pick(bucket, -1, 3, mRandom, database);
 
-            if (spells == null) {
-                throw new FamiliarDbException(new Exception("three spell failure"));
-            }
-            /* Get 3 random, distinct numbers */
-            int pos[] = new int[3];
-            pos[0] = mRandom.nextInt(spells.getCount());
-            pos[1] = mRandom.nextInt(spells.getCount());
-            while (pos[0] == pos[1]) {
-                pos[1] = mRandom.nextInt(spells.getCount());
-            }
-            pos[2] = mRandom.nextInt(spells.getCount());
-            while (pos[0] == pos[2] || pos[1] == pos[2]) {
-                pos[2] = mRandom.nextInt(spells.getCount());
+            if (ids.length < 3) {
+                return;
             }
 
             Bundle args = new Bundle();
-
-            spells.moveToPosition(pos[0]);
-            args.putLong(ResultListFragment.CARD_ID_0, spells.getLong(spells.getColumnIndex(CardDbAdapter.KEY_ID)));
-            spells.moveToPosition(pos[1]);
-            args.putLong(ResultListFragment.CARD_ID_1, spells.getLong(spells.getColumnIndex(CardDbAdapter.KEY_ID)));
-            spells.moveToPosition(pos[2]);
-            args.putLong(ResultListFragment.CARD_ID_2, spells.getLong(spells.getColumnIndex(CardDbAdapter.KEY_ID)));
+            args.putLong(ResultListFragment.CARD_ID_0, ids[0]);
+            args.putLong(ResultListFragment.CARD_ID_1, ids[1]);
+            args.putLong(ResultListFragment.CARD_ID_2, ids[2]);
 
             /* add a fragment */
             ResultListFragment rlFrag = new ResultListFragment();
             startNewFragment(rlFrag, args);
-        } catch (SQLiteException | FamiliarDbException | CursorIndexOutOfBoundsException e) {
+        } catch (SQLiteException | FamiliarDbException e) {
             handleFamiliarDbException(true);
         } finally {
-            if (null != spells) {
-                spells.close();
-            }
             DatabaseManager.closeDatabase(getActivity(), handle);
         }
     }
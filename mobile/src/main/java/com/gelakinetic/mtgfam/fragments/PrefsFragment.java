@@ -27,6 +27,7 @@ import android.os.Bundle;
 import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
+import com.gelakinetic.mtgfam.helpers.database.QueryLog;
 import com.github.machinarius.preferencefragment.PreferenceFragment;
 
 import java.util.Locale;
@@ -61,6 +62,14 @@ public class PrefsFragment extends PreferenceFragment {
         mOldCacheVal = PreferenceAdapter.getImageCacheSize(getContext());
         /* Load the preferences from an XML resource */
         addPreferencesFromResource(R.xml.preferences);
+
+        /* Let users attach the query log to bug reports */
+        findPreference(getString(R.string.key_sendQueryLog)).setOnPreferenceClickListener(preference -> {
+            if (null != getActivity()) {
+                QueryLog.share(getActivity());
+            }
+            return true;
+        });
     }
 
     @Override
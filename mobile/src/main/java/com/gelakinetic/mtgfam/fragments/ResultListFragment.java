@@ -48,6 +48,7 @@ import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
+import com.gelakinetic.mtgfam.helpers.database.FuzzyNameIndex;
 
 import java.util.ArrayList;
 import java.util.Random;
@@ -64,6 +65,11 @@ public class ResultListFragment extends FamiliarFragment {
     /* Saved instance state bundle keys */
     private static final String CURSOR_POSITION_OFFSET = "cur_pos";
     private static final String CURSOR_POSITION = "pos_off";
+    /* All the things we may want to display */
+    private static final String[] RETURN_TYPES = new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_SET,
+            CardDbAdapter.KEY_RARITY, CardDbAdapter.KEY_MANACOST, CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUBTYPE,
+            CardDbAdapter.KEY_ABILITY, CardDbAdapter.KEY_POWER, CardDbAdapter.KEY_TOUGHNESS, CardDbAdapter.KEY_LOYALTY,
+            CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CMC, CardDbAdapter.KEY_COLOR};
     /* Static integers preserve list position during the fragment's lifecycle */
     private int mCursorPosition;
     private int mCursorPositionOffset;
@@ -72,6 +78,7 @@ public class ResultListFragment extends FamiliarFragment {
     private ListView mListView;
     private SQLiteDatabase mDatabase;
     private final FamiliarDbHandle mDbHandle = new FamiliarDbHandle();
+    private String mSearchedName = null;
 
     /**
      * When the fragment is created, open the database and search for whatever.
@@ -250,8 +257,14 @@ public class ResultListFragment extends FamiliarFragment {
             }
         } else if (this.isAdded()) {
             if (mCursor == null || mCursor.getCount() == 0) {
-                SnackbarWrapper.makeAndShowText(this.getActivity(), R.string.search_toast_no_results, SnackbarWrapper.LENGTH_SHORT
-                );
+                String suggestion = getNameSuggestion();
+                if (null != suggestion) {
+                    SnackbarWrapper.makeAndShowText(this.getActivity(), getString(R.string.search_toast_did_you_mean, suggestion),
+                            SnackbarWrapper.LENGTH_LONG);
+                } else {
+                    SnackbarWrapper.makeAndShowText(this.getActivity(), R.string.search_toast_no_results, SnackbarWrapper.LENGTH_SHORT
+                    );
+                }
                 if (!getActivity().isTaskRoot()) {
                     getActivity().finish();
                 } else {
@@ -307,26 +320,36 @@ public class ResultListFragment extends FamiliarFragment {
         if ((id = args.getLong(CARD_ID_0)) != 0L) {
             long id1 = args.getLong(CARD_ID_1);
             long id2 = args.getLong(CARD_ID_2);
-            mCursor = CardDbAdapter.fetchCards(new long[]{id, id1, id2},
+            mCursor = CardDbAdapter.fetchCards(new long[]{id, id1, id2}, RETURN_TYPES,
                     PreferenceAdapter.getSearchSortOrder(getContext()), database);
         } else {
-
-            /* All the things we may want to display */
-            String[] returnTypes = new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_SET,
-                    CardDbAdapter.KEY_RARITY, CardDbAdapter.KEY_MANACOST, CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUBTYPE,
-                    CardDbAdapter.KEY_ABILITY, CardDbAdapter.KEY_POWER, CardDbAdapter.KEY_TOUGHNESS, CardDbAdapter.KEY_LOYALTY,
-                    CardDbAdapter.KEY_NUMBER, CardDbAdapter.KEY_CMC, CardDbAdapter.KEY_COLOR};
-
             SearchCriteria criteria = PreferenceAdapter.getSearchCriteria(getContext());
             assert criteria != null; /* Because Android Studio */
+            mSearchedName = criteria.name;
             boolean consolidate = (criteria.setLogic == CardDbAdapter.MOST_RECENT_PRINTING ||
                     criteria.setLogic == CardDbAdapter.FIRST_PRINTING);
 
-            mCursor = CardDbAdapter.Search(criteria, true, returnTypes, consolidate,
+            mCursor = CardDbAdapter.Search(criteria, true, RETURN_TYPES, consolidate,
                     PreferenceAdapter.getSearchSortOrder(getContext()), database);
         }
     }
 
+    /**
+     * If a search by name found nothing, find the card name the user probably meant
+     *
+     * @return The suggested card name, or null if there isn't one
+     */
+    private String getNameSuggestion() {
+        if (null == mSearchedName || mSearchedName.trim().isEmpty() || null == mDatabase) {
+            return null;
+        }
+        try {
+            return FuzzyNameIndex.didYouMean(mSearchedName, mDatabase);
+        } catch (SQLiteException | FamiliarDbException e) {
+            return null;
+        }
+    }
+
     /**
      * Be clean with the cursor!
      */
@@ -97,7 +97,7 @@ public abstract class CardDataAdapter<T extends MtgCard, VH extends CardDataView
      * @return The item at that position
      */
     @Nullable
-    protected T getItem(int position) {
+    public T getItem(int position) {
         if (position < items.size()) {
             return items.get(position);
         }
@@ -315,7 +315,10 @@ public abstract class CardDataAdapter<T extends MtgCard, VH extends CardDataView
      */
     public void finalizeDelete() {
         // Snackbar timed out or was dismissed by the user, so wipe the
-        // undoBuffer forever
+        // undoBuffer forever, and don't bother loading prices for anything in it
+        for (T item : undoBuffer) {
+            mFragment.cancelPriceLoads(item);
+        }
         undoBuffer.clear();
         onItemRemovedFinal();
     }
@@ -29,15 +29,19 @@ import android.database.sqlite.SQLiteException;
 import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardRowMapper;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
+import com.gelakinetic.mtgfam.helpers.database.SetCatalog;
 import com.gelakinetic.mtgfam.helpers.tcgp.MarketPriceInfo;
 
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Encapsulate all information about a magic card
@@ -177,9 +181,8 @@ public class MtgCard extends Card {
                 /* If we don't specify the set, and we are trying to find a foil card, choose the
                  * latest foil printing. If there are no eligible printings, select the latest */
                 if (isFoil) {
-                    while (!CardDbAdapter.canBeFoil(
-                            cardCursor.getString(cardCursor.getColumnIndex(CardDbAdapter.KEY_SET))
-                            , database)) {
+                    int setColumn = cardCursor.getColumnIndex(CardDbAdapter.KEY_SET);
+                    while (!canBeFoil(cardCursor.getString(setColumn), database)) {
                         if (cardCursor.isLast()) {
                             cardCursor.moveToFirst();
                             break;
@@ -201,7 +204,7 @@ public class MtgCard extends Card {
             initializeCardFromCursor(database, cardCursor);
 
             /* Override choice is the card can't be foil */
-            if (!CardDbAdapter.canBeFoil(this.mExpansion, database)) {
+            if (!canBeFoil(this.mExpansion, database)) {
                 this.mIsFoil = false;
             }
         } catch (SQLiteException | FamiliarDbException | NumberFormatException | CursorIndexOutOfBoundsException fde) {
@@ -214,6 +217,19 @@ public class MtgCard extends Card {
         }
     }
 
+    /**
+     * Helper function to determine if a set contains foil cards, using the SetCatalog
+     *
+     * @param setCode  The set code
+     * @param database The database to load the SetCatalog from, if necessary
+     * @return true if the set has foils, false otherwise
+     * @throws FamiliarDbException If the SetCatalog couldn't be loaded
+     */
+    private static boolean canBeFoil(String setCode, SQLiteDatabase database) throws FamiliarDbException {
+        SetCatalog.SetInfo setInfo = SetCatalog.getSet(setCode, database);
+        return null != setInfo && setInfo.mCanBeFoil;
+    }
+
     /**
      * Initialize all the database variables for this MtgCard from a Cursor
      *
@@ -223,39 +239,15 @@ public class MtgCard extends Card {
      */
     private void initializeCardFromCursor(SQLiteDatabase database, Cursor cardCursor) throws FamiliarDbException {
         /* Don't rely on the user's given name, get it from the DB just to be sure */
-        this.mName = cardCursor.getString(cardCursor.getColumnIndex(CardDbAdapter.KEY_NAME));
-        this.mExpansion = cardCursor.getString(cardCursor.getColumnIndex(CardDbAdapter.KEY_SET));
-        this.mSetName = CardDbAdapter.getSetNameFromCode(this.mExpansion, database);
-        this.mSetNameMtgi = CardDbAdapter.getCodeMtgi(this.mExpansion, database);
-        this.mNumber = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_NUMBER));
-        this.mCmc = cardCursor.getInt((cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_CMC)));
-        this.mColor = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_COLOR));
-        this.mType = CardDbAdapter.getTypeLine(cardCursor);
-        this.mRarity = (char) cardCursor.getInt(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_RARITY));
-        this.mManaCost = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_MANACOST));
-        this.mPower = cardCursor.getInt(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_POWER));
-        this.mToughness = cardCursor.getInt(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_TOUGHNESS));
-        this.mLoyalty = cardCursor.getInt(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_LOYALTY));
-        this.mText = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_ABILITY));
-        this.mFlavor = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_FLAVOR));
-        this.mMultiverseId = cardCursor.getInt(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_MULTIVERSEID));
-        this.mArtist = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_ARTIST));
-        this.mWatermark = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_WATERMARK));
-        this.mColorIdentity = cardCursor.getString(cardCursor
-                .getColumnIndex(CardDbAdapter.KEY_COLOR_IDENTITY));
+        setFromRow(new CardRowMapper(cardCursor, CardRowMapper.CARD_FIELDS).read(null));
+        SetCatalog.SetInfo setInfo = SetCatalog.getSet(this.mExpansion, database);
+        if (null != setInfo) {
+            this.mSetName = setInfo.mName;
+            this.mSetNameMtgi = setInfo.mCodeMtgi;
+        } else {
+            this.mSetName = "";
+            this.mSetNameMtgi = "";
+        }
 
         this.mPrice = 0; /* In cents */
         this.mIsCustomPrice = false; /* default is false as all cards should first grab internet prices. */
@@ -266,6 +258,31 @@ public class MtgCard extends Card {
         this.mIsSideboard = false;
     }
 
+    /**
+     * Copy the database fields from a decoded row into this MtgCard
+     *
+     * @param row A row read by a CardRowMapper with CardRowMapper.CARD_FIELDS
+     */
+    private void setFromRow(CardRowMapper.CardRow row) {
+        this.mName = row.mName;
+        this.mExpansion = row.mSet;
+        this.mNumber = row.mNumber;
+        this.mCmc = row.mCmc;
+        this.mColor = row.mColor;
+        this.mType = row.getTypeLine();
+        this.mRarity = row.mRarity;
+        this.mManaCost = row.mManaCost;
+        this.mPower = row.mPower;
+        this.mToughness = row.mToughness;
+        this.mLoyalty = row.mLoyalty;
+        this.mText = row.mAbility;
+        this.mFlavor = row.mFlavor;
+        this.mMultiverseId = row.mMultiverseId;
+        this.mArtist = row.mArtist;
+        this.mWatermark = row.mWatermark;
+        this.mColorIdentity = row.mColorIdentity;
+    }
+
     /**
      * Construct a MtgCard based on the given parameters. initFromCursor() really should be called
      * for this MtgCard later
@@ -327,31 +344,48 @@ public class MtgCard extends Card {
         try {
             SQLiteDatabase database = DatabaseManager.openDatabase(mCtx, false, handle);
 
+            // Index the cards by name and set. The same card may be in the list more than once (main deck + sideboard)
+            HashMap<String, ArrayList<MtgCard>> cardsByKey = new HashMap<>(cards.size() * 2);
+            for (MtgCard card : cards) {
+                String key = CardDbAdapter.getNameAndSetKey(card.getName(), card.getExpansion());
+                ArrayList<MtgCard> sameCards = cardsByKey.get(key);
+                if (null == sameCards) {
+                    sameCards = new ArrayList<>(1);
+                    cardsByKey.put(key, sameCards);
+                }
+                sameCards.add(card);
+            }
+
+            // Set information comes from memory rather than from a join
+            Map<String, SetCatalog.SetInfo> setCatalog = SetCatalog.getCatalog(database);
+            String loadingMessage = mCtx.getString(R.string.wishlist_loading);
+
             // Get everything
-            cardCursor = CardDbAdapter.fetchCardByNamesAndSets(cards, database);
+            cardCursor = CardDbAdapter.fetchCardsForList(cards, database);
+            CardRowMapper mapper = new CardRowMapper(cardCursor, CardRowMapper.CARD_FIELDS);
+            int nameColumn = cardCursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+            int setColumn = cardCursor.getColumnIndex(CardDbAdapter.KEY_SET);
+            CardRowMapper.CardRow row = new CardRowMapper.CardRow();
 
             // For each line database result
             while (!cardCursor.isAfterLast()) {
 
-                // Get the name and set from the database
-                String name = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_NAME));
-                String set = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_SET));
-
-                // Match that to a card in the initial list
-                for (MtgCard card : cards) {
-                    if (card.getName().equals(name) && card.getExpansion().equals(set)) {
-                        try {
+                // Match that to the cards in the initial list. Printings from other cards' sets don't match
+                ArrayList<MtgCard> sameCards = cardsByKey.get(CardDbAdapter.getNameAndSetKey(
+                        cardCursor.getString(nameColumn), cardCursor.getString(setColumn)));
+                if (null != sameCards) {
+                    mapper.read(row);
+                    SetCatalog.SetInfo setInfo = setCatalog.get(row.mSet);
+                    if (null != setInfo) {
+                        for (MtgCard card : sameCards) {
                             // Fill in the initial list with data from the cursor
-                            card.initFromCursor(mCtx, cardCursor);
-                        } catch (java.lang.InstantiationException e) {
-                            // Eat it
+                            card.initFromRow(loadingMessage, row, setInfo);
                         }
-                        // Keep looping if the same card is repeated (main deck + sideboard)
                     }
                 }
                 cardCursor.moveToNext();
             }
-        } catch (SQLiteException | FamiliarDbException | CursorIndexOutOfBoundsException fde) {
+        } catch (SQLiteException | FamiliarDbException | CursorIndexOutOfBoundsException | IllegalStateException fde) {
             throw new FamiliarDbException(fde);
         } finally {
             if (null != cardCursor) {
@@ -362,55 +396,27 @@ public class MtgCard extends Card {
     }
 
     /**
-     * This is a pseudo-constructor used to fill in missing data from a Cursor.
+     * This is a pseudo-constructor used to fill in missing data from a decoded database row.
      *
-     * @param context    A Context to get strings with
-     * @param cardCursor A cursor pointing to this card's information from the database
-     * @throws InstantiationException If this card can't be initialized
+     * @param loadingMessage The message to display while this card's price loads
+     * @param row            This card's information from the database
+     * @param setInfo        Information about this card's set
      */
-    private void initFromCursor(Context context, Cursor cardCursor) throws InstantiationException {
+    private void initFromRow(String loadingMessage, CardRowMapper.CardRow row, SetCatalog.SetInfo setInfo) {
+        /* Note the card price is loading */
+        this.mMessage = loadingMessage;
 
-        try {
-            /* Note the card price is loading */
-            this.mMessage = context.getString(R.string.wishlist_loading);
-
-            /* Don't rely on the user's given name, get it from the DB just to be sure */
-            this.mName = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_NAME));
-            this.mExpansion = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_SET));
-            this.mNumber = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_NUMBER));
-            this.mCmc = cardCursor.getInt((cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_CMC)));
-            this.mColor = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_COLOR));
-
-            this.mType = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_SUPERTYPE));
-            String subtype = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_SUBTYPE));
-            if (subtype.length() > 0) {
-                this.mType += " - " + subtype;
-            }
-
-            this.mRarity = (char) cardCursor.getInt(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_RARITY));
-            this.mManaCost = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_MANACOST));
-            this.mPower = cardCursor.getInt(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_POWER));
-            this.mToughness = cardCursor.getInt(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_TOUGHNESS));
-            this.mLoyalty = cardCursor.getInt(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_LOYALTY));
-            this.mText = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_ABILITY));
-            this.mFlavor = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_FLAVOR));
-            this.mMultiverseId = cardCursor.getInt(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_MULTIVERSEID));
-            this.mArtist = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_ARTIST));
-            this.mWatermark = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_WATERMARK));
-            this.mColorIdentity = cardCursor.getString(cardCursor.getColumnIndex("c_" + CardDbAdapter.KEY_COLOR_IDENTITY));
+        /* Don't rely on the user's given name, get it from the DB just to be sure */
+        setFromRow(row);
 
-            this.mSetName = cardCursor.getString(cardCursor.getColumnIndex("s_" + CardDbAdapter.KEY_NAME));
-            this.mSetNameMtgi = cardCursor.getString(cardCursor.getColumnIndex("s_" + CardDbAdapter.KEY_CODE_MTGI));
+        this.mSetName = setInfo.mName;
+        this.mSetNameMtgi = setInfo.mCodeMtgi;
 
-            // Don't mess with any of the other MtgCard specific fields that may have been loaded fron files, like mIsCustomPrice
+        // Don't mess with any of the other MtgCard specific fields that may have been loaded fron files, like mIsCustomPrice
 
-            /* Override choice is the card can't be foil */
-            int canBeFoil = cardCursor.getInt(cardCursor.getColumnIndex("s_" + CardDbAdapter.KEY_CAN_BE_FOIL));
-            if (0 == canBeFoil) {
-                this.mIsFoil = false;
-            }
-        } catch (SQLiteException | NumberFormatException fde) {
-            throw new InstantiationException();
+        /* Override choice is the card can't be foil */
+        if (!setInfo.mCanBeFoil) {
+            this.mIsFoil = false;
         }
     }
 
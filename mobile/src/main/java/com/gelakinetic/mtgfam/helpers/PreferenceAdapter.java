@@ -899,6 +899,13 @@ edit.putString(context.getString(R.string.key_lastUpdate), lastUpdate);
         return PreferenceManager.getDefaultSharedPreferences(context).getInt(context.getString(R.string.key_undoTimeout), 3) * 1000;
     }
 
+    public static synchronized int getPricePrefetchDistance(@Nullable Context context) {
+        if (null == context) {
+            return 20;
+        }
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(context.getString(R.string.key_pricePrefetchDistance), 20);
+    }
+
     public static synchronized boolean getShowTotalDecklistPrice(@Nullable Context context) {
         if (null == context) {
             return false;
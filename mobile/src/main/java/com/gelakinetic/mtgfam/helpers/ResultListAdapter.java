@@ -33,9 +33,12 @@ import android.widget.TextView;
 
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardRowMapper;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.EnumSet;
+
 /**
  * This list adapter is used to display a list of search results. It implements SectionIndexer to enable fast scrolling.
  */
@@ -43,6 +46,9 @@ public class ResultListAdapter extends SimpleCursorAdapter {
 
     private final String[] mFrom;
     private final int[] mTo;
+    private final CardRowMapper.Field[] mFields;
+    private final CardRowMapper.CardRow mRow = new CardRowMapper.CardRow();
+    private CardRowMapper mMapper = null;
     private final ImageGetter mImgGetter;
     private final Resources.Theme mTheme;
 
@@ -61,6 +67,7 @@ public class ResultListAdapter extends SimpleCursorAdapter {
         super(context, R.layout.result_list_card_row, cursor, from, to, 0);
         this.mFrom = from;
         this.mTo = to;
+        this.mFields = getFields(from);
         this.mTheme = context.getTheme();
         this.mImgGetter = ImageGetterHelper.GlyphGetter(context);
     }
@@ -106,6 +113,12 @@ public class ResultListAdapter extends SimpleCursorAdapter {
         view.findViewById(R.id.cardslash).setVisibility(View.VISIBLE);
         view.findViewById(R.id.cardt).setVisibility(View.VISIBLE);
 
+        /* Look up the columns once per cursor, not once per row */
+        if (null == mMapper || !mMapper.isFor(cursor)) {
+            mMapper = new CardRowMapper(cursor, mFields);
+        }
+        CardRowMapper.CardRow row = mMapper.read(mRow);
+
         /* Iterate through the mFrom, find the appropriate view in mTo */
         for (int i = 0; i < mFrom.length; i++) {
 
@@ -113,22 +126,19 @@ public class ResultListAdapter extends SimpleCursorAdapter {
 
             switch (mFrom[i]) {
                 case CardDbAdapter.KEY_NAME: {
-                    String name = cursor.getString(cursor.getColumnIndex(mFrom[i]));
-                    textField.setText(name);
+                    textField.setText(row.mName);
                     break;
                 }
                 case CardDbAdapter.KEY_MANACOST: {
-                    String name = cursor.getString(cursor.getColumnIndex(mFrom[i]));
+                    String name = row.mManaCost;
                     hideCost = false;
                     CharSequence csq = ImageGetterHelper.formatStringWithGlyphs(name, mImgGetter);
                     textField.setText(csq);
                     break;
                 }
                 case CardDbAdapter.KEY_SET: {
-                    char rarity = (char) cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_RARITY));
-                    String name = cursor.getString(cursor.getColumnIndex(mFrom[i]));
-                    textField.setText(name);
-                    switch (rarity) {
+                    textField.setText(row.mSet);
+                    switch (row.mRarity) {
                         case 'c':
                         case 'C':
                             textField.setTextColor(ContextCompat.getColor(context, getResourceIdFromAttr(R.attr.color_common)));
@@ -153,28 +163,25 @@ public class ResultListAdapter extends SimpleCursorAdapter {
                     break;
                 }
                 case CardDbAdapter.KEY_RARITY: {
-                    char rarity = (char) cursor.getInt(cursor.getColumnIndex(CardDbAdapter.KEY_RARITY));
-                    textField.setText("(" + rarity + ")");
+                    textField.setText("(" + row.mRarity + ")");
                     break;
                 }
                 case CardDbAdapter.KEY_SUPERTYPE: {
-                    String name = CardDbAdapter.getTypeLine(cursor);
+                    String name = row.getTypeLine();
                     hideType = false;
                     textField.setText(name);
                     break;
                 }
                 case CardDbAdapter.KEY_ABILITY: {
-                    String name = cursor.getString(cursor.getColumnIndex(mFrom[i]));
+                    String name = row.mAbility;
                     hideAbility = false;
                     CharSequence csq = ImageGetterHelper.formatStringWithGlyphs(name, mImgGetter);
                     textField.setText(csq);
                     break;
                 }
                 case CardDbAdapter.KEY_POWER: {
-                    float p = cursor.getFloat(cursor.getColumnIndex(mFrom[i]));
-                    boolean shouldShowSign =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_SET)).equals("UST") &&
-                                    cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_ABILITY)).contains("Augment {");
+                    float p = row.mPower;
+                    boolean shouldShowSign = row.mSet.equals("UST") && row.mAbility.contains("Augment {");
                     if (p != CardDbAdapter.NO_ONE_CARES) {
                         hidePT = false;
                         textField.setText(CardDbAdapter.getPrintedPTL(p, shouldShowSign));
@@ -182,10 +189,8 @@ public class ResultListAdapter extends SimpleCursorAdapter {
                     break;
                 }
                 case CardDbAdapter.KEY_TOUGHNESS: {
-                    float t = cursor.getFloat(cursor.getColumnIndex(mFrom[i]));
-                    boolean shouldShowSign =
-                            cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_SET)).equals("UST") &&
-                                    cursor.getString(cursor.getColumnIndex(CardDbAdapter.KEY_ABILITY)).contains("Augment {");
+                    float t = row.mToughness;
+                    boolean shouldShowSign = row.mSet.equals("UST") && row.mAbility.contains("Augment {");
                     if (t != CardDbAdapter.NO_ONE_CARES) {
                         hidePT = false;
                         textField.setText(CardDbAdapter.getPrintedPTL(t, shouldShowSign));
@@ -193,7 +198,7 @@ public class ResultListAdapter extends SimpleCursorAdapter {
                     break;
                 }
                 case CardDbAdapter.KEY_LOYALTY: {
-                    float l = cursor.getFloat(cursor.getColumnIndex(mFrom[i]));
+                    float l = row.mLoyalty;
                     if (l != CardDbAdapter.NO_ONE_CARES) {
                         hideLoyalty = false;
                         ((TextView) textField.findViewById(R.id.cardt)).setText(CardDbAdapter.getPrintedPTL(l, false));
@@ -230,6 +235,37 @@ public class ResultListAdapter extends SimpleCursorAdapter {
         }
     }
 
+    /**
+     * Figure out which fields need to be read from each row to bind the given columns. Binding the
+     * set also needs the rarity, binding the type line also needs the subtype, and binding power
+     * or toughness also needs the set and ability
+     *
+     * @param from The columns which will be bound
+     * @return The fields to read
+     */
+    private static CardRowMapper.Field[] getFields(String[] from) {
+        EnumSet<CardRowMapper.Field> fields = EnumSet.noneOf(CardRowMapper.Field.class);
+        if (null != from) {
+            for (String column : from) {
+                CardRowMapper.Field field = CardRowMapper.Field.fromColumn(column);
+                if (null != field) {
+                    fields.add(field);
+                }
+            }
+        }
+        if (fields.contains(CardRowMapper.Field.SET)) {
+            fields.add(CardRowMapper.Field.RARITY);
+        }
+        if (fields.contains(CardRowMapper.Field.SUPERTYPE)) {
+            fields.add(CardRowMapper.Field.SUBTYPE);
+        }
+        if (fields.contains(CardRowMapper.Field.POWER) || fields.contains(CardRowMapper.Field.TOUGHNESS)) {
+            fields.add(CardRowMapper.Field.SET);
+            fields.add(CardRowMapper.Field.ABILITY);
+        }
+        return fields.toArray(new CardRowMapper.Field[fields.size()]);
+    }
+
     /**
      * This helper function translates an attribute into a resource ID
      *
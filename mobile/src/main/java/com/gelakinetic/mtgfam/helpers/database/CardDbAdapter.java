@@ -26,14 +26,16 @@ import android.content.res.Resources.NotFoundException;
 import android.database.Cursor;
 import android.database.CursorIndexOutOfBoundsException;
 import android.database.DatabaseUtils;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
 import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
-import com.gelakinetic.GathererScraper.Language;
+import com.gelakinetic.GathererScraper.JsonTypes.LegalityData;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.MtgCard;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
@@ -44,9 +46,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
@@ -70,8 +75,16 @@ public class CardDbAdapter {
     private static final String DATABASE_TABLE_FORMATS = "formats";
     private static final String DATABASE_TABLE_LEGAL_SETS = "legal_sets";
     private static final String DATABASE_TABLE_BANNED_CARDS = "banned_cards";
-    private static final String DATABASE_TABLE_RULES = "rules";
-    private static final String DATABASE_TABLE_GLOSSARY = "glossary";
+    static final String DATABASE_TABLE_RULES = "rules";
+    static final String DATABASE_TABLE_GLOSSARY = "glossary";
+    static final String DATABASE_TABLE_MOJHOSTO_SLOTS = "mojhosto_slots";
+    static final String DATABASE_TABLE_MOJHOSTO_RANGES = "mojhosto_ranges";
+    static final String DATABASE_TABLE_FUZZY_NAMES = "fuzzy_names";
+    static final String DATABASE_TABLE_NAME_TRIGRAMS = "name_trigrams";
+    static final String DATABASE_TABLE_FOREIGN_NAMES = "foreign_names";
+    public static final String DATABASE_TABLE_FOREIGN_PRINTINGS = "foreign_printings";
+    static final String DATABASE_TABLE_SEARCH_STATISTICS = "search_statistics";
+    static final String DATABASE_TABLE_DICTIONARY = "card_dictionary";
 
     /* Database Keys */
     public static final String KEY_ID = "_id";
@@ -101,39 +114,55 @@ public class CardDbAdapter {
     public static final String KEY_DEFINITION = "definition";
     public static final String KEY_BANNED_LIST = "banned_list";
     public static final String KEY_LEGAL_SETS = "legal_sets";
-    private static final String KEY_NAME_TCGPLAYER = "name_tcgplayer";
-    private static final String KEY_ONLINE_ONLY = "online_only";
+    static final String KEY_NAME_TCGPLAYER = "name_tcgplayer";
+    static final String KEY_ONLINE_ONLY = "online_only";
     private static final String KEY_BORDER_COLOR = "border_color";
     private static final String KEY_FORMAT = "format";
     public static final String KEY_DIGEST = "digest";
     private static final String KEY_RULINGS = "rulings";
     public static final String KEY_CODE_MTGI = "code_mtgi";
-    private static final String KEY_DATE = "date";
-    private static final String KEY_POSITION = "position";
+    static final String KEY_DATE = "date";
+    static final String KEY_POSITION = "position";
     public static final String KEY_COLOR_IDENTITY = "color_identity";
     public static final String KEY_CAN_BE_FOIL = "can_be_foil";
-    private static final String KEY_NAME_NO_ACCENT = "name_no_accent";
-    public static final String KEY_NAME_CHINESE_TRADITIONAL = "NAME_CHINESE_TRADITIONAL";
-    public static final String KEY_MULTIVERSEID_CHINESE_TRADITIONAL = "MULTIVERSEID_CHINESE_TRADITIONAL";
-    public static final String KEY_NAME_CHINESE_SIMPLIFIED = "NAME_CHINESE_SIMPLIFIED";
-    public static final String KEY_MULTIVERSEID_CHINESE_SIMPLIFIED = "MULTIVERSEID_CHINESE_SIMPLIFIED";
-    public static final String KEY_NAME_FRENCH = "NAME_FRENCH";
-    public static final String KEY_MULTIVERSEID_FRENCH = "MULTIVERSEID_FRENCH";
-    public static final String KEY_NAME_GERMAN = "NAME_GERMAN";
-    public static final String KEY_MULTIVERSEID_GERMAN = "MULTIVERSEID_GERMAN";
-    public static final String KEY_NAME_ITALIAN = "NAME_ITALIAN";
-    public static final String KEY_MULTIVERSEID_ITALIAN = "MULTIVERSEID_ITALIAN";
-    public static final String KEY_NAME_JAPANESE = "NAME_JAPANESE";
-    public static final String KEY_MULTIVERSEID_JAPANESE = "MULTIVERSEID_JAPANESE";
-    public static final String KEY_NAME_PORTUGUESE_BRAZIL = "NAME_PORTUGUESE_BRAZIL";
-    public static final String KEY_MULTIVERSEID_PORTUGUESE_BRAZIL = "MULTIVERSEID_PORTUGUESE_BRAZIL";
-    public static final String KEY_NAME_RUSSIAN = "NAME_RUSSIAN";
-    public static final String KEY_MULTIVERSEID_RUSSIAN = "MULTIVERSEID_RUSSIAN";
-    public static final String KEY_NAME_SPANISH = "NAME_SPANISH";
-    public static final String KEY_MULTIVERSEID_SPANISH = "MULTIVERSEID_SPANISH";
-    public static final String KEY_NAME_KOREAN = "NAME_KOREAN";
-    public static final String KEY_MULTIVERSEID_KOREAN = "MULTIVERSEID_KOREAN";
+    static final String KEY_NAME_NO_ACCENT = "name_no_accent";
+    /* DATABASE_TABLE_CARDS had these before ForeignPrintings, they are only used to migrate */
+    static final String KEY_NAME_CHINESE_TRADITIONAL = "NAME_CHINESE_TRADITIONAL";
+    static final String KEY_MULTIVERSEID_CHINESE_TRADITIONAL = "MULTIVERSEID_CHINESE_TRADITIONAL";
+    static final String KEY_NAME_CHINESE_SIMPLIFIED = "NAME_CHINESE_SIMPLIFIED";
+    static final String KEY_MULTIVERSEID_CHINESE_SIMPLIFIED = "MULTIVERSEID_CHINESE_SIMPLIFIED";
+    static final String KEY_NAME_FRENCH = "NAME_FRENCH";
+    static final String KEY_MULTIVERSEID_FRENCH = "MULTIVERSEID_FRENCH";
+    static final String KEY_NAME_GERMAN = "NAME_GERMAN";
+    static final String KEY_MULTIVERSEID_GERMAN = "MULTIVERSEID_GERMAN";
+    static final String KEY_NAME_ITALIAN = "NAME_ITALIAN";
+    static final String KEY_MULTIVERSEID_ITALIAN = "MULTIVERSEID_ITALIAN";
+    static final String KEY_NAME_JAPANESE = "NAME_JAPANESE";
+    static final String KEY_MULTIVERSEID_JAPANESE = "MULTIVERSEID_JAPANESE";
+    static final String KEY_NAME_PORTUGUESE_BRAZIL = "NAME_PORTUGUESE_BRAZIL";
+    static final String KEY_MULTIVERSEID_PORTUGUESE_BRAZIL = "MULTIVERSEID_PORTUGUESE_BRAZIL";
+    static final String KEY_NAME_RUSSIAN = "NAME_RUSSIAN";
+    static final String KEY_MULTIVERSEID_RUSSIAN = "MULTIVERSEID_RUSSIAN";
+    static final String KEY_NAME_SPANISH = "NAME_SPANISH";
+    static final String KEY_MULTIVERSEID_SPANISH = "MULTIVERSEID_SPANISH";
+    static final String KEY_NAME_KOREAN = "NAME_KOREAN";
+    static final String KEY_MULTIVERSEID_KOREAN = "MULTIVERSEID_KOREAN";
     public static final String KEY_WATERMARK = "WATERMARK";
+    static final String KEY_ARTIST_ID = "artist_id";
+    static final String KEY_SUPERTYPE_ID = "supertype_id";
+    static final String KEY_SUBTYPE_ID = "subtype_id";
+    static final String KEY_WATERMARK_ID = "watermark_id";
+    public static final String KEY_CARD_ID = "card_id";
+    static final String KEY_BUCKET = "bucket";
+    static final String KEY_FIRST_SLOT = "first_slot";
+    static final String KEY_END_SLOT = "end_slot";
+    static final String KEY_TRIGRAM = "trigram";
+    static final String KEY_TRIGRAM_COUNT = "trigram_count";
+    static final String KEY_NAME_ID = "name_id";
+    public static final String KEY_LANGUAGE = "language";
+    static final String KEY_COLUMN = "column_name";
+    static final String KEY_VALUE = "value";
+    static final String KEY_COUNT = "count";
 
     /* All the columns in DATABASE_TABLE_CARDS */
     public static final List<String> ALL_CARD_DATA_KEYS = Collections.unmodifiableList(Arrays.asList(
@@ -157,29 +186,31 @@ public class CardDbAdapter {
             DATABASE_TABLE_CARDS + "." + KEY_RULINGS,
             DATABASE_TABLE_CARDS + "." + KEY_COLOR_IDENTITY,
             DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_CHINESE_TRADITIONAL,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_CHINESE_TRADITIONAL,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_CHINESE_SIMPLIFIED,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_CHINESE_SIMPLIFIED,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_FRENCH,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_FRENCH,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_GERMAN,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_GERMAN,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_ITALIAN,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_ITALIAN,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_JAPANESE,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_JAPANESE,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_PORTUGUESE_BRAZIL,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_PORTUGUESE_BRAZIL,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_RUSSIAN,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_RUSSIAN,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_SPANISH,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_SPANISH,
-            DATABASE_TABLE_CARDS + "." + KEY_NAME_KOREAN,
-            DATABASE_TABLE_CARDS + "." + KEY_MULTIVERSEID_KOREAN,
             DATABASE_TABLE_CARDS + "." + KEY_WATERMARK
     ));
 
+    /* The columns in DATABASE_TABLE_CARDS needed to fill in a wishlist, decklist, or trade card */
+    public static final List<String> BULK_CARD_DATA_KEYS = Collections.unmodifiableList(Arrays.asList(
+            KEY_NAME,
+            KEY_SET,
+            KEY_NUMBER,
+            KEY_SUPERTYPE,
+            KEY_SUBTYPE,
+            KEY_MANACOST,
+            KEY_ABILITY,
+            KEY_POWER,
+            KEY_TOUGHNESS,
+            KEY_LOYALTY,
+            KEY_RARITY,
+            KEY_FLAVOR,
+            KEY_CMC,
+            KEY_COLOR,
+            KEY_ARTIST,
+            KEY_MULTIVERSEID,
+            KEY_COLOR_IDENTITY,
+            KEY_WATERMARK
+    ));
+
     /* All the columns in DATABASE_CREATE_SETS */
     private static final List<String> ALL_SET_DATA_KEYS = Collections.unmodifiableList(Arrays.asList(
             DATABASE_TABLE_SETS + "." + KEY_ID,
@@ -242,26 +273,10 @@ public class CardDbAdapter {
                     KEY_RULINGS + " text, " +
                     KEY_NAME_NO_ACCENT + " text not null, " +
                     KEY_WATERMARK + " text, " +
-                    KEY_NAME_CHINESE_TRADITIONAL + " text, " +
-                    KEY_MULTIVERSEID_CHINESE_TRADITIONAL + " integer, " +
-                    KEY_NAME_CHINESE_SIMPLIFIED + " text, " +
-                    KEY_MULTIVERSEID_CHINESE_SIMPLIFIED + " integer, " +
-                    KEY_NAME_FRENCH + " text, " +
-                    KEY_MULTIVERSEID_FRENCH + " integer, " +
-                    KEY_NAME_GERMAN + " text, " +
-                    KEY_MULTIVERSEID_GERMAN + " integer, " +
-                    KEY_NAME_ITALIAN + " text, " +
-                    KEY_MULTIVERSEID_ITALIAN + " integer, " +
-                    KEY_NAME_JAPANESE + " text, " +
-                    KEY_MULTIVERSEID_JAPANESE + " integer, " +
-                    KEY_NAME_PORTUGUESE_BRAZIL + " text, " +
-                    KEY_MULTIVERSEID_PORTUGUESE_BRAZIL + " integer, " +
-                    KEY_NAME_RUSSIAN + " text, " +
-                    KEY_MULTIVERSEID_RUSSIAN + " integer, " +
-                    KEY_NAME_SPANISH + " text, " +
-                    KEY_MULTIVERSEID_SPANISH + " integer, " +
-                    KEY_NAME_KOREAN + " text, " +
-                    KEY_MULTIVERSEID_KOREAN + " integer);";
+                    KEY_ARTIST_ID + " integer, " +
+                    KEY_SUPERTYPE_ID + " integer, " +
+                    KEY_SUBTYPE_ID + " integer, " +
+                    KEY_WATERMARK_ID + " integer);";
 
     static final String DATABASE_CREATE_SETS =
             "create table " + DATABASE_TABLE_SETS + "(" +
@@ -285,6 +300,68 @@ public class CardDbAdapter {
                     KEY_RULE_TEXT + " text not null, " +
                     KEY_POSITION + " integer);";
 
+    static final String DATABASE_CREATE_MOJHOSTO_SLOTS =
+            "create table " + DATABASE_TABLE_MOJHOSTO_SLOTS + "(" +
+                    KEY_ID + " integer primary key, " +
+                    KEY_CARD_ID + " integer not null);";
+
+    static final String DATABASE_CREATE_MOJHOSTO_RANGES =
+            "create table " + DATABASE_TABLE_MOJHOSTO_RANGES + "(" +
+                    KEY_BUCKET + " text not null, " +
+                    KEY_CMC + " integer not null, " +
+                    KEY_FIRST_SLOT + " integer not null, " +
+                    KEY_END_SLOT + " integer not null);";
+
+    static final String DATABASE_CREATE_FOREIGN_NAMES =
+            "create table " + DATABASE_TABLE_FOREIGN_NAMES + "(" +
+                    KEY_LANGUAGE + " text not null, " +
+                    KEY_NAME_NO_ACCENT + " text not null, " +
+                    KEY_NAME + " text not null, " +
+                    KEY_CARD_ID + " integer not null, " +
+                    "unique(" + KEY_NAME_NO_ACCENT + ", " + KEY_LANGUAGE + ", " + KEY_NAME + "));";
+
+    static final String DATABASE_CREATE_FOREIGN_PRINTINGS =
+            "create table " + DATABASE_TABLE_FOREIGN_PRINTINGS + "(" +
+                    KEY_CARD_ID + " integer not null, " +
+                    KEY_LANGUAGE + " text not null, " +
+                    KEY_NAME + " text not null, " +
+                    KEY_MULTIVERSEID + " integer, " +
+                    "unique(" + KEY_CARD_ID + ", " + KEY_LANGUAGE + "));";
+
+    static final String DATABASE_CREATE_DICTIONARY =
+            "create table " + DATABASE_TABLE_DICTIONARY + "(" +
+                    KEY_ID + " integer primary key, " +
+                    KEY_COLUMN + " text not null, " +
+                    KEY_VALUE + " text not null, " +
+                    "unique(" + KEY_COLUMN + ", " + KEY_VALUE + "));";
+
+    static final String DATABASE_CREATE_FUZZY_NAMES =
+            "create table " + DATABASE_TABLE_FUZZY_NAMES + "(" +
+                    KEY_ID + " integer primary key, " +
+                    KEY_NAME + " text not null, " +
+                    KEY_NAME_NO_ACCENT + " text not null, " +
+                    KEY_CARD_ID + " integer not null, " +
+                    KEY_TRIGRAM_COUNT + " integer not null);";
+
+    static final String DATABASE_CREATE_NAME_TRIGRAMS =
+            "create table " + DATABASE_TABLE_NAME_TRIGRAMS + "(" +
+                    KEY_TRIGRAM + " text not null, " +
+                    KEY_NAME_ID + " integer not null);";
+
+    static final String DATABASE_INDEX_NAME_TRIGRAMS =
+            "create index " + DATABASE_TABLE_NAME_TRIGRAMS + "_trigram on " +
+                    DATABASE_TABLE_NAME_TRIGRAMS + "(" + KEY_TRIGRAM + ", " + KEY_NAME_ID + ");";
+
+    static final String DATABASE_CREATE_SEARCH_STATISTICS =
+            "create table " + DATABASE_TABLE_SEARCH_STATISTICS + "(" +
+                    KEY_COLUMN + " text not null, " +
+                    KEY_VALUE + " text not null, " +
+                    KEY_COUNT + " integer not null);";
+
+    static final String DATABASE_INDEX_CARDS_SET =
+            "create index if not exists " + DATABASE_TABLE_CARDS + "_" + KEY_SET + " on " +
+                    DATABASE_TABLE_CARDS + "(" + KEY_SET + ");";
+
     /* Special values for KEY_POWER and KEY_TOUGHNESS */
     public static final int STAR = -1000;
     public static final int ONE_PLUS_STAR = -1001;
@@ -306,6 +383,9 @@ public class CardDbAdapter {
     public static final int BANNED = 1;
     public static final int RESTRICTED = 2;
 
+    /* The most values bound in one statement. SQLite allows 999 parameters by default */
+    private static final int MAX_BOUND_IDS = 500;
+
     private static final String[] ILLEGAL_SETS = {"UG", "UNH", "UST", "ARS", "PCP", "PP2"};
 
     /* The various types of multi-cards */
@@ -337,23 +417,39 @@ public class CardDbAdapter {
      */
     public static void dropCreateDB(SQLiteDatabase sqLiteDatabase) throws FamiliarDbException {
         try {
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_CARDS);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_SETS);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_RULES);
-            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_GLOSSARY);
-
-            sqLiteDatabase.execSQL(DATABASE_CREATE_CARDS);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_SETS);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_FORMATS);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_LEGAL_SETS);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_BANNED_CARDS);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_RULES);
-            sqLiteDatabase.execSQL(DATABASE_CREATE_GLOSSARY);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_CARDS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_SETS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_RULES);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_GLOSSARY);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_MOJHOSTO_SLOTS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_MOJHOSTO_RANGES);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_FUZZY_NAMES);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_NAME_TRIGRAMS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_FOREIGN_NAMES);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_FOREIGN_PRINTINGS);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_DICTIONARY);
+            QueryLog.execSQL(sqLiteDatabase, "DROP TABLE IF EXISTS " + DATABASE_TABLE_SEARCH_STATISTICS);
+
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_CARDS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_SETS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_FORMATS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_LEGAL_SETS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_BANNED_CARDS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_RULES);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_GLOSSARY);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_FOREIGN_NAMES);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_FOREIGN_PRINTINGS);
+            QueryLog.execSQL(sqLiteDatabase, DATABASE_CREATE_DICTIONARY);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
+        } finally {
+            SetCatalog.invalidate();
+            MoJhoStoIndex.invalidate();
+            SearchPlanner.invalidate();
+            CardDictionary.invalidate();
         }
     }
 
@@ -390,18 +486,22 @@ public class CardDbAdapter {
                         .openRawResource(R.raw.datagz));
                 FileOutputStream fos = new FileOutputStream(dbFile);
 
-                byte[] buffer = new byte[1024];
+                byte[] buffer = new byte[64 * 1024];
                 int length;
                 while ((length = gis.read(buffer)) > 0) {
                     fos.write(buffer, 0, length);
                 }
 
-                PreferenceAdapter.setDatabaseVersion(context, CardDbAdapter.DATABASE_VERSION);
-
                 /* Close the streams */
                 fos.flush();
                 fos.close();
                 gis.close();
+
+                /* Readers use the snapshot, so it must be replaced with the packaged data too.
+                 * Publishing it also drops everything cached from the old one */
+                CardSnapshot.publish(context, dbFile);
+
+                PreferenceAdapter.setDatabaseVersion(context, CardDbAdapter.DATABASE_VERSION);
             }
         } catch (NotFoundException | IOException e) {
             e.printStackTrace();
@@ -460,6 +560,25 @@ public class CardDbAdapter {
      */
     public static String[] getUniqueColumnArray(String colKey, boolean shouldSplit,
                                                 SQLiteDatabase database) throws FamiliarDbException {
+        /* Encoded columns already have a list of their values */
+        ArrayList<String> values = CardDictionary.getValues(colKey, database);
+        if (null != values) {
+            HashSet<String> words = new HashSet<>();
+            for (String value : values) {
+                if (value.isEmpty()) {
+                    continue;
+                }
+                if (shouldSplit) {
+                    Collections.addAll(words, value.split("\\s+"));
+                } else {
+                    words.add(value);
+                }
+            }
+            String[] wordsArr = words.toArray(new String[words.size()]);
+            Arrays.sort(wordsArr);
+            return wordsArr;
+        }
+
         Cursor cursor = null;
         try {
             String query =
@@ -512,28 +631,103 @@ public class CardDbAdapter {
      * TODO online only pref
      *
      * @param ids        A list of ids for cards to fetch
-     * @param orderByStr A string of keys and directions to order this query by
+     * @param orderByStr A string of keys and directions to order this query by, or null to keep
+     *                   the order of ids
      * @param database   The database to query
      * @return A cursor with all of the cards' information
      * @throws FamiliarDbException If something goes wrong
      */
     public static Cursor fetchCards(long[] ids, String orderByStr, SQLiteDatabase database)
             throws FamiliarDbException {
+        return fetchCards(ids, null, orderByStr, database);
+    }
+
+    /**
+     * Given a list of KEY_ID values, return a cursor with the requested columns for those cards.
+     * Each id is only returned once, even if it's in the list more than once.
+     * <p>
+     * Without an orderByStr, ids are bound in batches of MAX_BOUND_IDS and the rows come back in
+     * the same order as ids. With an orderByStr, all the ids have to be in one statement for
+     * SQLite to sort them, so long lists are written into a single IN list instead. The ids are
+     * numbers, so there's nothing to escape, and an IN list doesn't deepen the expression tree
+     * the way a chain of ORs does.
+     * <p>
+     * TODO online only pref
+     *
+     * @param ids        A list of ids for cards to fetch
+     * @param projection The columns from DATABASE_TABLE_CARDS to return, or null for all of them
+     * @param orderByStr A string of keys and directions to order this query by, or null to keep
+     *                   the order of ids
+     * @param database   The database to query
+     * @return A cursor with the cards' information
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static Cursor fetchCards(long[] ids, String[] projection, String orderByStr,
+                                    SQLiteDatabase database) throws FamiliarDbException {
         try {
-            boolean first = true;
-            StringBuilder selectionStr = new StringBuilder();
+            /* Drop duplicate ids, keeping the first occurrence */
+            LinkedHashSet<Long> uniqueIds = new LinkedHashSet<>(ids.length * 2);
             for (long id : ids) {
-                if (!first) {
-                    selectionStr.append(" OR ");
-                } else {
-                    first = false;
+                uniqueIds.add(id);
+            }
+            long[] idArray = new long[uniqueIds.size()];
+            int idx = 0;
+            for (long id : uniqueIds) {
+                idArray[idx++] = id;
+            }
+
+            /* Build the column list once */
+            StringBuilder columns = new StringBuilder();
+            if (null == projection) {
+                for (String field : ALL_CARD_DATA_KEYS) {
+                    if (columns.length() > 0) {
+                        columns.append(", ");
+                    }
+                    columns.append(field);
+                }
+            } else {
+                for (String field : projection) {
+                    if (columns.length() > 0) {
+                        columns.append(", ");
+                    }
+                    columns.append(DATABASE_TABLE_CARDS + ".").append(field).append(" AS ").append(field);
                 }
-                selectionStr.append(KEY_ID + "=").append(id);
             }
-            String[] allCardDataKeys = new String[ALL_CARD_DATA_KEYS.size()];
-            ALL_CARD_DATA_KEYS.toArray(allCardDataKeys);
-            Cursor cursor = database.query(true, DATABASE_TABLE_CARDS, allCardDataKeys, selectionStr.toString(), null,
-                    null, null, orderByStr, null);
+
+            Cursor cursor;
+            if (null != orderByStr && idArray.length > MAX_BOUND_IDS) {
+                /* Everything has to be sorted together, so use a single statement */
+                StringBuilder sql = new StringBuilder("SELECT ").append(columns)
+                        .append(" FROM " + DATABASE_TABLE_CARDS + " WHERE " + DATABASE_TABLE_CARDS + "." + KEY_ID + " IN (");
+                for (int i = 0; i < idArray.length; i++) {
+                    if (i > 0) {
+                        sql.append(",");
+                    }
+                    sql.append(idArray[i]);
+                }
+                sql.append(") ORDER BY ").append(orderByStr);
+                cursor = database.rawQuery(sql.toString(), null);
+            } else if (idArray.length <= MAX_BOUND_IDS) {
+                cursor = fetchCardChunk(idArray, 0, idArray.length, columns, orderByStr, database);
+            } else {
+                /* Query each batch and stitch the results back together in order */
+                Cursor[] chunks = new Cursor[(idArray.length + MAX_BOUND_IDS - 1) / MAX_BOUND_IDS];
+                try {
+                    for (int i = 0; i < chunks.length; i++) {
+                        int from = i * MAX_BOUND_IDS;
+                        int to = Math.min(from + MAX_BOUND_IDS, idArray.length);
+                        chunks[i] = fetchCardChunk(idArray, from, to, columns, null, database);
+                    }
+                } catch (SQLiteException | IllegalStateException e) {
+                    for (Cursor chunk : chunks) {
+                        if (null != chunk) {
+                            chunk.close();
+                        }
+                    }
+                    throw e;
+                }
+                cursor = new MergeCursor(chunks);
+            }
 
             if (cursor != null) {
                 cursor.moveToFirst();
@@ -544,6 +738,46 @@ public class CardDbAdapter {
         }
     }
 
+    /**
+     * Query one batch of ids for fetchCards(). Every batch is padded to MAX_BOUND_IDS by repeating
+     * the last id, so that every batch has the same SQL and can reuse the compiled statement.
+     *
+     * @param ids        The full list of unique ids
+     * @param from       The index of the first id in this batch
+     * @param to         The index after the last id in this batch
+     * @param columns    The columns to select
+     * @param orderByStr A string of keys and directions to order this query by, or null to keep
+     *                   the order of ids
+     * @param database   The database to query
+     * @return A cursor with the cards' information for this batch
+     */
+    private static Cursor fetchCardChunk(long[] ids, int from, int to, CharSequence columns,
+                                         String orderByStr, SQLiteDatabase database) {
+        /* Reuse the same numbered parameters in the IN list and in the ORDER BY */
+        String[] args = new String[MAX_BOUND_IDS];
+        StringBuilder sql = new StringBuilder("SELECT ").append(columns)
+                .append(" FROM " + DATABASE_TABLE_CARDS + " WHERE " + DATABASE_TABLE_CARDS + "." + KEY_ID + " IN (");
+        for (int i = 0; i < MAX_BOUND_IDS; i++) {
+            args[i] = Long.toString(ids[Math.min(from + i, to - 1)]);
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append("?").append(i + 1);
+        }
+        sql.append(") ORDER BY ");
+        if (null != orderByStr) {
+            sql.append(orderByStr);
+        } else {
+            /* Padding repeats the last id, and CASE picks the first WHEN that matches */
+            sql.append("CASE " + DATABASE_TABLE_CARDS + "." + KEY_ID);
+            for (int i = 0; i < MAX_BOUND_IDS; i++) {
+                sql.append(" WHEN ?").append(i + 1).append(" THEN ").append(i);
+            }
+            sql.append(" END");
+        }
+        return database.rawQuery(sql.toString(), args);
+    }
+
     /**
      * Given a card's name, return a cursor with all of that card's requested information.
      * <p>
@@ -679,60 +913,109 @@ public class CardDbAdapter {
     }
 
     /**
-     * Given a list of cards, fetch all the database info about them in a single query
+     * Build the key used to match a card in a list to a row from fetchCardsForList(). Names are
+     * matched without accent marks and without regard to case, the same way the database does.
+     *
+     * @param name    The card's name
+     * @param setCode The card's set code
+     * @return A key which is equal for every card that should get the same row
+     */
+    public static String getNameAndSetKey(String name, String setCode) {
+        return removeAccentMarks(name).trim().toLowerCase(Locale.ENGLISH) + '\t' + setCode.trim();
+    }
+
+    /**
+     * Fetch every printing which matches the name and set of a card in a list. Each row has the
+     * columns in BULK_CARD_DATA_KEYS, and is matched to its cards with getNameAndSetKey() on its
+     * KEY_NAME and KEY_SET. Set level information isn't joined, look it up in the SetCatalog
+     * instead.
      * <p>
-     * TODO online only pref
+     * Duplicate cards are only fetched once. The rest are bound in batches of MAX_BOUND_IDS / 2
+     * cards, as an IN list of sets and an IN list of names, so a batch may also return another
+     * card's name printed in a third card's set. Those rows don't match any card's key. Nothing is
+     * written, so this works on a read-only connection.
      *
-     * @param cards A list of cards to fetch info for
+     * @param cards The cards to fetch, which must not be empty
      * @param mDb   The database to query
      * @return A Cursor with the requested information
      * @throws FamiliarDbException If something goes wrong
      */
-    public static Cursor fetchCardByNamesAndSets(ArrayList<MtgCard> cards, SQLiteDatabase mDb)
+    public static Cursor fetchCardsForList(Collection<? extends MtgCard> cards, SQLiteDatabase mDb)
             throws FamiliarDbException {
-        try {
-            StringBuilder sql = new StringBuilder("SELECT ");
+        /* Drop duplicate cards, like the same card in the main deck and sideboard */
+        LinkedHashMap<String, String[]> uniqueCards = new LinkedHashMap<>(cards.size() * 2);
+        for (MtgCard card : cards) {
+            uniqueCards.put(getNameAndSetKey(card.getName(), card.getExpansion()),
+                    new String[]{removeAccentMarks(card.getName()).trim(), card.getExpansion().trim()});
+        }
+        List<String[]> namesAndSets = new ArrayList<>(uniqueCards.values());
 
-            // All the keys
-            boolean first = true;
-            for (String field : ALL_CARD_DATA_KEYS) {
-                if (first) {
-                    first = false;
-                } else {
-                    sql.append(", ");
+        int batchSize = MAX_BOUND_IDS / 2;
+        Cursor[] chunks = new Cursor[(namesAndSets.size() + batchSize - 1) / batchSize];
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                int from = i * batchSize;
+                int to = Math.min(from + batchSize, namesAndSets.size());
+                chunks[i] = fetchCardsForListChunk(namesAndSets, from, to, mDb);
+            }
+            Cursor cursor = (1 == chunks.length) ? chunks[0] : new MergeCursor(chunks);
+            cursor.moveToFirst();
+            return cursor;
+        } catch (SQLiteException | IllegalStateException e) {
+            for (Cursor chunk : chunks) {
+                if (null != chunk) {
+                    chunk.close();
                 }
-                sql.append(field).append(" as c_").append(field.split("\\.")[1]);
             }
-            for (String field : ALL_SET_DATA_KEYS) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Query one batch of cards for fetchCardsForList(). Every batch is padded to MAX_BOUND_IDS / 2
+     * cards by repeating the last one, so that every batch has the same SQL and can reuse the
+     * compiled statement.
+     *
+     * @param namesAndSets The unique cards' names without accent marks, and sets
+     * @param from         The index of the first card in this batch
+     * @param to           The index after the last card in this batch
+     * @param mDb          The database to query
+     * @return A cursor with the cards' information for this batch
+     */
+    private static Cursor fetchCardsForListChunk(List<String[]> namesAndSets, int from, int to,
+                                                 SQLiteDatabase mDb) {
+        int batchSize = MAX_BOUND_IDS / 2;
+        String[] args = new String[batchSize * 2];
+        StringBuilder sql = new StringBuilder("SELECT ");
+        boolean first = true;
+        for (String field : BULK_CARD_DATA_KEYS) {
+            if (first) {
+                first = false;
+            } else {
                 sql.append(", ");
-                sql.append(field).append(" as s_").append(field.split("\\.")[1]);
             }
+            sql.append(DATABASE_TABLE_CARDS + ".").append(field).append(" AS ").append(field);
+        }
 
-            // From a joined table
-            sql.append(" FROM " + DATABASE_TABLE_CARDS + " JOIN " + DATABASE_TABLE_SETS + " ON " + DATABASE_TABLE_SETS + "." + KEY_CODE + " = " + DATABASE_TABLE_CARDS + "." + KEY_SET);
-
-            sql.append(" WHERE ");
-
-            first = true;
-            for (MtgCard card : cards) {
-                if (first) {
-                    first = false;
-                } else {
-                    sql.append(" OR ");
-                }
-                sql.append("(c_").append(KEY_NAME_NO_ACCENT).append(" = ").append(sanitizeString(card.getName(), true)).append(" COLLATE NOCASE AND ");
-                sql.append("c_").append(KEY_SET).append(" = ").append(sanitizeString(card.getExpansion(), false)).append(")");
+        /* The sets narrow the search with the set index, then the names are compared without case */
+        sql.append(" FROM " + DATABASE_TABLE_CARDS + " WHERE " + DATABASE_TABLE_CARDS + "." + KEY_SET + " IN (");
+        for (int i = 0; i < batchSize; i++) {
+            args[i] = namesAndSets.get(Math.min(from + i, to - 1))[1];
+            if (i > 0) {
+                sql.append(",");
             }
-            sql.append(" ORDER BY s_").append(KEY_DATE).append(" DESC");
-
-            Cursor c = mDb.rawQuery(sql.toString(), null);
-            if (c != null) {
-                c.moveToFirst();
+            sql.append("?").append(i + 1);
+        }
+        sql.append(") AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " COLLATE NOCASE IN (");
+        for (int i = 0; i < batchSize; i++) {
+            args[batchSize + i] = namesAndSets.get(Math.min(from + i, to - 1))[0];
+            if (i > 0) {
+                sql.append(",");
             }
-            return c;
-        } catch (SQLiteException | IllegalStateException e) {
-            throw new FamiliarDbException(e);
+            sql.append("?").append(batchSize + i + 1);
         }
+        sql.append(")");
+        return mDb.rawQuery(sql.toString(), args);
     }
 
     /**
@@ -794,18 +1077,42 @@ public class CardDbAdapter {
     public static Cursor Search(SearchCriteria criteria, boolean backface, String[] returnTypes,
                                 boolean consolidate, String orderByStr, SQLiteDatabase mDb)
             throws FamiliarDbException {
-        StringBuilder statement = new StringBuilder(" WHERE 1=1");
+        /* Each criterion is built in statement, then handed to the planner to order */
+        SearchPlanner planner = new SearchPlanner(mDb);
+        StringBuilder statement = new StringBuilder();
 
         if (criteria.name != null) {
+            /* Match every word of the English name, or the start of any word of a foreign name */
+            String foreignClause = null;
+            if (ForeignNameIndex.isBuilt(mDb)) {
+                foreignClause = ForeignNameIndex.getNameMatchClause(criteria.name);
+            }
+            statement.append(" AND ((1=1");
             String[] nameParts = criteria.name.split(" ");
             for (String s : nameParts) {
                 statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NAME_NO_ACCENT + " LIKE ").append(sanitizeString("%" + s + "%", true)).append(")");
             }
+            statement.append(")");
+            if (null != foreignClause) {
+                statement.append(" OR ").append(foreignClause);
+            }
+            statement.append(")");
+            planner.add(statement,
+                    (float) Math.pow(SearchPlanner.GUESS_CONTAINS_NAME, nameParts.length) +
+                            (null != foreignClause ? SearchPlanner.GUESS_CONTAINS_NAME : 0),
+                    SearchPlanner.COST_LIKE_SHORT * nameParts.length +
+                            (null != foreignClause ? SearchPlanner.COST_SUBQUERY : 0));
         }
 
         /* Check if the watermark matches exactly */
         if (criteria.watermark != null) {
-            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_WATERMARK + " = ").append(sanitizeString(criteria.watermark, false)).append(")");
+            if (CardDictionary.canFilter(KEY_WATERMARK, mDb)) {
+                statement.append(" AND (").append(CardDictionary.getFilter(KEY_WATERMARK,
+                        KEY_VALUE + " = " + sanitizeString(criteria.watermark, false), true)).append(")");
+            } else {
+                statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_WATERMARK + " = ").append(sanitizeString(criteria.watermark, false)).append(")");
+            }
+            planner.add(statement, SearchPlanner.GUESS_EQUALS, SearchPlanner.COST_COMPARE);
         }
 
         /*
@@ -862,6 +1169,9 @@ public class CardDbAdapter {
                 default:
                     break;
             }
+            planner.add(statement, (2 == criteria.textLogic) ? SearchPlanner.GUESS_CONTAINS_TEXT :
+                            planner.getTextSelectivity(Arrays.asList(cardTextParts), criteria.textLogic),
+                    SearchPlanner.COST_LIKE_LONG * cardTextParts.length);
         }
         /*
          * End Reuben's version
@@ -874,16 +1184,15 @@ public class CardDbAdapter {
         List<String> subtypes = criteria.subTypes;
 
         if (supertypes != null && !supertypes.isEmpty()) {
-            /* Concat a leading and a trailing space to the supertype */
-            final String supertypeInDb = "' ' || " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " || ' '";
+            final boolean isEncoded = CardDictionary.canFilter(KEY_SUPERTYPE, mDb);
 
             switch (criteria.typeLogic) {
                 case 0:
                     for (String s : supertypes) {
                         if (s.contains(EXCLUDE_TOKEN)) {
-                            statement.append(" AND (" + supertypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUPERTYPE, s.substring(1), false, isEncoded)).append(")");
                         } else
-                            statement.append(" AND (" + supertypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUPERTYPE, s, true, isEncoded)).append(")");
                     }
                     break;
                 case 1:
@@ -893,37 +1202,38 @@ public class CardDbAdapter {
                             firstRun = false;
 
                             if (s.contains(EXCLUDE_TOKEN))
-                                statement.append(" AND ((" + supertypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                                statement.append(" AND ((").append(getTypeWordTerm(KEY_SUPERTYPE, s.substring(1), false, isEncoded)).append(")");
                             else
-                                statement.append(" AND ((" + supertypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                                statement.append(" AND ((").append(getTypeWordTerm(KEY_SUPERTYPE, s, true, isEncoded)).append(")");
                         } else if (s.contains(EXCLUDE_TOKEN))
-                            statement.append(" AND (" + supertypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUPERTYPE, s.substring(1), false, isEncoded)).append(")");
                         else
-                            statement.append(" OR (" + supertypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                            statement.append(" OR (").append(getTypeWordTerm(KEY_SUPERTYPE, s, true, isEncoded)).append(")");
                     }
                     statement.append(")");
                     break;
                 case 2:
                     for (String s : supertypes) {
-                        statement.append(" AND (" + supertypeInDb + " NOT LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                        statement.append(" AND (").append(getTypeWordTerm(KEY_SUPERTYPE, s, false, isEncoded)).append(")");
                     }
                     break;
                 default:
                     break;
             }
+            planner.add(statement, planner.getTypeSelectivity(KEY_SUPERTYPE, supertypes, criteria.typeLogic),
+                    (isEncoded ? SearchPlanner.COST_COMPARE : SearchPlanner.COST_LIKE_SHORT) * supertypes.size());
         }
 
         if (subtypes != null && !subtypes.isEmpty()) {
-            /* Concat a leading and a trailing space to the subtype */
-            final String subtypeInDb = "' ' || " + DATABASE_TABLE_CARDS + "." + KEY_SUBTYPE + " || ' '";
+            final boolean isEncoded = CardDictionary.canFilter(KEY_SUBTYPE, mDb);
 
             switch (criteria.typeLogic) {
                 case 0:
                     for (String s : subtypes) {
                         if (s.contains(EXCLUDE_TOKEN)) {
-                            statement.append(" AND (" + subtypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUBTYPE, s.substring(1), false, isEncoded)).append(")");
                         } else {
-                            statement.append(" AND (" + subtypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUBTYPE, s, true, isEncoded)).append(")");
                         }
                     }
                     break;
@@ -933,38 +1243,49 @@ public class CardDbAdapter {
                         if (firstRun) {
                             firstRun = false;
                             if (s.contains(EXCLUDE_TOKEN))
-                                statement.append(" AND ((" + subtypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                                statement.append(" AND ((").append(getTypeWordTerm(KEY_SUBTYPE, s.substring(1), false, isEncoded)).append(")");
                             else
-                                statement.append(" AND ((" + subtypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                                statement.append(" AND ((").append(getTypeWordTerm(KEY_SUBTYPE, s, true, isEncoded)).append(")");
                         } else if (s.contains(EXCLUDE_TOKEN))
-                            statement.append(" AND (" + subtypeInDb + " NOT LIKE ").append(sanitizeString("% " + s.substring(1) + " %", false)).append(")");
+                            statement.append(" AND (").append(getTypeWordTerm(KEY_SUBTYPE, s.substring(1), false, isEncoded)).append(")");
                         else
-                            statement.append(" OR (" + subtypeInDb + " LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                            statement.append(" OR (").append(getTypeWordTerm(KEY_SUBTYPE, s, true, isEncoded)).append(")");
                     }
                     statement.append(")");
                     break;
                 case 2:
                     for (String s : subtypes) {
-                        statement.append(" AND (" + subtypeInDb + " NOT LIKE ").append(sanitizeString("% " + s + " %", false)).append(")");
+                        statement.append(" AND (").append(getTypeWordTerm(KEY_SUBTYPE, s, false, isEncoded)).append(")");
                     }
                     break;
                 default:
                     break;
             }
+            planner.add(statement, planner.getTypeSelectivity(KEY_SUBTYPE, subtypes, criteria.typeLogic),
+                    (isEncoded ? SearchPlanner.COST_COMPARE : SearchPlanner.COST_LIKE_SHORT) * subtypes.size());
         }
         /* End Reuben's version
          *************************************************************************************/
 
         if (criteria.flavor != null) {
             statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_FLAVOR + " LIKE ").append(sanitizeString("%" + criteria.flavor + "%", false)).append(")");
+            planner.add(statement, SearchPlanner.GUESS_CONTAINS_FLAVOR, SearchPlanner.COST_LIKE_LONG);
         }
 
         if (criteria.artist != null) {
-            statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ARTIST + " LIKE ").append(sanitizeString("%" + criteria.artist + "%", false)).append(")");
+            if (CardDictionary.canFilter(KEY_ARTIST, mDb)) {
+                statement.append(" AND (").append(CardDictionary.getFilter(KEY_ARTIST,
+                        KEY_VALUE + " LIKE " + sanitizeString("%" + criteria.artist + "%", false), true)).append(")");
+                planner.add(statement, SearchPlanner.GUESS_CONTAINS_ARTIST, SearchPlanner.COST_COMPARE);
+            } else {
+                statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_ARTIST + " LIKE ").append(sanitizeString("%" + criteria.artist + "%", false)).append(")");
+                planner.add(statement, SearchPlanner.GUESS_CONTAINS_ARTIST, SearchPlanner.COST_LIKE_SHORT);
+            }
         }
 
         if (criteria.collectorsNumber != null) {
             statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER + " = ").append(sanitizeString(criteria.collectorsNumber, false)).append(")");
+            planner.add(statement, SearchPlanner.GUESS_EQUALS, SearchPlanner.COST_COMPARE);
         }
 
         /*
@@ -1029,6 +1350,8 @@ public class CardDbAdapter {
                 statement.append("))");
             else
                 statement.append(")");
+            planner.add(statement, planner.getColorSelectivity(criteria.color, criteria.colorLogic),
+                    SearchPlanner.COST_LIKE_SHORT);
         }
         /* End of addition
          *************************************************************************************/
@@ -1077,23 +1400,14 @@ public class CardDbAdapter {
                     break;
                 }
             }
+            planner.add(statement, (0 == criteria.colorIdentityLogic) ?
+                            planner.getColorIdentitySelectivity(criteria.colorIdentity) :
+                            SearchPlanner.GUESS_EQUALS,
+                    SearchPlanner.COST_LIKE_SHORT);
         }
 
         if (criteria.sets != null && criteria.sets.size() > 0) {
-            statement.append(" AND (");
-
-            boolean first = true;
-
-            for (String set : criteria.sets) {
-                if (first) {
-                    first = false;
-                } else {
-                    statement.append(" OR ");
-                }
-                statement.append(DATABASE_TABLE_CARDS + "." + KEY_SET + " = '").append(set).append("'");
-            }
-
-            statement.append(")");
+            planner.addSets(DATABASE_TABLE_CARDS + "." + KEY_SET, criteria.sets);
         }
 
         if (criteria.powChoice != NO_ONE_CARES) {
@@ -1108,6 +1422,7 @@ public class CardDbAdapter {
                 statement.append(DATABASE_TABLE_CARDS + "." + KEY_POWER + " ").append(criteria.powLogic).append(" ").append(criteria.powChoice);
             }
             statement.append(")");
+            planner.add(statement, SearchPlanner.GUESS_RANGE, SearchPlanner.COST_COMPARE);
         }
 
         if (criteria.touChoice != NO_ONE_CARES) {
@@ -1122,6 +1437,7 @@ public class CardDbAdapter {
                 statement.append(DATABASE_TABLE_CARDS + "." + KEY_TOUGHNESS + " ").append(criteria.touLogic).append(" ").append(criteria.touChoice);
             }
             statement.append(")");
+            planner.add(statement, SearchPlanner.GUESS_RANGE, SearchPlanner.COST_COMPARE);
         }
 
         if (null != criteria.manaCostLogic && null != criteria.manaCost) {
@@ -1131,12 +1447,15 @@ public class CardDbAdapter {
             }
             statement = criteria.manaCostLogic.appendToSql(statement,
                     DATABASE_TABLE_CARDS + "." + KEY_MANACOST, manaCost.toString());
+            planner.add(statement, SearchPlanner.GUESS_RANGE, SearchPlanner.COST_LIKE_SHORT);
         }
 
         if (criteria.cmc != -1) {
             statement.append(" AND (");
 
             statement.append(DATABASE_TABLE_CARDS + "." + KEY_CMC + " ").append(criteria.cmcLogic).append(" ").append(criteria.cmc).append(")");
+            planner.add(statement, planner.getCmcSelectivity(criteria.cmcLogic, criteria.cmc),
+                    SearchPlanner.COST_COMPARE);
         }
 
         if (criteria.moJhoStoFilter) {
@@ -1158,59 +1477,87 @@ public class CardDbAdapter {
                 statement.append("'").append(illegalSet).append("'");
             }
             statement.append(")");
+            planner.add(statement, SearchPlanner.GUESS_MOSTLY_TRUE, SearchPlanner.COST_LIKE_SHORT);
         }
 
-        if (criteria.rarity != null) {
-            statement.append(" AND (");
-
-            boolean firstPrint = true;
+        if (criteria.rarity != null && !criteria.rarity.isEmpty()) {
+            /* One IN list rather than a chain of ORs */
+            statement.append(DATABASE_TABLE_CARDS + "." + KEY_RARITY + " IN (");
             for (int i = 0; i < criteria.rarity.length(); i++) {
-                if (firstPrint) {
-                    firstPrint = false;
-                } else {
-                    statement.append(" OR ");
+                if (i > 0) {
+                    statement.append(", ");
                 }
-                statement.append(DATABASE_TABLE_CARDS + "." + KEY_RARITY + " = ").append((int) criteria.rarity.toUpperCase().charAt(i));
+                statement.append((int) criteria.rarity.toUpperCase().charAt(i));
             }
             statement.append(")");
+            planner.add(statement, planner.getRaritySelectivity(criteria.rarity), SearchPlanner.COST_COMPARE);
         }
 
         if (criteria.format != null) {
+            Cursor legalSetCursor = null;
+            Cursor bannedCursor = null;
             try {
-                /* Check if the format is eternal or not, by the number of legal sets */
-                String numLegalSetsSql = "SELECT * FROM " + DATABASE_TABLE_LEGAL_SETS + " WHERE " + KEY_FORMAT + " = \"" + criteria.format + "\"";
-
-                Cursor numLegalSetCursor;
-                numLegalSetCursor = mDb.rawQuery(numLegalSetsSql, null);
+                /* Look up the format's legal sets and banned cards now, and put them in the query
+                 * as constants rather than as subqueries */
+                ArrayList<String> legalSets = new ArrayList<>();
+                legalSetCursor = mDb.query(DATABASE_TABLE_LEGAL_SETS, new String[]{KEY_SET},
+                        KEY_FORMAT + " = ?", new String[]{criteria.format}, null, null, null);
+                while (legalSetCursor.moveToNext()) {
+                    legalSets.add(legalSetCursor.getString(0));
+                }
 
                 /* If the format is not eternal, filter by set */
-                if (numLegalSetCursor.getCount() > 0) {
-                    String toAppend = " AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME + " IN (" + " SELECT " + DATABASE_TABLE_CARDS + "_B." + KEY_NAME + " FROM " + DATABASE_TABLE_CARDS + " " + DATABASE_TABLE_CARDS + "_B " + " WHERE ";
+                if (legalSets.size() > 0) {
+                    statement.append(" AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME + " IN (" + " SELECT " + DATABASE_TABLE_CARDS + "_B." + KEY_NAME + " FROM " + DATABASE_TABLE_CARDS + " " + DATABASE_TABLE_CARDS + "_B " + " WHERE ");
                     // Ensure pauper only searches commons in valid Pauper sets
                     if ("Pauper".equals(criteria.format)) {
-                        toAppend += DATABASE_TABLE_CARDS + "_B." + KEY_RARITY + " = " + ((int) 'C') + " AND ";
+                        statement.append(DATABASE_TABLE_CARDS + "_B." + KEY_RARITY + " = " + ((int) 'C') + " AND ");
                     }
-                    toAppend += DATABASE_TABLE_CARDS + "_B." + KEY_SET + " IN (" + " SELECT " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_SET + " FROM " + DATABASE_TABLE_LEGAL_SETS + " WHERE " + DATABASE_TABLE_LEGAL_SETS + "." + KEY_FORMAT + "='" + criteria.format + "' ) )";
-                    statement.append(toAppend);
+                    statement.append(planner.getSetListClause(DATABASE_TABLE_CARDS + "_B." + KEY_SET, legalSets)).append(")");
+                    planner.add(statement, planner.getSetSelectivity(legalSets), SearchPlanner.COST_SUBQUERY);
                 } else {
                     /* Otherwise filter silver bordered cards, giant cards */
                     for (String illegalSet : ILLEGAL_SETS) {
                         statement.append(" AND NOT " + DATABASE_TABLE_CARDS + "." + KEY_SET + " = '").append(illegalSet).append("'");
                     }
                     statement.append(" AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Plane'" + " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Conspiracy'" + " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE '%Scheme'" + " AND " + DATABASE_TABLE_CARDS + "." + KEY_SUPERTYPE + " NOT LIKE 'Vanguard'");
+                    planner.add(statement, SearchPlanner.GUESS_MOSTLY_TRUE, SearchPlanner.COST_LIKE_SHORT);
                 }
-                statement.append(" AND " + DATABASE_TABLE_CARDS + "." + KEY_NAME + " NOT IN (SELECT " + DATABASE_TABLE_BANNED_CARDS + "." + KEY_NAME + " FROM " + DATABASE_TABLE_BANNED_CARDS + " WHERE " + DATABASE_TABLE_BANNED_CARDS + "." + KEY_FORMAT + " = '").append(criteria.format).append("'").append(" AND ").append(DATABASE_TABLE_BANNED_CARDS).append(".").append(KEY_LEGALITY).append(" = ").append(BANNED).append(")");
 
-                numLegalSetCursor.close();
+                /* Formats without banned cards don't need a filter at all */
+                bannedCursor = mDb.query(DATABASE_TABLE_BANNED_CARDS, new String[]{KEY_NAME},
+                        KEY_FORMAT + " = ? AND " + KEY_LEGALITY + " = ?",
+                        new String[]{criteria.format, Integer.toString(BANNED)}, null, null, null);
+                if (bannedCursor.getCount() > 0) {
+                    statement.append(DATABASE_TABLE_CARDS + "." + KEY_NAME + " NOT IN (");
+                    while (bannedCursor.moveToNext()) {
+                        if (!bannedCursor.isFirst()) {
+                            statement.append(", ");
+                        }
+                        statement.append(DatabaseUtils.sqlEscapeString(bannedCursor.getString(0)));
+                    }
+                    statement.append(")");
+                    planner.add(statement, SearchPlanner.GUESS_MOSTLY_TRUE, SearchPlanner.COST_COMPARE);
+                }
             } catch (SQLiteException | IllegalStateException e) {
                 throw new FamiliarDbException(e);
+            } finally {
+                if (null != legalSetCursor) {
+                    legalSetCursor.close();
+                }
+                if (null != bannedCursor) {
+                    bannedCursor.close();
+                }
             }
         }
 
         if (!backface) {
             statement.append(" AND (" + DATABASE_TABLE_CARDS + "." + KEY_NUMBER + " NOT LIKE '%b%')");
+            planner.add(statement, SearchPlanner.GUESS_MOSTLY_TRUE, SearchPlanner.COST_LIKE_SHORT);
         }
 
+        statement = new StringBuilder(planner.getWhereClause());
+
         if (criteria.setLogic != MOST_RECENT_PRINTING && criteria.setLogic != ALL_PRINTINGS) {
             statement.insert(0, " JOIN (SELECT iT" + DATABASE_TABLE_CARDS + "."
                     + KEY_NAME + ", MIN(" + DATABASE_TABLE_SETS + "."
@@ -1272,6 +1619,26 @@ public class CardDbAdapter {
         }
     }
 
+    /**
+     * Build a Search() term which matches cards with, or without, a whole word in their supertype
+     * or subtype
+     *
+     * @param column    KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param word      The word to look for
+     * @param isMatch   true to match cards which have the word, false to match cards which don't
+     * @param isEncoded true to test the word against CardDictionary, false to test every card
+     * @return The SQL term
+     */
+    private static String getTypeWordTerm(String column, String word, boolean isMatch, boolean isEncoded) {
+        String pattern = sanitizeString("% " + word + " %", false);
+        if (isEncoded) {
+            return CardDictionary.getFilter(column, "' ' || " + KEY_VALUE + " || ' ' LIKE " + pattern, isMatch);
+        }
+        /* Concat a leading and a trailing space to the type */
+        return "' ' || " + DATABASE_TABLE_CARDS + "." + column + " || ' '" +
+                (isMatch ? " LIKE " : " NOT LIKE ") + pattern;
+    }
+
     /**
      * Given a set and a card number, return the KEY_ID for that card.
      * <p>
@@ -1541,62 +1908,13 @@ public class CardDbAdapter {
         initialValues.put(KEY_NAME_NO_ACCENT, removeAccentMarks(card.getName()));
         initialValues.put(KEY_WATERMARK, card.getWatermark());
 
-        for (Card.ForeignPrinting fp : card.getForeignPrintings()) {
-            switch (fp.getLanguageCode()) {
-                case Language.Chinese_Traditional: {
-                    initialValues.put(KEY_NAME_CHINESE_TRADITIONAL, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_CHINESE_TRADITIONAL, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Chinese_Simplified: {
-                    initialValues.put(KEY_NAME_CHINESE_SIMPLIFIED, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_CHINESE_SIMPLIFIED, fp.getMultiverseId());
-                    break;
-                }
-                case Language.French: {
-                    initialValues.put(KEY_NAME_FRENCH, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_FRENCH, fp.getMultiverseId());
-                    break;
-                }
-                case Language.German: {
-                    initialValues.put(KEY_NAME_GERMAN, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_GERMAN, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Italian: {
-                    initialValues.put(KEY_NAME_ITALIAN, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_ITALIAN, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Japanese: {
-                    initialValues.put(KEY_NAME_JAPANESE, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_JAPANESE, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Portuguese_Brazil: {
-                    initialValues.put(KEY_NAME_PORTUGUESE_BRAZIL, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_PORTUGUESE_BRAZIL, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Russian: {
-                    initialValues.put(KEY_NAME_RUSSIAN, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_RUSSIAN, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Spanish: {
-                    initialValues.put(KEY_NAME_SPANISH, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_SPANISH, fp.getMultiverseId());
-                    break;
-                }
-                case Language.Korean: {
-                    initialValues.put(KEY_NAME_KOREAN, fp.getName());
-                    initialValues.put(KEY_MULTIVERSEID_KOREAN, fp.getMultiverseId());
-                    break;
-                }
-            }
-        }
+        CardDictionary.encode(initialValues, mDb);
 
-        mDb.insert(DATABASE_TABLE_CARDS, null, initialValues);
+        long cardId = mDb.insert(DATABASE_TABLE_CARDS, null, initialValues);
+        if (cardId != -1) {
+            ForeignPrintings.addCard(cardId, card, mDb);
+            ForeignNameIndex.addCard(cardId, card, mDb);
+        }
     }
 
     /**
@@ -1649,11 +1967,14 @@ public class CardDbAdapter {
             throws FamiliarDbException {
 
         try {
+            ForeignNameIndex.dropSet(setCode, database);
+            ForeignPrintings.dropSet(setCode, database);
             database.delete(DATABASE_TABLE_CARDS, KEY_SET + " = " + sanitizeString(setCode, false), null);
             database.delete(DATABASE_TABLE_SETS, KEY_CODE + " = " + sanitizeString(setCode, false), null);
         } catch (SQLiteException | IllegalStateException e) {
             throw new FamiliarDbException(e);
         }
+        SetCatalog.invalidate();
     }
 
     /**
@@ -1816,6 +2137,7 @@ public class CardDbAdapter {
         initialValues.put(KEY_BORDER_COLOR, set.mBorderColor);
 
         mDb.insert(DATABASE_TABLE_SETS, null, initialValues);
+        SetCatalog.invalidate();
     }
 
     /**
@@ -2189,9 +2511,9 @@ public class CardDbAdapter {
      */
     public static void createLegalTables(SQLiteDatabase mDb) throws FamiliarDbException {
         try {
-            mDb.execSQL(DATABASE_CREATE_FORMATS);
-            mDb.execSQL(DATABASE_CREATE_LEGAL_SETS);
-            mDb.execSQL(DATABASE_CREATE_BANNED_CARDS);
+            QueryLog.execSQL(mDb, DATABASE_CREATE_FORMATS);
+            QueryLog.execSQL(mDb, DATABASE_CREATE_LEGAL_SETS);
+            QueryLog.execSQL(mDb, DATABASE_CREATE_BANNED_CARDS);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
@@ -2205,14 +2527,152 @@ public class CardDbAdapter {
      */
     public static void dropLegalTables(SQLiteDatabase mDb) throws FamiliarDbException {
         try {
-            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
-            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
-            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
+            QueryLog.execSQL(mDb, "DROP TABLE IF EXISTS " + DATABASE_TABLE_FORMATS);
+            QueryLog.execSQL(mDb, "DROP TABLE IF EXISTS " + DATABASE_TABLE_LEGAL_SETS);
+            QueryLog.execSQL(mDb, "DROP TABLE IF EXISTS " + DATABASE_TABLE_BANNED_CARDS);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
     }
 
+    /**
+     * Make the legality tables match a downloaded legality.json. Rather than dropping and refilling
+     * the tables, the rows already there are compared to the download and only the ones which
+     * differ are deleted or inserted, each with a statement compiled once. The database should
+     * already be in a transaction, like one from DatabaseManager.openDatabase(), so it's all
+     * written at once. If it fails partway, the next update's diff picks up where it stopped.
+     *
+     * @param legalityData The downloaded legality.json
+     * @param mDb          The writable database to update
+     * @return What changed, which is empty if the tables already matched
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static LegalityDiff applyLegalityData(LegalityData legalityData, SQLiteDatabase mDb)
+            throws FamiliarDbException {
+        LegalityDiff.Rows downloaded = new LegalityDiff.Rows();
+        for (LegalityData.Format format : legalityData.mFormats) {
+            downloaded.addFormat(format.mName);
+            for (String legalSet : format.mSets) {
+                downloaded.addLegalSet(format.mName, legalSet);
+            }
+            for (String bannedCard : format.mBanlist) {
+                downloaded.addLegalCard(format.mName, bannedCard, BANNED);
+            }
+            for (String restrictedCard : format.mRestrictedlist) {
+                downloaded.addLegalCard(format.mName, restrictedCard, RESTRICTED);
+            }
+        }
+
+        Cursor cursor = null;
+        SQLiteStatement statement = null;
+        try {
+            /* If any of the tables is missing, start over with none of them */
+            LegalityDiff.Rows stored = new LegalityDiff.Rows();
+            if (DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM sqlite_master" +
+                    " WHERE type = 'table' AND name IN (?, ?, ?)", new String[]{DATABASE_TABLE_FORMATS,
+                    DATABASE_TABLE_LEGAL_SETS, DATABASE_TABLE_BANNED_CARDS}) < 3) {
+                dropLegalTables(mDb);
+                createLegalTables(mDb);
+            } else {
+                cursor = mDb.rawQuery("SELECT " + KEY_NAME + " FROM " + DATABASE_TABLE_FORMATS, null);
+                while (cursor.moveToNext()) {
+                    stored.addFormat(cursor.getString(0));
+                }
+                cursor.close();
+
+                cursor = mDb.rawQuery("SELECT " + KEY_FORMAT + ", " + KEY_SET +
+                        " FROM " + DATABASE_TABLE_LEGAL_SETS, null);
+                while (cursor.moveToNext()) {
+                    stored.addLegalSet(cursor.getString(0), cursor.getString(1));
+                }
+                cursor.close();
+
+                /* Every stored row is kept, even a second legality for the same card, so the diff
+                 * removes whatever the download doesn't have */
+                cursor = mDb.rawQuery("SELECT " + KEY_FORMAT + ", " + KEY_NAME + ", " + KEY_LEGALITY +
+                        " FROM " + DATABASE_TABLE_BANNED_CARDS, null);
+                while (cursor.moveToNext()) {
+                    stored.mLegalCards.add(new LegalityDiff.Row(cursor.getString(0),
+                            cursor.getString(1), cursor.getInt(2)));
+                }
+                cursor.close();
+                cursor = null;
+            }
+
+            LegalityDiff diff = new LegalityDiff(stored, downloaded);
+
+            /* Deletes first, so a card whose legality changed has its old row removed before the
+             * new one goes in */
+            statement = mDb.compileStatement("DELETE FROM " + DATABASE_TABLE_FORMATS +
+                    " WHERE " + KEY_NAME + " = ?");
+            for (String format : diff.mFormatsRemoved) {
+                statement.bindString(1, format);
+                statement.executeUpdateDelete();
+            }
+            statement.close();
+            statement = null;
+
+            statement = mDb.compileStatement("DELETE FROM " + DATABASE_TABLE_LEGAL_SETS +
+                    " WHERE " + KEY_FORMAT + " = ? AND " + KEY_SET + " = ?");
+            for (LegalityDiff.Row row : diff.mLegalSetsRemoved) {
+                statement.bindString(1, row.mFormat);
+                statement.bindString(2, row.mName);
+                statement.executeUpdateDelete();
+            }
+            statement.close();
+            statement = null;
+
+            statement = mDb.compileStatement("DELETE FROM " + DATABASE_TABLE_BANNED_CARDS +
+                    " WHERE " + KEY_FORMAT + " = ? AND " + KEY_NAME + " = ? AND " + KEY_LEGALITY + " = ?");
+            for (LegalityDiff.Row row : diff.mLegalCardsRemoved) {
+                statement.bindString(1, row.mFormat);
+                statement.bindString(2, row.mName);
+                statement.bindLong(3, row.mLegality);
+                statement.executeUpdateDelete();
+            }
+            statement.close();
+            statement = null;
+
+            statement = mDb.compileStatement("INSERT INTO " + DATABASE_TABLE_FORMATS +
+                    " (" + KEY_NAME + ") VALUES (?)");
+            for (String format : diff.mFormatsAdded) {
+                statement.bindString(1, format);
+                statement.executeInsert();
+            }
+            statement.close();
+            statement = null;
+
+            statement = mDb.compileStatement("INSERT INTO " + DATABASE_TABLE_LEGAL_SETS +
+                    " (" + KEY_FORMAT + ", " + KEY_SET + ") VALUES (?, ?)");
+            for (LegalityDiff.Row row : diff.mLegalSetsAdded) {
+                statement.bindString(1, row.mFormat);
+                statement.bindString(2, row.mName);
+                statement.executeInsert();
+            }
+            statement.close();
+            statement = null;
+
+            statement = mDb.compileStatement("INSERT INTO " + DATABASE_TABLE_BANNED_CARDS +
+                    " (" + KEY_FORMAT + ", " + KEY_NAME + ", " + KEY_LEGALITY + ") VALUES (?, ?, ?)");
+            for (LegalityDiff.Row row : diff.mLegalCardsAdded) {
+                statement.bindString(1, row.mFormat);
+                statement.bindString(2, row.mName);
+                statement.bindLong(3, row.mLegality);
+                statement.executeInsert();
+            }
+            return diff;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != statement) {
+                statement.close();
+            }
+        }
+    }
+
     /**
      * Fetch all formats that cards can be legal in.
      *
@@ -2245,8 +2705,8 @@ public class CardDbAdapter {
      */
     public static void dropRulesTables(SQLiteDatabase mDb) throws FamiliarDbException {
         try {
-            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_RULES);
-            mDb.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_GLOSSARY);
+            QueryLog.execSQL(mDb, "DROP TABLE IF EXISTS " + DATABASE_TABLE_RULES);
+            QueryLog.execSQL(mDb, "DROP TABLE IF EXISTS " + DATABASE_TABLE_GLOSSARY);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
@@ -2262,8 +2722,8 @@ public class CardDbAdapter {
      */
     public static void createRulesTables(SQLiteDatabase mDb) throws FamiliarDbException {
         try {
-            mDb.execSQL(DATABASE_CREATE_RULES);
-            mDb.execSQL(DATABASE_CREATE_GLOSSARY);
+            QueryLog.execSQL(mDb, DATABASE_CREATE_RULES);
+            QueryLog.execSQL(mDb, DATABASE_CREATE_GLOSSARY);
         } catch (SQLiteException e) {
             throw new FamiliarDbException(e);
         }
@@ -2426,71 +2886,12 @@ public class CardDbAdapter {
         }
     }
 
-    /**
-     * Insert a rule's title & text into the database with it's category, subcategory, and position.
-     *
-     * @param category    The integer category
-     * @param subcategory The integer subcategory
-     * @param entry       The title of the rule
-     * @param text        The text of the rule
-     * @param position    The rule's position
-     * @param mDb         The database to insert a rule into
-     * @throws FamiliarDbException If something goes wrong
-     */
-    public static void insertRule(int category, int subcategory, String entry, String text,
-                                  int position, SQLiteDatabase mDb) throws FamiliarDbException {
-        if (entry == null) {
-            entry = "NULL";
-        } else {
-            entry = sanitizeString(entry, false);
-        }
-        text = sanitizeString(text, false);
-        String positionStr;
-        if (position < 0) {
-            positionStr = "NULL";
-        } else {
-            positionStr = String.valueOf(position);
-        }
-        String sql = "INSERT INTO " + DATABASE_TABLE_RULES + " ("
-                + KEY_CATEGORY + ", " + KEY_SUBCATEGORY + ", " + KEY_ENTRY
-                + ", " + KEY_RULE_TEXT + ", " + KEY_POSITION + ") VALUES ("
-                + String.valueOf(category) + ", " + String.valueOf(subcategory)
-                + ", " + entry + ", " + text + ", " + positionStr + ");";
-        try {
-            mDb.execSQL(sql);
-        } catch (SQLiteException e) {
-            throw new FamiliarDbException(e);
-        }
-    }
-
     ////////////////////////////////////////////////////////////////////////////////////////////////
     //                                                                                            //
     //                             DATABASE_TABLE_GLOSSARY Functions                              //
     //                                                                                            //
     ////////////////////////////////////////////////////////////////////////////////////////////////
 
-    /**
-     * Insert a glossary term into DATABASE_TABLE_GLOSSARY.
-     *
-     * @param term       The term to insert
-     * @param definition The definition for the glossary term
-     * @param mDb        The database to add the term to
-     * @throws FamiliarDbException If something goes wrong
-     */
-    public static void insertGlossaryTerm(String term, String definition, SQLiteDatabase mDb)
-            throws FamiliarDbException {
-        term = sanitizeString(term, false);
-        definition = sanitizeString(definition, false);
-        String sql = "INSERT INTO " + DATABASE_TABLE_GLOSSARY + " (" + KEY_TERM
-                + ", " + KEY_DEFINITION + ") VALUES (" + term + ", "
-                + definition + ");";
-        try {
-            mDb.execSQL(sql);
-        } catch (SQLiteException e) {
-            throw new FamiliarDbException(e);
-        }
-    }
-
     /**
      * Return a cursor to all glossary terms for the rules.
      *
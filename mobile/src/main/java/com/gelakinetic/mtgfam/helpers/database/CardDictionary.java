@@ -0,0 +1,336 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Dictionary encoding for the text columns of DATABASE_TABLE_CARDS which only have a few thousand
+ * distinct values among all the cards: artist, supertype, subtype, and watermark. Each distinct
+ * value gets a row in DATABASE_TABLE_DICTIONARY, and each card gets the value's id in an integer
+ * column next to the text. The text columns are kept, since every cursor which shows a card reads
+ * them.
+ * <p>
+ * Search filters on these columns are answered by matching the pattern against the dictionary,
+ * which is small, then comparing each card's id against the matching ids. This is instead of
+ * running LIKE against every card's text. The search screen's lists of values come straight from
+ * the dictionary too, instead of grouping every card.
+ * <p>
+ * Ids are assigned as cards are added. The dictionary is built from the text columns the first
+ * time the updater runs on a database which doesn't have it, and values no card uses anymore are
+ * pruned whenever cards change.
+ */
+public class CardDictionary {
+
+    /* Each encoded text column, and the integer column which holds its id */
+    private static final String[][] ENCODED_COLUMNS = {
+            {CardDbAdapter.KEY_ARTIST, CardDbAdapter.KEY_ARTIST_ID},
+            {CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUPERTYPE_ID},
+            {CardDbAdapter.KEY_SUBTYPE, CardDbAdapter.KEY_SUBTYPE_ID},
+            {CardDbAdapter.KEY_WATERMARK, CardDbAdapter.KEY_WATERMARK_ID},
+    };
+
+    /* Whether filters use the dictionary. Only turned off to benchmark */
+    private static volatile boolean sIsEnabled = true;
+
+    /* Ids looked up or assigned while adding cards, text column to value to id */
+    private static final HashMap<String, HashMap<String, Long>> sIds = new HashMap<>();
+
+    /* Whether the database cards are being added to has the dictionary, or null to check again */
+    private static Boolean sIsBuiltForEncoding = null;
+
+    /**
+     * Check if the dictionary exists in the database
+     *
+     * @param database The database to check
+     * @return true if the table exists, false otherwise
+     */
+    public static boolean isBuilt(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                        " WHERE type = 'table' AND name = ?",
+                new String[]{CardDbAdapter.DATABASE_TABLE_DICTIONARY}) > 0;
+    }
+
+    /**
+     * Drop and rebuild the dictionary from the text columns, and fill in every card's ids. Older
+     * databases don't have the id columns, so they're added first
+     *
+     * @param database The writable database to rebuild the dictionary in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        Cursor cursor = null;
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_DICTIONARY);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_DICTIONARY);
+
+            HashSet<String> columns = new HashSet<>();
+            cursor = database.rawQuery("PRAGMA table_info(" + CardDbAdapter.DATABASE_TABLE_CARDS + ")", null);
+            int nameColumn = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameColumn));
+            }
+
+            for (String[] encoded : ENCODED_COLUMNS) {
+                if (!columns.contains(encoded[1])) {
+                    QueryLog.execSQL(database, "ALTER TABLE " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                            " ADD COLUMN " + encoded[1] + " integer");
+                }
+            }
+            encodeFrom(0, database);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Fill in the ids of every card from a KEY_ID on, adding any values the dictionary doesn't
+     * have yet. This is for cards which were inserted with SQL instead of createCard(), like the
+     * ones merged from a SetPatchDatabase. Nothing is filled in if the dictionary hasn't been built
+     *
+     * @param firstId  The lowest KEY_ID to fill in
+     * @param database The writable database to fill in ids in
+     */
+    static void encodeFrom(long firstId, SQLiteDatabase database) {
+        if (!isBuilt(database)) {
+            return;
+        }
+        String range = CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_ID + " >= " + firstId;
+        for (String[] encoded : ENCODED_COLUMNS) {
+            String column = DatabaseUtils.sqlEscapeString(encoded[0]);
+            QueryLog.execSQL(database, "INSERT OR IGNORE INTO " + CardDbAdapter.DATABASE_TABLE_DICTIONARY +
+                    " (" + CardDbAdapter.KEY_COLUMN + ", " + CardDbAdapter.KEY_VALUE + ")" +
+                    " SELECT DISTINCT " + column + ", " + encoded[0] +
+                    " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                    " WHERE " + encoded[0] + " IS NOT NULL AND " + range);
+            QueryLog.execSQL(database, "UPDATE " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                    " SET " + encoded[1] + " = (SELECT " + CardDbAdapter.KEY_ID +
+                    " FROM " + CardDbAdapter.DATABASE_TABLE_DICTIONARY +
+                    " WHERE " + CardDbAdapter.KEY_COLUMN + " = " + column +
+                    " AND " + CardDbAdapter.KEY_VALUE + " = " + CardDbAdapter.DATABASE_TABLE_CARDS + "." + encoded[0] + ")" +
+                    " WHERE " + range);
+        }
+    }
+
+    /**
+     * Remove the values which no card uses anymore, after sets were dropped
+     *
+     * @param database The writable database to prune the dictionary in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void prune(SQLiteDatabase database) throws FamiliarDbException {
+        try {
+            for (String[] encoded : ENCODED_COLUMNS) {
+                QueryLog.execSQL(database, "DELETE FROM " + CardDbAdapter.DATABASE_TABLE_DICTIONARY +
+                        " WHERE " + CardDbAdapter.KEY_COLUMN + " = " + DatabaseUtils.sqlEscapeString(encoded[0]) +
+                        " AND " + CardDbAdapter.KEY_ID + " NOT IN (SELECT " + encoded[1] +
+                        " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                        " WHERE " + encoded[1] + " IS NOT NULL)");
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            invalidate();
+        }
+    }
+
+    /**
+     * Forget the ids looked up while adding cards. This must be called whenever the dictionary is
+     * rebuilt or dropped, or cards were added to a different database
+     */
+    public static synchronized void invalidate() {
+        sIds.clear();
+        sIsBuiltForEncoding = null;
+    }
+
+    /**
+     * Fill in the ids of a card which is about to be inserted, adding any values the dictionary
+     * doesn't have yet. Nothing is filled in if the dictionary hasn't been built, since building
+     * it fills in every card
+     *
+     * @param values   The card's values, with the text columns already put
+     * @param database The database the card will be inserted into
+     */
+    static synchronized void encode(ContentValues values, SQLiteDatabase database) {
+        if (null == sIsBuiltForEncoding) {
+            sIsBuiltForEncoding = isBuilt(database);
+        }
+        if (!sIsBuiltForEncoding) {
+            return;
+        }
+        for (String[] encoded : ENCODED_COLUMNS) {
+            String value = values.getAsString(encoded[0]);
+            if (null == value) {
+                continue;
+            }
+            HashMap<String, Long> ids = sIds.get(encoded[0]);
+            if (null == ids) {
+                ids = new HashMap<>();
+                sIds.put(encoded[0], ids);
+            }
+            Long id = ids.get(value);
+            if (null == id) {
+                id = getId(encoded[0], value, database);
+                if (-1 == id) {
+                    ContentValues entry = new ContentValues();
+                    entry.put(CardDbAdapter.KEY_COLUMN, encoded[0]);
+                    entry.put(CardDbAdapter.KEY_VALUE, value);
+                    id = database.insert(CardDbAdapter.DATABASE_TABLE_DICTIONARY, null, entry);
+                }
+                ids.put(value, id);
+            }
+            values.put(encoded[1], id);
+        }
+    }
+
+    /**
+     * @param column   An encoded text column
+     * @param value    A value in that column
+     * @param database The database to look in
+     * @return The value's id, or -1 if it isn't in the dictionary
+     */
+    private static long getId(String column, String value, SQLiteDatabase database) {
+        Cursor cursor = null;
+        try {
+            cursor = database.query(CardDbAdapter.DATABASE_TABLE_DICTIONARY,
+                    new String[]{CardDbAdapter.KEY_ID},
+                    CardDbAdapter.KEY_COLUMN + " = ? AND " + CardDbAdapter.KEY_VALUE + " = ?",
+                    new String[]{column, value}, null, null, null);
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Check if a search filter on a column can be answered with the dictionary
+     *
+     * @param column   A text column in DATABASE_TABLE_CARDS
+     * @param database The database which will be searched
+     * @return true if the column is encoded and the database has the dictionary
+     */
+    static boolean canFilter(String column, SQLiteDatabase database) {
+        return sIsEnabled && null != getIdColumn(column) && isBuilt(database);
+    }
+
+    /**
+     * Build a term for CardDbAdapter.Search() which matches the cards whose value of an encoded
+     * column matches a condition. The condition is only tested against the dictionary. This must
+     * only be used when canFilter() returns true
+     *
+     * @param column    An encoded text column in DATABASE_TABLE_CARDS
+     * @param condition A condition on the value, written in terms of KEY_VALUE. Its result must
+     *                  not depend on any other table
+     * @param isMatch   true to match cards whose value meets the condition, false to match cards
+     *                  whose value doesn't
+     * @return The SQL term
+     */
+    static String getFilter(String column, String condition, boolean isMatch) {
+        return CardDbAdapter.DATABASE_TABLE_CARDS + "." + getIdColumn(column) +
+                (isMatch ? " IN " : " NOT IN ") + "(SELECT " + CardDbAdapter.KEY_ID +
+                " FROM " + CardDbAdapter.DATABASE_TABLE_DICTIONARY +
+                " WHERE " + CardDbAdapter.KEY_COLUMN + " = " + DatabaseUtils.sqlEscapeString(column) +
+                " AND (" + condition + "))";
+    }
+
+    /**
+     * Get every value of an encoded column, for the search screen
+     *
+     * @param column   An encoded text column in DATABASE_TABLE_CARDS
+     * @param database The database to read the dictionary from
+     * @return The values, or null if the column can't be filtered with the dictionary
+     * @throws FamiliarDbException If something goes wrong
+     */
+    @Nullable
+    static ArrayList<String> getValues(String column, SQLiteDatabase database) throws FamiliarDbException {
+        if (!canFilter(column, database)) {
+            return null;
+        }
+        Cursor cursor = null;
+        try {
+            cursor = database.query(CardDbAdapter.DATABASE_TABLE_DICTIONARY,
+                    new String[]{CardDbAdapter.KEY_VALUE},
+                    CardDbAdapter.KEY_COLUMN + " = ?", new String[]{column}, null, null, null);
+            ArrayList<String> values = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                values.add(cursor.getString(0));
+            }
+            return values;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Turn dictionary filtering and value lists on or off, to compare them in CardDbBenchmark
+     *
+     * @param isEnabled true to use the dictionary, false to use the text columns
+     */
+    public static void setEnabled(boolean isEnabled) {
+        sIsEnabled = isEnabled;
+    }
+
+    /**
+     * @param column A column in DATABASE_TABLE_CARDS
+     * @return true if the column holds ids into this database's dictionary
+     */
+    static boolean isIdColumn(String column) {
+        for (String[] encoded : ENCODED_COLUMNS) {
+            if (encoded[1].equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param column A text column in DATABASE_TABLE_CARDS
+     * @return The integer column which holds the text column's ids, or null if it isn't encoded
+     */
+    @Nullable
+    private static String getIdColumn(String column) {
+        for (String[] encoded : ENCODED_COLUMNS) {
+            if (encoded[0].equals(column)) {
+                return encoded[1];
+            }
+        }
+        return null;
+    }
+}
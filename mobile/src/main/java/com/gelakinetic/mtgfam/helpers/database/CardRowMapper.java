@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Reads rows of DATABASE_TABLE_CARDS from a Cursor into CardRow objects. Cursor.getColumnIndex()
+ * is a linear search over the column names, so calling it for every field of every row adds up.
+ * A CardRowMapper looks up the columns for the fields it's asked for once, when it's constructed,
+ * and is only valid for that one Cursor.
+ * <p>
+ * Fields which were asked for but aren't in the cursor are left at their defaults.
+ */
+public class CardRowMapper {
+
+    /**
+     * The card fields which can be read from a cursor, and the column each one comes from
+     */
+    public enum Field {
+        ID(CardDbAdapter.KEY_ID),
+        NAME(CardDbAdapter.KEY_NAME),
+        SET(CardDbAdapter.KEY_SET),
+        NUMBER(CardDbAdapter.KEY_NUMBER),
+        SUPERTYPE(CardDbAdapter.KEY_SUPERTYPE),
+        SUBTYPE(CardDbAdapter.KEY_SUBTYPE),
+        MANACOST(CardDbAdapter.KEY_MANACOST),
+        ABILITY(CardDbAdapter.KEY_ABILITY),
+        POWER(CardDbAdapter.KEY_POWER),
+        TOUGHNESS(CardDbAdapter.KEY_TOUGHNESS),
+        LOYALTY(CardDbAdapter.KEY_LOYALTY),
+        RARITY(CardDbAdapter.KEY_RARITY),
+        FLAVOR(CardDbAdapter.KEY_FLAVOR),
+        CMC(CardDbAdapter.KEY_CMC),
+        COLOR(CardDbAdapter.KEY_COLOR),
+        ARTIST(CardDbAdapter.KEY_ARTIST),
+        MULTIVERSEID(CardDbAdapter.KEY_MULTIVERSEID),
+        COLOR_IDENTITY(CardDbAdapter.KEY_COLOR_IDENTITY),
+        WATERMARK(CardDbAdapter.KEY_WATERMARK);
+
+        private final String mColumn;
+
+        Field(String column) {
+            mColumn = column;
+        }
+
+        /**
+         * @return The name of the column this field is read from
+         */
+        public String getColumn() {
+            return mColumn;
+        }
+
+        /**
+         * @param column The name of a column
+         * @return The field read from that column, or null if there isn't one
+         */
+        @Nullable
+        public static Field fromColumn(String column) {
+            for (Field field : values()) {
+                if (field.mColumn.equals(column)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    /* Every field a MtgCard is initialized with */
+    public static final Field[] CARD_FIELDS = {
+            Field.NAME, Field.SET, Field.NUMBER, Field.SUPERTYPE, Field.SUBTYPE, Field.MANACOST,
+            Field.ABILITY, Field.POWER, Field.TOUGHNESS, Field.LOYALTY, Field.RARITY, Field.FLAVOR,
+            Field.CMC, Field.COLOR, Field.ARTIST, Field.MULTIVERSEID, Field.COLOR_IDENTITY,
+            Field.WATERMARK
+    };
+
+    /**
+     * A decoded row. Only the fields the CardRowMapper was asked for are filled in, the rest keep
+     * their defaults
+     */
+    public static class CardRow {
+        public long mId = -1;
+        public String mName = "";
+        public String mSet = "";
+        public String mNumber = "";
+        public String mSupertype = "";
+        public String mSubtype = "";
+        public String mManaCost = "";
+        public String mAbility = "";
+        public float mPower = CardDbAdapter.NO_ONE_CARES;
+        public float mToughness = CardDbAdapter.NO_ONE_CARES;
+        public int mLoyalty = CardDbAdapter.NO_ONE_CARES;
+        public char mRarity = '\0';
+        public String mFlavor = "";
+        public int mCmc = 0;
+        public String mColor = "";
+        public String mArtist = "";
+        public int mMultiverseId = 0;
+        public String mColorIdentity = "";
+        public String mWatermark = "";
+
+        /**
+         * @return The full type line (super - sub) for this row
+         */
+        public String getTypeLine() {
+            if (null != mSubtype && mSubtype.length() > 0) {
+                return mSupertype + " - " + mSubtype;
+            }
+            return mSupertype;
+        }
+    }
+
+    private final Cursor mCursor;
+    private final Field[] mFields;
+    private final int[] mColumns;
+
+    /**
+     * Look up the columns for the given fields in a cursor
+     *
+     * @param cursor The cursor rows will be read from
+     * @param fields The fields to read from each row
+     */
+    public CardRowMapper(Cursor cursor, Field... fields) {
+        mCursor = cursor;
+        mFields = Arrays.copyOf(fields, fields.length);
+        mColumns = new int[Field.values().length];
+        Arrays.fill(mColumns, -1);
+        for (Field field : mFields) {
+            mColumns[field.ordinal()] = cursor.getColumnIndex(field.getColumn());
+        }
+    }
+
+    /**
+     * @param cursor A cursor
+     * @return true if this mapper's columns were looked up for that cursor
+     */
+    public boolean isFor(Cursor cursor) {
+        return mCursor == cursor;
+    }
+
+    /**
+     * @param field A field
+     * @return The field's column index, or -1 if it wasn't asked for or isn't in the cursor
+     */
+    public int getColumnIndex(Field field) {
+        return mColumns[field.ordinal()];
+    }
+
+    /**
+     * @param field A field
+     * @return true if the field was asked for and is in the cursor
+     */
+    public boolean has(Field field) {
+        return mColumns[field.ordinal()] >= 0;
+    }
+
+    /**
+     * Read the cursor's current row
+     *
+     * @param row A row to fill in and return, or null to allocate a new one. Reusing a row when
+     *            reading many rows avoids an allocation per row
+     * @return The filled in row
+     */
+    public CardRow read(@Nullable CardRow row) {
+        if (null == row) {
+            row = new CardRow();
+        }
+        for (Field field : mFields) {
+            int column = mColumns[field.ordinal()];
+            if (column < 0) {
+                continue;
+            }
+            switch (field) {
+                case ID:
+                    row.mId = mCursor.getLong(column);
+                    break;
+                case NAME:
+                    row.mName = mCursor.getString(column);
+                    break;
+                case SET:
+                    row.mSet = mCursor.getString(column);
+                    break;
+                case NUMBER:
+                    row.mNumber = mCursor.getString(column);
+                    break;
+                case SUPERTYPE:
+                    row.mSupertype = mCursor.getString(column);
+                    break;
+                case SUBTYPE:
+                    row.mSubtype = mCursor.getString(column);
+                    break;
+                case MANACOST:
+                    row.mManaCost = mCursor.getString(column);
+                    break;
+                case ABILITY:
+                    row.mAbility = mCursor.getString(column);
+                    break;
+                case POWER:
+                    row.mPower = mCursor.getFloat(column);
+                    break;
+                case TOUGHNESS:
+                    row.mToughness = mCursor.getFloat(column);
+                    break;
+                case LOYALTY:
+                    row.mLoyalty = mCursor.getInt(column);
+                    break;
+                case RARITY:
+                    row.mRarity = (char) mCursor.getInt(column);
+                    break;
+                case FLAVOR:
+                    row.mFlavor = mCursor.getString(column);
+                    break;
+                case CMC:
+                    row.mCmc = mCursor.getInt(column);
+                    break;
+                case COLOR:
+                    row.mColor = mCursor.getString(column);
+                    break;
+                case ARTIST:
+                    row.mArtist = mCursor.getString(column);
+                    break;
+                case MULTIVERSEID:
+                    row.mMultiverseId = mCursor.getInt(column);
+                    break;
+                case COLOR_IDENTITY:
+                    row.mColorIdentity = mCursor.getString(column);
+                    break;
+                case WATERMARK:
+                    row.mWatermark = mCursor.getString(column);
+                    break;
+            }
+        }
+        return row;
+    }
+}
@@ -46,6 +46,9 @@ public class CardSearchProvider extends ContentProvider {
     private static final int REFRESH_SHORTCUT = 1;
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
+    // How many suggestions to show when the query doesn't start any English card name
+    private static final int FALLBACK_SUGGESTION_LIMIT = 10;
+
     static {
         // to get suggestions...
         sURIMatcher.addURI(AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, SEARCH_SUGGEST);
@@ -105,7 +108,20 @@ public class CardSearchProvider extends ContentProvider {
                     }
                     query = selectionArgs[0].toLowerCase();
 
-                    return CardDbAdapter.getCardsByNamePrefix(query, mDatabase);
+                    Cursor cursor = CardDbAdapter.getCardsByNamePrefix(query, mDatabase);
+                    if (cursor != null && cursor.getCount() == 0) {
+                        /* No English name starts with the query, maybe it's a foreign name */
+                        cursor.close();
+                        cursor = ForeignNameIndex.getSuggestions(query, FALLBACK_SUGGESTION_LIMIT, mDatabase);
+                    }
+                    if (cursor == null || cursor.getCount() == 0) {
+                        /* Still nothing, maybe it has a typo */
+                        if (cursor != null) {
+                            cursor.close();
+                        }
+                        cursor = FuzzyNameIndex.getSuggestions(query, FALLBACK_SUGGESTION_LIMIT, mDatabase);
+                    }
+                    return cursor;
                 }
                 case REFRESH_SHORTCUT: {
                     String rowId1 = uri.getLastPathSegment();
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A read-only copy of the card database which all non-transactional access reads from. Card data
+ * only changes when the updater runs, so the updater writes to its own working copy,
+ * DatabaseHelper's database, and publishes a new snapshot when it's done. A snapshot is never
+ * written after it's published. A new one is written next to it and renamed over it, so a reader
+ * sees either the whole old snapshot or the whole new one, never an update in progress.
+ * <p>
+ * Snapshots are opened read-only and memory mapped, so pages are read straight out of the page
+ * cache instead of being copied into SQLite's own cache for every connection.
+ */
+public class CardSnapshot {
+
+    /* The snapshot, in the same folder as the working database */
+    private static final String SNAPSHOT_NAME = CardDbAdapter.DATABASE_NAME + ".snapshot";
+    private static final String TEMP_NAME = SNAPSHOT_NAME + ".tmp";
+
+    /* How much of the snapshot may be memory mapped, enough for the whole file */
+    private static final long MMAP_SIZE = 256 * 1024 * 1024;
+
+    /* The buffer size for copying the working database */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * @param context A context to find the database folder with
+     * @return true if a snapshot has been published
+     */
+    public static boolean exists(Context context) {
+        return context.getDatabasePath(SNAPSHOT_NAME).exists();
+    }
+
+    /**
+     * Open the current snapshot read-only and memory mapped. The connection keeps reading the
+     * snapshot it opened even if a new one is published, until it is closed
+     *
+     * @param context A context to find the database folder with
+     * @return The snapshot, or null if one hasn't been published yet
+     * @throws SQLiteException If the snapshot can't be opened
+     */
+    @Nullable
+    public static SQLiteDatabase open(Context context) {
+        File snapshot = context.getDatabasePath(SNAPSHOT_NAME);
+        if (!snapshot.exists()) {
+            return null;
+        }
+        SQLiteDatabase database = SQLiteDatabase.openDatabase(snapshot.getPath(),
+                QueryLog.CURSOR_FACTORY, SQLiteDatabase.OPEN_READONLY);
+        /* SQLite clamps this to whatever it was compiled to allow, which may be no mapping at all,
+         * in which case it doesn't return a row */
+        Cursor cursor = database.rawQuery("PRAGMA mmap_size = " + MMAP_SIZE, null);
+        cursor.moveToFirst();
+        cursor.close();
+        return database;
+    }
+
+    /**
+     * Publish the working database as the new snapshot. This must be called after the updater is
+     * done writing, and fails if the working database is still open
+     *
+     * @param context A context to open the working database with
+     * @throws FamiliarDbException If the working database is open or can't be copied
+     */
+    public static void publish(Context context) throws FamiliarDbException {
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        Cursor cursor = null;
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabaseWithoutTransaction(context, handle);
+            /* Make sure every commit is in the main file, in case the framework turned on WAL */
+            cursor = database.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null);
+            cursor.moveToFirst();
+            cursor.close();
+            cursor = null;
+            publish(context, context.getDatabasePath(CardDbAdapter.DATABASE_NAME));
+        } catch (SQLiteException | IllegalStateException | IOException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            DatabaseManager.closeDatabase(context, handle);
+        }
+    }
+
+    /**
+     * Copy a closed database file to a temporary file, make it a self-contained rollback journal
+     * database, and rename it over the snapshot
+     *
+     * @param context A context to find the database folder with
+     * @param source  The database file to publish, which nothing may be writing to
+     * @throws IOException If the file can't be copied or renamed
+     */
+    static void publish(Context context, File source) throws IOException {
+        File temp = context.getDatabasePath(TEMP_NAME);
+        File snapshot = context.getDatabasePath(SNAPSHOT_NAME);
+
+        FileInputStream fis = null;
+        FileOutputStream fos = null;
+        try {
+            fis = new FileInputStream(source);
+            fos = new FileOutputStream(temp);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int length;
+            while ((length = fis.read(buffer)) > 0) {
+                fos.write(buffer, 0, length);
+            }
+            fos.flush();
+            fos.getFD().sync();
+        } finally {
+            if (null != fis) {
+                fis.close();
+            }
+            if (null != fos) {
+                fos.close();
+            }
+        }
+
+        /* A WAL database can't be opened read-only without its -shm file, so switch it back */
+        SQLiteDatabase copy = null;
+        try {
+            copy = SQLiteDatabase.openDatabase(temp.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            DatabaseUtils.stringForQuery(copy, "PRAGMA journal_mode = DELETE", null);
+        } catch (SQLiteException e) {
+            deleteTemp(context);
+            throw new IOException(e);
+        } finally {
+            if (null != copy) {
+                copy.close();
+            }
+        }
+
+        if (!temp.renameTo(snapshot)) {
+            deleteTemp(context);
+            throw new IOException("Couldn't rename " + temp + " to " + snapshot);
+        }
+
+        /* Anything cached from the old snapshot is stale now */
+        SetCatalog.invalidate();
+        MoJhoStoIndex.invalidate();
+        SearchPlanner.invalidate();
+        CardDictionary.invalidate();
+    }
+
+    /**
+     * Delete a partially written snapshot, and its journal if opening it made one
+     *
+     * @param context A context to find the database folder with
+     */
+    private static void deleteTemp(Context context) {
+        for (String suffix : new String[]{"", "-journal", "-wal", "-shm"}) {
+            File file = context.getDatabasePath(TEMP_NAME + suffix);
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
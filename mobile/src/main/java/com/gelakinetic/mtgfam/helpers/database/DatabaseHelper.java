@@ -31,12 +31,15 @@ class DatabaseHelper extends SQLiteOpenHelper {
     /**
      * Create a helper object to create, open, and/or manage a database. The database is not actually created or opened
      * until one of getWritableDatabase() or getReadableDatabase() is called. It also copies the zipped database if
-     * the database doesn't exist, or is out of date
+     * the database doesn't exist, or is out of date. Every cursor from the database is
+     * instrumented by QueryLog
      *
      * @param context A context to copy the database with
      */
     public DatabaseHelper(Context context) {
-        super(context, CardDbAdapter.DATABASE_NAME, null, CardDbAdapter.DATABASE_VERSION);
+        super(context, CardDbAdapter.DATABASE_NAME, QueryLog.CURSOR_FACTORY,
+                CardDbAdapter.DATABASE_VERSION);
+        QueryLog.initialize(context);
         if (CardDbAdapter.isDbOutOfDate(context)) {
             CardDbAdapter.copyDB(context);
         }
@@ -50,8 +53,8 @@ class DatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
-        db.execSQL(CardDbAdapter.DATABASE_CREATE_CARDS);
-        db.execSQL(CardDbAdapter.DATABASE_CREATE_SETS);
+        QueryLog.execSQL(db, CardDbAdapter.DATABASE_CREATE_CARDS);
+        QueryLog.execSQL(db, CardDbAdapter.DATABASE_CREATE_SETS);
     }
 
     /**
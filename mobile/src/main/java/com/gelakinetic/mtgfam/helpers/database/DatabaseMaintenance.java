@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Housekeeping for the card database after an update. Updates drop and reinsert whole sets and
+ * tables, which leaves free pages scattered through the file and the planner's statistics stale.
+ * This runs ANALYZE when the data changed, PRAGMA optimize, and VACUUM when enough of the file is
+ * free pages or the page size is smaller than it should be.
+ * <p>
+ * A statement can't be interrupted once it starts, so the time budget is kept by estimating how
+ * long each step will take from the size of the file, and skipping the steps which won't fit.
+ */
+public class DatabaseMaintenance {
+
+    /* VACUUM when more than this fraction of the pages are free */
+    private static final double MAX_FREE_PAGE_RATIO = 0.1;
+
+    /* The page size the database is rebuilt with if it has a smaller one */
+    private static final long TARGET_PAGE_SIZE = 4096;
+
+    /* Conservative throughputs for slow devices, used to estimate how long a step will take */
+    private static final long VACUUM_BYTES_PER_MS = 5 * 1024;
+    private static final long ANALYZE_BYTES_PER_MS = 20 * 1024;
+
+    /**
+     * The state of the database file before and after maintenance, and what was done to it
+     */
+    public static class Report {
+        long mBytesBefore;
+        long mBytesAfter;
+        long mPagesBefore;
+        long mPagesAfter;
+        long mFreePagesBefore;
+        long mFreePagesAfter;
+        long mPageSizeBefore;
+        long mPageSizeAfter;
+        long mElapsedMs;
+        final ArrayList<String> mStepsRun = new ArrayList<>();
+        final ArrayList<String> mStepsSkipped = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "Maintenance: %d bytes -> %d bytes, %d pages (%d free, %d bytes each) -> " +
+                            "%d pages (%d free, %d bytes each), ran %s, skipped %s, took %d ms",
+                    mBytesBefore, mBytesAfter,
+                    mPagesBefore, mFreePagesBefore, mPageSizeBefore,
+                    mPagesAfter, mFreePagesAfter, mPageSizeAfter,
+                    mStepsRun, mStepsSkipped, mElapsedMs);
+        }
+    }
+
+    /**
+     * Run whatever maintenance the database needs and fits in the time budget. This must be called
+     * when nothing else has the writable database open, since VACUUM can't run in a transaction
+     *
+     * @param context          A context to open the database with
+     * @param isAnalyzeNeeded  true if the update changed the data, so the statistics are stale
+     * @param budgetMs         Roughly how long maintenance may take, in milliseconds
+     * @return A report of what was done, to be logged
+     * @throws FamiliarDbException If the database can't be opened or a statement fails
+     */
+    public static Report run(Context context, boolean isAnalyzeNeeded, long budgetMs)
+            throws FamiliarDbException {
+        Report report = new Report();
+        long start = SystemClock.elapsedRealtime();
+        File file = context.getDatabasePath(CardDbAdapter.DATABASE_NAME);
+
+        FamiliarDbHandle handle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabaseWithoutTransaction(context, handle);
+
+            report.mBytesBefore = file.length();
+            report.mPagesBefore = getPragma(database, "page_count");
+            report.mFreePagesBefore = getPragma(database, "freelist_count");
+            report.mPageSizeBefore = getPragma(database, "page_size");
+
+            if (isAnalyzeNeeded) {
+                if (fitsBudget(report.mBytesBefore / ANALYZE_BYTES_PER_MS, start, budgetMs)) {
+                    QueryLog.execSQL(database, "ANALYZE");
+                    report.mStepsRun.add("ANALYZE");
+                } else {
+                    report.mStepsSkipped.add("ANALYZE");
+                }
+            }
+
+            /* Only analyzes tables whose statistics look stale, and is a no-op before SQLite 3.18 */
+            QueryLog.execSQL(database, "PRAGMA optimize");
+            report.mStepsRun.add("PRAGMA optimize");
+
+            boolean isPageSizeSmall = report.mPageSizeBefore < TARGET_PAGE_SIZE;
+            boolean isFragmented = report.mPagesBefore > 0 &&
+                    report.mFreePagesBefore > report.mPagesBefore * MAX_FREE_PAGE_RATIO;
+            if (isPageSizeSmall || isFragmented) {
+                /* VACUUM writes a copy of the database before replacing it */
+                if (fitsBudget(report.mBytesBefore / VACUUM_BYTES_PER_MS, start, budgetMs) &&
+                        file.getUsableSpace() > 2 * report.mBytesBefore) {
+                    /* The page size can't be changed in WAL mode, so just compact it then */
+                    if (isPageSizeSmall && !"wal".equalsIgnoreCase(
+                            DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null))) {
+                        QueryLog.execSQL(database, "PRAGMA page_size = " + TARGET_PAGE_SIZE);
+                    }
+                    QueryLog.execSQL(database, "VACUUM");
+                    report.mStepsRun.add("VACUUM");
+                } else {
+                    report.mStepsSkipped.add("VACUUM");
+                }
+            }
+
+            report.mBytesAfter = file.length();
+            report.mPagesAfter = getPragma(database, "page_count");
+            report.mFreePagesAfter = getPragma(database, "freelist_count");
+            report.mPageSizeAfter = getPragma(database, "page_size");
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            DatabaseManager.closeDatabase(context, handle);
+        }
+
+        report.mElapsedMs = SystemClock.elapsedRealtime() - start;
+        return report;
+    }
+
+    /**
+     * @param estimateMs How long the next step is expected to take
+     * @param start      When maintenance started, from SystemClock.elapsedRealtime()
+     * @param budgetMs   How long maintenance may take in total
+     * @return true if the step is expected to finish within the budget
+     */
+    private static boolean fitsBudget(long estimateMs, long start, long budgetMs) {
+        return SystemClock.elapsedRealtime() - start + estimateMs <= budgetMs;
+    }
+
+    /**
+     * @param database The database to query
+     * @param pragma   The name of a PRAGMA which returns a single number
+     * @return The PRAGMA's value
+     */
+    private static long getPragma(SQLiteDatabase database, String pragma) {
+        return DatabaseUtils.longForQuery(database, "PRAGMA " + pragma, null);
+    }
+}
@@ -95,6 +95,23 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Opens the writable database without starting a transaction, for statements which can't be
+     * run inside one, like VACUUM. The database must be closed with closeDatabase(). This fails
+     * if the writable database is already open
+     *
+     * @param context A context to construct a DatabaseHelper if necessary
+     * @param handle  This is set to a value unique to this database access and must be used
+     *                to close the access later
+     * @return A SQLiteDatabase object used for database access
+     * @throws FamiliarDbException if the database can't be opened, or is already open
+     */
+    public static synchronized SQLiteDatabase openDatabaseWithoutTransaction(Context context,
+                                                                             @NonNull FamiliarDbHandle handle) throws FamiliarDbException {
+        getInstance(context, true);
+        return mTransactionalDatabase.openDatabaseWithoutTransaction(handle);
+    }
+
     /**
      * Close a database opened with this class
      *
@@ -121,14 +138,17 @@ public class DatabaseManager {
     /**
      * Routing all database access through one point failed when the database was accessed while the
      * updater service was running (transactional open). With this private class, there are now two
-     * entry points: a writable transactional one, and a readable one.
+     * entry points: a writable transactional one, and a readable one. The readable one reads the
+     * published CardSnapshot, if there is one, so it never sees an update in progress.
      */
     private static class AtomicDatabase {
         private final ArrayList<FamiliarDbHandle> mOpenHandles = new ArrayList<>();
         private final boolean mTransactional;
+        private boolean mIsInTransaction = false;
         private SQLiteDatabase mDatabase;
         private DatabaseManager mDatabaseManager;
         private DatabaseHelper mDatabaseHelper;
+        private Context mContext;
 
         /**
          * Constructor, marks if this object is transactional or not
@@ -147,6 +167,7 @@ public class DatabaseManager {
         synchronized void initializeInstance(Context context) {
             if (mDatabaseManager == null) {
                 mDatabaseManager = new DatabaseManager();
+                mContext = context.getApplicationContext();
                 mDatabaseHelper = new DatabaseHelper(context);
             }
         }
@@ -190,10 +211,14 @@ public class DatabaseManager {
                     if (mTransactional) {
                         mDatabase = mDatabaseHelper.getWritableDatabase();
                         if (mDatabase != null) {
-                            mDatabase.execSQL("BEGIN EXCLUSIVE TRANSACTION");
+                            QueryLog.execSQL(mDatabase, "BEGIN EXCLUSIVE TRANSACTION");
+                            mIsInTransaction = true;
                         }
                     } else {
-                        mDatabase = mDatabaseHelper.getReadableDatabase();
+                        mDatabase = CardSnapshot.open(mContext);
+                        if (null == mDatabase) {
+                            mDatabase = mDatabaseHelper.getReadableDatabase();
+                        }
                     }
                 }
                 // Add the handle to the collection of open handles only if the open was successful
@@ -204,6 +229,31 @@ public class DatabaseManager {
             }
         }
 
+        /**
+         * Opens the writable database without starting a transaction, and sets the handle through
+         * a parameter
+         *
+         * @param handle This is set to a value unique to this database access and must be used
+         *               to close the access later
+         * @return a SQLiteDatabase to run statements which can't be run in a transaction
+         * @throws FamiliarDbException if the database can't be opened, or is already open
+         */
+        synchronized SQLiteDatabase openDatabaseWithoutTransaction(@NonNull FamiliarDbHandle handle)
+                throws FamiliarDbException {
+            if (!mOpenHandles.isEmpty()) {
+                throw new FamiliarDbException(new IllegalStateException("The writable database is already open"));
+            }
+            try {
+                mDatabase = mDatabaseHelper.getWritableDatabase();
+                mIsInTransaction = false;
+                handle.setInfo(1, mTransactional);
+                mOpenHandles.add(handle);
+                return mDatabase;
+            } catch (SQLiteException e) {
+                throw new FamiliarDbException(e);
+            }
+        }
+
         /**
          * Close a database opened with this object
          *
@@ -216,8 +266,9 @@ public class DatabaseManager {
                 mOpenHandles.remove(handle);
                 // Close the database
                 if (mOpenHandles.isEmpty()) {
-                    if (mTransactional) {
-                        mDatabase.execSQL("COMMIT");
+                    if (mIsInTransaction) {
+                        QueryLog.execSQL(mDatabase, "COMMIT");
+                        mIsInTransaction = false;
                     }
                     mDatabase.close();
                 }
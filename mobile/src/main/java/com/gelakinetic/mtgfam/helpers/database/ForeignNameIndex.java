@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.app.SearchManager;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.Nullable;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+
+import java.util.ArrayList;
+
+/**
+ * A lookup table from normalized foreign card names to cards. The foreign names are also stored in
+ * ForeignPrintings, which can only be searched by scanning every row. This table has a row for
+ * every word a foreign name can be found by, so "Blitz" finds "Blitzschlag" and "Schlag" finds
+ * "Heiliger Schlag", and finding a name in any language is a single index range lookup.
+ * <p>
+ * Rows are added as cards are added. The table is built from ForeignPrintings the first time the
+ * updater runs on a database which doesn't have it yet.
+ */
+public class ForeignNameIndex {
+
+    /**
+     * Check if the lookup table exists in the database
+     *
+     * @param database The database to check
+     * @return true if the table exists, false otherwise
+     */
+    public static boolean isBuilt(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                " WHERE type = 'table' AND name = ?",
+                new String[]{CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES}) > 0;
+    }
+
+    /**
+     * Drop and rebuild the lookup table from every foreign printing
+     *
+     * @param database The writable database to rebuild the table in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_FOREIGN_NAMES);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+        addPrintingsFrom(0, database);
+    }
+
+    /**
+     * Add the foreign printings of every card from a KEY_ID on to the lookup table. This is for
+     * cards which were inserted with SQL instead of createCard(), like the ones merged from a
+     * SetPatchDatabase
+     *
+     * @param firstId  The lowest KEY_ID to add
+     * @param database The writable database to add names to
+     * @throws FamiliarDbException If something goes wrong
+     */
+    static void addPrintingsFrom(long firstId, SQLiteDatabase database) throws FamiliarDbException {
+        SQLiteStatement insert = null;
+        Cursor cursor = null;
+        try {
+            insert = database.compileStatement("INSERT OR IGNORE INTO " +
+                    CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES + " (" + CardDbAdapter.KEY_LANGUAGE +
+                    ", " + CardDbAdapter.KEY_NAME_NO_ACCENT + ", " + CardDbAdapter.KEY_NAME + ", " +
+                    CardDbAdapter.KEY_CARD_ID + ") VALUES (?, ?, ?, ?)");
+
+            /* Lower ids first, so the first printing of a name is the one which is kept */
+            cursor = database.rawQuery("SELECT " + CardDbAdapter.KEY_CARD_ID + ", " +
+                    CardDbAdapter.KEY_LANGUAGE + ", " + CardDbAdapter.KEY_NAME + " FROM " +
+                    CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS + " WHERE " +
+                    CardDbAdapter.KEY_CARD_ID + " >= ? ORDER BY " + CardDbAdapter.KEY_CARD_ID,
+                    new String[]{Long.toString(firstId)});
+            while (cursor.moveToNext()) {
+                long cardId = cursor.getLong(0);
+                String name = cursor.getString(2);
+                for (String key : getKeys(name)) {
+                    insert.bindString(1, cursor.getString(1));
+                    insert.bindString(2, key);
+                    insert.bindString(3, name);
+                    insert.bindLong(4, cardId);
+                    insert.executeInsert();
+                }
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != insert) {
+                insert.close();
+            }
+        }
+    }
+
+    /**
+     * Add a newly inserted card's foreign names to the lookup table. If another printing already
+     * has the same name, that printing is kept
+     *
+     * @param cardId   The KEY_ID the card was inserted with
+     * @param card     The card which was inserted
+     * @param database The database the card was inserted into
+     */
+    static void addCard(long cardId, Card card, SQLiteDatabase database) {
+        ContentValues values = new ContentValues();
+        for (Card.ForeignPrinting fp : card.getForeignPrintings()) {
+            if (null == fp.getName()) {
+                continue;
+            }
+            for (String key : getKeys(fp.getName())) {
+                values.clear();
+                values.put(CardDbAdapter.KEY_LANGUAGE, fp.getLanguageCode());
+                values.put(CardDbAdapter.KEY_NAME_NO_ACCENT, key);
+                values.put(CardDbAdapter.KEY_NAME, fp.getName());
+                values.put(CardDbAdapter.KEY_CARD_ID, cardId);
+                database.insertWithOnConflict(CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES, null,
+                        values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+        }
+    }
+
+    /**
+     * Remove the foreign names of every card in a set from the lookup table. This must be called
+     * before the cards themselves are deleted
+     *
+     * @param setCode  The set being dropped
+     * @param database The database to remove names from
+     */
+    static void dropSet(String setCode, SQLiteDatabase database) {
+        database.delete(CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES, CardDbAdapter.KEY_CARD_ID +
+                " IN (SELECT " + CardDbAdapter.KEY_ID + " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                " WHERE " + CardDbAdapter.KEY_SET + " = ?)", new String[]{setCode});
+    }
+
+    /**
+     * Build a clause for DATABASE_TABLE_CARDS which matches every printing of every card with a
+     * foreign name that has a word starting with the query
+     *
+     * @param query What the user typed
+     * @return The SQL clause, or null if the query can't match anything
+     */
+    @Nullable
+    static String getNameMatchClause(String query) {
+        String[] range = getKeyRange(query);
+        if (null == range) {
+            return null;
+        }
+        return CardDbAdapter.DATABASE_TABLE_CARDS + "." + CardDbAdapter.KEY_NAME + " IN (SELECT " +
+                "ForeignCards." + CardDbAdapter.KEY_NAME + " FROM " +
+                CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES + " JOIN " +
+                CardDbAdapter.DATABASE_TABLE_CARDS + " AS ForeignCards ON ForeignCards." +
+                CardDbAdapter.KEY_ID + " = " + CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES + "." +
+                CardDbAdapter.KEY_CARD_ID + " WHERE " + getRangeClause(range) + ")";
+    }
+
+    /**
+     * Find foreign names for the search widget
+     *
+     * @param query    What the user typed
+     * @param limit    The most suggestions to return
+     * @param database The database to search
+     * @return A cursor with the same columns as CardDbAdapter.getCardsByNamePrefix(), with the
+     * foreign name as KEY_NAME, or null if the query can't match anything
+     * @throws FamiliarDbException If something goes wrong
+     */
+    @Nullable
+    public static Cursor getSuggestions(String query, int limit, SQLiteDatabase database)
+            throws FamiliarDbException {
+        String[] range = getKeyRange(query);
+        if (null == range || !isBuilt(database)) {
+            return null;
+        }
+        try {
+            return database.rawQuery("SELECT " +
+                    CardDbAdapter.KEY_NAME + ", " +
+                    "MIN(" + CardDbAdapter.KEY_CARD_ID + ") AS " + CardDbAdapter.KEY_ID + ", " +
+                    "MIN(" + CardDbAdapter.KEY_CARD_ID + ") AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID +
+                    " FROM " + CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES +
+                    " WHERE " + getRangeClause(range) +
+                    " GROUP BY " + CardDbAdapter.KEY_NAME +
+                    " ORDER BY LENGTH(" + CardDbAdapter.KEY_NAME + "), " + CardDbAdapter.KEY_NAME +
+                    " LIMIT " + limit, null);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Get every key a foreign name can be found by: the whole normalized name, and the rest of
+     * the name from the start of each word after the first
+     *
+     * @param name A foreign name
+     * @return The keys for that name
+     */
+    static ArrayList<String> getKeys(String name) {
+        ArrayList<String> keys = new ArrayList<>();
+        String normalized = FuzzyNameIndex.normalize(name);
+        if (normalized.isEmpty()) {
+            return keys;
+        }
+        keys.add(normalized);
+        for (int i = normalized.indexOf(' '); i != -1; i = normalized.indexOf(' ', i + 1)) {
+            if (i + 1 < normalized.length()) {
+                keys.add(normalized.substring(i + 1));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Get the range of keys which start with a query
+     *
+     * @param query What the user typed
+     * @return The inclusive lower bound and exclusive upper bound, or null if the query is empty
+     */
+    @Nullable
+    private static String[] getKeyRange(String query) {
+        String normalized = FuzzyNameIndex.normalize(query);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        /* Every key starting with the query sorts before the query with its last letter bumped */
+        int last = normalized.length() - 1;
+        String upper = normalized.substring(0, last) + (char) (normalized.charAt(last) + 1);
+        return new String[]{normalized, upper};
+    }
+
+    /**
+     * @param range A range from getKeyRange()
+     * @return A clause for DATABASE_TABLE_FOREIGN_NAMES matching keys in the range, which is
+     * answered by the table's index
+     */
+    private static String getRangeClause(String[] range) {
+        String key = CardDbAdapter.DATABASE_TABLE_FOREIGN_NAMES + "." + CardDbAdapter.KEY_NAME_NO_ACCENT;
+        return key + " >= " + DatabaseUtils.sqlEscapeString(range[0]) + " AND " +
+                key + " < " + DatabaseUtils.sqlEscapeString(range[1]);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Card;
+import com.gelakinetic.GathererScraper.Language;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * The translated name and multiverse ID of each printing, one row per language the printing was
+ * translated to. These used to be a name and a multiverse ID column per language in
+ * DATABASE_TABLE_CARDS, which were null for nearly every card but still read by every query for
+ * whole cards. Now they're only read when a card is displayed.
+ * <p>
+ * Databases with the old columns are migrated the first time the updater runs. Until then,
+ * printings are read from the old columns.
+ */
+public class ForeignPrintings {
+
+    /* Each language and the columns in DATABASE_TABLE_CARDS which used to hold its printings */
+    private static final String[][] LANGUAGE_COLUMNS = {
+            {Language.Chinese_Traditional, CardDbAdapter.KEY_NAME_CHINESE_TRADITIONAL, CardDbAdapter.KEY_MULTIVERSEID_CHINESE_TRADITIONAL},
+            {Language.Chinese_Simplified, CardDbAdapter.KEY_NAME_CHINESE_SIMPLIFIED, CardDbAdapter.KEY_MULTIVERSEID_CHINESE_SIMPLIFIED},
+            {Language.French, CardDbAdapter.KEY_NAME_FRENCH, CardDbAdapter.KEY_MULTIVERSEID_FRENCH},
+            {Language.German, CardDbAdapter.KEY_NAME_GERMAN, CardDbAdapter.KEY_MULTIVERSEID_GERMAN},
+            {Language.Italian, CardDbAdapter.KEY_NAME_ITALIAN, CardDbAdapter.KEY_MULTIVERSEID_ITALIAN},
+            {Language.Japanese, CardDbAdapter.KEY_NAME_JAPANESE, CardDbAdapter.KEY_MULTIVERSEID_JAPANESE},
+            {Language.Portuguese_Brazil, CardDbAdapter.KEY_NAME_PORTUGUESE_BRAZIL, CardDbAdapter.KEY_MULTIVERSEID_PORTUGUESE_BRAZIL},
+            {Language.Russian, CardDbAdapter.KEY_NAME_RUSSIAN, CardDbAdapter.KEY_MULTIVERSEID_RUSSIAN},
+            {Language.Spanish, CardDbAdapter.KEY_NAME_SPANISH, CardDbAdapter.KEY_MULTIVERSEID_SPANISH},
+            {Language.Korean, CardDbAdapter.KEY_NAME_KOREAN, CardDbAdapter.KEY_MULTIVERSEID_KOREAN},
+    };
+
+    /**
+     * Check if the side table exists in the database
+     *
+     * @param database The database to check
+     * @return true if the table exists, false if the database still has the per-language columns
+     */
+    public static boolean isBuilt(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                        " WHERE type = 'table' AND name = ?",
+                new String[]{CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS}) > 0;
+    }
+
+    /**
+     * Move the printings out of the per-language columns into the side table, then rebuild
+     * DATABASE_TABLE_CARDS without those columns. Every card keeps its KEY_ID, so the tables which
+     * refer to cards stay valid. The freed pages are reclaimed by DatabaseMaintenance. If the
+     * columns are already gone, nothing is changed, since the side table is the only copy of the
+     * printings
+     *
+     * @param database The writable database to migrate
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        Cursor cursor = null;
+        try {
+            /* Find out which columns the cards table has now */
+            HashSet<String> oldColumns = new HashSet<>();
+            cursor = database.rawQuery("PRAGMA table_info(" + CardDbAdapter.DATABASE_TABLE_CARDS + ")", null);
+            int nameColumn = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                oldColumns.add(cursor.getString(nameColumn));
+            }
+            cursor.close();
+            cursor = null;
+
+            if (!hasLanguageColumns(oldColumns)) {
+                return;
+            }
+
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_FOREIGN_PRINTINGS);
+            for (String[] languageColumn : LANGUAGE_COLUMNS) {
+                if (oldColumns.contains(languageColumn[1])) {
+                    QueryLog.execSQL(database, "INSERT INTO " + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS +
+                            " (" + CardDbAdapter.KEY_CARD_ID + ", " + CardDbAdapter.KEY_LANGUAGE + ", " +
+                            CardDbAdapter.KEY_NAME + ", " + CardDbAdapter.KEY_MULTIVERSEID + ")" +
+                            " SELECT " + CardDbAdapter.KEY_ID + ", " +
+                            DatabaseUtils.sqlEscapeString(languageColumn[0]) + ", " +
+                            languageColumn[1] + ", " + languageColumn[2] +
+                            " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                            " WHERE " + languageColumn[1] + " IS NOT NULL AND " +
+                            languageColumn[1] + " != ''");
+                }
+            }
+
+            /* Dropping the table drops its indices, so remember them */
+            ArrayList<String> indices = new ArrayList<>();
+            cursor = database.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'index' AND" +
+                    " tbl_name = ? AND sql IS NOT NULL", new String[]{CardDbAdapter.DATABASE_TABLE_CARDS});
+            while (cursor.moveToNext()) {
+                indices.add(cursor.getString(0));
+            }
+            cursor.close();
+            cursor = null;
+
+            /* Copy every column which is still in the schema into a new table */
+            String newTable = CardDbAdapter.DATABASE_TABLE_CARDS + "_new";
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + newTable);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_CARDS.replaceFirst(
+                    "create table " + CardDbAdapter.DATABASE_TABLE_CARDS + "\\(", "create table " + newTable + "("));
+            StringBuilder columns = new StringBuilder();
+            cursor = database.rawQuery("PRAGMA table_info(" + newTable + ")", null);
+            while (cursor.moveToNext()) {
+                String column = cursor.getString(nameColumn);
+                if (oldColumns.contains(column)) {
+                    columns.append(columns.length() == 0 ? "" : ", ").append(column);
+                }
+            }
+            cursor.close();
+            cursor = null;
+            QueryLog.execSQL(database, "INSERT INTO " + newTable + " (" + columns + ") SELECT " +
+                    columns + " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS);
+            QueryLog.execSQL(database, "DROP TABLE " + CardDbAdapter.DATABASE_TABLE_CARDS);
+            QueryLog.execSQL(database, "ALTER TABLE " + newTable + " RENAME TO " + CardDbAdapter.DATABASE_TABLE_CARDS);
+            for (String index : indices) {
+                QueryLog.execSQL(database, index);
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @param columns The columns in DATABASE_TABLE_CARDS
+     * @return true if any of them held printings, before the migration
+     */
+    private static boolean hasLanguageColumns(HashSet<String> columns) {
+        for (String[] languageColumn : LANGUAGE_COLUMNS) {
+            if (columns.contains(languageColumn[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a newly inserted card's foreign printings to the side table
+     *
+     * @param cardId   The KEY_ID the card was inserted with
+     * @param card     The card which was inserted
+     * @param database The database the card was inserted into
+     */
+    static void addCard(long cardId, Card card, SQLiteDatabase database) {
+        ContentValues values = new ContentValues();
+        for (Card.ForeignPrinting fp : card.getForeignPrintings()) {
+            if (null == fp.getName() || fp.getName().isEmpty()) {
+                continue;
+            }
+            values.clear();
+            values.put(CardDbAdapter.KEY_CARD_ID, cardId);
+            values.put(CardDbAdapter.KEY_LANGUAGE, fp.getLanguageCode());
+            values.put(CardDbAdapter.KEY_NAME, fp.getName());
+            values.put(CardDbAdapter.KEY_MULTIVERSEID, fp.getMultiverseId());
+            database.insertWithOnConflict(CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS, null,
+                    values, SQLiteDatabase.CONFLICT_REPLACE);
+        }
+    }
+
+    /**
+     * Remove the foreign printings of every card in a set from the side table. This must be
+     * called before the cards themselves are deleted
+     *
+     * @param setCode  The set being dropped
+     * @param database The database to remove printings from
+     */
+    static void dropSet(String setCode, SQLiteDatabase database) {
+        database.delete(CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS, CardDbAdapter.KEY_CARD_ID +
+                " IN (SELECT " + CardDbAdapter.KEY_ID + " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                " WHERE " + CardDbAdapter.KEY_SET + " = ?)", new String[]{setCode});
+    }
+
+    /**
+     * Get every translation of a printing
+     *
+     * @param cardId   The KEY_ID of the printing
+     * @param database The database to query
+     * @return The printing's translations, in the order the languages used to have columns
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static ArrayList<Card.ForeignPrinting> getPrintings(long cardId, SQLiteDatabase database)
+            throws FamiliarDbException {
+        Cursor cursor = null;
+        try {
+            if (!isBuilt(database)) {
+                return getPrintingsFromColumns(cardId, database);
+            }
+
+            /* Read the rows once, then put them in order */
+            HashMap<String, Card.ForeignPrinting> printingsByLanguage = new HashMap<>();
+            cursor = database.query(CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS,
+                    new String[]{CardDbAdapter.KEY_LANGUAGE, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_MULTIVERSEID},
+                    CardDbAdapter.KEY_CARD_ID + " = ?", new String[]{Long.toString(cardId)},
+                    null, null, null);
+            while (cursor.moveToNext()) {
+                printingsByLanguage.put(cursor.getString(0),
+                        new Card.ForeignPrinting(cursor.getString(1), cursor.getString(0), cursor.getInt(2)));
+            }
+
+            ArrayList<Card.ForeignPrinting> printings = new ArrayList<>(printingsByLanguage.size());
+            for (String[] languageColumn : LANGUAGE_COLUMNS) {
+                Card.ForeignPrinting printing = printingsByLanguage.get(languageColumn[0]);
+                if (null != printing) {
+                    printings.add(printing);
+                }
+            }
+            return printings;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Get every translation of a printing from the per-language columns, for a database which
+     * hasn't been migrated yet, like the one packaged with the app
+     *
+     * @param cardId   The KEY_ID of the printing
+     * @param database The database to query
+     * @return The printing's translations, in the order the languages have columns
+     */
+    private static ArrayList<Card.ForeignPrinting> getPrintingsFromColumns(long cardId, SQLiteDatabase database) {
+        ArrayList<Card.ForeignPrinting> printings = new ArrayList<>();
+        String[] columns = new String[LANGUAGE_COLUMNS.length * 2];
+        for (int i = 0; i < LANGUAGE_COLUMNS.length; i++) {
+            columns[2 * i] = LANGUAGE_COLUMNS[i][1];
+            columns[2 * i + 1] = LANGUAGE_COLUMNS[i][2];
+        }
+        Cursor cursor = database.query(CardDbAdapter.DATABASE_TABLE_CARDS, columns,
+                CardDbAdapter.KEY_ID + " = ?", new String[]{Long.toString(cardId)},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                for (int i = 0; i < LANGUAGE_COLUMNS.length; i++) {
+                    String name = cursor.getString(2 * i);
+                    if (null != name && !name.isEmpty()) {
+                        printings.add(new Card.ForeignPrinting(name, LANGUAGE_COLUMNS[i][0],
+                                cursor.getInt(2 * i + 1)));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return printings;
+    }
+}
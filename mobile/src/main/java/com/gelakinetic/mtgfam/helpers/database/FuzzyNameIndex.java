@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.app.SearchManager;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+
+/**
+ * A trigram index over every unique card name, for finding names which are spelled almost, but
+ * not exactly, like a query.
+ * <p>
+ * Names are normalized (accents removed, lower case, punctuation collapsed to single spaces) and
+ * split into overlapping three character pieces, padded with spaces so the start and end of the
+ * name count. Names which share the most trigrams with a query are fetched with one indexed
+ * query, then ranked by edit distance.
+ * <p>
+ * The index is rebuilt by the updater whenever cards change. Until it's built, nothing is found.
+ */
+public class FuzzyNameIndex {
+
+    /* Queries are truncated to this length, to keep the number of bound trigrams in check */
+    private static final int MAX_QUERY_LENGTH = 100;
+
+    /* How many candidates are fetched for ranking, per result asked for */
+    private static final int CANDIDATES_PER_RESULT = 4;
+
+    /* The fewest candidates fetched for ranking */
+    private static final int MIN_CANDIDATES = 20;
+
+    /* Names with fewer than this fraction of the query's trigrams aren't considered */
+    private static final float MIN_SHARED_FRACTION = 0.3f;
+
+    /* The column counting a name's trigrams in common with the query */
+    private static final String KEY_SHARED = "shared";
+
+    /**
+     * A name found for a query
+     */
+    public static class Match {
+        public final String mName;
+        public final long mCardId;
+        public final int mDistance;
+        public final float mSimilarity;
+
+        /**
+         * @param name       The card name
+         * @param cardId     The KEY_ID of a printing with that name
+         * @param distance   The edit distance between the normalized query and normalized name
+         * @param similarity The fraction of trigrams the query and name have in common
+         */
+        Match(String name, long cardId, int distance, float similarity) {
+            mName = name;
+            mCardId = cardId;
+            mDistance = distance;
+            mSimilarity = similarity;
+        }
+    }
+
+    /**
+     * Find the card names most like a query
+     *
+     * @param query    What the user typed
+     * @param isPrefix true if the query is the start of a name, like when autocompleting. false if
+     *                 it's meant to be a whole name
+     * @param limit    The most names to return
+     * @param database The database to search
+     * @return Matching names, best first. Empty if nothing is close, or if the index isn't built
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static ArrayList<Match> findNames(String query, boolean isPrefix, int limit,
+                                             SQLiteDatabase database) throws FamiliarDbException {
+        ArrayList<Match> matches = new ArrayList<>();
+        String normalized = normalize(query);
+        if (normalized.length() > MAX_QUERY_LENGTH) {
+            normalized = normalized.substring(0, MAX_QUERY_LENGTH);
+        }
+        LinkedHashSet<String> trigrams = getTrigrams(normalized, isPrefix);
+        if (trigrams.isEmpty() || !isBuilt(database)) {
+            return matches;
+        }
+
+        /* Fetch the names which share the most trigrams with the query. For whole names, rank by
+         * the fraction of trigrams in common so that long names don't win just for being long.
+         * For prefixes, only the query's trigrams matter
+         */
+        String order = isPrefix ?
+                KEY_SHARED + " DESC, " + CardDbAdapter.KEY_TRIGRAM_COUNT + " ASC" :
+                KEY_SHARED + " * 1.0 / (" + trigrams.size() + " + " + CardDbAdapter.KEY_TRIGRAM_COUNT +
+                        " - " + KEY_SHARED + ") DESC";
+        StringBuilder sql = new StringBuilder("SELECT " +
+                CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES + "." + CardDbAdapter.KEY_NAME + ", " +
+                CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES + "." + CardDbAdapter.KEY_NAME_NO_ACCENT + ", " +
+                CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES + "." + CardDbAdapter.KEY_CARD_ID + ", " +
+                CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES + "." + CardDbAdapter.KEY_TRIGRAM_COUNT + ", " +
+                "Shared." + KEY_SHARED +
+                " FROM (SELECT " + CardDbAdapter.KEY_NAME_ID + ", COUNT(*) AS " + KEY_SHARED +
+                " FROM " + CardDbAdapter.DATABASE_TABLE_NAME_TRIGRAMS +
+                " WHERE " + CardDbAdapter.KEY_TRIGRAM + " IN (");
+        for (int i = 0; i < trigrams.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") GROUP BY ").append(CardDbAdapter.KEY_NAME_ID)
+                .append(" HAVING ").append(KEY_SHARED).append(" >= ")
+                .append(Math.max(1, (int) (trigrams.size() * MIN_SHARED_FRACTION)))
+                .append(") AS Shared JOIN ").append(CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES)
+                .append(" ON ").append(CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES).append(".")
+                .append(CardDbAdapter.KEY_ID).append(" = Shared.").append(CardDbAdapter.KEY_NAME_ID)
+                .append(" ORDER BY ").append(order)
+                .append(" LIMIT ").append(Math.max(MIN_CANDIDATES, limit * CANDIDATES_PER_RESULT));
+
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery(sql.toString(), trigrams.toArray(new String[trigrams.size()]));
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(1);
+                int sharedCount = cursor.getInt(4);
+                float similarity = sharedCount / (float) (trigrams.size() + cursor.getInt(3) - sharedCount);
+                int distance;
+                if (isPrefix) {
+                    /* Compare against the start of the name, give or take a letter */
+                    distance = Integer.MAX_VALUE;
+                    for (int length = normalized.length() - 1; length <= normalized.length() + 1; length++) {
+                        if (length > 0) {
+                            distance = Math.min(distance, getEditDistance(normalized,
+                                    name.substring(0, Math.min(length, name.length()))));
+                        }
+                    }
+                } else {
+                    distance = getEditDistance(normalized, name);
+                }
+                matches.add(new Match(cursor.getString(0), cursor.getLong(2), distance, similarity));
+            }
+        } catch (SQLiteException | IllegalStateException | CursorIndexOutOfBoundsException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+
+        /* Fewest edits first, then most trigrams in common */
+        Collections.sort(matches, (a, b) -> {
+            if (a.mDistance != b.mDistance) {
+                return a.mDistance - b.mDistance;
+            }
+            return Float.compare(b.mSimilarity, a.mSimilarity);
+        });
+        while (matches.size() > limit) {
+            matches.remove(matches.size() - 1);
+        }
+        return matches;
+    }
+
+    /**
+     * Find the card name the user most likely meant to type
+     *
+     * @param query    What the user typed
+     * @param database The database to search
+     * @return The closest card name, or null if no name is close enough
+     * @throws FamiliarDbException If something goes wrong
+     */
+    @Nullable
+    public static String didYouMean(String query, SQLiteDatabase database)
+            throws FamiliarDbException {
+        ArrayList<Match> matches = findNames(query, false, 1, database);
+        if (matches.isEmpty()) {
+            return null;
+        }
+        /* Allow roughly one typo per five letters */
+        Match best = matches.get(0);
+        if (best.mDistance > 1 + normalize(query).length() / 5) {
+            return null;
+        }
+        return best.mName;
+    }
+
+    /**
+     * Find names for the search widget when the query doesn't start any card name
+     *
+     * @param query    What the user typed
+     * @param limit    The most suggestions to return
+     * @param database The database to search
+     * @return A cursor with the same columns as CardDbAdapter.getCardsByNamePrefix()
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static Cursor getSuggestions(String query, int limit, SQLiteDatabase database)
+            throws FamiliarDbException {
+        MatrixCursor cursor = new MatrixCursor(new String[]{CardDbAdapter.KEY_NAME,
+                CardDbAdapter.KEY_ID, SearchManager.SUGGEST_COLUMN_INTENT_DATA_ID});
+        for (Match match : findNames(query, true, limit, database)) {
+            cursor.addRow(new Object[]{match.mName, match.mCardId, match.mCardId});
+        }
+        return cursor;
+    }
+
+    /**
+     * Check if the index tables have been built in the database
+     *
+     * @param database The database to check
+     * @return true if the index has been built, false otherwise
+     */
+    public static boolean isBuilt(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                " WHERE type = 'table' AND name = ?",
+                new String[]{CardDbAdapter.DATABASE_TABLE_NAME_TRIGRAMS}) > 0;
+    }
+
+    /**
+     * Drop and rebuild the index from the cards currently in the database. This should be called
+     * after cards are added or removed, inside the updater's transaction
+     *
+     * @param database The writable database to rebuild the index in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        SQLiteStatement insertName = null;
+        SQLiteStatement insertTrigram = null;
+        Cursor cursor = null;
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_NAME_TRIGRAMS);
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_FUZZY_NAMES);
+
+            insertName = database.compileStatement("INSERT INTO " +
+                    CardDbAdapter.DATABASE_TABLE_FUZZY_NAMES + " (" + CardDbAdapter.KEY_NAME + ", " +
+                    CardDbAdapter.KEY_NAME_NO_ACCENT + ", " + CardDbAdapter.KEY_CARD_ID + ", " +
+                    CardDbAdapter.KEY_TRIGRAM_COUNT + ") VALUES (?, ?, ?, ?)");
+
+            /* Fill the names first, the trigrams reference their rowids */
+            ArrayList<LinkedHashSet<String>> nameTrigrams = new ArrayList<>();
+            ArrayList<Long> nameIds = new ArrayList<>();
+            cursor = database.rawQuery("SELECT " + CardDbAdapter.KEY_NAME + ", MIN(" +
+                    CardDbAdapter.KEY_ID + ") FROM " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                    " GROUP BY " + CardDbAdapter.KEY_NAME, null);
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                String normalized = normalize(name);
+                LinkedHashSet<String> trigrams = getTrigrams(normalized, false);
+                if (trigrams.isEmpty()) {
+                    continue;
+                }
+                insertName.bindString(1, name);
+                insertName.bindString(2, normalized);
+                insertName.bindLong(3, cursor.getLong(1));
+                insertName.bindLong(4, trigrams.size());
+                nameIds.add(insertName.executeInsert());
+                nameTrigrams.add(trigrams);
+            }
+            cursor.close();
+            cursor = null;
+
+            /* Then the trigrams, and only index them once they're all in */
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_NAME_TRIGRAMS);
+            insertTrigram = database.compileStatement("INSERT INTO " +
+                    CardDbAdapter.DATABASE_TABLE_NAME_TRIGRAMS + " (" + CardDbAdapter.KEY_TRIGRAM +
+                    ", " + CardDbAdapter.KEY_NAME_ID + ") VALUES (?, ?)");
+            for (int i = 0; i < nameIds.size(); i++) {
+                for (String trigram : nameTrigrams.get(i)) {
+                    insertTrigram.bindString(1, trigram);
+                    insertTrigram.bindLong(2, nameIds.get(i));
+                    insertTrigram.executeInsert();
+                }
+            }
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_INDEX_NAME_TRIGRAMS);
+        } catch (SQLiteException | IllegalStateException e) {
+            /* Don't leave a partial index behind */
+            try {
+                QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_NAME_TRIGRAMS);
+            } catch (SQLiteException e2) {
+                /* eat it */
+            }
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != insertName) {
+                insertName.close();
+            }
+            if (null != insertTrigram) {
+                insertTrigram.close();
+            }
+        }
+    }
+
+    /**
+     * Normalize a name for comparison. Accent marks are removed, letters are lower cased, and
+     * anything which isn't a letter or digit becomes a single space
+     *
+     * @param name The name to normalize
+     * @return The normalized name
+     */
+    static String normalize(String name) {
+        String lower = CardDbAdapter.removeAccentMarks(name).toLowerCase(Locale.ENGLISH);
+        StringBuilder normalized = new StringBuilder(lower.length());
+        boolean lastWasSpace = true;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+                lastWasSpace = false;
+            } else if (!lastWasSpace) {
+                normalized.append(' ');
+                lastWasSpace = true;
+            }
+        }
+        if (lastWasSpace && normalized.length() > 0) {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Split a normalized name into trigrams. The name is padded with two spaces in front and, if
+     * it's a whole name, one behind
+     *
+     * @param normalized A name from normalize()
+     * @param isPrefix   true if the name may continue, so the end shouldn't be padded
+     * @return The distinct trigrams, in the order they appear
+     */
+    static LinkedHashSet<String> getTrigrams(String normalized, boolean isPrefix) {
+        LinkedHashSet<String> trigrams = new LinkedHashSet<>();
+        if (normalized.isEmpty()) {
+            return trigrams;
+        }
+        String padded = "  " + normalized + (isPrefix ? "" : " ");
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+    /**
+     * Count the insertions, deletions, substitutions, and swaps of adjacent letters needed to turn
+     * one string into another
+     *
+     * @param a A string
+     * @param b Another string
+     * @return The number of edits between them
+     */
+    static int getEditDistance(CharSequence a, CharSequence b) {
+        int[] twoBack = new int[b.length() + 1];
+        int[] oneBack = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            oneBack[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = (a.charAt(i - 1) == b.charAt(j - 1)) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, oneBack[j] + 1), oneBack[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], twoBack[j - 2] + 1);
+                }
+            }
+            int[] recycled = twoBack;
+            twoBack = oneBack;
+            oneBack = current;
+            current = recycled;
+        }
+        return oneBack[b.length()];
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The difference between the legality tables in the database and a newly downloaded legality.json.
+ * A new legality.json usually only bans or unbans a handful of cards, or adds a set to a few
+ * formats, so only the rows which differ are deleted and inserted instead of rebuilding all three
+ * tables. See CardDbAdapter.applyLegalityData().
+ * <p>
+ * The formats, set codes and card names whose rows changed are kept, so anything which remembers
+ * legalities can drop only what the update touched. See isStale().
+ */
+public class LegalityDiff {
+
+    /**
+     * A row of DATABASE_TABLE_LEGAL_SETS or DATABASE_TABLE_BANNED_CARDS
+     */
+    static class Row {
+        /* The format the row is for */
+        final String mFormat;
+        /* A set code in DATABASE_TABLE_LEGAL_SETS, a card name in DATABASE_TABLE_BANNED_CARDS */
+        final String mName;
+        /* BANNED or RESTRICTED in DATABASE_TABLE_BANNED_CARDS, unused in DATABASE_TABLE_LEGAL_SETS */
+        final int mLegality;
+
+        Row(String format, String name, int legality) {
+            mFormat = format;
+            mName = name;
+            mLegality = legality;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            Row row = (Row) o;
+            return mLegality == row.mLegality && mFormat.equals(row.mFormat) && mName.equals(row.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * mFormat.hashCode() + mName.hashCode()) + mLegality;
+        }
+    }
+
+    /**
+     * Every row of the three legality tables, either read from the database or built from a
+     * legality.json
+     */
+    static class Rows {
+        final Set<String> mFormats = new HashSet<>();
+        final Set<Row> mLegalSets = new HashSet<>();
+        final Set<Row> mLegalCards = new HashSet<>();
+
+        /* The cards in mLegalCards, as format and name, to keep one legality per card */
+        private final Set<Row> mLegalCardKeys = new HashSet<>();
+
+        void addFormat(String format) {
+            mFormats.add(format);
+        }
+
+        void addLegalSet(String format, String set) {
+            mLegalSets.add(new Row(format, set, 0));
+        }
+
+        /**
+         * Add a banned or restricted card. checkLegality() only reads one row per card and format,
+         * so a card which is on both lists keeps the first legality it's added with
+         *
+         * @param format   The format the card is banned or restricted in
+         * @param card     The card's name
+         * @param legality BANNED or RESTRICTED
+         */
+        void addLegalCard(String format, String card, int legality) {
+            if (mLegalCardKeys.add(new Row(format, card, 0))) {
+                mLegalCards.add(new Row(format, card, legality));
+            }
+        }
+    }
+
+    /* Rows to delete from and insert into the database, in that order */
+    final List<String> mFormatsRemoved = new ArrayList<>();
+    final List<String> mFormatsAdded = new ArrayList<>();
+    final List<Row> mLegalSetsRemoved = new ArrayList<>();
+    final List<Row> mLegalSetsAdded = new ArrayList<>();
+    final List<Row> mLegalCardsRemoved = new ArrayList<>();
+    final List<Row> mLegalCardsAdded = new ArrayList<>();
+
+    /* What the changed rows were about */
+    private final Set<String> mChangedFormats = new HashSet<>();
+    private final Set<String> mChangedSets = new HashSet<>();
+    private final Set<String> mChangedCards = new HashSet<>();
+
+    /**
+     * Find the rows which have to be deleted and inserted to turn one set of rows into another
+     *
+     * @param stored     The rows in the database
+     * @param downloaded The rows from the new legality.json
+     */
+    LegalityDiff(Rows stored, Rows downloaded) {
+        diff(stored.mFormats, downloaded.mFormats, mFormatsRemoved, mFormatsAdded);
+        diff(stored.mLegalSets, downloaded.mLegalSets, mLegalSetsRemoved, mLegalSetsAdded);
+        diff(stored.mLegalCards, downloaded.mLegalCards, mLegalCardsRemoved, mLegalCardsAdded);
+
+        mChangedFormats.addAll(mFormatsRemoved);
+        mChangedFormats.addAll(mFormatsAdded);
+        for (Row row : mLegalSetsRemoved) {
+            mChangedFormats.add(row.mFormat);
+            mChangedSets.add(row.mName);
+        }
+        for (Row row : mLegalSetsAdded) {
+            mChangedFormats.add(row.mFormat);
+            mChangedSets.add(row.mName);
+        }
+        for (Row row : mLegalCardsRemoved) {
+            mChangedFormats.add(row.mFormat);
+            mChangedCards.add(row.mName);
+        }
+        for (Row row : mLegalCardsAdded) {
+            mChangedFormats.add(row.mFormat);
+            mChangedCards.add(row.mName);
+        }
+    }
+
+    /**
+     * @param before What there was
+     * @param after  What there should be
+     * @param gone   Filled with what's in before but not after
+     * @param added  Filled with what's in after but not before
+     * @param <T>    The type of a row
+     */
+    private static <T> void diff(Set<T> before, Set<T> after, List<T> gone, List<T> added) {
+        for (T row : before) {
+            if (!after.contains(row)) {
+                gone.add(row);
+            }
+        }
+        for (T row : after) {
+            if (!before.contains(row)) {
+                added.add(row);
+            }
+        }
+    }
+
+    /**
+     * @return true if the database already matched the download
+     */
+    public boolean isEmpty() {
+        return getDeleteCount() == 0 && getInsertCount() == 0;
+    }
+
+    /**
+     * @return The number of rows deleted from the legality tables
+     */
+    public int getDeleteCount() {
+        return mFormatsRemoved.size() + mLegalSetsRemoved.size() + mLegalCardsRemoved.size();
+    }
+
+    /**
+     * @return The number of rows inserted into the legality tables
+     */
+    public int getInsertCount() {
+        return mFormatsAdded.size() + mLegalSetsAdded.size() + mLegalCardsAdded.size();
+    }
+
+    /**
+     * @return The formats which were added, removed, or had a set or card change
+     */
+    public Set<String> getChangedFormats() {
+        return Collections.unmodifiableSet(mChangedFormats);
+    }
+
+    /**
+     * @return The codes of the sets which became legal or stopped being legal in some format.
+     * Every card printed in one of them may have changed
+     */
+    public Set<String> getChangedSets() {
+        return Collections.unmodifiableSet(mChangedSets);
+    }
+
+    /**
+     * @return The names of the cards which were banned, restricted or unbanned in some format
+     */
+    public Set<String> getChangedCards() {
+        return Collections.unmodifiableSet(mChangedCards);
+    }
+
+    /**
+     * Check if a legality remembered from before the update may be wrong now. This errs on the
+     * side of staleness, since the changed sets and cards aren't kept per format
+     *
+     * @param format   The format the legality is for
+     * @param cardName The card the legality is for
+     * @param setCodes Every set the card was printed in
+     * @return true if the legality has to be checked again
+     */
+    public boolean isStale(String format, String cardName, Collection<String> setCodes) {
+        if (!mChangedFormats.contains(format)) {
+            return false;
+        }
+        if (mFormatsAdded.contains(format) || mFormatsRemoved.contains(format) ||
+                mChangedCards.contains(cardName)) {
+            return true;
+        }
+        for (String setCode : setCodes) {
+            if (mChangedSets.contains(setCode)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return A summary of the diff for the update log
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "Legality diff: formats -%d +%d, legal sets -%d +%d, " +
+                        "banned & restricted -%d +%d, %d formats, %d sets and %d cards changed",
+                mFormatsRemoved.size(), mFormatsAdded.size(),
+                mLegalSetsRemoved.size(), mLegalSetsAdded.size(),
+                mLegalCardsRemoved.size(), mLegalCardsAdded.size(),
+                mChangedFormats.size(), mChangedSets.size(), mChangedCards.size());
+    }
+}
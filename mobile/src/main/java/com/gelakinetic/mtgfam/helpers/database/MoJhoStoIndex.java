@@ -0,0 +1,458 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import com.gelakinetic.mtgfam.helpers.SearchCriteria;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Precomputed lists of the cards Momir, Stonehewer and Jhoira can pick from, so that picking a
+ * random card doesn't need a full search.
+ * <p>
+ * Every eligible card gets one slot in DATABASE_TABLE_MOJHOSTO_SLOTS, with the slot number as the
+ * rowid. Each bucket's slots are contiguous and sorted by CMC, and DATABASE_TABLE_MOJHOSTO_RANGES
+ * records which slots hold each (bucket, CMC). Picking a card is then a random number in a range
+ * and a single rowid lookup. The ranges are tiny, so they are kept in memory.
+ * <p>
+ * The index is rebuilt by the updater whenever cards change. Until it's built, picks fall back to
+ * searching for the eligible cards.
+ */
+public class MoJhoStoIndex {
+
+    /* How many slots can be drawn in a row without finding a new one before giving up */
+    private static final int MAX_DRAWS = 100;
+
+    /* The loaded ranges, keyed by bucket, or null if they need to be (re)loaded */
+    private static Map<Bucket, ArrayList<Range>> sRanges = null;
+
+    /* Whether the index tables exist. Only meaningful when sRanges is not null */
+    private static boolean sIsBuilt = false;
+
+    /**
+     * The groups of cards which are picked from
+     */
+    public enum Bucket {
+        /* Momir: creatures with exactly the given CMC */
+        CREATURE("=") {
+            @Override
+            SearchCriteria getCriteria() {
+                SearchCriteria criteria = new SearchCriteria();
+                criteria.superTypes = Collections.singletonList("creature");
+                criteria.moJhoStoFilter = true;
+                return criteria;
+            }
+        },
+        /* Stonehewer: equipment with at most the given CMC */
+        EQUIPMENT("<=") {
+            @Override
+            SearchCriteria getCriteria() {
+                SearchCriteria criteria = new SearchCriteria();
+                criteria.subTypes = Collections.singletonList("equipment");
+                criteria.moJhoStoFilter = true;
+                return criteria;
+            }
+        },
+        /* Jhoira: any instant */
+        INSTANT(null) {
+            @Override
+            SearchCriteria getCriteria() {
+                SearchCriteria criteria = new SearchCriteria();
+                criteria.superTypes = Collections.singletonList("instant");
+                return criteria;
+            }
+        },
+        /* Jhoira: any sorcery */
+        SORCERY(null) {
+            @Override
+            SearchCriteria getCriteria() {
+                SearchCriteria criteria = new SearchCriteria();
+                criteria.superTypes = Collections.singletonList("sorcery");
+                return criteria;
+            }
+        };
+
+        private final String mCmcLogic;
+
+        Bucket(String cmcLogic) {
+            mCmcLogic = cmcLogic;
+        }
+
+        /**
+         * @return Search criteria for every card in this bucket, regardless of CMC
+         */
+        abstract SearchCriteria getCriteria();
+    }
+
+    /**
+     * A contiguous run of slots which all hold cards with the same CMC
+     */
+    private static class Range {
+        final int mCmc;
+        final long mFirstSlot;
+        final long mEndSlot;
+
+        Range(int cmc, long firstSlot, long endSlot) {
+            mCmc = cmc;
+            mFirstSlot = firstSlot;
+            mEndSlot = endSlot;
+        }
+    }
+
+    /**
+     * Pick distinct random cards from a bucket
+     *
+     * @param bucket   The bucket to pick from
+     * @param cmc      The CMC to pick, compared with the bucket's logic. Ignored for buckets which
+     *                 don't care about CMC
+     * @param count    How many cards to pick
+     * @param random   The source of randomness
+     * @param database The database to pick from
+     * @return The KEY_IDs of the picked cards. This has fewer than count entries if there aren't
+     * enough eligible cards
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static long[] pick(Bucket bucket, int cmc, int count, Random random,
+                              SQLiteDatabase database) throws FamiliarDbException {
+        Map<Bucket, ArrayList<Range>> ranges = getRanges(database);
+        if (!isBuilt()) {
+            return pickBySearch(bucket, cmc, count, random, database);
+        }
+
+        /* Find the slots to pick from */
+        long firstSlot = -1;
+        long endSlot = -1;
+        ArrayList<Range> bucketRanges = ranges.get(bucket);
+        if (null != bucketRanges) {
+            for (Range range : bucketRanges) {
+                if (null == bucket.mCmcLogic || ("<=".equals(bucket.mCmcLogic) && range.mCmc <= cmc)) {
+                    if (-1 == firstSlot) {
+                        firstSlot = range.mFirstSlot;
+                    }
+                    endSlot = range.mEndSlot;
+                } else if ("=".equals(bucket.mCmcLogic) && range.mCmc == cmc) {
+                    firstSlot = range.mFirstSlot;
+                    endSlot = range.mEndSlot;
+                }
+            }
+        }
+        if (-1 == firstSlot) {
+            return new long[0];
+        }
+
+        LinkedHashSet<Long> slots = drawDistinct(endSlot - firstSlot, count, random);
+        long[] ids = new long[slots.size()];
+        SQLiteStatement lookup = null;
+        try {
+            lookup = database.compileStatement("SELECT " + CardDbAdapter.KEY_CARD_ID +
+                    " FROM " + CardDbAdapter.DATABASE_TABLE_MOJHOSTO_SLOTS +
+                    " WHERE " + CardDbAdapter.KEY_ID + " = ?");
+            int i = 0;
+            for (long slot : slots) {
+                lookup.bindLong(1, firstSlot + slot);
+                ids[i++] = lookup.simpleQueryForLong();
+            }
+            return ids;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != lookup) {
+                lookup.close();
+            }
+        }
+    }
+
+    /**
+     * Pick distinct random cards the way it was done before the index existed, by searching for
+     * every eligible card and picking random rows. pick() uses this when the index isn't built
+     *
+     * @param bucket   The bucket to pick from
+     * @param cmc      The CMC to pick, compared with the bucket's logic
+     * @param count    How many cards to pick
+     * @param random   The source of randomness
+     * @param database The database to pick from
+     * @return The KEY_IDs of the picked cards
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static long[] pickBySearch(Bucket bucket, int cmc, int count, Random random,
+                                      SQLiteDatabase database) throws FamiliarDbException {
+        SearchCriteria criteria = bucket.getCriteria();
+        if (null != bucket.mCmcLogic) {
+            criteria.cmc = cmc;
+            criteria.cmcLogic = bucket.mCmcLogic;
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = CardDbAdapter.Search(criteria, false,
+                    new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME}, true, null, database);
+            if (null == cursor) {
+                throw new FamiliarDbException(new Exception("MoJhoSto search failure"));
+            }
+
+            LinkedHashSet<Long> positions = drawDistinct(cursor.getCount(), count, random);
+            long[] ids = new long[positions.size()];
+            int idColumn = cursor.getColumnIndex(CardDbAdapter.KEY_ID);
+            int i = 0;
+            for (long position : positions) {
+                cursor.moveToPosition((int) position);
+                ids[i++] = cursor.getLong(idColumn);
+            }
+            return ids;
+        } catch (SQLiteException | IllegalStateException | CursorIndexOutOfBoundsException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Draw distinct random numbers
+     *
+     * @param size   Numbers are drawn from [0, size)
+     * @param count  How many numbers to draw
+     * @param random The source of randomness
+     * @return The drawn numbers, in the order they were drawn
+     */
+    private static LinkedHashSet<Long> drawDistinct(long size, int count, Random random) {
+        if (size <= count) {
+            /* Not enough to choose from, take all of them */
+            ArrayList<Long> all = new ArrayList<>();
+            for (long i = 0; i < size; i++) {
+                all.add(i);
+            }
+            Collections.shuffle(all, random);
+            return new LinkedHashSet<>(all);
+        }
+        LinkedHashSet<Long> drawn = new LinkedHashSet<>();
+        int misses = 0;
+        while (drawn.size() < count && misses < MAX_DRAWS) {
+            if (!drawn.add((long) (random.nextDouble() * size))) {
+                misses++;
+            }
+        }
+        return drawn;
+    }
+
+    /**
+     * Check if the index tables have been built in the database
+     *
+     * @param database The database to check
+     * @return true if the index has been built, false otherwise
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static boolean isBuilt(SQLiteDatabase database) throws FamiliarDbException {
+        getRanges(database);
+        return isBuilt();
+    }
+
+    /**
+     * @return Whether the index tables existed when the ranges were last loaded
+     */
+    private static synchronized boolean isBuilt() {
+        return sIsBuilt;
+    }
+
+    /**
+     * Drop and rebuild the index from the cards currently in the database. This should be called
+     * after cards are added or removed, inside the updater's transaction
+     *
+     * @param database The writable database to rebuild the index in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        SQLiteStatement insertSlot = null;
+        SQLiteStatement insertRange = null;
+        Cursor cursor = null;
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_MOJHOSTO_SLOTS);
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_MOJHOSTO_RANGES);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_MOJHOSTO_SLOTS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_MOJHOSTO_RANGES);
+
+            insertSlot = database.compileStatement("INSERT INTO " +
+                    CardDbAdapter.DATABASE_TABLE_MOJHOSTO_SLOTS + " (" + CardDbAdapter.KEY_ID +
+                    ", " + CardDbAdapter.KEY_CARD_ID + ") VALUES (?, ?)");
+            insertRange = database.compileStatement("INSERT INTO " +
+                    CardDbAdapter.DATABASE_TABLE_MOJHOSTO_RANGES + " (" + CardDbAdapter.KEY_BUCKET +
+                    ", " + CardDbAdapter.KEY_CMC + ", " + CardDbAdapter.KEY_FIRST_SLOT + ", " +
+                    CardDbAdapter.KEY_END_SLOT + ") VALUES (?, ?, ?, ?)");
+
+            long slot = 0;
+            for (Bucket bucket : Bucket.values()) {
+                /* The same search the picks would otherwise run, for every CMC at once */
+                cursor = CardDbAdapter.Search(bucket.getCriteria(), false,
+                        new String[]{CardDbAdapter.KEY_ID, CardDbAdapter.KEY_NAME, CardDbAdapter.KEY_CMC},
+                        true, CardDbAdapter.KEY_CMC + ", " + CardDbAdapter.KEY_NAME, database);
+                if (null == cursor) {
+                    throw new FamiliarDbException(new Exception("MoJhoSto index failure"));
+                }
+
+                int idColumn = cursor.getColumnIndex(CardDbAdapter.KEY_ID);
+                int cmcColumn = cursor.getColumnIndex(CardDbAdapter.KEY_CMC);
+                long firstSlot = slot;
+                int currentCmc = 0;
+                cursor.moveToPosition(-1);
+                while (cursor.moveToNext()) {
+                    int cmc = cursor.getInt(cmcColumn);
+                    if (slot > firstSlot && cmc != currentCmc) {
+                        insertRange(insertRange, bucket, currentCmc, firstSlot, slot);
+                        firstSlot = slot;
+                    }
+                    currentCmc = cmc;
+
+                    insertSlot.bindLong(1, slot);
+                    insertSlot.bindLong(2, cursor.getLong(idColumn));
+                    insertSlot.executeInsert();
+                    slot++;
+                }
+                if (slot > firstSlot) {
+                    insertRange(insertRange, bucket, currentCmc, firstSlot, slot);
+                }
+                cursor.close();
+                cursor = null;
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            dropPartialIndex(database);
+            throw new FamiliarDbException(e);
+        } catch (FamiliarDbException e) {
+            dropPartialIndex(database);
+            throw e;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != insertSlot) {
+                insertSlot.close();
+            }
+            if (null != insertRange) {
+                insertRange.close();
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Drop the ranges after a failed rebuild, so that a partial index isn't used. Picks will search
+     * instead until the next successful rebuild
+     *
+     * @param database The database the rebuild failed in
+     */
+    private static void dropPartialIndex(SQLiteDatabase database) {
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_MOJHOSTO_RANGES);
+        } catch (SQLiteException e) {
+            /* eat it */
+        }
+    }
+
+    /**
+     * Insert a single row into DATABASE_TABLE_MOJHOSTO_RANGES
+     *
+     * @param insertRange The compiled insert statement
+     * @param bucket      The bucket the range belongs to
+     * @param cmc         The CMC of every card in the range
+     * @param firstSlot   The first slot in the range
+     * @param endSlot     One past the last slot in the range
+     */
+    private static void insertRange(SQLiteStatement insertRange, Bucket bucket, int cmc,
+                                    long firstSlot, long endSlot) {
+        insertRange.bindString(1, bucket.name());
+        insertRange.bindLong(2, cmc);
+        insertRange.bindLong(3, firstSlot);
+        insertRange.bindLong(4, endSlot);
+        insertRange.executeInsert();
+    }
+
+    /**
+     * Forget the loaded ranges. This must be called whenever the index tables are modified
+     */
+    static synchronized void invalidate() {
+        sRanges = null;
+        sIsBuilt = false;
+    }
+
+    /**
+     * Return the ranges of every bucket, loading them from the database if they haven't been
+     * loaded yet
+     *
+     * @param database The database to load the ranges from, if necessary
+     * @return The ranges for each bucket, sorted by CMC. Empty if the index isn't built
+     * @throws FamiliarDbException If the ranges couldn't be loaded
+     */
+    private static synchronized Map<Bucket, ArrayList<Range>> getRanges(SQLiteDatabase database)
+            throws FamiliarDbException {
+        if (null != sRanges) {
+            return sRanges;
+        }
+
+        Cursor cursor = null;
+        try {
+            HashMap<Bucket, ArrayList<Range>> ranges = new HashMap<>();
+            sIsBuilt = DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                    " WHERE type = 'table' AND name = ?",
+                    new String[]{CardDbAdapter.DATABASE_TABLE_MOJHOSTO_RANGES}) > 0;
+
+            if (sIsBuilt) {
+                cursor = database.query(CardDbAdapter.DATABASE_TABLE_MOJHOSTO_RANGES,
+                        new String[]{CardDbAdapter.KEY_BUCKET, CardDbAdapter.KEY_CMC,
+                                CardDbAdapter.KEY_FIRST_SLOT, CardDbAdapter.KEY_END_SLOT},
+                        null, null, null, null, CardDbAdapter.KEY_FIRST_SLOT);
+                while (cursor.moveToNext()) {
+                    Bucket bucket;
+                    try {
+                        bucket = Bucket.valueOf(cursor.getString(0));
+                    } catch (IllegalArgumentException e) {
+                        /* A bucket which doesn't exist anymore */
+                        continue;
+                    }
+                    ArrayList<Range> bucketRanges = ranges.get(bucket);
+                    if (null == bucketRanges) {
+                        bucketRanges = new ArrayList<>();
+                        ranges.put(bucket, bucketRanges);
+                    }
+                    bucketRanges.add(new Range(cursor.getInt(1), cursor.getLong(2), cursor.getLong(3)));
+                }
+            }
+            sRanges = ranges;
+            return sRanges;
+        } catch (SQLiteException | IllegalStateException | CursorIndexOutOfBoundsException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+}
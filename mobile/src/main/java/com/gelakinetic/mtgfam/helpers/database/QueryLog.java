@@ -0,0 +1,439 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.app.Activity;
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import android.support.v4.content.FileProvider;
+
+import com.gelakinetic.mtgfam.BuildConfig;
+import com.gelakinetic.mtgfam.R;
+import com.gelakinetic.mtgfam.helpers.SnackbarWrapper;
+import com.gelakinetic.mtgfam.helpers.updaters.UpdateMetrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Records how long card database statements take. Every cursor the database returns is an
+ * InstrumentedCursor, which times the window fills where SQLite actually steps through rows, and
+ * every execSQL() in this package goes through QueryLog.execSQL(). Statements are grouped by their
+ * SQL with literals and bind arguments replaced by '?', so the same search with different text is
+ * one entry.
+ * <p>
+ * Statements slower than SLOW_QUERY_MS are also written, with SQLite's EXPLAIN QUERY PLAN, to a
+ * log file next to mtgf_update.txt. That happens on a background thread, so a slow statement isn't
+ * made slower for whoever ran it. Only the normalized SQL is written, so card names and other
+ * search text never end up in the log. The log, a summary of every statement and the updater's
+ * metrics history can be sent from the settings for bug reports.
+ */
+public class QueryLog {
+
+    /* Statements which take at least this long are written to the slow query log */
+    private static final long SLOW_QUERY_MS = 100;
+
+    /* When the slow query log gets this big, it's moved to the backup and a new one is started */
+    private static final long MAX_LOG_BYTES = 256 * 1024;
+    private static final String LOG_FILE_NAME = "mtgf_slow_queries.txt";
+    private static final String BACKUP_LOG_FILE_NAME = "mtgf_slow_queries.1.txt";
+
+    /* Don't let one-off statements grow the summary forever */
+    private static final int MAX_STATEMENTS = 256;
+
+    /* How many statements the summary lists, slowest total time first */
+    private static final int SUMMARY_STATEMENTS = 50;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * The totals for every execution of one normalized statement
+     */
+    static class Statistics {
+        final String mSql;
+        int mBindCount;
+        int mExecutions = 0;
+        long mTotalNanos = 0;
+        long mMaxNanos = 0;
+        long mTotalRows = 0;
+
+        Statistics(String sql) {
+            mSql = sql;
+        }
+    }
+
+    private static final HashMap<String, Statistics> sStatistics = new HashMap<>();
+    private static File sLogDirectory = null;
+
+    /* Explains and writes slow statements, one at a time, off of the threads which ran them */
+    private static final ExecutorService sLogExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "QueryLog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* Used for EXPLAIN QUERY PLAN, so that explaining a statement isn't itself recorded */
+    private static final SQLiteDatabase.CursorFactory PLAIN_FACTORY =
+            (db, driver, editTable, query) -> new SQLiteCursor(driver, editTable, query);
+
+    /**
+     * Creates the cursors for the card database, so every query it runs is recorded
+     */
+    static final SQLiteDatabase.CursorFactory CURSOR_FACTORY =
+            (db, driver, editTable, query) -> new InstrumentedCursor(db, driver, editTable, query);
+
+    /**
+     * A cursor which adds up the time SQLite spends stepping through its rows, and records the
+     * total when it's closed
+     */
+    private static class InstrumentedCursor extends SQLiteCursor {
+
+        private final SQLiteDatabase mDatabase;
+        private final String mSql;
+        private long mNanos = 0;
+        private int mRows = -1;
+        private boolean mIsRecorded = false;
+
+        InstrumentedCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable,
+                           SQLiteQuery query) {
+            super(driver, editTable, query);
+            mDatabase = db;
+            mSql = getSql(query);
+        }
+
+        /**
+         * The first call fills the first window and counts every row, which is where most of a
+         * query's time goes
+         *
+         * @return The number of rows in the cursor
+         */
+        @Override
+        public int getCount() {
+            long start = System.nanoTime();
+            try {
+                mRows = super.getCount();
+                return mRows;
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Moving outside of the current window refills it, which steps through rows again
+         *
+         * @param oldPosition The position the cursor is moving from
+         * @param newPosition The position the cursor is moving to
+         * @return true if the move succeeded
+         */
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            long start = System.nanoTime();
+            try {
+                return super.onMove(oldPosition, newPosition);
+            } finally {
+                mNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Record this query before closing the cursor. Cursors which were never read never ran
+         * their query, so there's nothing to record
+         */
+        @Override
+        public void close() {
+            if (!mIsRecorded && mRows >= 0) {
+                mIsRecorded = true;
+                record(mDatabase, mSql, mNanos, mRows);
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Find out where to write the slow query log
+     *
+     * @param context A context to find the external files directory with
+     */
+    static synchronized void initialize(Context context) {
+        if (null == sLogDirectory) {
+            sLogDirectory = context.getApplicationContext().getExternalFilesDir(null);
+        }
+    }
+
+    /**
+     * Execute a single SQL statement which doesn't return data, and record how long it took
+     *
+     * @param database The database to execute the statement in
+     * @param sql      The statement to execute
+     */
+    static void execSQL(SQLiteDatabase database, String sql) {
+        long start = System.nanoTime();
+        database.execSQL(sql);
+        record(database, sql, System.nanoTime() - start, 0);
+    }
+
+    /**
+     * Add an execution of a statement to its totals, and write it to the slow query log if it
+     * was slow
+     *
+     * @param database The database the statement was executed in
+     * @param sql      The statement as it was executed
+     * @param nanos    How long it took
+     * @param rows     How many rows it returned
+     */
+    private static void record(SQLiteDatabase database, String sql, long nanos, long rows) {
+        String normalized = normalize(sql);
+        int binds = getBindCount(sql);
+        synchronized (sStatistics) {
+            Statistics statistics = sStatistics.get(normalized);
+            if (null == statistics) {
+                if (sStatistics.size() >= MAX_STATEMENTS) {
+                    evictLeastUsed();
+                }
+                statistics = new Statistics(normalized);
+                sStatistics.put(normalized, statistics);
+            }
+            statistics.mBindCount = binds;
+            statistics.mExecutions++;
+            statistics.mTotalNanos += nanos;
+            statistics.mMaxNanos = Math.max(statistics.mMaxNanos, nanos);
+            statistics.mTotalRows += rows;
+        }
+
+        if (nanos / 1000000 >= SLOW_QUERY_MS && null != sLogDirectory) {
+            sLogExecutor.execute(() -> writeSlowQuery(normalized, nanos, rows, binds, explain(database, sql)));
+        }
+    }
+
+    /**
+     * Remove the statement which has taken the least total time from the totals
+     */
+    private static void evictLeastUsed() {
+        Statistics leastUsed = null;
+        for (Statistics statistics : sStatistics.values()) {
+            if (null == leastUsed || statistics.mTotalNanos < leastUsed.mTotalNanos) {
+                leastUsed = statistics;
+            }
+        }
+        if (null != leastUsed) {
+            sStatistics.remove(leastUsed.mSql);
+        }
+    }
+
+    /**
+     * Ask SQLite how it would run a statement. This runs on the log's thread, so the database may
+     * have been closed since the statement was executed
+     *
+     * @param database The database the statement was executed in
+     * @param sql      The statement
+     * @return One line per step of the plan, or null if the statement can't be explained
+     */
+    @Nullable
+    private static String explain(SQLiteDatabase database, String sql) {
+        if (!database.isOpen()) {
+            return null;
+        }
+        Cursor plan = null;
+        try {
+            /* Unbound parameters are NULL, which doesn't change the plan */
+            plan = database.rawQueryWithFactory(PLAIN_FACTORY, "EXPLAIN QUERY PLAN " + sql,
+                    null, null);
+            StringBuilder lines = new StringBuilder();
+            int detail = plan.getColumnIndex("detail");
+            while (detail >= 0 && plan.moveToNext()) {
+                lines.append("    ").append(plan.getString(detail)).append('\n');
+            }
+            return lines.toString();
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            if (null != plan) {
+                plan.close();
+            }
+        }
+    }
+
+    /**
+     * Append a slow statement to the log, starting a new log if it's full
+     *
+     * @param normalized The statement, normalized so its values aren't written
+     * @param nanos      How long it took
+     * @param rows       How many rows it returned
+     * @param binds      How many parameters it had
+     * @param plan       The statement's query plan, or null if there isn't one
+     */
+    private static synchronized void writeSlowQuery(String normalized, long nanos, long rows,
+                                                    int binds, @Nullable String plan) {
+        if (null == sLogDirectory) {
+            return;
+        }
+        File log = new File(sLogDirectory, LOG_FILE_NAME);
+        if (log.length() > MAX_LOG_BYTES) {
+            File backup = new File(sLogDirectory, BACKUP_LOG_FILE_NAME);
+            if (backup.exists() && !backup.delete()) {
+                return;
+            }
+            if (!log.renameTo(backup)) {
+                return;
+            }
+        }
+        try (FileWriter writer = new FileWriter(log, true)) {
+            writer.write(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US).format(new Date()));
+            writer.write(String.format(Locale.US, " %d ms, %d rows, %d binds\n",
+                    nanos / 1000000, rows, binds));
+            writer.write("  " + normalized + "\n");
+            if (null != plan) {
+                writer.write(plan);
+            }
+            writer.write("\n");
+        } catch (IOException e) {
+            /* The log is best effort */
+        }
+    }
+
+    /**
+     * Send the slow query log, the history of recent updates' metrics, and a summary of every
+     * recorded statement, so they can be attached to a bug report
+     *
+     * @param activity The activity to start the chooser from
+     */
+    public static void share(Activity activity) {
+        Intent sendIntent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        sendIntent.putExtra(Intent.EXTRA_SUBJECT, activity.getString(R.string.query_log_subject));
+        sendIntent.putExtra(Intent.EXTRA_TEXT, getSummary());
+        sendIntent.setType("text/plain");
+
+        ArrayList<Uri> attachments = new ArrayList<>();
+        if (null != sLogDirectory) {
+            for (String name : new String[]{LOG_FILE_NAME, UpdateMetrics.HISTORY_FILE_NAME}) {
+                File file = new File(sLogDirectory, name);
+                if (file.exists()) {
+                    try {
+                        attachments.add(FileProvider.getUriForFile(activity,
+                                BuildConfig.APPLICATION_ID + ".FileProvider", file));
+                    } catch (IllegalArgumentException e) {
+                        /* Send the summary without the file */
+                    }
+                }
+            }
+        }
+        if (!attachments.isEmpty()) {
+            sendIntent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, attachments);
+            sendIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+
+        try {
+            activity.startActivity(Intent.createChooser(sendIntent,
+                    activity.getString(R.string.query_log_send)));
+        } catch (ActivityNotFoundException anfe) {
+            SnackbarWrapper.makeAndShowText(activity, R.string.error_no_email_client,
+                    SnackbarWrapper.LENGTH_SHORT);
+        }
+    }
+
+    /**
+     * @return A table of the recorded statements, the ones which took the most total time first
+     */
+    static String getSummary() {
+        ArrayList<Statistics> statements;
+        synchronized (sStatistics) {
+            statements = new ArrayList<>(sStatistics.values());
+        }
+        Collections.sort(statements, (a, b) -> Long.compare(b.mTotalNanos, a.mTotalNanos));
+
+        StringBuilder summary = new StringBuilder("executions, total ms, max ms, avg rows, binds, sql\n");
+        for (int i = 0; i < statements.size() && i < SUMMARY_STATEMENTS; i++) {
+            Statistics statistics = statements.get(i);
+            summary.append(String.format(Locale.US, "%d, %d, %d, %d, %d, %s\n",
+                    statistics.mExecutions,
+                    statistics.mTotalNanos / 1000000,
+                    statistics.mMaxNanos / 1000000,
+                    statistics.mTotalRows / statistics.mExecutions,
+                    statistics.mBindCount,
+                    statistics.mSql));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * @param query A compiled query
+     * @return The query's SQL
+     */
+    private static String getSql(SQLiteQuery query) {
+        /* SQLiteQuery doesn't expose its SQL, but toString() is "SQLiteQuery: " + the SQL */
+        String sql = query.toString();
+        int start = sql.indexOf(": ");
+        return (start >= 0) ? sql.substring(start + 2) : sql;
+    }
+
+    /**
+     * Replace the literals in a statement with '?' and collapse whitespace, so that executions
+     * which only differ in their values are grouped together. Lists of parameters, like the ones
+     * in batched IN clauses, are collapsed too
+     *
+     * @param sql A statement
+     * @return The normalized statement
+     */
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = PARAMETER_LIST.matcher(normalized).replaceAll("?, ...");
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    /**
+     * @param sql A statement
+     * @return How many parameters it has, not counting question marks in string literals
+     */
+    static int getBindCount(String sql) {
+        int count = 0;
+        boolean isInString = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if ('\'' == c) {
+                isInString = !isInString;
+            } else if ('?' == c && !isInString) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Replaces the rules and glossary tables one row at a time, as the comprehensive rules are parsed,
+ * so the whole document never has to be held in memory. Each table's insert is compiled once and
+ * rebound for every row.
+ * <p>
+ * Everything is written in a transaction nested inside DatabaseManager's. If the rules turn out to
+ * be truncated halfway through, close() ends it without marking it successful, so SQLiteDatabase
+ * rolls back the enclosing transaction instead of committing it when DatabaseManager closes the
+ * database, and the old rules are kept. The enclosing transaction should only hold the rules.
+ */
+public class RulesWriter {
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mInsertRule = null;
+    private SQLiteStatement mInsertTerm = null;
+    private boolean mIsInTransaction = false;
+
+    private int mRulesWritten = 0;
+    private int mTermsWritten = 0;
+
+    /**
+     * Start replacing the rules and glossary
+     *
+     * @param database The writable database, already in a transaction like one from
+     *                 DatabaseManager.openDatabase() which only the rules are written in
+     * @throws FamiliarDbException If the tables can't be remade
+     */
+    public RulesWriter(SQLiteDatabase database) throws FamiliarDbException {
+        mDatabase = database;
+        try {
+            mDatabase.beginTransaction();
+            mIsInTransaction = true;
+            CardDbAdapter.dropRulesTables(mDatabase);
+            CardDbAdapter.createRulesTables(mDatabase);
+            mInsertRule = mDatabase.compileStatement("INSERT INTO " + CardDbAdapter.DATABASE_TABLE_RULES +
+                    " (" + CardDbAdapter.KEY_CATEGORY + ", " + CardDbAdapter.KEY_SUBCATEGORY + ", " +
+                    CardDbAdapter.KEY_ENTRY + ", " + CardDbAdapter.KEY_RULE_TEXT + ", " +
+                    CardDbAdapter.KEY_POSITION + ") VALUES (?, ?, ?, ?, ?)");
+            mInsertTerm = mDatabase.compileStatement("INSERT INTO " + CardDbAdapter.DATABASE_TABLE_GLOSSARY +
+                    " (" + CardDbAdapter.KEY_TERM + ", " + CardDbAdapter.KEY_DEFINITION + ") VALUES (?, ?)");
+        } catch (SQLiteException | IllegalStateException e) {
+            close();
+            throw new FamiliarDbException(e);
+        } catch (FamiliarDbException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Insert a rule's title & text with it's category, subcategory, and position.
+     *
+     * @param category    The integer category
+     * @param subcategory The integer subcategory
+     * @param entry       The title of the rule, or null
+     * @param text        The text of the rule
+     * @param position    The rule's position, or a negative number for none
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public void insertRule(int category, int subcategory, String entry, String text, int position)
+            throws FamiliarDbException {
+        try {
+            mInsertRule.bindLong(1, category);
+            mInsertRule.bindLong(2, subcategory);
+            if (null == entry) {
+                mInsertRule.bindNull(3);
+            } else {
+                mInsertRule.bindString(3, entry.trim());
+            }
+            mInsertRule.bindString(4, text.trim());
+            if (position < 0) {
+                mInsertRule.bindNull(5);
+            } else {
+                mInsertRule.bindLong(5, position);
+            }
+            mInsertRule.executeInsert();
+            mRulesWritten++;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Insert a glossary term.
+     *
+     * @param term       The term to insert
+     * @param definition The definition for the glossary term
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public void insertGlossaryTerm(String term, String definition) throws FamiliarDbException {
+        try {
+            mInsertTerm.bindString(1, term.trim());
+            mInsertTerm.bindString(2, definition.trim());
+            mInsertTerm.executeInsert();
+            mTermsWritten++;
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Keep everything inserted so far. It's committed along with the rest of the transaction
+     *
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public void finish() throws FamiliarDbException {
+        try {
+            mDatabase.setTransactionSuccessful();
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        }
+    }
+
+    /**
+     * Release the statements and end the nested transaction. If finish() wasn't called, the old rules
+     * and glossary are restored when the enclosing transaction ends
+     */
+    public void close() {
+        if (null != mInsertRule) {
+            mInsertRule.close();
+            mInsertRule = null;
+        }
+        if (null != mInsertTerm) {
+            mInsertTerm.close();
+            mInsertTerm = null;
+        }
+        if (mIsInTransaction) {
+            mIsInTransaction = false;
+            /* If finish() wasn't called, this marks the enclosing transaction to be rolled back */
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * @return The number of rules inserted
+     */
+    public int getRulesWritten() {
+        return mRulesWritten;
+    }
+
+    /**
+     * @return The number of glossary terms inserted
+     */
+    public int getTermsWritten() {
+        return mTermsWritten;
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Plans the WHERE clause of CardDbAdapter.Search(). Each search criterion is compiled into a
+ * predicate with an estimated selectivity (the fraction of cards it keeps) and an estimated cost
+ * per card. SQLite tests the terms of a WHERE clause in the order they're written, so the
+ * predicates are written cheapest and most selective first, and expensive LIKEs over rules text
+ * only run on the cards which survive everything else.
+ * <p>
+ * Selectivities come from DATABASE_TABLE_SEARCH_STATISTICS, which counts the cards with each set,
+ * rarity, CMC, color, and type word. It's rebuilt by the updater along with an index on the set
+ * column. A list of sets which keeps few cards is answered with that index, and a list which keeps
+ * many cards is written so that SQLite scans instead, since looking up most of the table through
+ * an index is slower than reading it. Until the statistics are built, fixed guesses are used.
+ */
+public class SearchPlanner {
+
+    /* Estimated cost of testing a term against a single card, in arbitrary units */
+    static final float COST_COMPARE = 1;
+    static final float COST_LIKE_SHORT = 3;
+    static final float COST_LIKE_LONG = 10;
+    static final float COST_SUBQUERY = 4;
+
+    /* Guessed selectivities, for terms which aren't counted in the statistics */
+    static final float GUESS_EQUALS = 0.01f;
+    static final float GUESS_CONTAINS_NAME = 0.02f;
+    static final float GUESS_CONTAINS_TEXT = 0.1f;
+    static final float GUESS_CONTAINS_FLAVOR = 0.02f;
+    static final float GUESS_CONTAINS_ARTIST = 0.01f;
+    static final float GUESS_RANGE = 0.3f;
+    static final float GUESS_MOSTLY_TRUE = 0.95f;
+
+    /* Guessed fraction of cards with a set, color, or type word, when there are no statistics */
+    private static final float GUESS_VALUE = 0.1f;
+
+    /* Lists of sets which keep more than this fraction of the cards are scanned, not indexed */
+    private static final float MAX_INDEXED_SELECTIVITY = 0.1f;
+
+    /* The column in the statistics table which holds the total number of cards */
+    private static final String TOTAL = "*";
+
+    /* Whether predicates are reordered and indexes chosen. Only turned off to benchmark */
+    private static volatile boolean sIsEnabled = true;
+
+    /* The loaded statistics, column to value to count, or null if they need to be (re)loaded */
+    private static Map<String, Map<String, Long>> sStatistics = null;
+
+    /**
+     * A single term of the WHERE clause
+     */
+    private static class Predicate {
+        final String mSql;
+        final float mSelectivity;
+        final float mCost;
+
+        Predicate(String sql, float selectivity, float cost) {
+            mSql = sql;
+            mSelectivity = Math.max(0, Math.min(1, selectivity));
+            mCost = cost;
+        }
+
+        /**
+         * @return How much it costs to throw away one card with this predicate. Cheap, selective
+         * predicates should be tested first
+         */
+        float getRank() {
+            if (mSelectivity >= 1) {
+                return Float.MAX_VALUE;
+            }
+            return mCost / (1 - mSelectivity);
+        }
+    }
+
+    private final Map<String, Map<String, Long>> mStatistics;
+    private final ArrayList<Predicate> mPredicates = new ArrayList<>();
+
+    /**
+     * Start planning a search, loading the statistics if they haven't been loaded yet
+     *
+     * @param database The database to load statistics from
+     * @throws FamiliarDbException If the statistics couldn't be loaded
+     */
+    SearchPlanner(SQLiteDatabase database) throws FamiliarDbException {
+        mStatistics = getStatistics(database);
+    }
+
+    /**
+     * Add a term to the WHERE clause, and empty the clause it was built in
+     *
+     * @param clause      The SQL of the term. A leading " AND " is removed, so that clauses can be
+     *                    built the same way they're appended to a WHERE clause
+     * @param selectivity The estimated fraction of cards the term keeps
+     * @param cost        The estimated cost of testing the term against one card
+     */
+    void add(StringBuilder clause, float selectivity, float cost) {
+        String sql = clause.toString().trim();
+        clause.setLength(0);
+        if (sql.startsWith("AND ")) {
+            sql = sql.substring(4);
+        }
+        if (!sql.isEmpty()) {
+            mPredicates.add(new Predicate(sql, selectivity, cost));
+        }
+    }
+
+    /**
+     * Add a test for one of several sets to the WHERE clause. If the sets have few cards, the
+     * test is written so that SQLite can answer it with the index on the set column. Otherwise
+     * it's written with a unary '+', which keeps SQLite from using the index
+     *
+     * @param column The set column to test, qualified with its table
+     * @param sets   The set codes
+     */
+    void addSets(String column, Collection<String> sets) {
+        mPredicates.add(new Predicate(getSetListClause(column, sets), getSetSelectivity(sets),
+                COST_COMPARE));
+    }
+
+    /**
+     * @param column The set column to test, qualified with its table
+     * @param sets   The set codes
+     * @return A clause testing if the column is one of the sets, indexed or not depending on how
+     * many cards the sets have
+     */
+    String getSetListClause(String column, Collection<String> sets) {
+        StringBuilder clause = new StringBuilder();
+        if (sIsEnabled && getSetSelectivity(sets) > MAX_INDEXED_SELECTIVITY) {
+            clause.append('+');
+        }
+        clause.append(column).append(" IN (");
+        boolean first = true;
+        for (String set : sets) {
+            if (!first) {
+                clause.append(", ");
+            }
+            first = false;
+            clause.append(DatabaseUtils.sqlEscapeString(set));
+        }
+        return clause.append(')').toString();
+    }
+
+    /**
+     * @return true if no terms have been added
+     */
+    boolean isEmpty() {
+        return mPredicates.isEmpty();
+    }
+
+    /**
+     * @return The planned WHERE clause, cheapest and most selective terms first
+     */
+    String getWhereClause() {
+        ArrayList<Predicate> ordered = new ArrayList<>(mPredicates);
+        if (sIsEnabled) {
+            /* The sort is stable, so terms which rank the same stay in the order they were added */
+            Collections.sort(ordered, (a, b) -> Float.compare(a.getRank(), b.getRank()));
+        }
+        StringBuilder where = new StringBuilder(" WHERE 1=1");
+        for (Predicate predicate : ordered) {
+            where.append(" AND (").append(predicate.mSql).append(")");
+        }
+        return where.toString();
+    }
+
+    /**
+     * @param sets Set codes
+     * @return The fraction of cards in any of the sets
+     */
+    float getSetSelectivity(Collection<String> sets) {
+        float selectivity = 0;
+        for (String set : new HashSet<>(sets)) {
+            selectivity += getFraction(CardDbAdapter.KEY_SET, set);
+        }
+        return Math.min(1, selectivity);
+    }
+
+    /**
+     * @param rarities Rarity codes, like "CU"
+     * @return The fraction of cards with any of the rarities
+     */
+    float getRaritySelectivity(String rarities) {
+        float selectivity = 0;
+        for (char rarity : rarities.toUpperCase().toCharArray()) {
+            selectivity += getFraction(CardDbAdapter.KEY_RARITY, Integer.toString((int) rarity));
+        }
+        return Math.min(1, selectivity);
+    }
+
+    /**
+     * @param logic One of ">", "<", "=", "<=", or ">="
+     * @param cmc   The CMC to compare with
+     * @return The fraction of cards whose CMC compares with the given CMC
+     */
+    float getCmcSelectivity(String logic, int cmc) {
+        Map<String, Long> counts = mStatistics.get(CardDbAdapter.KEY_CMC);
+        if (null == counts) {
+            return "=".equals(logic) ? GUESS_VALUE : GUESS_RANGE;
+        }
+        long matches = 0;
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            int value;
+            try {
+                value = Integer.parseInt(count.getKey());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (("=".equals(logic) && value == cmc) ||
+                    ("<".equals(logic) && value < cmc) ||
+                    (">".equals(logic) && value > cmc) ||
+                    ("<=".equals(logic) && value <= cmc) ||
+                    (">=".equals(logic) && value >= cmc)) {
+                matches += count.getValue();
+            }
+        }
+        return matches / (float) getTotal();
+    }
+
+    /**
+     * Estimate the selectivity of Search()'s type filter
+     *
+     * @param column The type column, KEY_SUPERTYPE or KEY_SUBTYPE
+     * @param types  The type words, with a leading EXCLUDE_TOKEN if they're excluded
+     * @param logic  The type logic from SearchCriteria
+     * @return The estimated fraction of cards the filter keeps
+     */
+    float getTypeSelectivity(String column, Collection<String> types, int logic) {
+        float[] fractions = new float[types.size()];
+        int i = 0;
+        for (String type : types) {
+            fractions[i++] = getFraction(column, stripExclude(type).toLowerCase(Locale.ENGLISH));
+        }
+        return combineWords(types, fractions, logic);
+    }
+
+    /**
+     * Estimate the selectivity of Search()'s rules text filter for all or any of the words. Rules
+     * text isn't counted, so every word is guessed to be in the same fraction of cards
+     *
+     * @param words The words, with a leading EXCLUDE_TOKEN if they're excluded
+     * @param logic The text logic from SearchCriteria, 0 or 1
+     * @return The estimated fraction of cards the filter keeps
+     */
+    float getTextSelectivity(Collection<String> words, int logic) {
+        float[] fractions = new float[words.size()];
+        Arrays.fill(fractions, GUESS_CONTAINS_TEXT);
+        return combineWords(words, fractions, logic);
+    }
+
+    /**
+     * Combine the fractions of cards with each word the way Search() combines the words
+     *
+     * @param words     The words, with a leading EXCLUDE_TOKEN if they're excluded
+     * @param fractions The fraction of cards with each word
+     * @param logic     0 to keep cards with every word, 1 to keep cards with any word, 2 to keep
+     *                  cards with none of the words. Excluded words are always excluded
+     * @return The estimated fraction of cards the words keep
+     */
+    private static float combineWords(Collection<String> words, float[] fractions, int logic) {
+        float all = 1;
+        float none = 1;
+        float excluded = 1;
+        int i = 0;
+        for (String word : words) {
+            float fraction = fractions[i++];
+            if (2 == logic || word.startsWith(CardDbAdapter.EXCLUDE_TOKEN)) {
+                excluded *= 1 - fraction;
+            } else {
+                all *= fraction;
+                none *= 1 - fraction;
+            }
+        }
+        switch (logic) {
+            case 0:
+                return all * excluded;
+            case 1:
+                return (1 - none) * excluded;
+            default:
+                return excluded;
+        }
+    }
+
+    /**
+     * @param word A word which may start with EXCLUDE_TOKEN
+     * @return The word without EXCLUDE_TOKEN
+     */
+    private static String stripExclude(String word) {
+        if (word.startsWith(CardDbAdapter.EXCLUDE_TOKEN)) {
+            return word.substring(CardDbAdapter.EXCLUDE_TOKEN.length());
+        }
+        return word;
+    }
+
+    /**
+     * Estimate the selectivity of Search()'s color filter
+     *
+     * @param colors The color string from SearchCriteria, upper case for selected colors
+     * @param logic  The color logic from SearchCriteria
+     * @return The estimated fraction of cards the filter keeps
+     */
+    float getColorSelectivity(String colors, int logic) {
+        float all = 1;
+        float none = 1;
+        float excluded = 1;
+        for (char color : colors.toCharArray()) {
+            float fraction = getFraction(CardDbAdapter.KEY_COLOR,
+                    String.valueOf(Character.toUpperCase(color)));
+            if (Character.isUpperCase(color)) {
+                all *= fraction;
+                none *= 1 - fraction;
+            } else {
+                excluded *= 1 - fraction;
+            }
+        }
+        float selected = (1 == logic || 3 == logic) ? all : 1 - none;
+        return (logic > 1) ? selected * excluded : selected;
+    }
+
+    /**
+     * @param colorIdentity The color identity string from SearchCriteria, upper case for selected
+     *                      colors
+     * @return The estimated fraction of cards whose color identity has no unselected colors
+     */
+    float getColorIdentitySelectivity(String colorIdentity) {
+        float selectivity = 1;
+        for (char color : colorIdentity.toCharArray()) {
+            if (Character.isLowerCase(color)) {
+                selectivity *= 1 - getFraction(CardDbAdapter.KEY_COLOR_IDENTITY,
+                        String.valueOf(Character.toUpperCase(color)));
+            }
+        }
+        return selectivity;
+    }
+
+    /**
+     * @param column A counted column
+     * @param value  A value in that column
+     * @return The fraction of cards with that value, or a guess if the column isn't counted
+     */
+    private float getFraction(String column, String value) {
+        Map<String, Long> counts = mStatistics.get(column);
+        if (null == counts) {
+            return GUESS_VALUE;
+        }
+        Long count = counts.get(value);
+        return (null == count) ? 0 : count / (float) getTotal();
+    }
+
+    /**
+     * @return The number of cards the statistics were gathered from, at least 1
+     */
+    private long getTotal() {
+        Map<String, Long> total = mStatistics.get(TOTAL);
+        if (null == total || null == total.get(TOTAL)) {
+            return 1;
+        }
+        return Math.max(1, total.get(TOTAL));
+    }
+
+    /**
+     * Turn planning on or off. With it off, terms are written in the order the criteria are
+     * checked, and set lists are always left indexable. This only exists so the benchmark can
+     * compare the two
+     *
+     * @param isEnabled true to plan searches, false to not
+     */
+    public static void setEnabled(boolean isEnabled) {
+        sIsEnabled = isEnabled;
+    }
+
+    /**
+     * Check if the statistics have been gathered in the database
+     *
+     * @param database The database to check
+     * @return true if the statistics table exists, false otherwise
+     */
+    public static boolean isBuilt(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM sqlite_master" +
+                " WHERE type = 'table' AND name = ?",
+                new String[]{CardDbAdapter.DATABASE_TABLE_SEARCH_STATISTICS}) > 0;
+    }
+
+    /**
+     * Count the cards with each set, rarity, CMC, color, color identity, and type word, and
+     * create the index on the set column. This should be called after cards are added or
+     * removed, inside the updater's transaction
+     *
+     * @param database The writable database to gather statistics in
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void rebuild(SQLiteDatabase database) throws FamiliarDbException {
+        HashMap<String, Map<String, Long>> statistics = new HashMap<>();
+        SQLiteStatement insert = null;
+        Cursor cursor = null;
+        try {
+            QueryLog.execSQL(database, "DROP TABLE IF EXISTS " + CardDbAdapter.DATABASE_TABLE_SEARCH_STATISTICS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_SEARCH_STATISTICS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_INDEX_CARDS_SET);
+
+            /* Count everything in one pass over the cards */
+            cursor = database.query(CardDbAdapter.DATABASE_TABLE_CARDS, new String[]{
+                    CardDbAdapter.KEY_SET, CardDbAdapter.KEY_RARITY, CardDbAdapter.KEY_CMC,
+                    CardDbAdapter.KEY_COLOR, CardDbAdapter.KEY_COLOR_IDENTITY,
+                    CardDbAdapter.KEY_SUPERTYPE, CardDbAdapter.KEY_SUBTYPE},
+                    null, null, null, null, null);
+            while (cursor.moveToNext()) {
+                count(statistics, TOTAL, TOTAL);
+                count(statistics, CardDbAdapter.KEY_SET, cursor.getString(0));
+                count(statistics, CardDbAdapter.KEY_RARITY, Integer.toString(cursor.getInt(1)));
+                count(statistics, CardDbAdapter.KEY_CMC, Integer.toString(cursor.getInt(2)));
+                countLetters(statistics, CardDbAdapter.KEY_COLOR, cursor.getString(3));
+                countLetters(statistics, CardDbAdapter.KEY_COLOR_IDENTITY, cursor.getString(4));
+                countWords(statistics, CardDbAdapter.KEY_SUPERTYPE, cursor.getString(5));
+                countWords(statistics, CardDbAdapter.KEY_SUBTYPE, cursor.getString(6));
+            }
+
+            insert = database.compileStatement("INSERT INTO " +
+                    CardDbAdapter.DATABASE_TABLE_SEARCH_STATISTICS + " (" +
+                    CardDbAdapter.KEY_COLUMN + ", " + CardDbAdapter.KEY_VALUE + ", " +
+                    CardDbAdapter.KEY_COUNT + ") VALUES (?, ?, ?)");
+            for (Map.Entry<String, Map<String, Long>> column : statistics.entrySet()) {
+                for (Map.Entry<String, Long> value : column.getValue().entrySet()) {
+                    insert.bindString(1, column.getKey());
+                    insert.bindString(2, value.getKey());
+                    insert.bindLong(3, value.getValue());
+                    insert.executeInsert();
+                }
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+            if (null != insert) {
+                insert.close();
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Add one to the count of a value
+     *
+     * @param statistics The counts
+     * @param column     The column the value is in
+     * @param value      The value to count, ignored if null
+     */
+    private static void count(Map<String, Map<String, Long>> statistics, String column,
+                              String value) {
+        if (null == value) {
+            return;
+        }
+        Map<String, Long> counts = statistics.get(column);
+        if (null == counts) {
+            counts = new HashMap<>();
+            statistics.put(column, counts);
+        }
+        Long count = counts.get(value);
+        counts.put(value, (null == count) ? 1 : count + 1);
+    }
+
+    /**
+     * Count each distinct letter of a value, like each color of "WU"
+     *
+     * @param statistics The counts
+     * @param column     The column the value is in
+     * @param value      The value to count the letters of, ignored if null
+     */
+    private static void countLetters(Map<String, Map<String, Long>> statistics, String column,
+                                     String value) {
+        if (null == value) {
+            return;
+        }
+        HashSet<Character> letters = new HashSet<>();
+        for (char letter : value.toUpperCase(Locale.ENGLISH).toCharArray()) {
+            if (letters.add(letter)) {
+                count(statistics, column, String.valueOf(letter));
+            }
+        }
+    }
+
+    /**
+     * Count each distinct word of a value, like "legendary" and "creature" in "Legendary
+     * Creature". Words are counted in lower case, since LIKE isn't case sensitive
+     *
+     * @param statistics The counts
+     * @param column     The column the value is in
+     * @param value      The value to count the words of, ignored if null
+     */
+    private static void countWords(Map<String, Map<String, Long>> statistics, String column,
+                                   String value) {
+        if (null == value) {
+            return;
+        }
+        HashSet<String> words = new HashSet<>();
+        for (String word : value.toLowerCase(Locale.ENGLISH).split(" ")) {
+            if (!word.isEmpty() && words.add(word)) {
+                count(statistics, column, word);
+            }
+        }
+    }
+
+    /**
+     * Forget the loaded statistics. This must be called whenever the statistics table is modified
+     */
+    static synchronized void invalidate() {
+        sStatistics = null;
+    }
+
+    /**
+     * Return the statistics, loading them from the database if they haven't been loaded yet
+     *
+     * @param database The database to load the statistics from, if necessary
+     * @return The counts of each value in each column. Empty if the statistics aren't built
+     * @throws FamiliarDbException If the statistics couldn't be loaded
+     */
+    private static synchronized Map<String, Map<String, Long>> getStatistics(SQLiteDatabase database)
+            throws FamiliarDbException {
+        if (null != sStatistics) {
+            return sStatistics;
+        }
+
+        Cursor cursor = null;
+        try {
+            HashMap<String, Map<String, Long>> statistics = new HashMap<>();
+            if (isBuilt(database)) {
+                cursor = database.query(CardDbAdapter.DATABASE_TABLE_SEARCH_STATISTICS,
+                        new String[]{CardDbAdapter.KEY_COLUMN, CardDbAdapter.KEY_VALUE,
+                                CardDbAdapter.KEY_COUNT}, null, null, null, null, null);
+                while (cursor.moveToNext()) {
+                    Map<String, Long> counts = statistics.get(cursor.getString(0));
+                    if (null == counts) {
+                        counts = new HashMap<>();
+                        statistics.put(cursor.getString(0), counts);
+                    }
+                    counts.put(cursor.getString(1), cursor.getLong(2));
+                }
+            }
+            sStatistics = statistics;
+            return sStatistics;
+        } catch (SQLiteException | IllegalStateException | CursorIndexOutOfBoundsException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-memory copy of DATABASE_TABLE_SETS. There are only a few hundred sets and they only change
+ * when the database is updated, so it's much cheaper to load them all once than to query the set
+ * table for every card that's loaded.
+ */
+public class SetCatalog {
+
+    /* The loaded catalog, or null if it needs to be (re)loaded */
+    private static Map<String, SetInfo> sCatalog = null;
+
+    /**
+     * Set level information for a single expansion
+     */
+    public static class SetInfo {
+        public final String mCode;
+        public final String mName;
+        public final String mCodeMtgi;
+        public final String mNameTcgp;
+        public final long mDate;
+        public final boolean mCanBeFoil;
+        public final boolean mIsOnlineOnly;
+
+        /**
+         * Build a SetInfo from the current row of a cursor from CardDbAdapter.fetchAllSets()
+         *
+         * @param cursor The cursor to read set data from
+         * @param code   The column index for KEY_CODE
+         * @param name   The column index for KEY_NAME
+         * @param mtgi   The column index for KEY_CODE_MTGI
+         * @param tcgp   The column index for KEY_NAME_TCGPLAYER
+         * @param date   The column index for KEY_DATE
+         * @param foil   The column index for KEY_CAN_BE_FOIL
+         * @param online The column index for KEY_ONLINE_ONLY
+         */
+        SetInfo(Cursor cursor, int code, int name, int mtgi, int tcgp, int date, int foil, int online) {
+            mCode = cursor.getString(code);
+            mName = cursor.getString(name);
+            mCodeMtgi = cursor.getString(mtgi);
+            mNameTcgp = cursor.getString(tcgp);
+            mDate = cursor.getLong(date);
+            mCanBeFoil = 0 != cursor.getInt(foil);
+            mIsOnlineOnly = 1 == cursor.getInt(online);
+        }
+    }
+
+    /**
+     * Return the catalog of all sets, loading it from the database if it hasn't been loaded yet
+     *
+     * @param database The database to load the catalog from, if necessary
+     * @return An unmodifiable map of set codes to set information
+     * @throws FamiliarDbException If the catalog couldn't be loaded
+     */
+    public static synchronized Map<String, SetInfo> getCatalog(SQLiteDatabase database)
+            throws FamiliarDbException {
+        if (null == sCatalog) {
+            sCatalog = loadCatalog(database);
+        }
+        return sCatalog;
+    }
+
+    /**
+     * Return information about a single set
+     *
+     * @param setCode  The set code to look up
+     * @param database The database to load the catalog from, if necessary
+     * @return The set's information, or null if the set isn't in the database
+     * @throws FamiliarDbException If the catalog couldn't be loaded
+     */
+    @Nullable
+    public static SetInfo getSet(String setCode, SQLiteDatabase database)
+            throws FamiliarDbException {
+        return getCatalog(database).get(setCode);
+    }
+
+    /**
+     * Forget the loaded catalog. This must be called whenever DATABASE_TABLE_SETS is modified
+     */
+    static synchronized void invalidate() {
+        sCatalog = null;
+    }
+
+    /**
+     * Query every set in the database and put it in a map keyed by set code
+     *
+     * @param database The database to query
+     * @return An unmodifiable map of set codes to set information
+     * @throws FamiliarDbException If something goes wrong
+     */
+    private static Map<String, SetInfo> loadCatalog(SQLiteDatabase database)
+            throws FamiliarDbException {
+        Cursor cursor = null;
+        try {
+            cursor = CardDbAdapter.fetchAllSets(database);
+            HashMap<String, SetInfo> catalog = new HashMap<>(cursor.getCount() * 2);
+
+            /* Resolve the column indices once, not once per set */
+            int code = cursor.getColumnIndex(CardDbAdapter.KEY_CODE);
+            int name = cursor.getColumnIndex(CardDbAdapter.KEY_NAME);
+            int mtgi = cursor.getColumnIndex(CardDbAdapter.KEY_CODE_MTGI);
+            int tcgp = cursor.getColumnIndex(CardDbAdapter.KEY_NAME_TCGPLAYER);
+            int date = cursor.getColumnIndex(CardDbAdapter.KEY_DATE);
+            int foil = cursor.getColumnIndex(CardDbAdapter.KEY_CAN_BE_FOIL);
+            int online = cursor.getColumnIndex(CardDbAdapter.KEY_ONLINE_ONLY);
+
+            while (cursor.moveToNext()) {
+                SetInfo info = new SetInfo(cursor, code, name, mtgi, tcgp, date, foil, online);
+                catalog.put(info.mCode, info);
+            }
+            return Collections.unmodifiableMap(catalog);
+        } catch (SQLiteException | IllegalStateException | CursorIndexOutOfBoundsException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * A prebuilt patch for a single set, as a SQLite database instead of JSON. It has the set's row in
+ * DATABASE_TABLE_SETS, its cards in DATABASE_TABLE_CARDS, and optionally their translations in
+ * DATABASE_TABLE_FOREIGN_PRINTINGS, in tables with the same names and columns as the card database.
+ * <p>
+ * A patch is merged by attaching it and copying each table with a single INSERT ... SELECT, so
+ * nothing is decoded or inserted row by row. Columns which only one side has are skipped, so
+ * patches built with an older or newer schema can still be merged as long as the required columns
+ * are there.
+ */
+public class SetPatchDatabase {
+
+    /* The folder in the app's external files folder where gzipped patches can be left to be merged */
+    public static final String LOCAL_DIRECTORY = "patches";
+
+    /* The extension of a patch file, after its set code */
+    public static final String FILE_EXTENSION = ".sqlite";
+
+    /* The name the patch is attached as */
+    private static final String SCHEMA = "patch";
+
+    /**
+     * Merge a patch into the card database. Everything is merged in one transaction, so either the
+     * whole set is added or none of it is. When replacing a set, the old one is dropped in the same
+     * transaction, so the set is never missing in between.
+     * <p>
+     * Old versions of SQLite can't ATTACH inside a transaction, so the database must be opened with
+     * DatabaseManager.openDatabaseWithoutTransaction()
+     *
+     * @param patch       The patch file, which isn't modified
+     * @param setCode     The set the patch must contain, and only contain
+     * @param digest      The digest the set must have, or null to not check it
+     * @param isReplacing true to drop the set's current cards first, false if it isn't in the
+     *                    database
+     * @param database    The writable database to merge into, not in a transaction
+     * @return The number of cards merged
+     * @throws FamiliarDbException If the patch is for a different set, or can't be merged
+     */
+    public static long merge(File patch, String setCode, @Nullable String digest, boolean isReplacing,
+                             SQLiteDatabase database) throws FamiliarDbException {
+        String sets = SCHEMA + "." + CardDbAdapter.DATABASE_TABLE_SETS;
+        String cards = SCHEMA + "." + CardDbAdapter.DATABASE_TABLE_CARDS;
+        String printings = SCHEMA + "." + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS;
+        boolean isAttached = false;
+        try {
+            QueryLog.execSQL(database, "ATTACH DATABASE " +
+                    DatabaseUtils.sqlEscapeString(patch.getPath()) + " AS " + SCHEMA);
+            isAttached = true;
+
+            /* Make sure this is the patch which was asked for */
+            if (DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + sets +
+                    " WHERE " + CardDbAdapter.KEY_CODE + " = ?", new String[]{setCode}) != 1 ||
+                    DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + sets, null) != 1) {
+                throw new FamiliarDbException(new IllegalStateException(patch + " isn't a patch for " + setCode));
+            }
+            if (null != digest && !digest.equals(DatabaseUtils.stringForQuery(database,
+                    "SELECT " + CardDbAdapter.KEY_DIGEST + " FROM " + sets, null))) {
+                throw new FamiliarDbException(new IllegalStateException(patch + " doesn't have digest " + digest));
+            }
+            if (DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " + cards +
+                    " WHERE " + CardDbAdapter.KEY_SET + " != ?", new String[]{setCode}) != 0) {
+                throw new FamiliarDbException(new IllegalStateException(patch + " has cards from other sets"));
+            }
+
+            database.beginTransaction();
+            try {
+                if (isReplacing) {
+                    CardDbAdapter.dropSetAndCards(setCode, database);
+                }
+
+                /* Give the patch's cards the ids after the last card, keeping their order, so the
+                 * printings which refer to them can be moved over by the same offset */
+                long firstId = 1 + DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" +
+                        CardDbAdapter.KEY_ID + "), 0) FROM main." + CardDbAdapter.DATABASE_TABLE_CARDS, null);
+                long offset = firstId - DatabaseUtils.longForQuery(database, "SELECT IFNULL(MIN(" +
+                        CardDbAdapter.KEY_ID + "), 0) FROM " + cards, null);
+
+                String columns = getSharedColumns(CardDbAdapter.DATABASE_TABLE_CARDS, database);
+                QueryLog.execSQL(database, "INSERT INTO main." + CardDbAdapter.DATABASE_TABLE_CARDS +
+                        " (" + CardDbAdapter.KEY_ID + ", " + columns + ") SELECT " +
+                        CardDbAdapter.KEY_ID + " + " + offset + ", " + columns + " FROM " + cards);
+
+                columns = getSharedColumns(CardDbAdapter.DATABASE_TABLE_SETS, database);
+                QueryLog.execSQL(database, "INSERT INTO main." + CardDbAdapter.DATABASE_TABLE_SETS +
+                        " (" + columns + ") SELECT " + columns + " FROM " + sets);
+
+                if (ForeignPrintings.isBuilt(database) && DatabaseUtils.longForQuery(database,
+                        "SELECT COUNT(*) FROM " + SCHEMA + ".sqlite_master WHERE type = 'table' AND name = ?",
+                        new String[]{CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS}) > 0) {
+                    QueryLog.execSQL(database, "INSERT OR REPLACE INTO main." +
+                            CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS + " (" +
+                            CardDbAdapter.KEY_CARD_ID + ", " + CardDbAdapter.KEY_LANGUAGE + ", " +
+                            CardDbAdapter.KEY_NAME + ", " + CardDbAdapter.KEY_MULTIVERSEID + ") SELECT " +
+                            CardDbAdapter.KEY_CARD_ID + " + " + offset + ", " + CardDbAdapter.KEY_LANGUAGE + ", " +
+                            CardDbAdapter.KEY_NAME + ", " + CardDbAdapter.KEY_MULTIVERSEID + " FROM " + printings +
+                            " WHERE " + CardDbAdapter.KEY_NAME + " IS NOT NULL AND " + CardDbAdapter.KEY_NAME + " != ''");
+                    if (ForeignNameIndex.isBuilt(database)) {
+                        ForeignNameIndex.addPrintingsFrom(firstId, database);
+                    }
+                }
+
+                /* createCard() would have done this one card at a time */
+                CardDictionary.encodeFrom(firstId, database);
+
+                database.setTransactionSuccessful();
+                return DatabaseUtils.queryNumEntries(database, cards);
+            } finally {
+                database.endTransaction();
+            }
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (isAttached) {
+                try {
+                    QueryLog.execSQL(database, "DETACH DATABASE " + SCHEMA);
+                } catch (SQLiteException e) {
+                    /* The connection is closed soon anyway */
+                }
+            }
+            SetCatalog.invalidate();
+        }
+    }
+
+    /**
+     * Write a set from a card database into a new patch. This is how patches are built, and how
+     * CardDbBenchmark makes patches from the same data as the JSON ones
+     *
+     * @param source  The card database to read the set from
+     * @param setCode The set to write
+     * @param patch   The file to write the patch to. Anything already there is overwritten
+     * @throws FamiliarDbException If something goes wrong
+     */
+    public static void export(File source, String setCode, File patch) throws FamiliarDbException {
+        for (String suffix : new String[]{"", "-journal"}) {
+            File file = new File(patch.getPath() + suffix);
+            if (file.exists() && !file.delete()) {
+                throw new FamiliarDbException(new IllegalStateException("Couldn't delete " + file));
+            }
+        }
+
+        SQLiteDatabase database = null;
+        try {
+            database = SQLiteDatabase.openOrCreateDatabase(patch, null);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_SETS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_CARDS);
+            QueryLog.execSQL(database, CardDbAdapter.DATABASE_CREATE_FOREIGN_PRINTINGS);
+
+            /* Here the patch is main, and the card database is attached */
+            QueryLog.execSQL(database, "ATTACH DATABASE " +
+                    DatabaseUtils.sqlEscapeString(source.getPath()) + " AS " + SCHEMA);
+            database.beginTransaction();
+            try {
+                String code = DatabaseUtils.sqlEscapeString(setCode);
+                String columns = getSharedColumns(CardDbAdapter.DATABASE_TABLE_SETS, database);
+                QueryLog.execSQL(database, "INSERT INTO " + CardDbAdapter.DATABASE_TABLE_SETS +
+                        " (" + columns + ") SELECT " + columns + " FROM " + SCHEMA + "." +
+                        CardDbAdapter.DATABASE_TABLE_SETS + " WHERE " + CardDbAdapter.KEY_CODE + " = " + code);
+                columns = getSharedColumns(CardDbAdapter.DATABASE_TABLE_CARDS, database);
+                QueryLog.execSQL(database, "INSERT INTO " + CardDbAdapter.DATABASE_TABLE_CARDS +
+                        " (" + CardDbAdapter.KEY_ID + ", " + columns + ") SELECT " +
+                        CardDbAdapter.KEY_ID + ", " + columns + " FROM " + SCHEMA + "." +
+                        CardDbAdapter.DATABASE_TABLE_CARDS + " WHERE " + CardDbAdapter.KEY_SET + " = " + code);
+                QueryLog.execSQL(database, "INSERT INTO " + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS +
+                        " SELECT * FROM " + SCHEMA + "." + CardDbAdapter.DATABASE_TABLE_FOREIGN_PRINTINGS +
+                        " WHERE " + CardDbAdapter.KEY_CARD_ID + " IN (SELECT " + CardDbAdapter.KEY_ID +
+                        " FROM " + CardDbAdapter.DATABASE_TABLE_CARDS + ")");
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            QueryLog.execSQL(database, "DETACH DATABASE " + SCHEMA);
+        } catch (SQLiteException | IllegalStateException e) {
+            throw new FamiliarDbException(e);
+        } finally {
+            if (null != database) {
+                database.close();
+            }
+        }
+    }
+
+    /**
+     * Find the columns of a table which both the main and the attached database have. KEY_ID is
+     * left out, since the caller decides what ids rows get, and so are the dictionary ids, since
+     * they're only meaningful in the database they were assigned in
+     *
+     * @param table    The table to compare
+     * @param database The database with the patch attached
+     * @return The column names, comma separated
+     */
+    private static String getSharedColumns(String table, SQLiteDatabase database) {
+        HashSet<String> attachedColumns = new HashSet<>(getColumns(SCHEMA, table, database));
+        StringBuilder columns = new StringBuilder();
+        for (String column : getColumns("main", table, database)) {
+            if (attachedColumns.contains(column) && !CardDbAdapter.KEY_ID.equals(column) &&
+                    !CardDictionary.isIdColumn(column)) {
+                columns.append(columns.length() == 0 ? "" : ", ").append(column);
+            }
+        }
+        return columns.toString();
+    }
+
+    /**
+     * @param schema   The name of an attached database, or "main"
+     * @param table    A table in that database
+     * @param database The database connection
+     * @return The names of the table's columns
+     */
+    private static ArrayList<String> getColumns(String schema, String table, SQLiteDatabase database) {
+        ArrayList<String> columns = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("PRAGMA " + schema + ".table_info(" + table + ")", null);
+            int nameColumn = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameColumn));
+            }
+            return columns;
+        } finally {
+            if (null != cursor) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class counts outstanding requests and runs a callback exactly once, as soon as the last
+ * outstanding request completes. Requests started while others are outstanding join the same
+ * batch, and the first callback given for a batch is the one which is run
+ */
+class CompletionTracker {
+
+    private final Executor mCallbackExecutor;
+
+    /* Guarded by this */
+    private int mOutstanding = 0;
+    private Runnable mOnAllDone = null;
+
+    /**
+     * A handle for a single outstanding request. Completing it more than once has no effect
+     */
+    class Completion {
+        private final AtomicBoolean mCompleted = new AtomicBoolean(false);
+
+        /**
+         * Mark this request as complete. Only the first call counts
+         */
+        void complete() {
+            if (mCompleted.compareAndSet(false, true)) {
+                end();
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param callbackExecutor The Executor which runs the callback when a batch completes, i.e.
+     *                         one which posts to the UI thread
+     */
+    CompletionTracker(Executor callbackExecutor) {
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Start tracking a request
+     *
+     * @param onAllDone A callback to run when every outstanding request is complete. It's only
+     *                  used if this request starts a new batch
+     * @return A Completion which must be completed when the request finishes, however it finishes
+     */
+    Completion begin(Runnable onAllDone) {
+        synchronized (this) {
+            if (0 == mOutstanding) {
+                mOnAllDone = onAllDone;
+            }
+            mOutstanding++;
+        }
+        return new Completion();
+    }
+
+    /**
+     * Called once per request when it completes. Runs the batch's callback if this was the last
+     * outstanding request
+     */
+    private void end() {
+        Runnable toRun = null;
+        synchronized (this) {
+            mOutstanding--;
+            if (0 == mOutstanding) {
+                toRun = mOnAllDone;
+                mOnAllDone = null;
+            }
+        }
+        if (null != toRun) {
+            mCallbackExecutor.execute(toRun);
+        }
+    }
+
+    /**
+     * Stop tracking the current batch. Its callback will never be run
+     */
+    synchronized void abandon() {
+        mOnAllDone = null;
+    }
+
+    /**
+     * @return The number of requests which haven't completed yet
+     */
+    synchronized int getOutstanding() {
+        return mOutstanding;
+    }
+}
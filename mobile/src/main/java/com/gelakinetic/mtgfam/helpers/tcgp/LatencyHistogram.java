@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import java.util.Locale;
+
+/**
+ * A fixed-bucket histogram of request latencies. Recording is cheap and doesn't allocate, so it's
+ * safe to call for every network request
+ */
+public class LatencyHistogram {
+
+    /* The upper bound of each bucket, in ms. The last bucket holds everything slower */
+    private static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final long[] mCounts = new long[BUCKET_BOUNDS_MS.length + 1];
+    private long mTotalCount = 0;
+    private long mTotalMs = 0;
+    private long mMaxMs = 0;
+
+    /**
+     * Record a single request's latency
+     *
+     * @param elapsedMs How long the request took, in ms
+     */
+    public synchronized void record(long elapsedMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && elapsedMs > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        mCounts[bucket]++;
+        mTotalCount++;
+        mTotalMs += elapsedMs;
+        if (elapsedMs > mMaxMs) {
+            mMaxMs = elapsedMs;
+        }
+    }
+
+    /**
+     * @return The number of latencies recorded
+     */
+    public synchronized long getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return The mean latency, in ms, or 0 if nothing was recorded
+     */
+    public synchronized double getMeanMs() {
+        if (0 == mTotalCount) {
+            return 0;
+        }
+        return mTotalMs / (double) mTotalCount;
+    }
+
+    /**
+     * @return The slowest recorded latency, in ms
+     */
+    public synchronized long getMaxMs() {
+        return mMaxMs;
+    }
+
+    /**
+     * Estimate a percentile. This returns the upper bound of the bucket the percentile falls into,
+     * or the maximum recorded latency if it falls into the last bucket
+     *
+     * @param percentile The percentile to estimate, between 0 and 100
+     * @return The estimated latency at that percentile, in ms
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (0 == mTotalCount) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(mTotalCount * (percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MS.length; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= threshold) {
+                return Math.min(BUCKET_BOUNDS_MS[bucket], mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    /**
+     * Clear all recorded latencies
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mCounts.length; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mTotalMs = 0;
+        mMaxMs = 0;
+    }
+
+    /**
+     * @return A short, human readable summary of this histogram
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d mean=%.1fms p50=%dms p90=%dms p99=%dms max=%dms",
+                mTotalCount, getMeanMs(), getPercentileMs(50), getPercentileMs(90),
+                getPercentileMs(99), mMaxMs);
+    }
+}
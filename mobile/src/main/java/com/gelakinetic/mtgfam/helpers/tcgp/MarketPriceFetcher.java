@@ -22,11 +22,11 @@ package com.gelakinetic.mtgfam.helpers.tcgp;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
-import android.os.Handler;
 import android.support.v4.util.LongSparseArray;
 
 import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.R;
+import com.gelakinetic.mtgfam.helpers.CardHelpers;
 import com.gelakinetic.mtgfam.helpers.MtgCard;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
@@ -54,10 +54,12 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -70,21 +72,131 @@ import io.reactivex.functions.Consumer;
 public class MarketPriceFetcher {
 
     private static final String KEY_PREFIX = "price_";
+    private static final Gson GSON = new Gson();
+
+    /* The API keys are read from assets once, then kept */
+    private static TcgpKeys sKeys;
 
     private final FamiliarActivity mActivity;
     private final Store<MarketPriceInfo, MtgCard> mStore;
-    private ExecutorService mThreadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    /* Priorities for queued price requests, lower values are served first */
+    public static final int PRIORITY_VISIBLE = 0;
+    public static final int PRIORITY_PREFETCH = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    /* TcgpRequestScheduler decides how many requests actually run at once, so the pool just needs
+     * enough threads for it to reach its maximum. Queued requests are served in priority order */
+    private PriorityBlockingQueue<Runnable> mRequestQueue = new PriorityBlockingQueue<>();
+    private ThreadPoolExecutor mThreadPool = createThreadPool(mRequestQueue);
+    private long mRequestSequence = 0;
 
     private final CompositeDisposable mCompositeDisposable = new CompositeDisposable();
     private final Object mSynchronizer = new Object();
-    private final ArrayList<Future> mFutures = new ArrayList<>();
-
-    private static CheckFutureRunnable mCheckFutureRunnable;
-    private final Handler mHandler;
+    private CompletionTracker mCompletionTracker;
 
     private abstract class RecordingPersister<Rec, Key> implements RecordProvider<Key>, Persister<Rec, Key> {
     }
 
+    /**
+     * A queued price request for a single card. Requests are ordered by priority, then by the
+     * order they were made in
+     */
+    private static class PriceRequest extends FutureTask<Void> implements Comparable<PriceRequest> {
+        final MtgCard mCard;
+        final long mSequence;
+        final CompletionTracker.Completion mCompletion;
+        volatile int mPriority = PRIORITY_BACKGROUND;
+
+        /**
+         * Constructor
+         *
+         * @param card       The card whose price is being requested
+         * @param runnable   The runnable which performs the request
+         * @param sequence   A monotonically increasing number, for FIFO ordering within a priority
+         * @param completion The Completion to complete if this request never calls back
+         */
+        PriceRequest(MtgCard card, Runnable runnable, long sequence,
+                     CompletionTracker.Completion completion) {
+            super(runnable, null);
+            mCard = card;
+            mSequence = sequence;
+            mCompletion = completion;
+        }
+
+        /**
+         * Called exactly once when this request is cancelled or finishes running. Normally the
+         * result callbacks complete the request, but if it was cancelled before running, or threw
+         * before subscribing, they never will
+         */
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                mCompletion.complete();
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException | InterruptedException e) {
+                mCompletion.complete();
+            }
+        }
+
+        /**
+         * @param other The PriceRequest to compare to
+         * @return negative if this request should be served first, positive if the other should
+         */
+        @Override
+        public int compareTo(@Nonnull PriceRequest other) {
+            if (mPriority != other.mPriority) {
+                return Integer.compare(mPriority, other.mPriority);
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+
+        /**
+         * @param item A list item
+         * @return true if this request was made on behalf of the item
+         */
+        boolean matches(MtgCard item) {
+            return isRequestFor(mCard, item);
+        }
+    }
+
+    /**
+     * A list item matches a requested card if it's the same card, or if it's a compressed item
+     * representing every printing of the requested card's name
+     *
+     * @param requested The card a price was requested for
+     * @param item      A list item
+     * @return true if the request was made on behalf of the item
+     */
+    public static boolean isRequestFor(MtgCard requested, MtgCard item) {
+        return requested == item || (item instanceof CardHelpers.CompressedCardInfo &&
+                null != item.getName() && item.getName().equals(requested.getName()));
+    }
+
+    /**
+     * @return A CompletionTracker which clears the loading animation and runs batch callbacks on
+     * the UI thread
+     */
+    private CompletionTracker createCompletionTracker() {
+        return new CompletionTracker(onAllDone -> mActivity.runOnUiThread(() -> {
+            synchronized (mSynchronizer) {
+                mActivity.clearLoading();
+                onAllDone.run();
+            }
+        }));
+    }
+
+    /**
+     * @param queue The queue to serve requests from
+     * @return A thread pool which serves requests from the given queue
+     */
+    private static ThreadPoolExecutor createThreadPool(PriorityBlockingQueue<Runnable> queue) {
+        return new ThreadPoolExecutor(TcgpRequestScheduler.MAX_CONCURRENCY,
+                TcgpRequestScheduler.MAX_CONCURRENCY, 0L, TimeUnit.MILLISECONDS, queue);
+    }
+
     /**
      * Constructor. Set up a MarketPriceFetcher with the given Activity as a Context
      *
@@ -93,7 +205,7 @@ public class MarketPriceFetcher {
     public MarketPriceFetcher(FamiliarActivity context) {
         /* Save the context */
         mActivity = context;
-        mHandler = new Handler();
+        mCompletionTracker = createCompletionTracker();
 
         /* Create the fetcher which actually gets the data */
         Fetcher<MarketPriceInfo, MtgCard> mFetcher = new Fetcher<MarketPriceInfo, MtgCard>() {
@@ -112,28 +224,16 @@ public class MarketPriceFetcher {
                     return Single.error(new Exception(mActivity.getString(R.string.no_network)));
                 }
 
-                /* Initialize the API */
-                TcgpApi api = new TcgpApi();
-                String tokenStr = PreferenceAdapter.getTcgpApiToken(mActivity);
-                Date expirationDate = PreferenceAdapter.getTcgpApiTokenExpirationDate(mActivity);
+                /* Get the shared API, and make sure it has a token which won't expire soon */
+                TcgpApi api = TcgpApi.getInstance();
                 try {
-                    /* If we don't have a token or it expired */
-                    if (tokenStr.isEmpty() || expirationDate.before(new Date())) {
-                        /* Request a token. This will initialize the TcgpApi object */
-                        AccessToken token;
-                        try {
-                            TcgpKeys keys = new Gson().fromJson(new InputStreamReader(mActivity.getAssets().open("tcgp_keys.json")), TcgpKeys.class);
-                            token = api.getAccessToken(keys.PUBLIC_KEY, keys.PRIVATE_KEY, keys.ACCESS_TOKEN);
-                            /* Save the token and expiration date */
-                            PreferenceAdapter.setTcgpApiToken(mActivity, token.access_token);
-                            PreferenceAdapter.setTcgpApiTokenExpirationDate(mActivity, token.expires);
-                        } catch (FileNotFoundException e) {
-                            return Single.error(new Exception(mActivity.getString(R.string.price_error_api_key)));
-                        }
-                    } else {
-                        /* Make sure the token hasn't expired */
-                        api.setToken(tokenStr);
+                    if (!api.isTokenValid()) {
+                        refreshToken(api);
                     }
+                } catch (TcgpRequestScheduler.CircuitOpenException e) {
+                    return Single.error(new Exception(mActivity.getString(R.string.price_error_unavailable)));
+                } catch (FileNotFoundException e) {
+                    return Single.error(new Exception(mActivity.getString(R.string.price_error_api_key)));
                 } catch (IOException e) {
                     return Single.error(new Exception(mActivity.getString(R.string.price_error_network)));
                 }
@@ -294,6 +394,13 @@ public class MarketPriceFetcher {
                                         /* Return the error returned by TCGPlayer */
                                         return Single.error(new Throwable(information.errors[0]));
                                     }
+                                } catch (TcgpRequestScheduler.CircuitOpenException e) {
+                                    /* TCGplayer is unhealthy, so don't try any more name variants.
+                                     * The Store will serve a stale cached price if there is one */
+                                    return Single.error(new Exception(mActivity.getString(R.string.price_error_unavailable)));
+                                } catch (TcgpApi.UnauthorizedException e) {
+                                    /* Even a new token was rejected, so other name variants would be too */
+                                    return Single.error(new Exception(mActivity.getString(R.string.price_error_api_key)));
                                 } catch (IOException e) {
                                     lastThrownException = new Exception(mActivity.getString(R.string.price_error_network));
                                 }
@@ -365,7 +472,7 @@ public class MarketPriceFetcher {
                         /* Attempt to read the cache file */
                         File cacheFile = getCacheFile(cacheKey);
                         FileReader reader = new FileReader(cacheFile);
-                        MarketPriceInfo info = new Gson().fromJson(reader, MarketPriceInfo.class);
+                        MarketPriceInfo info = GSON.fromJson(reader, MarketPriceInfo.class);
                         reader.close();
                         /* Cache file read, emit it */
                         emitter.onSuccess(info);
@@ -390,7 +497,7 @@ public class MarketPriceFetcher {
                     /* Attempt to write the cache file */
                     File cacheFile = getCacheFile(cacheKey);
                     JsonWriter writer = new JsonWriter(new FileWriter(cacheFile));
-                    new Gson().toJson(marketPriceInfo, MarketPriceInfo.class, writer);
+                    GSON.toJson(marketPriceInfo, MarketPriceInfo.class, writer);
                     writer.close();
                     /* The cache file was written */
                     return Single.just(true);
@@ -408,6 +515,45 @@ public class MarketPriceFetcher {
                 .open();
     }
 
+    /**
+     * Make sure the shared TcgpApi has a valid token. First try the token persisted from a previous
+     * session, and if that is missing or about to expire, request and persist a new one. This is
+     * synchronized on the api so that concurrent fetches only request one token
+     *
+     * @param api The shared TcgpApi to load a token into
+     * @throws IOException If the keys can't be read or something goes wrong with the network
+     */
+    private void refreshToken(TcgpApi api) throws IOException {
+        synchronized (api) {
+            /* Another fetch may have refreshed the token while this one was waiting */
+            if (api.isTokenValid()) {
+                return;
+            }
+
+            /* Try the persisted token first */
+            String tokenStr = PreferenceAdapter.getTcgpApiToken(mActivity);
+            if (!tokenStr.isEmpty()) {
+                api.setToken(tokenStr, PreferenceAdapter.getTcgpApiTokenExpirationDate(mActivity));
+                if (api.isTokenValid()) {
+                    return;
+                }
+            }
+
+            /* Request a token. This will initialize the TcgpApi object */
+            if (null == sKeys) {
+                InputStreamReader keysReader = new InputStreamReader(mActivity.getAssets().open("tcgp_keys.json"));
+                sKeys = GSON.fromJson(keysReader, TcgpKeys.class);
+                keysReader.close();
+            }
+            AccessToken token = api.getAccessToken(sKeys.PUBLIC_KEY, sKeys.PRIVATE_KEY, sKeys.ACCESS_TOKEN);
+            if (null != token) {
+                /* Save the token and expiration date */
+                PreferenceAdapter.setTcgpApiToken(mActivity, token.access_token);
+                PreferenceAdapter.setTcgpApiTokenExpirationDate(mActivity, token.expires);
+            }
+        }
+    }
+
     /**
      * Given a group ID, return the string expansion name. If it doesn't exist, use the API to
      * download a list of all group IDs and names, then save the map to the disk
@@ -457,6 +603,23 @@ public class MarketPriceFetcher {
      */
     public void fetchMarketPrice(final MtgCard card, final Consumer<MarketPriceInfo> onSuccess,
                                  final Consumer<Throwable> onError, final Runnable onAllDoneUI) throws InstantiationException {
+        fetchMarketPrice(card, onSuccess, onError, onAllDoneUI, PRIORITY_VISIBLE);
+    }
+
+    /**
+     * This function fetches the price for a given MtgCard and calls the appropriate callbacks.
+     * It ensures the network operations are called on a non-UI thread and the result callbacks are
+     * called on the UI thread. The request is queued with the given priority, which may be changed
+     * later with prioritizeRequests()
+     *
+     * @param card      A MtgCard to fetch data for. It must have a mName and mExpansion populated
+     * @param onSuccess A Consumer callback to be called when the price is fetched
+     * @param onError   A Consumer callback to be called when an error occurs
+     * @param priority  PRIORITY_VISIBLE, PRIORITY_PREFETCH, or PRIORITY_BACKGROUND
+     */
+    public void fetchMarketPrice(final MtgCard card, final Consumer<MarketPriceInfo> onSuccess,
+                                 final Consumer<Throwable> onError, final Runnable onAllDoneUI,
+                                 int priority) throws InstantiationException {
 
         if (null == card.getName() || card.getName().isEmpty() ||
                 null == card.getExpansion() || card.getExpansion().isEmpty() ||
@@ -467,6 +630,9 @@ public class MarketPriceFetcher {
         /* Show the loading animation */
         mActivity.setLoading();
 
+        /* Count this request. When every outstanding request completes, onAllDoneUI is called */
+        final CompletionTracker.Completion completion = mCompletionTracker.begin(onAllDoneUI);
+
         /* Start a new thread to perform the fetch */
         Runnable priceRunnable = new Runnable() {
             /**
@@ -498,6 +664,7 @@ public class MarketPriceFetcher {
                                         }
                                     }
                                 }
+                                completion.complete();
                             }
                         }, new Consumer<Throwable>() {
                             /**
@@ -516,63 +683,63 @@ public class MarketPriceFetcher {
                                         /* Eat it */
                                     }
                                 }
+                                completion.complete();
                             }
                         }
                 ));
             }
         };
 
-        mFutures.add(mThreadPool.submit(priceRunnable));
-        if (null == mCheckFutureRunnable) {
-            mCheckFutureRunnable = new CheckFutureRunnable(onAllDoneUI);
-            mHandler.postDelayed(() -> new Thread(mCheckFutureRunnable).start(), 1000);
-        }
+        /* Queue the request */
+        PriceRequest request = new PriceRequest(card, priceRunnable, mRequestSequence++, completion);
+        request.mPriority = priority;
+        mThreadPool.execute(request);
     }
 
-    private class CheckFutureRunnable implements Runnable {
-
-        private final Runnable mOnCompleted;
-
-        /**
-         * Constructor which saves a callback to be called on the UI thread
-         *
-         * @param onCompleted A Runnable to be called on the UI thread when all Futures are done
-         */
-        CheckFutureRunnable(Runnable onCompleted) {
-            mOnCompleted = onCompleted;
+    /**
+     * Reprioritize all queued requests. Requests which haven't started yet are served in order of
+     * the priority of the item they match. Requests which don't match any item in levels are
+     * demoted to PRIORITY_BACKGROUND
+     *
+     * @param levels    A map of card names to PRIORITY_VISIBLE or PRIORITY_PREFETCH
+     * @param cancelFar true to cancel queued requests which don't match anything, rather than
+     *                  demote them
+     * @return The cards whose requests were cancelled, so they may be requested again later
+     */
+    public ArrayList<MtgCard> prioritizeRequests(Map<String, Integer> levels, boolean cancelFar) {
+        ArrayList<MtgCard> cancelled = new ArrayList<>();
+
+        /* Pull everything out of the queue, since it doesn't reorder items in place */
+        ArrayList<Runnable> queued = new ArrayList<>();
+        mRequestQueue.drainTo(queued);
+        for (Runnable runnable : queued) {
+            PriceRequest request = (PriceRequest) runnable;
+            Integer level = levels.get(request.mCard.getName());
+            if (null != level) {
+                request.mPriority = level;
+            } else if (cancelFar) {
+                request.cancel(false);
+                cancelled.add(request.mCard);
+                continue;
+            } else {
+                request.mPriority = PRIORITY_BACKGROUND;
+            }
+            mRequestQueue.add(request);
         }
+        return cancelled;
+    }
 
-        /**
-         * Remove any Futures which are done, then either re-post the Runnable or call the function
-         * on the UI thread that everything is done
-         */
-        @Override
-        public void run() {
-            // If mCheckFutureRunnable is nulled out, this shouldn't run
-            synchronized (mSynchronizer) {
-                if (null != mCheckFutureRunnable) {
-                    // Loop over mFutures, removing any ones that are done
-                    for (int i = 0; i < mFutures.size(); i++) {
-                        if (mFutures.get(i).isDone()) {
-                            mFutures.remove(i);
-                            i--;
-                            // If all are done, call the callback
-                            if (mFutures.isEmpty()) {
-                                mCheckFutureRunnable = null;
-                                mActivity.runOnUiThread(() -> {
-                                    synchronized (mSynchronizer) {
-                                        mActivity.clearLoading();
-                                        mOnCompleted.run();
-                                    }
-                                });
-                            }
-                        }
-                    }
-                    // If there are still futures, post this to run again
-                    if (!mFutures.isEmpty()) {
-                        mHandler.postDelayed(() -> new Thread(mCheckFutureRunnable).start(), 1000);
-                    }
-                }
+    /**
+     * Cancel any queued requests made on behalf of the given list item, i.e. when it's deleted.
+     * Requests which are already running are allowed to finish
+     *
+     * @param item The list item to cancel requests for
+     */
+    public void cancelRequests(MtgCard item) {
+        for (Runnable runnable : mRequestQueue) {
+            PriceRequest request = (PriceRequest) runnable;
+            if (request.matches(item) && mRequestQueue.remove(request)) {
+                request.cancel(false);
             }
         }
     }
@@ -581,14 +748,15 @@ public class MarketPriceFetcher {
      * Stop all current requests, empty the thread pool and awaiting queue, clear loading animation
      */
     public void stopAllRequests() {
+        /* Nothing outstanding should call back anymore */
+        mCompletionTracker.abandon();
+        mCompletionTracker = createCompletionTracker();
         mCompositeDisposable.clear();
-        mThreadPool.shutdownNow();
-        mThreadPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-        for (Future future : mFutures) {
-            future.cancel(true);
+        for (Runnable queued : mThreadPool.shutdownNow()) {
+            ((PriceRequest) queued).cancel(false);
         }
-        mFutures.clear();
+        mRequestQueue = new PriorityBlockingQueue<>();
+        mThreadPool = createThreadPool(mRequestQueue);
         mActivity.clearLoading();
-        mCheckFutureRunnable = null;
     }
 }
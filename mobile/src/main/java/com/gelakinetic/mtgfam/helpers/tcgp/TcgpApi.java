@@ -28,15 +28,21 @@ import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductInformation;
 import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.zip.GZIPInputStream;
+
 
 public class TcgpApi {
 
@@ -98,16 +104,127 @@ public class TcgpApi {
     private static final int CATEGORY_ID_MAGIC = 1;
 
     private static final String TCGP_VERSION = "v1.19.0";
-    private String mAccessToken;
+    private static final String TCGP_BASE_URL = "https://api.tcgplayer.com/";
+
+    /* Network tuning */
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int READ_TIMEOUT_MS = 15 * 1000;
+    private static final int MAX_RETRIES = 3;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /* Refresh the token this long before it actually expires, so requests never race expiry */
+    static final long TOKEN_REFRESH_MARGIN_MS = 5 * 60 * 1000;
+
+    /* Gson objects and type adapters are thread safe, so build them once and share them */
+    private static final Gson GSON = new Gson();
+    private static final TypeAdapter<AccessToken> ACCESS_TOKEN_ADAPTER;
+    private static final TypeAdapter<ProductDetails> PRODUCT_DETAILS_ADAPTER;
+    private static final TypeAdapter<ProductInformation> PRODUCT_INFORMATION_ADAPTER =
+            GSON.getAdapter(ProductInformation.class);
+    private static final TypeAdapter<ProductMarketPrice> PRODUCT_MARKET_PRICE_ADAPTER =
+            GSON.getAdapter(ProductMarketPrice.class);
+    private static final TypeAdapter<CategoryGroups> CATEGORY_GROUPS_ADAPTER =
+            GSON.getAdapter(CategoryGroups.class);
+    private static final TypeAdapter<GetProductInformationOptions> PRODUCT_INFORMATION_OPTIONS_ADAPTER =
+            GSON.getAdapter(GetProductInformationOptions.class);
+
+    static {
+        GsonBuilder tokenBuilder = new GsonBuilder();
+        AccessToken.setDateFormat(tokenBuilder);
+        ACCESS_TOKEN_ADAPTER = tokenBuilder.create().getAdapter(AccessToken.class);
+
+        GsonBuilder detailsBuilder = new GsonBuilder();
+        CatalogData.CatalogDataItem.setDateFormat(detailsBuilder);
+        PRODUCT_DETAILS_ADAPTER = detailsBuilder.create().getAdapter(ProductDetails.class);
+    }
 
-    public void setToken(String tokenStr) {
-        mAccessToken = tokenStr;
+    private static TcgpApi sInstance;
+
+    private final String mBaseUrl;
+    private final TcgpRequestScheduler mScheduler;
+    private volatile String mAccessToken;
+    private volatile long mTokenExpirationMs;
+    /* The keys from the last getAccessToken(), to request a new token if one is rejected */
+    private String mPublicKey = null;
+    private String mPrivateKey = null;
+    private String mClientAccessToken = null;
+    private final EnumMap<Endpoint, LatencyHistogram> mLatencies = new EnumMap<>(Endpoint.class);
+
+    /**
+     * The API endpoints this class talks to. Latency is tracked separately for each one
+     */
+    public enum Endpoint {
+        TOKEN,
+        SEARCH,
+        DETAILS,
+        PRICING,
+        GROUPS,
     }
 
     enum HttpMethod {
         GET, POST,
     }
 
+    /**
+     * @return The TcgpApi shared by every price fetch, so the token and pooled connections are
+     * reused between requests
+     */
+    public static synchronized TcgpApi getInstance() {
+        if (null == sInstance) {
+            sInstance = new TcgpApi(TCGP_BASE_URL, TcgpRequestScheduler.createDefault());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Constructor. Package-private so tests can point an instance at a local server
+     *
+     * @param baseUrl   The URL all endpoints are relative to, ending with a '/'
+     * @param scheduler The scheduler which gates every request
+     */
+    TcgpApi(String baseUrl, TcgpRequestScheduler scheduler) {
+        mBaseUrl = baseUrl;
+        mScheduler = scheduler;
+        for (Endpoint endpoint : Endpoint.values()) {
+            mLatencies.put(endpoint, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Set an access token, i.e. one which was persisted from a previous session
+     *
+     * @param tokenStr   The access token
+     * @param expiration When the access token expires
+     */
+    public void setToken(String tokenStr, Date expiration) {
+        mTokenExpirationMs = (null == expiration) ? 0 : expiration.getTime();
+        mAccessToken = tokenStr;
+    }
+
+    /**
+     * @return true if there is an access token which won't expire within TOKEN_REFRESH_MARGIN_MS,
+     * false if a new one should be requested
+     */
+    public boolean isTokenValid() {
+        return null != mAccessToken && !mAccessToken.isEmpty() &&
+                System.currentTimeMillis() + TOKEN_REFRESH_MARGIN_MS < mTokenExpirationMs;
+    }
+
+    /**
+     * @return The scheduler which gates every request, to inspect its state
+     */
+    public TcgpRequestScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * @param endpoint The endpoint to get latency data for
+     * @return The latency histogram for all requests made to the given endpoint
+     */
+    public LatencyHistogram getLatencyHistogram(Endpoint endpoint) {
+        return mLatencies.get(endpoint);
+    }
+
     /**
      * Set the default options for a HttpURLConnection
      *
@@ -126,74 +243,314 @@ public class TcgpApi {
         }
         conn.setInstanceFollowRedirects(false);
         conn.setUseCaches(false);
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(READ_TIMEOUT_MS);
+        conn.setRequestProperty("Accept-Encoding", "gzip");
     }
 
     /**
      * Helper method to add the common header to an httpGet or httpPost
      *
-     * @param conn The httpGet or httpPost to add the header to
+     * @param conn  The httpGet or httpPost to add the header to
+     * @param token The access token to authorize the request with
      */
-    private void addHeaders(HttpURLConnection conn) {
-        conn.setRequestProperty("Authorization", "bearer " + mAccessToken);
+    private void addHeaders(HttpURLConnection conn, String token) {
+        conn.setRequestProperty("Authorization", "bearer " + token);
         conn.setRequestProperty("Accept", "application/json");
         conn.setRequestProperty("Content-Type", "application/json");
     }
 
+    /**
+     * Thrown internally when the server responds with 429 or a 5xx, which is worth retrying
+     */
+    private static class RetryableHttpException extends IOException {
+
+        private static final long serialVersionUID = -6316212383614591745L;
+
+        final long mRetryAfterMs;
+
+        RetryableHttpException(int responseCode, long retryAfterMs) {
+            super("HTTP " + responseCode);
+            mRetryAfterMs = retryAfterMs;
+        }
+    }
+
+    /**
+     * Thrown when the server responds to an authorized request with 401, because the access token
+     * was rejected
+     */
+    public static class UnauthorizedException extends IOException {
+
+        private static final long serialVersionUID = 2409771932946650232L;
+
+        UnauthorizedException() {
+            super("HTTP " + HttpURLConnection.HTTP_UNAUTHORIZED);
+        }
+    }
+
+    /**
+     * Make a request to the API and parse the response. Each attempt is gated by the scheduler's
+     * circuit breaker, concurrency limit, and rate limit. Network errors, timeouts, 429s and 5xxs
+     * are retried with jittered backoff, up to MAX_RETRIES times. Other 4xx responses are returned
+     * as they are, without a retry. If the access token is rejected with a 401, a new one is
+     * requested and the request is retried once
+     *
+     * @param endpoint   The endpoint being requested, used for latency tracking
+     * @param path       The path to request, relative to the base URL
+     * @param method     Whether this is a GET or a POST
+     * @param authorized true to add the bearer token to the request
+     * @param headers    Additional headers, as alternating names and values, or null
+     * @param payload    A body to POST, or null
+     * @param adapter    The type adapter to parse the response with
+     * @return The parsed response, or null if the server didn't return a body
+     * @throws UnauthorizedException If the access token was rejected, even after requesting a new one
+     * @throws IOException           If something goes wrong with the network, or the circuit is open
+     */
+    private <T> T request(Endpoint endpoint, String path, HttpMethod method, boolean authorized,
+                          String[] headers, byte[] payload, TypeAdapter<T> adapter)
+            throws IOException {
+        IOException lastException = null;
+        long retryAfterMs = 0;
+        boolean backoff = false;
+        boolean tokenRefreshed = false;
+        for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+            if (backoff) {
+                try {
+                    Thread.sleep(mScheduler.getBackoffMs(attempt, retryAfterMs));
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+            backoff = true;
+
+            // This throws CircuitOpenException to fail fast, which is never retried
+            TcgpRequestScheduler.Permit permit = mScheduler.acquire();
+            long start = System.currentTimeMillis();
+            String token = mAccessToken;
+            boolean healthy = false;
+            boolean interrupted = false;
+            UnauthorizedException unauthorized = null;
+            try {
+                T response = attemptRequest(path, method, authorized ? token : null, headers,
+                        payload, adapter);
+                healthy = true;
+                return response;
+            } catch (UnauthorizedException e) {
+                // The server answered, so this says nothing bad about its health
+                healthy = true;
+                unauthorized = e;
+            } catch (RetryableHttpException e) {
+                lastException = e;
+                retryAfterMs = e.mRetryAfterMs;
+            } catch (InterruptedIOException e) {
+                // Timeouts are retried, but interruptions are not
+                if (!(e instanceof SocketTimeoutException)) {
+                    interrupted = true;
+                    throw e;
+                }
+                lastException = e;
+                retryAfterMs = 0;
+            } catch (IOException e) {
+                lastException = e;
+                retryAfterMs = 0;
+            } finally {
+                long elapsed = System.currentTimeMillis() - start;
+                mLatencies.get(endpoint).record(elapsed);
+                if (interrupted) {
+                    // An interruption says nothing about TCGplayer's health
+                    mScheduler.abandon(permit);
+                } else {
+                    mScheduler.release(permit, elapsed, healthy);
+                }
+            }
+
+            // Get a new token and try again right away, but only once
+            if (null != unauthorized) {
+                if (tokenRefreshed || !refreshRejectedToken(token)) {
+                    throw unauthorized;
+                }
+                tokenRefreshed = true;
+                backoff = false;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * Throw away an access token the server rejected and request a new one with the keys from the
+     * last call to getAccessToken(). If another request already replaced the rejected token, the
+     * replacement is used instead
+     *
+     * @param rejectedToken The token the server rejected
+     * @return true if there is a new token to retry with, false if one can't be requested
+     * @throws IOException If something goes wrong with the network
+     */
+    private synchronized boolean refreshRejectedToken(String rejectedToken) throws IOException {
+        if (null == mPublicKey) {
+            return false;
+        }
+        if (null == rejectedToken || rejectedToken.equals(mAccessToken)) {
+            mTokenExpirationMs = 0;
+            getAccessToken(mPublicKey, mPrivateKey, mClientAccessToken);
+        }
+        return isTokenValid();
+    }
+
+    /**
+     * Make a single attempt at a request to the API and parse the response. The response body is
+     * fully read and closed, but the connection is not disconnected, so HttpURLConnection may
+     * return the socket to its keep-alive pool for the next request
+     *
+     * @param path    The path to request, relative to the base URL
+     * @param method  Whether this is a GET or a POST
+     * @param token   The bearer token to add to the request, or null for none
+     * @param headers Additional headers, as alternating names and values, or null
+     * @param payload A body to POST, or null
+     * @param adapter The type adapter to parse the response with
+     * @return The parsed response, or null if the server didn't return a body
+     * @throws RetryableHttpException If the server responded with 429 or a 5xx
+     * @throws UnauthorizedException  If the server rejected the token with a 401
+     * @throws IOException            If something goes wrong with the network
+     */
+    private <T> T attemptRequest(String path, HttpMethod method, String token,
+                                 String[] headers, byte[] payload, TypeAdapter<T> adapter)
+            throws IOException {
+        // Create the connection with default options and headers
+        HttpURLConnection conn = (HttpURLConnection) new URL(mBaseUrl + path).openConnection();
+        setDefaultOptions(conn, method);
+        if (null != token) {
+            addHeaders(conn, token);
+        }
+        if (null != headers) {
+            for (int i = 0; i + 1 < headers.length; i += 2) {
+                conn.setRequestProperty(headers[i], headers[i + 1]);
+            }
+        }
+
+        // Send the body, if there is one
+        if (null != payload) {
+            conn.getOutputStream().write(payload);
+        }
+
+        // Check for throttling or server errors before reading anything
+        int responseCode = conn.getResponseCode();
+        if (HTTP_TOO_MANY_REQUESTS == responseCode || responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            long retryAfterMs = 0;
+            try {
+                retryAfterMs = Long.parseLong(conn.getHeaderField("Retry-After")) * 1000;
+            } catch (NumberFormatException e) {
+                // Missing, or an HTTP date, just use the normal backoff
+            }
+            InputStream errorStream = conn.getErrorStream();
+            if (null != errorStream) {
+                drainAndClose(errorStream);
+            }
+            throw new RetryableHttpException(responseCode, retryAfterMs);
+        }
+
+        // A rejected token is retried with a new one, by request()
+        if (HttpURLConnection.HTTP_UNAUTHORIZED == responseCode && null != token) {
+            InputStream errorStream = conn.getErrorStream();
+            if (null != errorStream) {
+                drainAndClose(errorStream);
+            }
+            throw new UnauthorizedException();
+        }
+
+        // Get the response stream. Other client errors have a body with the errors in it
+        InputStream inStream;
+        if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            inStream = conn.getErrorStream();
+        } else {
+            inStream = conn.getInputStream();
+        }
+        if (null == inStream) {
+            conn.disconnect();
+            return null;
+        }
+
+        // Transparently handle gzip, since it was requested explicitly
+        if ("gzip".equalsIgnoreCase(conn.getContentEncoding())) {
+            inStream = new GZIPInputStream(inStream);
+        }
+
+        // Parse the json out of the response, then drain and close the stream
+        try {
+            return adapter.fromJson(new InputStreamReader(inStream, Charset.forName("UTF-8")));
+        } finally {
+            drainAndClose(inStream);
+        }
+    }
+
+    /**
+     * Read a stream to the end, then close it. Reading to the end of the stream lets the
+     * connection be reused
+     *
+     * @param inStream The stream to drain and close
+     * @throws IOException If something goes wrong with the network
+     */
+    private static void drainAndClose(InputStream inStream) throws IOException {
+        byte[] drain = new byte[1024];
+        //noinspection StatementWithEmptyBody
+        while (inStream.read(drain) > 0) {
+        }
+        inStream.close();
+    }
+
+    /**
+     * @param productIds An array of product IDs
+     * @return The product IDs concatenated into a comma separated String
+     */
+    private static String joinIds(long[] productIds) {
+        StringBuilder stringIds = new StringBuilder();
+        for (long id : productIds) {
+            if (stringIds.length() > 0) {
+                stringIds.append(',');
+            }
+            stringIds.append(Long.toString(id));
+        }
+        return stringIds.toString();
+    }
+
     /**
      * This function requests an access token from TCGPlayer.com by providing the private keys.
-     * An access token should only be requested if we don't have a valid one stored. When an access
-     * token is received, the token and expiration date should be saved for later use.
+     * An access token should only be requested if we don't have a valid one stored, or the stored
+     * one is about to expire. When an access token is received, the token and expiration date
+     * should be saved for later use.
      *
      * @param publicKey   Supplied by TCGPlayer.com, also referred to as the "client_id"
      * @param privateKey  Supplied by TCGPlayer.com, also referred to as the "client_secret"
      * @param accessToken Supplied by TCGPlayer.com, also referred to as the "X-Tcg-Access-Token"
-     * @return An AccessToken object or null if a token is already loaded
+     * @return An AccessToken object or null if a valid token is already loaded
      * @throws IOException If something goes wrong with the network
      */
-    public AccessToken getAccessToken(String publicKey, String privateKey, String accessToken)
+    public synchronized AccessToken getAccessToken(String publicKey, String privateKey,
+                                                   String accessToken)
             throws IOException {
 
-        // Only request an access token if we don't have one already
-        if (null == mAccessToken) {
-            // Create the connection with default options
-            HttpURLConnection conn = (HttpURLConnection)
-                    new URL("https://api.tcgplayer.com/token").openConnection();
-            setDefaultOptions(conn, HttpMethod.POST);
-
-            // Set the header, special for the token request
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("X-Tcg-Access-Token", accessToken);
+        // Remember the keys, in case the server rejects the token before it expires
+        mPublicKey = publicKey;
+        mPrivateKey = privateKey;
+        mClientAccessToken = accessToken;
 
+        // Only request an access token if we don't have a valid one already
+        if (!isTokenValid()) {
             // Set the body and send the POST
             String payload = "grant_type=client_credentials&client_id=" + publicKey +
                     "&client_secret=" + privateKey;
-            conn.getOutputStream().write(payload.getBytes(Charset.forName("UTF-8")));
-
-            // Get the response stream
-            InputStream inStream;
-            try {
-                inStream = conn.getInputStream();
-            } catch (FileNotFoundException e) {
-                inStream = conn.getErrorStream();
-                if (null == inStream) {
-                    conn.disconnect();
-                    // Return an empty, not null, object
-                    return new AccessToken();
-                }
+            AccessToken token = request(Endpoint.TOKEN, "token", HttpMethod.POST, false,
+                    new String[]{
+                            "Content-Type", "application/json",
+                            "Accept", "application/json",
+                            "X-Tcg-Access-Token", accessToken},
+                    payload.getBytes(Charset.forName("UTF-8")), ACCESS_TOKEN_ADAPTER);
+            if (null == token) {
+                // Return an empty, not null, object
+                return new AccessToken();
             }
 
-            // Parse the json out of the response and save it
-            GsonBuilder builder = new GsonBuilder();
-            AccessToken.setDateFormat(builder);
-            AccessToken token = builder.create()
-                    .fromJson(new InputStreamReader(inStream), AccessToken.class);
-            this.mAccessToken = token.access_token;
-
-            // Clean up
-            inStream.close();
-            conn.disconnect();
-
+            // Save the token
+            setToken(token.access_token, token.expires);
             return token;
         }
 
@@ -314,13 +671,6 @@ public class TcgpApi {
         // Make sure we have an access token first
         if (null != mAccessToken) {
 
-            // Create the connection with default options and headers
-            HttpURLConnection conn = (HttpURLConnection) new URL("https://api.tcgplayer.com/" +
-                    TCGP_VERSION + "/catalog/categories/" + CATEGORY_ID_MAGIC + "/search")
-                    .openConnection();
-            setDefaultOptions(conn, HttpMethod.POST);
-            addHeaders(conn);
-
             // Create the params, only adding the set if it isn't null
             GetProductInformationOptions.NameValuesPair queryParams[];
             if (null != expansion) {
@@ -334,30 +684,14 @@ public class TcgpApi {
 
             // Add the information to search by
             GetProductInformationOptions options = new GetProductInformationOptions(queryParams);
-            conn.getOutputStream().write(new Gson().toJson(options, GetProductInformationOptions.class)
-                    .getBytes(Charset.forName("UTF-8")));
-
-            // Get the response stream. This opens the connection
-            InputStream inStream;
-            try {
-                inStream = conn.getInputStream();
-            } catch (FileNotFoundException e) {
-                inStream = conn.getErrorStream();
-                if (null == inStream) {
-                    conn.disconnect();
-                    // Return an empty, not null, object
-                    return new ProductInformation();
-                }
-            }
-
-            // Parse the json out of the response and save it
-            ProductInformation information = (new Gson()).fromJson(new InputStreamReader(inStream),
-                    ProductInformation.class);
-
-            // Clean up
-            inStream.close();
-            conn.disconnect();
-            return information;
+            ProductInformation information = request(Endpoint.SEARCH,
+                    TCGP_VERSION + "/catalog/categories/" + CATEGORY_ID_MAGIC + "/search",
+                    HttpMethod.POST, true, null,
+                    PRODUCT_INFORMATION_OPTIONS_ADAPTER.toJson(options).getBytes(Charset.forName("UTF-8")),
+                    PRODUCT_INFORMATION_ADAPTER);
+
+            // Return an empty, not null, object
+            return (null == information) ? new ProductInformation() : information;
         }
         // No access token
         return null;
@@ -373,44 +707,12 @@ public class TcgpApi {
     public ProductMarketPrice getProductMarketPrice(long[] productIds) throws IOException {
         // Make sure we have an access token first
         if (null != mAccessToken) {
+            ProductMarketPrice price = request(Endpoint.PRICING,
+                    TCGP_VERSION + "/pricing/product/" + joinIds(productIds),
+                    HttpMethod.GET, true, null, null, PRODUCT_MARKET_PRICE_ADAPTER);
 
-            // Concatenate all the product IDs into one string
-            StringBuilder stringIds = new StringBuilder();
-            for (long id : productIds) {
-                if (stringIds.length() > 0) {
-                    stringIds.append(',');
-                }
-                stringIds.append(Long.toString(id));
-            }
-
-            // Create the connection with default options and headers
-            HttpURLConnection conn = (HttpURLConnection) new URL(
-                    "https://api.tcgplayer.com/" + TCGP_VERSION + "/pricing/product/" +
-                            stringIds.toString()).openConnection();
-            setDefaultOptions(conn, HttpMethod.GET);
-            addHeaders(conn);
-
-            // Get the response stream. This opens the connection
-            InputStream inStream;
-            try {
-                inStream = conn.getInputStream();
-            } catch (FileNotFoundException e) {
-                inStream = conn.getErrorStream();
-                if (null == inStream) {
-                    conn.disconnect();
-                    // Return an empty, not null, object
-                    return new ProductMarketPrice();
-                }
-            }
-
-            // Parse the json out of the response and save it
-            ProductMarketPrice price = new Gson()
-                    .fromJson(new InputStreamReader(inStream), ProductMarketPrice.class);
-
-            // Clean up
-            inStream.close();
-            conn.disconnect();
-            return price;
+            // Return an empty, not null, object
+            return (null == price) ? new ProductMarketPrice() : price;
         }
         // No access token
         return null;
@@ -426,45 +728,12 @@ public class TcgpApi {
     public ProductDetails getProductDetails(long[] productIds) throws IOException {
         // Make sure we have an access token first
         if (null != mAccessToken) {
+            ProductDetails details = request(Endpoint.DETAILS,
+                    TCGP_VERSION + "/catalog/products/" + joinIds(productIds),
+                    HttpMethod.GET, true, null, null, PRODUCT_DETAILS_ADAPTER);
 
-            // Concatenate all the product IDs into one string
-            StringBuilder stringIds = new StringBuilder();
-            for (long id : productIds) {
-                if (stringIds.length() > 0) {
-                    stringIds.append(',');
-                }
-                stringIds.append(Long.toString(id));
-            }
-
-            // Create the connection with default options and headers
-            HttpURLConnection conn = (HttpURLConnection) new URL("https://api.tcgplayer.com/" +
-                    TCGP_VERSION + "/catalog/products/" + stringIds.toString()).openConnection();
-            setDefaultOptions(conn, HttpMethod.GET);
-            addHeaders(conn);
-
-            // Get the response stream. This opens the connection
-            InputStream inStream;
-            try {
-                inStream = conn.getInputStream();
-            } catch (FileNotFoundException e) {
-                inStream = conn.getErrorStream();
-                if (null == inStream) {
-                    conn.disconnect();
-                    // Return an empty, not null, object
-                    return new ProductDetails();
-                }
-            }
-
-            // Parse the json out of the response and save it
-            GsonBuilder builder = new GsonBuilder();
-            CatalogData.CatalogDataItem.setDateFormat(builder);
-            ProductDetails details = builder.create()
-                    .fromJson(new InputStreamReader(inStream), ProductDetails.class);
-
-            // Clean up
-            inStream.close();
-            conn.disconnect();
-            return details;
+            // Return an empty, not null, object
+            return (null == details) ? new ProductDetails() : details;
         }
         // No access token
         return null;
@@ -484,34 +753,15 @@ public class TcgpApi {
             // Return 100 items at a time
             int limit = 100;
 
-            // Create the connection with default options and headers
-            HttpURLConnection conn = (HttpURLConnection) new URL(
-                    "https://api.tcgplayer.com/" + TCGP_VERSION + "/catalog/categories/" + CATEGORY_ID_MAGIC + "/groups" +
-                            "?offset=" + offset[0] + "&limit=" + limit).openConnection();
-            setDefaultOptions(conn, HttpMethod.GET);
-            addHeaders(conn);
-
-            // Get the response stream. This opens the connection
-            InputStream inStream;
-            try {
-                inStream = conn.getInputStream();
-            } catch (FileNotFoundException e) {
-                inStream = conn.getErrorStream();
-                if (null == inStream) {
-                    conn.disconnect();
-                    // Return an empty, not null, object
-                    return new CategoryGroups();
-                }
+            CategoryGroups groups = request(Endpoint.GROUPS,
+                    TCGP_VERSION + "/catalog/categories/" + CATEGORY_ID_MAGIC + "/groups" +
+                            "?offset=" + offset[0] + "&limit=" + limit,
+                    HttpMethod.GET, true, null, null, CATEGORY_GROUPS_ADAPTER);
+            if (null == groups) {
+                // Return an empty, not null, object
+                return new CategoryGroups();
             }
 
-            // Parse the json out of the response and save it
-            CategoryGroups groups = new Gson()
-                    .fromJson(new InputStreamReader(inStream), CategoryGroups.class);
-
-            // Clean up
-            inStream.close();
-            conn.disconnect();
-
             // Increment the offset for the next call
             if (null != groups.results) {
                 offset[0] += groups.results.length;
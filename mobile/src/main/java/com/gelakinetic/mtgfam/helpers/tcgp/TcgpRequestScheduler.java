@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
+
+/**
+ * This class gates every request made to TCGplayer.com. It combines:
+ * 1. A token bucket, which caps the sustained request rate
+ * 2. An AIMD concurrency limit, which grows slowly while requests are fast and healthy, and is
+ * halved when they're slow, throttled, or failing
+ * 3. A circuit breaker, which fails requests immediately after repeated failures, then lets a
+ * single trial request through after a cool-off period
+ */
+public class TcgpRequestScheduler {
+
+    /* Default tuning */
+    static final int MAX_CONCURRENCY = 8;
+    private static final int MIN_CONCURRENCY = 1;
+    private static final double PERMITS_PER_SECOND = 10;
+    private static final int BURST_SIZE = 10;
+    private static final long LATENCY_TARGET_MS = 2500;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_DURATION_MS = 30 * 1000;
+
+    /* Only halve the concurrency limit once per this period, so a burst of parallel failures
+     * counts as one congestion signal */
+    private static final long DECREASE_COOLDOWN_MS = 1000;
+
+    /* Retry backoff */
+    private static final long BACKOFF_BASE_MS = 250;
+    private static final long BACKOFF_CAP_MS = 8000;
+
+    /**
+     * Thrown when the circuit breaker is open and requests are being failed fast
+     */
+    public static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 3207318546729415061L;
+
+        CircuitOpenException() {
+            super("TCGplayer is unavailable, failing fast");
+        }
+    }
+
+    /**
+     * A slot acquired with acquire(), which must be given back with release() or abandon()
+     */
+    static class Permit {
+        /* Whether this is the single request let through to test a HALF_OPEN circuit */
+        private final boolean mIsTrial;
+
+        private Permit(boolean isTrial) {
+            mIsTrial = isTrial;
+        }
+    }
+
+    public enum CircuitState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    private final double mPermitsPerSecond;
+    private final int mBurstSize;
+    private final int mMinConcurrency;
+    private final int mMaxConcurrency;
+    private final long mLatencyTargetMs;
+    private final int mFailureThreshold;
+    private final long mOpenDurationMs;
+    private final Random mRandom = new Random();
+
+    /* Token bucket state, guarded by mBucketLock */
+    private final Object mBucketLock = new Object();
+    private double mTokens;
+    private long mLastRefillNs;
+
+    /* Concurrency and circuit state, guarded by this */
+    private double mConcurrencyLimit;
+    private int mInFlight = 0;
+    private long mLastDecreaseMs = 0;
+    private CircuitState mCircuitState = CircuitState.CLOSED;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAtMs = 0;
+    private boolean mTrialInFlight = false;
+
+    /**
+     * @return A scheduler with the default tuning for TCGplayer.com
+     */
+    static TcgpRequestScheduler createDefault() {
+        return new TcgpRequestScheduler(PERMITS_PER_SECOND, BURST_SIZE, MIN_CONCURRENCY,
+                MAX_CONCURRENCY, LATENCY_TARGET_MS, FAILURE_THRESHOLD, OPEN_DURATION_MS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param permitsPerSecond The sustained number of requests allowed per second
+     * @param burstSize        The number of requests which may be made at once after being idle
+     * @param minConcurrency   The concurrency limit will never drop below this
+     * @param maxConcurrency   The concurrency limit will never grow above this
+     * @param latencyTargetMs  Requests slower than this are treated as a congestion signal
+     * @param failureThreshold The number of consecutive failures which opens the circuit
+     * @param openDurationMs   How long the circuit stays open before a trial request is allowed
+     */
+    TcgpRequestScheduler(double permitsPerSecond, int burstSize, int minConcurrency,
+                         int maxConcurrency, long latencyTargetMs, int failureThreshold,
+                         long openDurationMs) {
+        mPermitsPerSecond = permitsPerSecond;
+        mBurstSize = burstSize;
+        mMinConcurrency = minConcurrency;
+        mMaxConcurrency = maxConcurrency;
+        mLatencyTargetMs = latencyTargetMs;
+        mFailureThreshold = failureThreshold;
+        mOpenDurationMs = openDurationMs;
+
+        mTokens = burstSize;
+        mLastRefillNs = System.nanoTime();
+        /* Start in the middle, and let AIMD find the right limit */
+        mConcurrencyLimit = Math.max(minConcurrency, maxConcurrency / 2);
+    }
+
+    /**
+     * Block until a request may be made. This checks the circuit breaker, waits for a slot under
+     * the concurrency limit, then waits for a token from the rate limiter. Every successful call
+     * must be paired with a call to release() or abandon()
+     *
+     * @return The permit to release once the request is done
+     * @throws CircuitOpenException    If the circuit is open and the request should fail fast
+     * @throws InterruptedIOException If the thread was interrupted while waiting
+     */
+    Permit acquire() throws IOException {
+        try {
+            Permit permit;
+            synchronized (this) {
+                while (true) {
+                    /* The circuit may have opened while waiting */
+                    boolean isTrial = checkCircuit();
+                    if (mInFlight < (int) mConcurrencyLimit) {
+                        permit = new Permit(isTrial);
+                        break;
+                    }
+                    /* Don't hold the trial while waiting, another request may take it */
+                    if (isTrial) {
+                        mTrialInFlight = false;
+                    }
+                    wait();
+                }
+                mInFlight++;
+            }
+            try {
+                acquireRateToken();
+            } catch (InterruptedException e) {
+                abandon(permit);
+                throw e;
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Must be called with the caller's lock held. Throw if requests should fail fast, moving the
+     * circuit to HALF_OPEN and letting one trial request through if it's been open long enough
+     *
+     * @return true if this request is the trial for a HALF_OPEN circuit
+     * @throws CircuitOpenException If the request should fail fast
+     */
+    private boolean checkCircuit() throws CircuitOpenException {
+        switch (mCircuitState) {
+            case OPEN: {
+                if (System.currentTimeMillis() - mOpenedAtMs < mOpenDurationMs) {
+                    throw new CircuitOpenException();
+                }
+                /* This request is the first since the circuit opened, so it's the trial */
+                mCircuitState = CircuitState.HALF_OPEN;
+                mTrialInFlight = true;
+                return true;
+            }
+            case HALF_OPEN: {
+                if (mTrialInFlight) {
+                    throw new CircuitOpenException();
+                }
+                mTrialInFlight = true;
+                return true;
+            }
+            case CLOSED:
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Block until the token bucket has a token, then take it
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    private void acquireRateToken() throws InterruptedException {
+        while (true) {
+            long waitMs;
+            synchronized (mBucketLock) {
+                long now = System.nanoTime();
+                mTokens = Math.min(mBurstSize,
+                        mTokens + ((now - mLastRefillNs) / 1e9) * mPermitsPerSecond);
+                mLastRefillNs = now;
+                if (mTokens >= 1) {
+                    mTokens -= 1;
+                    return;
+                }
+                waitMs = (long) Math.ceil(((1 - mTokens) * 1000) / mPermitsPerSecond);
+            }
+            Thread.sleep(waitMs);
+        }
+    }
+
+    /**
+     * Give back a slot acquired with acquire() without a result, because the request was never
+     * made or was interrupted, so it doesn't count as either a success or failure. If it was the
+     * trial, the next request becomes the trial instead
+     *
+     * @param permit The permit from acquire()
+     */
+    synchronized void abandon(Permit permit) {
+        mInFlight--;
+        if (permit.mIsTrial) {
+            mTrialInFlight = false;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Release a slot acquired with acquire(), and feed the outcome into the concurrency limit and
+     * circuit breaker
+     *
+     * @param permit    The permit from acquire()
+     * @param latencyMs How long the request took
+     * @param healthy   false if the request failed with a network error, timeout, 429 or 5xx
+     */
+    synchronized void release(Permit permit, long latencyMs, boolean healthy) {
+        mInFlight--;
+
+        /* Adjust the concurrency limit, AIMD style */
+        long now = System.currentTimeMillis();
+        if (!healthy || latencyMs > mLatencyTargetMs) {
+            if (now - mLastDecreaseMs >= DECREASE_COOLDOWN_MS) {
+                mConcurrencyLimit = Math.max(mMinConcurrency, mConcurrencyLimit / 2);
+                mLastDecreaseMs = now;
+            }
+        } else {
+            mConcurrencyLimit = Math.min(mMaxConcurrency, mConcurrencyLimit + (1 / mConcurrencyLimit));
+        }
+
+        /* Update the circuit breaker. Once it's open, only the trial's result can change it, not
+         * requests which started before it opened */
+        if (permit.mIsTrial) {
+            mTrialInFlight = false;
+            if (healthy) {
+                mConsecutiveFailures = 0;
+                mCircuitState = CircuitState.CLOSED;
+            } else {
+                mCircuitState = CircuitState.OPEN;
+                mOpenedAtMs = now;
+            }
+        } else if (CircuitState.CLOSED == mCircuitState) {
+            if (healthy) {
+                mConsecutiveFailures = 0;
+            } else if (++mConsecutiveFailures >= mFailureThreshold) {
+                mCircuitState = CircuitState.OPEN;
+                mOpenedAtMs = now;
+            }
+        }
+
+        /* Wake anyone waiting for a slot, or waiting to find out the circuit opened */
+        notifyAll();
+    }
+
+    /**
+     * Get a randomized, exponentially increasing delay before retrying, using "full jitter" so
+     * that many clients retrying at once don't synchronize
+     *
+     * @param attempt      The retry attempt, starting at 1
+     * @param retryAfterMs A delay requested by the server with Retry-After, or 0
+     * @return How long to wait before retrying, in ms
+     */
+    long getBackoffMs(int attempt, long retryAfterMs) {
+        long ceiling = Math.min(BACKOFF_CAP_MS, BACKOFF_BASE_MS << Math.min(attempt, 16));
+        long jittered;
+        synchronized (mRandom) {
+            jittered = (long) (mRandom.nextDouble() * ceiling);
+        }
+        return Math.max(jittered, retryAfterMs);
+    }
+
+    /**
+     * @return The current concurrency limit
+     */
+    public synchronized int getConcurrencyLimit() {
+        return (int) mConcurrencyLimit;
+    }
+
+    /**
+     * @return The current state of the circuit breaker
+     */
+    public synchronized CircuitState getCircuitState() {
+        return mCircuitState;
+    }
+}
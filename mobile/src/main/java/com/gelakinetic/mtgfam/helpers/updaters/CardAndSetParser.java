@@ -27,7 +27,6 @@ import com.gelakinetic.GathererScraper.JsonTypes.LegalityData;
 import com.gelakinetic.GathererScraper.JsonTypes.Manifest;
 import com.gelakinetic.GathererScraper.JsonTypes.Patch;
 import com.gelakinetic.GathererScraper.PrefixedFieldNamingStrategy;
-import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -37,6 +36,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.util.ArrayList;
 
 /**
@@ -69,46 +69,67 @@ class CardAndSetParser {
      * <p>
      * There is some special processing for weird power and toughness too
      *
-     * @param reader     A JsonRead to parse from
+     * The patch is completely decoded and checked before anything is staged, so a corrupted, truncated or mismatched
+     * patch never reaches the database.
+     *
+     * @param compressed The gzipped JSON patch
+     * @param set        The manifest entry the patch was downloaded for
      * @param cardsToAdd An array list to place cards before adding to the database
      * @param setsToAdd  An array list to place sets before adding to the database
+     * @throws IOException If the patch is corrupted, truncated, or isn't the patch the manifest describes
      */
-    public void readCardJsonStream(JsonReader reader, ArrayList<Card> cardsToAdd, ArrayList<Expansion> setsToAdd) {
+    public void readCardJsonStream(InputStream compressed, Manifest.ManifestEntry set, ArrayList<Card> cardsToAdd,
+                                   ArrayList<Expansion> setsToAdd) throws IOException {
 
         Gson gson = CardAndSetParser.getGson();
 
-        Patch patch = gson.fromJson(reader, Patch.class);
-        if (patch != null) {
-            cardsToAdd.addAll(patch.mCards);
-
-            /* Stage the sets and cards for database addition. */
-            if (setsToAdd != null) {
-                setsToAdd.add(patch.mExpansion);
+        Patch patch = VerifiedPatchReader.read(compressed, set.mSha256, gson, Patch.class);
+        if (null == patch.mExpansion || null == patch.mCards || patch.mCards.isEmpty()) {
+            throw new IOException("Incomplete patch for " + set.mCode);
+        }
+        if (!set.mCode.equals(patch.mExpansion.mCode_gatherer)) {
+            throw new IOException("Patch for " + set.mCode + " is for " + patch.mExpansion.mCode_gatherer);
+        }
+        if (null != set.mDigest && !set.mDigest.equals(patch.mExpansion.mDigest)) {
+            throw new IOException("Patch for " + set.mCode + " has digest " + patch.mExpansion.mDigest +
+                    ", not " + set.mDigest);
+        }
+        for (Card card : patch.mCards) {
+            if (null == card || !set.mCode.equals(card.getExpansion())) {
+                throw new IOException("Patch for " + set.mCode + " has a card from another set");
             }
         }
+
+        cardsToAdd.addAll(patch.mCards);
+
+        /* Stage the sets and cards for database addition. */
+        if (setsToAdd != null) {
+            setsToAdd.add(patch.mExpansion);
+        }
     }
 
     /**
      * This method checks the hardcoded URL and downloads a list of patches to be checked
      *
+     * @param httpCache The cache to fetch the list with, so an unchanged list isn't downloaded again
      * @param logWriter A writer to print debug statements when things go wrong
-     * @param context   The context to manage preferences with
      * @return An ArrayList of String[] which contains the {Name, URL, Set Code} for each available patch
      */
-    public Manifest readUpdateJsonStream(Context context, PrintWriter logWriter) {
+    public Manifest readUpdateJsonStream(UpdaterHttpCache httpCache, PrintWriter logWriter) {
         Manifest manifest;
 
         try {
-            InputStream stream = FamiliarActivity.getHttpInputStream(PATCHES_URL, logWriter, context);
-            if (stream == null) {
-                throw new IOException("No Stream");
-            }
-            InputStreamReader isr = new InputStreamReader(stream);
+            InputStream stream = httpCache.fetch(new URL(PATCHES_URL), logWriter).open();
+            try {
+                InputStreamReader isr = new InputStreamReader(stream);
 
-            JsonReader reader = new JsonReader(isr);
-            Gson gson = CardAndSetParser.getGson();
+                JsonReader reader = new JsonReader(isr);
+                Gson gson = CardAndSetParser.getGson();
 
-            manifest = gson.fromJson(reader, Manifest.class);
+                manifest = gson.fromJson(reader, Manifest.class);
+            } finally {
+                stream.close();
+            }
         } catch (IOException e) {
             if (logWriter != null) {
                 e.printStackTrace(logWriter);
@@ -123,22 +144,25 @@ class CardAndSetParser {
      * banned and restricted lists
      *
      * @param context   The context to manage preferences with
+     * @param httpCache The cache to fetch the file with. An unchanged file is still read from the
+     *                  cache and checked against the saved timestamp, in case it wasn't committed
      * @param logWriter A writer to print debug statements when things go wrong
      * @return An object with all of the legal info, to be added to the database in one fell swoop
      */
-    public LegalityData readLegalityJsonStream(Context context, PrintWriter logWriter) {
+    public LegalityData readLegalityJsonStream(Context context, UpdaterHttpCache httpCache, PrintWriter logWriter) {
 
         LegalityData legalityData;
 
         try {
-            InputStream stream = FamiliarActivity.getHttpInputStream(LEGALITY_URL, logWriter, context);
-            if (stream == null) {
-                throw new IOException("No Stream");
+            InputStream stream = httpCache.fetch(new URL(LEGALITY_URL), logWriter).open();
+            try {
+                JsonReader reader = new JsonReader(new InputStreamReader(stream, "UTF-8"));
+                Gson gson = CardAndSetParser.getGson();
+
+                legalityData = gson.fromJson(reader, LegalityData.class);
+            } finally {
+                stream.close();
             }
-            JsonReader reader = new JsonReader(new InputStreamReader(stream, "UTF-8"));
-            Gson gson = CardAndSetParser.getGson();
-
-            legalityData = gson.fromJson(reader, LegalityData.class);
 
             mCurrentLegalityTimestamp = legalityData.mTimestamp;
             long spDate = PreferenceAdapter.getLegalityTimestamp(context);
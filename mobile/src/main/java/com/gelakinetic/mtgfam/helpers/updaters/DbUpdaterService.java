@@ -33,25 +33,39 @@ import com.gelakinetic.GathererScraper.JsonTypes.Card;
 import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
 import com.gelakinetic.GathererScraper.JsonTypes.LegalityData;
 import com.gelakinetic.GathererScraper.JsonTypes.Manifest;
+import com.gelakinetic.mtgfam.BuildConfig;
 import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.NotificationHelper;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 import com.gelakinetic.mtgfam.helpers.database.CardDbAdapter;
+import com.gelakinetic.mtgfam.helpers.database.CardDictionary;
+import com.gelakinetic.mtgfam.helpers.database.CardSnapshot;
+import com.gelakinetic.mtgfam.helpers.database.DatabaseMaintenance;
 import com.gelakinetic.mtgfam.helpers.database.DatabaseManager;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 import com.gelakinetic.mtgfam.helpers.database.FamiliarDbHandle;
-import com.google.gson.stream.JsonReader;
+import com.gelakinetic.mtgfam.helpers.database.ForeignNameIndex;
+import com.gelakinetic.mtgfam.helpers.database.ForeignPrintings;
+import com.gelakinetic.mtgfam.helpers.database.FuzzyNameIndex;
+import com.gelakinetic.mtgfam.helpers.database.LegalityDiff;
+import com.gelakinetic.mtgfam.helpers.database.MoJhoStoIndex;
+import com.gelakinetic.mtgfam.helpers.database.RulesWriter;
+import com.gelakinetic.mtgfam.helpers.database.SearchPlanner;
+import com.gelakinetic.mtgfam.helpers.database.SetPatchDatabase;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 
@@ -63,6 +77,11 @@ public class DbUpdaterService extends IntentService {
     /* Status Codes */
     private static final int STATUS_NOTIFICATION = 31;
     private static final int UPDATED_NOTIFICATION = 32;
+    /* Where responses to update checks are cached, under the cache directory */
+    private static final String HTTP_CACHE_DIRECTORY = "updates";
+
+    /* Roughly how long post-update database maintenance may take */
+    private static final long MAINTENANCE_BUDGET_MS = 10000;
 
     /* To build and display the notification */
     private NotificationManagerCompat mNotificationManager;
@@ -73,6 +92,15 @@ public class DbUpdaterService extends IntentService {
     private Runnable mProgressUpdater;
     private int mProgress;
 
+    /* To download patches, resuming where an interrupted download left off */
+    private ResumableDownloader mDownloader;
+
+    /* To fetch the files checked on every update, only transferring the ones which changed */
+    private UpdaterHttpCache mHttpCache;
+
+    /* Where the current update spends its time */
+    private UpdateMetrics mMetrics;
+
     /**
      * Default constructor with a default name.
      * The string is used to name the worker thread, important only for debugging.
@@ -89,6 +117,9 @@ public class DbUpdaterService extends IntentService {
         super.onCreate();
 
         mHandler = new Handler();
+        mDownloader = new ResumableDownloader(FamiliarActivity.getUserAgent(this), 5, 1000);
+        mHttpCache = new UpdaterHttpCache(new File(getCacheDir(), HTTP_CACHE_DIRECTORY),
+                FamiliarActivity.getUserAgent(this), mDownloader);
         mNotificationManager = NotificationManagerCompat.from(this);
 
         Intent intent = new Intent(this, FamiliarActivity.class);
@@ -131,15 +162,45 @@ public class DbUpdaterService extends IntentService {
             /* Couldn't open log, oh well */
         }
 
+        mMetrics = new UpdateMetrics(BuildConfig.VERSION_NAME, BuildConfig.VERSION_CODE,
+                new UpdateMetrics.Counters() {
+                    @Override
+                    public long getBytesDownloaded() {
+                        return mHttpCache.getBytesTransferred() + mDownloader.getBytesTransferred();
+                    }
+
+                    @Override
+                    public int getRetries() {
+                        return mDownloader.getRetries();
+                    }
+                });
+        boolean succeeded = false;
+
         try {
             ProgressReporter reporter = new ProgressReporter();
             ArrayList<String> updatedStuff = new ArrayList<>();
             CardAndSetParser parser = new CardAndSetParser();
             boolean commitDates = true;
             boolean newRulesParsed = false;
+            boolean cardsChanged = false;
+            boolean legalityChanged = false;
+
+            /* Readers only stay off the working database while it's written if there's a snapshot for
+             * them to read instead. One is published with the packaged database, but make sure */
+            if (!CardSnapshot.exists(getApplicationContext())) {
+                try {
+                    CardSnapshot.publish(getApplicationContext());
+                } catch (FamiliarDbException e) {
+                    if (logWriter != null) {
+                        e.printStackTrace(logWriter);
+                    }
+                }
+            }
 
             /* Look for updates with the banned / restricted lists and formats */
-            LegalityData legalityData = parser.readLegalityJsonStream(this, logWriter);
+            UpdateMetrics.Timer legalityTimer = mMetrics.start(UpdateMetrics.PHASE_LEGALITY);
+            int legalityRowsChanged = 0;
+            LegalityData legalityData = parser.readLegalityJsonStream(this, mHttpCache, logWriter);
 
             /* Log the date */
             if (logWriter != null) {
@@ -155,24 +216,12 @@ public class DbUpdaterService extends IntentService {
                 FamiliarDbHandle legalHandle = new FamiliarDbHandle();
                 try {
                     SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, legalHandle);
-                    /* Add all the data we've downloaded */
-                    CardDbAdapter.dropLegalTables(database);
-                    CardDbAdapter.createLegalTables(database);
-
-                    for (LegalityData.Format format : legalityData.mFormats) {
-                        CardDbAdapter.createFormat(format.mName, database);
-
-                        for (String legalSet : format.mSets) {
-                            CardDbAdapter.addLegalSet(legalSet, format.mName, database);
-                        }
-
-                        for (String bannedCard : format.mBanlist) {
-                            CardDbAdapter.addLegalCard(bannedCard, format.mName, CardDbAdapter.BANNED, database);
-                        }
-
-                        for (String restrictedCard : format.mRestrictedlist) {
-                            CardDbAdapter.addLegalCard(restrictedCard, format.mName, CardDbAdapter.RESTRICTED, database);
-                        }
+                    /* Only write the rows which changed */
+                    LegalityDiff legalityDiff = CardDbAdapter.applyLegalityData(legalityData, database);
+                    legalityChanged = !legalityDiff.isEmpty();
+                    legalityRowsChanged = legalityDiff.getDeleteCount() + legalityDiff.getInsertCount();
+                    if (logWriter != null) {
+                        logWriter.write(legalityDiff.toString() + '\n');
                     }
                 } catch (SQLiteException | FamiliarDbException e) {
                     commitDates = false; /* don't commit the dates */
@@ -181,15 +230,18 @@ public class DbUpdaterService extends IntentService {
                     }
                 } finally {
                     /* Close the writable database */
-                    DatabaseManager.closeDatabase(getApplicationContext(), legalHandle);
+                    closeDatabase(legalHandle, UpdateMetrics.PHASE_LEGALITY);
                 }
             }
+            legalityTimer.stop(legalityRowsChanged);
 
             /* Change the notification to generic "checking for updates" */
             switchToChecking();
 
             /* Look for new cards */
-            Manifest manifest = parser.readUpdateJsonStream(getApplicationContext(), logWriter);
+            UpdateMetrics.Timer manifestTimer = mMetrics.start(UpdateMetrics.PHASE_MANIFEST);
+            Manifest manifest = parser.readUpdateJsonStream(mHttpCache, logWriter);
+            manifestTimer.stop(null == manifest ? 0 : manifest.mPatches.size());
 
             if (manifest != null) {
                 /* Make an arraylist of all the current set codes */
@@ -198,8 +250,8 @@ public class DbUpdaterService extends IntentService {
                 Cursor setCursor = null;
                 FamiliarDbHandle setsHandle = new FamiliarDbHandle();
                 try {
-                    /* Get readable database access */
-                    SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), false, setsHandle);
+                    /* Read the working database, since the snapshot may not have the last update yet */
+                    SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, setsHandle);
                     setCursor = CardDbAdapter.fetchAllSets(database);
                     if (setCursor != null) {
                         setCursor.moveToFirst();
@@ -223,21 +275,38 @@ public class DbUpdaterService extends IntentService {
                     DatabaseManager.closeDatabase(getApplicationContext(), setsHandle);
                 }
 
-                /* Look through the manifest and drop all out of date sets */
+                /* Look through the manifest for out of date sets. They're replaced when their new cards
+                 * are added, in the same transaction, so a failed download doesn't leave them missing */
+                HashSet<String> setsToReplace = new HashSet<>();
                 FamiliarDbHandle manifestHandle = new FamiliarDbHandle();
                 try {
                     SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, manifestHandle);
+                    /* New cards add their foreign printings to the side table, so it must exist first */
+                    if (!ForeignPrintings.isBuilt(database)) {
+                        if (logWriter != null) {
+                            logWriter.write("Moving foreign printings to a side table" + '\n');
+                        }
+                        ForeignPrintings.rebuild(database);
+                        cardsChanged = true;
+                    }
+                    /* New cards add their foreign names to the lookup table, so it must exist first */
+                    if (!ForeignNameIndex.isBuilt(database)) {
+                        if (logWriter != null) {
+                            logWriter.write("Building foreign name index" + '\n');
+                        }
+                        ForeignNameIndex.rebuild(database);
+                    }
                     for (Manifest.ManifestEntry set : manifest.mPatches) {
                         try {
-                            /* If the digest doesn't match, mark the set for dropping
+                            /* If the digest doesn't match, mark the set for replacing
                              * and remove it from currentSetCodes so it redownloads
                              */
                             if (set.mDigest != null && !storedDigests.get(set.mCode).equals(set.mDigest)) {
                                 if (logWriter != null) {
-                                    logWriter.write("Dropping expansion: " + set.mCode + '\n');
+                                    logWriter.write("Replacing expansion: " + set.mCode + '\n');
                                 }
                                 currentSetCodes.remove(set.mCode);
-                                CardDbAdapter.dropSetAndCards(set.mCode, database);
+                                setsToReplace.add(set.mCode);
                             }
                         } catch (NullPointerException e) {
                             /* eat it */
@@ -256,65 +325,139 @@ public class DbUpdaterService extends IntentService {
                 for (Manifest.ManifestEntry set : manifest.mPatches) {
                     if (!set.mCode.equals("DD3") && /* Never download the old Duel Deck Anthologies patch */
                             !currentSetCodes.contains(set.mCode)) { /* check to see if the patch is known already */
-                        int retries = 5;
-                        while (retries > 0) {
+                        /* Merge a prebuilt database of the set if there is one, and only fall back to the JSON if not */
+                        switchToUpdating(String.format(getString(R.string.update_updating_set), set.mName));
+                        boolean isReplacing = setsToReplace.contains(set.mCode);
+                        if (mergePatchDatabase(set, isReplacing, logWriter)) {
+                            updatedStuff.add(set.mName);
+                            cardsChanged = true;
+                            continue;
+                        }
+                        /* The downloader retries and resumes on its own, so there's no loop here */
+                        File patchFile = new File(getCacheDir(), set.mCode + ".json.gz");
+                        UpdateMetrics.Timer downloadTimer = mMetrics.start(UpdateMetrics.PHASE_DOWNLOAD);
+                        try {
+                            /* The patch's digest is checked while it's decoded, rather than in another pass */
+                            mDownloader.download(new URL(set.mURL), patchFile, null, logWriter);
+                            downloadTimer.stop(1);
+                            ArrayList<Card> cardsToAdd = new ArrayList<>();
+                            ArrayList<Expansion> setsToAdd = new ArrayList<>();
+
+                            UpdateMetrics.Timer decodeTimer = mMetrics.start(UpdateMetrics.PHASE_DECODE);
+                            InputStream streamToRead = new FileInputStream(patchFile);
                             try {
-                                /* Change the notification to the specific set */
-                                switchToUpdating(String.format(getString(R.string.update_updating_set), set.mName));
-                                InputStream streamToRead = FamiliarActivity.getHttpInputStream(set.mURL, logWriter, getApplicationContext());
-                                if (streamToRead != null) {
-                                    ArrayList<Card> cardsToAdd = new ArrayList<>();
-                                    ArrayList<Expansion> setsToAdd = new ArrayList<>();
-
-                                    GZIPInputStream gis = new GZIPInputStream(streamToRead);
-                                    JsonReader reader = new JsonReader(new InputStreamReader(gis, "UTF-8"));
-                                    parser.readCardJsonStream(reader, cardsToAdd, setsToAdd);
-                                    streamToRead.close();
-                                    updatedStuff.add(set.mName);
-                                    /* Everything was successful, retries = 0 breaks the while loop */
-                                    retries = 0;
-
-                                    /* After the download, open the database */
-                                    FamiliarDbHandle expansionHandle = new FamiliarDbHandle();
-                                    try {
-                                        SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, expansionHandle);
-                                        /* Insert the newly downloaded info */
-                                        for (Expansion expansion : setsToAdd) {
-                                            if (logWriter != null) {
-                                                logWriter.write("Adding expansion: " + expansion.mCode_gatherer + '\n');
-                                            }
-
-                                            CardDbAdapter.createSet(expansion, database);
-                                        }
-                                        int cardsAdded = 0;
-                                        for (Card card : cardsToAdd) {
-                                            CardDbAdapter.createCard(card, database);
-                                            cardsAdded++;
-                                            mProgress = (int) (100 * (cardsAdded / (float) cardsToAdd.size()));
-                                        }
-
-                                    } catch (SQLiteException | FamiliarDbException e) {
-                                        commitDates = false; /* don't commit the dates */
-                                        if (logWriter != null) {
-                                            e.printStackTrace(logWriter);
-                                        }
-                                    } finally {
-                                        /* Close the database */
-                                        DatabaseManager.closeDatabase(getApplicationContext(), expansionHandle);
+                                parser.readCardJsonStream(streamToRead, set, cardsToAdd, setsToAdd);
+                            } finally {
+                                streamToRead.close();
+                                decodeTimer.stop(cardsToAdd.size());
+                            }
+                            updatedStuff.add(set.mName);
+
+                            /* After the download, open the database */
+                            UpdateMetrics.Timer insertTimer = mMetrics.start(UpdateMetrics.PHASE_INSERT);
+                            FamiliarDbHandle expansionHandle = new FamiliarDbHandle();
+                            try {
+                                SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, expansionHandle);
+                                /* Drop the old version in the same transaction the new one is added in */
+                                if (isReplacing) {
+                                    if (logWriter != null) {
+                                        logWriter.write("Dropping expansion: " + set.mCode + '\n');
                                     }
+                                    CardDbAdapter.dropSetAndCards(set.mCode, database);
+                                }
+                                /* Insert the newly downloaded info */
+                                for (Expansion expansion : setsToAdd) {
+                                    if (logWriter != null) {
+                                        logWriter.write("Adding expansion: " + expansion.mCode_gatherer + '\n');
+                                    }
+
+                                    CardDbAdapter.createSet(expansion, database);
                                 }
-                            } catch (IOException e) {
+                                int cardsAdded = 0;
+                                for (Card card : cardsToAdd) {
+                                    CardDbAdapter.createCard(card, database);
+                                    cardsAdded++;
+                                    mProgress = (int) (100 * (cardsAdded / (float) cardsToAdd.size()));
+                                }
+                                cardsChanged = true;
+
+                            } catch (SQLiteException | FamiliarDbException e) {
+                                commitDates = false; /* don't commit the dates */
                                 if (logWriter != null) {
-                                    logWriter.print("Retry " + retries + '\n');
                                     e.printStackTrace(logWriter);
                                 }
+                            } finally {
+                                /* Close the database */
+                                closeDatabase(expansionHandle, UpdateMetrics.PHASE_INSERT);
+                                insertTimer.stop(cardsToAdd.size());
+                            }
+                        } catch (IOException e) {
+                            if (logWriter != null) {
+                                e.printStackTrace(logWriter);
                             }
-                            retries--;
+                        } finally {
+                            /* Count a failed download too, its bytes and retries were still spent */
+                            downloadTimer.stop(0);
+                            /* A partial download is kept for the next update to resume, a finished one isn't */
+                            deletePatch(patchFile);
                         }
                     }
                 }
             }
 
+            /* Rebuild the indices derived from the cards if the cards changed, or if they were never built */
+            UpdateMetrics.Timer indexTimer = mMetrics.start(UpdateMetrics.PHASE_INDEXES);
+            FamiliarDbHandle indexHandle = new FamiliarDbHandle();
+            try {
+                SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, indexHandle);
+                if (!ForeignPrintings.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Moving foreign printings to a side table" + '\n');
+                    }
+                    ForeignPrintings.rebuild(database);
+                    cardsChanged = true;
+                }
+                if (cardsChanged || !MoJhoStoIndex.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Rebuilding MoJhoSto index" + '\n');
+                    }
+                    MoJhoStoIndex.rebuild(database);
+                }
+                if (!ForeignNameIndex.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Building foreign name index" + '\n');
+                    }
+                    ForeignNameIndex.rebuild(database);
+                }
+                if (cardsChanged || !FuzzyNameIndex.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Rebuilding fuzzy name index" + '\n');
+                    }
+                    FuzzyNameIndex.rebuild(database);
+                }
+                if (!CardDictionary.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Building card dictionary" + '\n');
+                    }
+                    CardDictionary.rebuild(database);
+                } else if (cardsChanged) {
+                    CardDictionary.prune(database);
+                }
+                if (cardsChanged || !SearchPlanner.isBuilt(database)) {
+                    if (logWriter != null) {
+                        logWriter.write("Gathering search statistics" + '\n');
+                    }
+                    SearchPlanner.rebuild(database);
+                }
+            } catch (SQLiteException | FamiliarDbException e) {
+                if (logWriter != null) {
+                    e.printStackTrace(logWriter);
+                }
+            } finally {
+                closeDatabase(indexHandle, UpdateMetrics.PHASE_INDEXES);
+                indexTimer.stop(0);
+            }
+
             /* Change the notification to generic "checking for updates" */
             switchToChecking();
 
@@ -328,54 +471,70 @@ public class DbUpdaterService extends IntentService {
 
             RulesParser rp = new RulesParser(new Date(lastRulesUpdate), reporter);
 
-            if (rp.needsToUpdate(getApplicationContext(), logWriter)) {
+            UpdateMetrics.Timer rulesTimer = mMetrics.start(UpdateMetrics.PHASE_RULES);
+            int rulesWritten = 0;
+            if (rp.needsToUpdate(mHttpCache, logWriter)) {
                 switchToUpdating(getString(R.string.update_updating_rules));
-                if (rp.parseRules(logWriter)) {
-                    ArrayList<RulesParser.RuleItem> rulesToAdd = new ArrayList<>();
-                    ArrayList<RulesParser.GlossaryItem> glossaryItemsToAdd = new ArrayList<>();
-                    rp.loadRulesAndGlossary(rulesToAdd, glossaryItemsToAdd);
-
-                    /* Only save the timestamp of this if the update was 100% successful; if something went screwy, we
-                     * should let them know and try again next update.
-                     */
-                    newRulesParsed = true;
-
-                    /* Open the database */
-                    FamiliarDbHandle rulesHandle = new FamiliarDbHandle();
-                    try {
-
-                        SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, rulesHandle);
-
-                        /* Add stored rules */
-                        if (rulesToAdd.size() > 0 || glossaryItemsToAdd.size() > 0) {
-                            CardDbAdapter.dropRulesTables(database);
-                            CardDbAdapter.createRulesTables(database);
-                        }
 
-                        for (RulesParser.RuleItem rule : rulesToAdd) {
-                            CardDbAdapter.insertRule(rule.category, rule.subcategory, rule.entry, rule.text, rule.position, database);
+                /* Open the database */
+                FamiliarDbHandle rulesHandle = new FamiliarDbHandle();
+                RulesWriter rulesWriter = null;
+                try {
+                    SQLiteDatabase database = DatabaseManager.openDatabase(getApplicationContext(), true, rulesHandle);
+
+                    /* Insert each rule as it's parsed. If the rules are cut off, the writer puts the
+                     * old ones back when it's closed */
+                    long start = System.currentTimeMillis();
+                    rulesWriter = new RulesWriter(database);
+                    final RulesWriter writer = rulesWriter;
+                    boolean parsed = rp.parseRules(new RulesParser.RulesSink() {
+                        @Override
+                        public void addRule(RulesParser.RuleItem rule) throws FamiliarDbException {
+                            writer.insertRule(rule.category, rule.subcategory, rule.entry, rule.text, rule.position);
                         }
 
-                        for (RulesParser.GlossaryItem term : glossaryItemsToAdd) {
-                            CardDbAdapter.insertGlossaryTerm(term.term, term.definition, database);
+                        @Override
+                        public void addGlossaryTerm(RulesParser.GlossaryItem term) throws FamiliarDbException {
+                            writer.insertGlossaryTerm(term.term, term.definition);
                         }
-                        updatedStuff.add(getString(R.string.update_added_rules));
-                    } catch (SQLiteException | FamiliarDbException e) {
-                        commitDates = false; /* don't commit the dates */
+                    }, logWriter);
+
+                    if (parsed) {
+                        rulesWriter.finish();
+                        rulesWritten = rulesWriter.getRulesWritten() + rulesWriter.getTermsWritten();
                         if (logWriter != null) {
-                            e.printStackTrace(logWriter);
+                            logWriter.write("Inserted " + rulesWriter.getRulesWritten() + " rules and " +
+                                    rulesWriter.getTermsWritten() + " glossary terms in " +
+                                    (System.currentTimeMillis() - start) + "ms" + '\n');
                         }
-                    } finally {
-                        DatabaseManager.closeDatabase(getApplicationContext(), rulesHandle);
+
+                        /* Only save the timestamp of this if the update was 100% successful; if something went screwy, we
+                         * should let them know and try again next update.
+                         */
+                        newRulesParsed = true;
+                        updatedStuff.add(getString(R.string.update_added_rules));
+                    }
+                } catch (SQLiteException | FamiliarDbException e) {
+                    commitDates = false; /* don't commit the dates */
+                    if (logWriter != null) {
+                        e.printStackTrace(logWriter);
                     }
+                } finally {
+                    if (null != rulesWriter) {
+                        rulesWriter.close();
+                    }
+                    closeDatabase(rulesHandle, UpdateMetrics.PHASE_RULES);
                 }
             }
+            rulesTimer.stop(rulesWritten);
 
             /* Change the notification to generic "checking for updates" */
             switchToChecking();
 
             /* Parse the MTR and IPG */
-            MTRIPGParser mtrIpgParser = new MTRIPGParser(this);
+            UpdateMetrics.Timer documentsTimer = mMetrics.start(UpdateMetrics.PHASE_DOCUMENTS);
+            int documentsUpdated = updatedStuff.size();
+            MTRIPGParser mtrIpgParser = new MTRIPGParser(this, mHttpCache);
             if (mtrIpgParser.performMtrIpgUpdateIfNeeded(MTRIPGParser.MODE_MTR, logWriter)) {
                 updatedStuff.add(getString(R.string.update_added_mtr));
             }
@@ -396,8 +555,52 @@ public class DbUpdaterService extends IntentService {
             if (logWriter != null) {
                 logWriter.write("JAR date: " + mtrIpgParser.mPrettyDate + '\n');
             }
+            documentsTimer.stop(updatedStuff.size() - documentsUpdated);
+
+            if (logWriter != null) {
+                logWriter.write(mHttpCache.getTotals() + '\n');
+                logWriter.write(mDownloader.getTotals() + '\n');
+            }
+
+            /* Compact the database and refresh the planner's statistics after everything was written */
+            UpdateMetrics.Timer maintenanceTimer = mMetrics.start(UpdateMetrics.PHASE_MAINTENANCE);
+            try {
+                DatabaseMaintenance.Report report = DatabaseMaintenance.run(getApplicationContext(),
+                        cardsChanged || legalityChanged || newRulesParsed, MAINTENANCE_BUDGET_MS);
+                if (logWriter != null) {
+                    logWriter.write(report.toString() + '\n');
+                }
+            } catch (SQLiteException | FamiliarDbException e) {
+                if (logWriter != null) {
+                    e.printStackTrace(logWriter);
+                }
+            } finally {
+                maintenanceTimer.stop(0);
+            }
+
+            /* Let readers see the changes by replacing the snapshot they read from */
+            if (cardsChanged || legalityChanged || newRulesParsed ||
+                    !CardSnapshot.exists(getApplicationContext())) {
+                UpdateMetrics.Timer publishTimer = mMetrics.start(UpdateMetrics.PHASE_PUBLISH);
+                try {
+                    long start = System.currentTimeMillis();
+                    CardSnapshot.publish(getApplicationContext());
+                    if (logWriter != null) {
+                        logWriter.write("Published snapshot in " +
+                                (System.currentTimeMillis() - start) + "ms" + '\n');
+                    }
+                } catch (FamiliarDbException e) {
+                    commitDates = false; /* don't commit the dates, so the next update publishes */
+                    if (logWriter != null) {
+                        e.printStackTrace(logWriter);
+                    }
+                } finally {
+                    publishTimer.stop(1);
+                }
+            }
 
             /* If everything went well so far, commit the date and show the update complete notification */
+            succeeded = commitDates;
             if (commitDates) {
                 parser.commitDates(this);
 
@@ -418,6 +621,9 @@ public class DbUpdaterService extends IntentService {
             }
         }
 
+        /* Always record where the time went */
+        saveMetrics(succeeded, logWriter);
+
         /* Always cancel the status notification */
         cancelStatusNotification();
 
@@ -427,6 +633,175 @@ public class DbUpdaterService extends IntentService {
         }
     }
 
+    /**
+     * Merge a set from a SetPatchDatabase instead of its JSON patch. A gzipped patch left in the
+     * local patch folder is used first, as long as it's the one the manifest entry lists, then one
+     * downloaded from the manifest entry's database URL
+     *
+     * @param set         The manifest entry of the set to add
+     * @param isReplacing true if an old version of the set is in the database, to be dropped in the
+     *                    same transaction the new one is merged in
+     * @param logWriter   A writer to print debug statements when things go wrong
+     * @return true if the set was merged, false if there was no patch or it couldn't be merged
+     */
+    private boolean mergePatchDatabase(Manifest.ManifestEntry set, boolean isReplacing, PrintWriter logWriter) {
+        File patch = new File(getCacheDir(), set.mCode + SetPatchDatabase.FILE_EXTENSION);
+        File compressed = null;
+        File externalFiles = getApplicationContext().getExternalFilesDir(null);
+        if (null != externalFiles) {
+            compressed = new File(new File(externalFiles, SetPatchDatabase.LOCAL_DIRECTORY),
+                    set.mCode + SetPatchDatabase.FILE_EXTENSION + ".gz");
+        }
+        boolean isLocal = null != compressed && compressed.exists() &&
+                isLocalPatchTrusted(compressed, set, logWriter);
+        if (!isLocal && null == set.mDatabaseURL) {
+            return false;
+        }
+
+        InputStream streamToRead = null;
+        FileOutputStream fos = null;
+        UpdateMetrics.Timer downloadTimer = mMetrics.start(UpdateMetrics.PHASE_DOWNLOAD);
+        try {
+            if (!isLocal) {
+                compressed = new File(getCacheDir(), set.mCode + SetPatchDatabase.FILE_EXTENSION + ".gz");
+                mDownloader.download(new URL(set.mDatabaseURL), compressed, set.mDatabaseSha256, logWriter);
+            }
+            streamToRead = new FileInputStream(compressed);
+            GZIPInputStream gis = new GZIPInputStream(streamToRead);
+            fos = new FileOutputStream(patch);
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = gis.read(buffer)) > 0) {
+                fos.write(buffer, 0, length);
+            }
+            downloadTimer.stop(1);
+        } catch (IOException e) {
+            if (logWriter != null) {
+                e.printStackTrace(logWriter);
+            }
+            deletePatch(patch);
+            return false;
+        } finally {
+            try {
+                if (null != streamToRead) {
+                    streamToRead.close();
+                }
+                if (null != fos) {
+                    fos.close();
+                }
+            } catch (IOException e) {
+                /* eat it */
+            }
+            if (!isLocal && null != compressed) {
+                deletePatch(compressed);
+            }
+            downloadTimer.stop(0);
+        }
+
+        UpdateMetrics.Timer mergeTimer = mMetrics.start(UpdateMetrics.PHASE_MERGE);
+        long cardsAdded = 0;
+        FamiliarDbHandle patchHandle = new FamiliarDbHandle();
+        try {
+            SQLiteDatabase database = DatabaseManager.openDatabaseWithoutTransaction(getApplicationContext(), patchHandle);
+            cardsAdded = SetPatchDatabase.merge(patch, set.mCode, set.mDigest, isReplacing, database);
+            if (logWriter != null) {
+                logWriter.write("Merged expansion: " + set.mCode + ", " + cardsAdded + " cards" + '\n');
+            }
+            mProgress = 100;
+            return true;
+        } catch (SQLiteException | FamiliarDbException e) {
+            if (logWriter != null) {
+                e.printStackTrace(logWriter);
+            }
+            return false;
+        } finally {
+            DatabaseManager.closeDatabase(getApplicationContext(), patchHandle);
+            deletePatch(patch);
+            mergeTimer.stop(cardsAdded);
+        }
+    }
+
+    /**
+     * A local patch is attached to the card database, so in a release build it's only used if it's
+     * exactly the file the manifest lists. Debug builds use whatever is there, to try patches
+     * before they're published
+     *
+     * @param compressed The gzipped patch in the local patch folder
+     * @param set        The manifest entry of the patch's set
+     * @param logWriter  A writer to print debug statements when things go wrong
+     * @return true if the patch may be merged
+     */
+    private static boolean isLocalPatchTrusted(File compressed, Manifest.ManifestEntry set, PrintWriter logWriter) {
+        if (BuildConfig.DEBUG) {
+            return true;
+        }
+        try {
+            if (null != set.mDatabaseSha256 &&
+                    set.mDatabaseSha256.equalsIgnoreCase(ResumableDownloader.sha256(compressed))) {
+                return true;
+            }
+        } catch (IOException e) {
+            if (logWriter != null) {
+                e.printStackTrace(logWriter);
+            }
+        }
+        if (logWriter != null) {
+            logWriter.write("Ignored local patch which isn't in the manifest: " + compressed + '\n');
+        }
+        return false;
+    }
+
+    /**
+     * Close a database opened for the updater, and count the commit which happens when a
+     * transactional database is closed
+     *
+     * @param handle The handle the database was opened with
+     * @param phase  The phase to count the commit in
+     */
+    private void closeDatabase(FamiliarDbHandle handle, String phase) {
+        long start = System.currentTimeMillis();
+        DatabaseManager.closeDatabase(getApplicationContext(), handle);
+        mMetrics.addCommitTime(phase, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Write the update's metrics to the log, and add them to the history next to it
+     *
+     * @param succeeded Whether the update finished well enough to save its dates
+     * @param logWriter A writer to print debug statements when things go wrong
+     */
+    private void saveMetrics(boolean succeeded, PrintWriter logWriter) {
+        UpdateMetrics.Run run = mMetrics.finish(succeeded);
+        if (logWriter != null) {
+            logWriter.write(run.toString());
+        }
+        File externalFiles = getApplicationContext().getExternalFilesDir(null);
+        if (null == externalFiles) {
+            return;
+        }
+        try {
+            UpdateMetrics.appendToHistory(new File(externalFiles, UpdateMetrics.HISTORY_FILE_NAME), run);
+        } catch (IOException e) {
+            if (logWriter != null) {
+                e.printStackTrace(logWriter);
+            }
+        }
+    }
+
+    /**
+     * Delete a downloaded patch, and its journal if it has one
+     *
+     * @param patch The patch to delete
+     */
+    private static void deletePatch(File patch) {
+        for (String suffix : new String[]{"", "-journal"}) {
+            File file = new File(patch.getPath() + suffix);
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
     /**
      * Show the notification in the status bar
      */
@@ -21,7 +21,6 @@ package com.gelakinetic.mtgfam.helpers.updaters;
 
 import android.content.Context;
 
-import com.gelakinetic.mtgfam.FamiliarActivity;
 import com.gelakinetic.mtgfam.R;
 import com.gelakinetic.mtgfam.helpers.PreferenceAdapter;
 
@@ -33,6 +32,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.text.DateFormat;
 import java.util.Calendar;
 
@@ -55,15 +55,19 @@ class MTRIPGParser {
     private static final String IPG_LOCAL_FILE = "IPG.html";
     private static final String JAR_LOCAL_FILE = "JAR.html";
     private final Context mContext;
+    private final UpdaterHttpCache mHttpCache;
     String mPrettyDate;
 
     /**
      * Default constructor
      *
-     * @param context This context is used to get file handles to write the HTML files later
+     * @param context    This context is used to get file handles to write the HTML files later
+     * @param httpCache  Used to fetch the documents, so unchanged ones aren't downloaded again and
+     *                   interrupted ones are resumed
      */
-    public MTRIPGParser(Context context) {
+    public MTRIPGParser(Context context, UpdaterHttpCache httpCache) {
         this.mContext = context;
+        this.mHttpCache = httpCache;
     }
 
     /**
@@ -124,10 +128,8 @@ class MTRIPGParser {
                 default:
                     throw new FileNotFoundException("Invalid switch"); /* handled below */
             }
-            InputStream stream = FamiliarActivity.getHttpInputStream(urlString, logWriter, mContext);
-            if (stream != null) {
-                updated = parseDocument(mode, stream);
-            }
+            /* An unchanged document is still parsed from the cache, to get its date */
+            updated = parseDocument(mode, mHttpCache.fetch(new URL(urlString), true, logWriter).open());
         } catch (IOException e) {
             if (logWriter != null) {
                 e.printStackTrace(logWriter);
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Downloads files for the updater so that a dropped connection doesn't start the download over.
+ * Bytes are written to a partial file next to the destination as they arrive, and a failed
+ * attempt is resumed with an HTTP Range request for the rest. The partial file is kept if every
+ * attempt fails, so the next update resumes it too.
+ * <p>
+ * When resuming, the validator the server sent with the first response is sent back in If-Range,
+ * so if the file changed on the server in the meantime, the server sends the whole new file
+ * instead of the rest of the old one. The finished file is checked against its digest, when there
+ * is one, before it replaces the destination.
+ */
+class ResumableDownloader {
+
+    /* Appended to the destination's name while it downloads */
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    /* Appended to the partial file's name to hold the validator of the version being downloaded */
+    private static final String VALIDATOR_SUFFIX = ".validator";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final String mUserAgent;
+    private final int mMaxAttempts;
+    private final long mRetryDelayMs;
+
+    /* Totals over every download this downloader made, for the update log */
+    private long mTotalBytesTransferred = 0;
+    private long mTotalBytesRefetched = 0;
+    private int mTotalRetries = 0;
+
+    /**
+     * What it took to download a file
+     */
+    static class Result {
+        /* The downloaded file */
+        File mFile;
+        /* The size of the downloaded file */
+        long mLength;
+        /* Bytes received over the network, including any which were thrown away */
+        long mBytesTransferred;
+        /* Bytes received more than once, because a download started over or a resume was refused */
+        long mBytesRefetched;
+        /* Bytes already in a partial file from an earlier update, which didn't need to be fetched */
+        long mBytesReused;
+        /* How many requests it took */
+        int mAttempts;
+        /* How many of those requests resumed a partial file */
+        int mResumes;
+        /* The ETag or Last-Modified of the version downloaded, or null if the server sent neither */
+        String mValidator;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d bytes, %d transferred, %d re-fetched," +
+                            " %d reused from an earlier update, %d attempts, %d resumed",
+                    null == mFile ? null : mFile.getName(), mLength, mBytesTransferred,
+                    mBytesRefetched, mBytesReused, mAttempts, mResumes);
+        }
+    }
+
+    /**
+     * @param userAgent    The User-Agent to send with every request
+     * @param maxAttempts  How many requests to make before giving up
+     * @param retryDelayMs How long to wait before the second request. Each later one waits longer
+     */
+    ResumableDownloader(String userAgent, int maxAttempts, long retryDelayMs) {
+        mUserAgent = userAgent;
+        mMaxAttempts = maxAttempts;
+        mRetryDelayMs = retryDelayMs;
+    }
+
+    /**
+     * Download a file, resuming a partial download of it if there is one
+     *
+     * @param url         The URL to download
+     * @param destination Where to put the file. It's only replaced once the whole file is
+     *                    downloaded and checked
+     * @param sha256      The hex SHA-256 digest the file must have, or null to not check it
+     * @param logWriter   A writer to print debug statements when things go wrong. Can be null
+     * @return What it took to download the file
+     * @throws IOException If the file couldn't be downloaded in every attempt, or the server
+     *                     doesn't have it
+     */
+    Result download(URL url, File destination, String sha256, PrintWriter logWriter)
+            throws IOException {
+        File partial = new File(destination.getPath() + PARTIAL_SUFFIX);
+        File validator = new File(partial.getPath() + VALIDATOR_SUFFIX);
+        Result result = new Result();
+        long initialLength = partial.length();
+        result.mBytesReused = initialLength;
+
+        try {
+            return downloadWithRetries(url, null, destination, sha256, logWriter, partial, validator,
+                    result, initialLength);
+        } finally {
+            mTotalBytesTransferred += result.mBytesTransferred;
+            mTotalBytesRefetched += result.mBytesRefetched;
+            mTotalRetries += Math.max(0, result.mAttempts - 1);
+        }
+    }
+
+    /**
+     * Download a file starting from a response the caller already has, like a conditional request
+     * which wasn't answered with a 304. If the response's connection drops, the rest of the file is
+     * requested with a Range request, like any other download
+     *
+     * @param response    A connection which has been answered with a 200. It's disconnected
+     * @param destination Where to put the file. It's only replaced once the whole file is
+     *                    downloaded and checked
+     * @param sha256      The hex SHA-256 digest the file must have, or null to not check it
+     * @param logWriter   A writer to print debug statements when things go wrong. Can be null
+     * @return What it took to download the file
+     * @throws IOException If the file couldn't be downloaded in every attempt, or the server
+     *                     doesn't have it
+     */
+    Result download(HttpURLConnection response, File destination, String sha256, PrintWriter logWriter)
+            throws IOException {
+        File partial = new File(destination.getPath() + PARTIAL_SUFFIX);
+        File validator = new File(partial.getPath() + VALIDATOR_SUFFIX);
+        /* The response is the whole file, so an older partial file is of no use */
+        delete(partial, validator);
+        Result result = new Result();
+
+        try {
+            return downloadWithRetries(response.getURL(), response, destination, sha256, logWriter,
+                    partial, validator, result, 0);
+        } finally {
+            mTotalBytesTransferred += result.mBytesTransferred;
+            mTotalBytesRefetched += result.mBytesRefetched;
+            mTotalRetries += Math.max(0, result.mAttempts - 1);
+        }
+    }
+
+    /**
+     * Make up to mMaxAttempts requests to download a file
+     *
+     * @param url           The URL to download
+     * @param response      A response to the first request which the caller already made, or null
+     * @param destination   Where to put the file
+     * @param sha256        The hex SHA-256 digest the file must have, or null to not check it
+     * @param logWriter     A writer to print debug statements when things go wrong. Can be null
+     * @param partial       The partial file to download to
+     * @param validator     The file holding the partial file's validator
+     * @param result        Where to count what the download took
+     * @param initialLength How much of the file the partial file had before this download
+     * @return What it took to download the file
+     * @throws IOException If the file couldn't be downloaded in every attempt, or the server
+     *                     doesn't have it
+     */
+    private Result downloadWithRetries(URL url, HttpURLConnection response, File destination,
+                                       String sha256, PrintWriter logWriter, File partial,
+                                       File validator, Result result, long initialLength)
+            throws IOException {
+        IOException lastException = null;
+        for (int attempt = 1; attempt <= mMaxAttempts; attempt++) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(mRetryDelayMs * (attempt - 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted downloading " + url);
+                }
+            }
+            result.mAttempts = attempt;
+            try {
+                MessageDigest digest = fetch(url, 1 == attempt ? response : null, partial, validator, result);
+                if (null != sha256 && !sha256.equalsIgnoreCase(toHex(digest.digest()))) {
+                    /* The whole file is bad, there's nothing worth resuming */
+                    delete(partial, validator);
+                    result.mBytesReused = 0;
+                    throw new IOException("Digest mismatch for " + url);
+                }
+
+                if ((destination.exists() && !destination.delete()) || !partial.renameTo(destination)) {
+                    throw new IOException("Couldn't rename " + partial + " to " + destination);
+                }
+                delete(validator);
+
+                result.mFile = destination;
+                result.mLength = destination.length();
+                /* Whatever was transferred beyond what the partial file from before was missing */
+                result.mBytesRefetched = result.mBytesTransferred - (result.mLength - initialLength);
+                if (logWriter != null) {
+                    logWriter.write("Downloaded " + result.toString() + '\n');
+                }
+                return result;
+            } catch (FileNotFoundException e) {
+                /* The server doesn't have it, retrying won't help */
+                throw e;
+            } catch (IOException e) {
+                lastException = e;
+                if (logWriter != null) {
+                    logWriter.write("Attempt " + attempt + " at " + url + " stopped after " +
+                            partial.length() + " bytes: " + e.toString() + '\n');
+                }
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * @return A summary of every download this downloader made, for the update log
+     */
+    String getTotals() {
+        return "Downloads: " + mTotalBytesTransferred + " bytes transferred, " +
+                mTotalBytesRefetched + " re-fetched, " + mTotalRetries + " retries";
+    }
+
+    /**
+     * @return Bytes received over the network by every download so far
+     */
+    long getBytesTransferred() {
+        return mTotalBytesTransferred;
+    }
+
+    /**
+     * @return Requests made after the first for a file, by every download so far
+     */
+    int getRetries() {
+        return mTotalRetries;
+    }
+
+    /**
+     * Make one request for whatever the partial file is missing, and write the response to it
+     *
+     * @param url       The URL to download
+     * @param response  A response the caller already has, which is used instead of making a
+     *                  request, or null
+     * @param partial   The partial file to resume, or to start if it doesn't exist
+     * @param validator The file holding the partial file's ETag or Last-Modified
+     * @param result    Where to count the bytes transferred
+     * @return The digest of the whole partial file, once it has all of the file
+     * @throws IOException If the request fails or the connection drops before the whole file
+     *                     arrives. Whatever arrived is kept in the partial file
+     */
+    private MessageDigest fetch(URL url, HttpURLConnection response, File partial, File validator,
+                                Result result) throws IOException {
+        long offset = null == response && partial.exists() ? partial.length() : 0;
+        String savedValidator = offset > 0 ? readValidator(validator) : null;
+
+        HttpURLConnection connection = null != response ? response : (HttpURLConnection) url.openConnection();
+        InputStream in = null;
+        FileOutputStream out = null;
+        try {
+            if (null == response) {
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                connection.setInstanceFollowRedirects(true);
+                connection.setRequestProperty("User-Agent", mUserAgent);
+                /* Ranges count bytes of the encoded body, so it must not be transparently decompressed */
+                connection.setRequestProperty("Accept-Encoding", "identity");
+                if (offset > 0) {
+                    connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                    if (null != savedValidator) {
+                        connection.setRequestProperty("If-Range", savedValidator);
+                    }
+                }
+            }
+
+            int responseCode = connection.getResponseCode();
+            long expectedLength;
+            boolean isAppending;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0 &&
+                    offset == getRangeStart(connection.getHeaderField("Content-Range"))) {
+                isAppending = true;
+                expectedLength = getRangeTotal(connection.getHeaderField("Content-Range"));
+                result.mResumes++;
+                result.mValidator = savedValidator;
+            } else if (responseCode == 416 && offset > 0 &&
+                    offset == getRangeTotal(connection.getHeaderField("Content-Range"))) {
+                /* The partial file already has everything, it just wasn't renamed yet */
+                result.mValidator = savedValidator;
+                return digestFile(partial);
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                /* A fresh start, either asked for or because the server won't resume */
+                isAppending = false;
+                result.mBytesReused = 0;
+                expectedLength = connection.getContentLength();
+                String newValidator = connection.getHeaderField("ETag");
+                if (null == newValidator) {
+                    newValidator = connection.getHeaderField("Last-Modified");
+                }
+                writeValidator(validator, newValidator);
+                result.mValidator = newValidator;
+            } else if (responseCode >= 400 && responseCode < 500 && responseCode != 416 &&
+                    responseCode != 408 && responseCode != 429) {
+                throw new FileNotFoundException("HTTP " + responseCode + " for " + url);
+            } else {
+                /* A server error, or a resume which doesn't line up. Start over next time */
+                if (responseCode == 416 || responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    delete(partial, validator);
+                    result.mBytesReused = 0;
+                }
+                throw new IOException("HTTP " + responseCode + " for " + url);
+            }
+
+            MessageDigest digest = isAppending ? digestFile(partial) : newDigest();
+            in = connection.getInputStream();
+            out = new FileOutputStream(partial, isAppending);
+            long length = isAppending ? offset : 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                length += read;
+                result.mBytesTransferred += read;
+            }
+            out.getFD().sync();
+            if (expectedLength >= 0 && length != expectedLength) {
+                throw new IOException("Connection closed after " + length + " of " + expectedLength + " bytes");
+            }
+            return digest;
+        } finally {
+            if (null != out) {
+                out.close();
+            }
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    /* The connection is being thrown away anyway */
+                }
+            }
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @param contentRange A Content-Range header, like "bytes 100-199/200" or "bytes * /200"
+     * @return The first byte in the range, or -1 if there isn't one
+     */
+    private static long getRangeStart(String contentRange) {
+        if (null == contentRange) {
+            return -1;
+        }
+        try {
+            String range = contentRange.trim().substring("bytes ".length());
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange A Content-Range header, like "bytes 100-199/200" or "bytes * /200"
+     * @return The length of the whole file, or -1 if the server didn't say
+     */
+    private static long getRangeTotal(String contentRange) {
+        if (null == contentRange) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param file The file to digest
+     * @return A digest which has been fed the whole file, to continue with the rest of it
+     * @throws IOException If the file can't be read
+     */
+    private static MessageDigest digestFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest;
+    }
+
+    /**
+     * @param file The file to digest
+     * @return The file's hex SHA-256 digest
+     * @throws IOException If the file can't be read
+     */
+    static String sha256(File file) throws IOException {
+        return toHex(digestFile(file).digest());
+    }
+
+    /**
+     * @return A new SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            /* Every Java platform must have SHA-256 */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param bytes Bytes to print
+     * @return The bytes in lowercase hex
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @param validator The file holding a validator
+     * @return The validator, or null if there isn't one
+     */
+    private static String readValidator(File validator) {
+        if (!validator.exists()) {
+            return null;
+        }
+        try {
+            FileInputStream in = new FileInputStream(validator);
+            try {
+                byte[] bytes = new byte[(int) validator.length()];
+                int read = 0;
+                while (read < bytes.length) {
+                    int count = in.read(bytes, read, bytes.length - read);
+                    if (count == -1) {
+                        break;
+                    }
+                    read += count;
+                }
+                String value = new String(bytes, 0, read, "UTF-8").trim();
+                return value.isEmpty() ? null : value;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param validator The file to hold the validator
+     * @param value     The ETag or Last-Modified of the version being downloaded, or null if the
+     *                  server didn't send either
+     * @throws IOException If the file can't be written
+     */
+    private static void writeValidator(File validator, String value) throws IOException {
+        if (null == value) {
+            delete(validator);
+            return;
+        }
+        FileOutputStream out = new FileOutputStream(validator);
+        try {
+            out.write(value.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Delete a download's leftovers
+     *
+     * @param files The files to delete
+     */
+    static void delete(File... files) {
+        for (File file : files) {
+            if (file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @param destination Where a file is being downloaded to
+     * @return true if there is a partial download of it to resume
+     */
+    static boolean hasPartial(File destination) {
+        return new File(destination.getPath() + PARTIAL_SUFFIX).exists();
+    }
+}
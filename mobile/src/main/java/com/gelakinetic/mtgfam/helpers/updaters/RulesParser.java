@@ -19,20 +19,23 @@
 
 package com.gelakinetic.mtgfam.helpers.updaters;
 
-import android.content.Context;
-
-import com.gelakinetic.mtgfam.FamiliarActivity;
+import com.gelakinetic.mtgfam.helpers.database.FamiliarDbException;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.text.DateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 
+/**
+ * Checks the comprehensive rules for a new version and parses them. Each rule and glossary term is
+ * handed to a RulesSink as soon as it's read, so only one of each is in memory at a time.
+ */
 class RulesParser {
 
     /* URL and delimiting tokens */
@@ -47,10 +50,10 @@ class RulesParser {
     /* Instance variables */
     private final Date mLastUpdated;
     private final RulesProgressReporter mProgressReporter;
-    private final ArrayList<RuleItem> mRules;
-    private final ArrayList<GlossaryItem> mGlossary;
-    private InputStream mInputStream;
+    private CountingInputStream mInputStream;
     private BufferedReader mBufferedReader;
+    private long mLength;
+    private int mProgress;
 
     /**
      * Default Constructor
@@ -63,9 +66,6 @@ class RulesParser {
         this.mInputStream = null;
         this.mBufferedReader = null;
         this.mProgressReporter = progressReport;
-
-        this.mRules = new ArrayList<>();
-        this.mGlossary = new ArrayList<>();
     }
 
     /**
@@ -73,17 +73,14 @@ class RulesParser {
      * the file and its date is newer than this.mLastUpdated, true will be returned. Otherwise, it will return false. If
      * true is returned, this.rulesUrl will be populated.
      *
-     * @param context a context to open the HttpInputStream with
+     * @param httpCache The cache to fetch the rules with, so unchanged rules aren't downloaded again
      * @return Whether or this the rules need updating.
      */
-    public boolean needsToUpdate(Context context, PrintWriter logWriter) {
+    public boolean needsToUpdate(UpdaterHttpCache httpCache, PrintWriter logWriter) {
 
         try {
-            this.mInputStream = FamiliarActivity.getHttpInputStream(SOURCE, logWriter, context);
-            if (this.mInputStream == null) {
-                throw new IOException("No Stream");
-            }
-            this.mBufferedReader = new BufferedReader(new InputStreamReader(mInputStream));
+            UpdaterHttpCache.Response response = httpCache.fetch(new URL(SOURCE), logWriter);
+            open(response.open(), response.mFile.length());
 
             /*First line will be the date formatted as YYYY-MM-DD */
             String line = this.mBufferedReader.readLine();
@@ -114,13 +111,28 @@ class RulesParser {
     }
 
     /**
-     * Attempts to fetch the latest version of the rules and load it into the database. If the process is successful,
-     * true will be returned. Otherwise, false will be returned. This method should only be called if needsToUpdate()
-     * returns true.
+     * Get ready to parse rules from a stream. needsToUpdate() does this with the fetched rules
+     *
+     * @param inputStream The rules, starting with the date line. They're closed once parsed
+     * @param length      The length of the stream in bytes, used to report progress
+     */
+    void open(InputStream inputStream, long length) {
+        this.mInputStream = new CountingInputStream(inputStream);
+        this.mBufferedReader = new BufferedReader(new InputStreamReader(mInputStream));
+        this.mLength = length;
+    }
+
+    /**
+     * Parses the latest version of the rules, handing each rule and glossary term to the sink as
+     * soon as it's read. If the process is successful, true will be returned. Otherwise, false will
+     * be returned, and the sink may have gotten some of the rules. This method should only be called
+     * if needsToUpdate() returns true.
      *
+     * @param sink Where to put the rules and glossary terms
      * @return Whether or not the parsing is successful
+     * @throws FamiliarDbException If the sink can't store a rule or term
      */
-    public boolean parseRules(PrintWriter logWriter) {
+    public boolean parseRules(RulesSink sink, PrintWriter logWriter) throws FamiliarDbException {
         if (this.mBufferedReader == null) {
             /* This should only be the case if we called parseRules() before needsToUpdate()
              * or if needsToUpdate() returned false */
@@ -131,24 +143,25 @@ class RulesParser {
             RuleItem currentRule = null;
             GlossaryItem currentTerm = null;
             int position = -1;
-            this.mRules.clear();
-            this.mGlossary.clear();
+            mProgress = -1;
+            reportProgress();
 
-            String line = this.mBufferedReader.readLine().trim();
+            String line = readLine().trim();
             while (!line.equals(RULES_TOKEN)) {
                 /* Burn through lines until we hit the rules token */
-                line = mBufferedReader.readLine().trim();
+                line = readLine().trim();
             }
 
-            line = mBufferedReader.readLine(); /* Step past the token */
+            line = readLine(); /* Step past the token */
 
             while (!line.equals(GLOSSARY_TOKEN)) {
                 /* Parse the line */
                 if (line.length() == 0) {
                     if (currentRule != null) {
-                        /* Rule is over and we have one; add it to the list and null it */
-                        this.mRules.add(currentRule);
+                        /* Rule is over and we have one; store it and null it */
+                        sink.addRule(currentRule);
                         currentRule = null;
+                        reportProgress();
                     }
                 } else {
                     if (Character.isDigit(line.charAt(0))) {
@@ -193,18 +206,19 @@ class RulesParser {
                 }
 
                 /* Then move to the next line */
-                line = mBufferedReader.readLine().trim();
+                line = readLine().trim();
             }
 
-            line = mBufferedReader.readLine().trim(); /* Step past the token */
+            line = readLine().trim(); /* Step past the token */
 
             while (!line.equals(EOF_TOKEN)) {
                 /* Parse the line */
                 if (line.length() == 0) {
                     if (currentTerm != null) {
-                        /* Term is over and we have one; add it to the list and null it */
-                        mGlossary.add(currentTerm);
+                        /* Term is over and we have one; store it and null it */
+                        sink.addGlossaryTerm(currentTerm);
                         currentTerm = null;
+                        reportProgress();
                     }
                 } else {
                     if (currentTerm == null) {
@@ -216,11 +230,11 @@ class RulesParser {
                 }
 
                 /* Then move to the next line */
-                line = mBufferedReader.readLine().trim();
+                line = readLine().trim();
             }
             if (currentTerm != null) {
-                /* Document is over but we still have a term; add it to the list */
-                mGlossary.add(currentTerm);
+                /* Document is over but we still have a term; store it */
+                sink.addGlossaryTerm(currentTerm);
             }
 
             return true;
@@ -235,27 +249,28 @@ class RulesParser {
     }
 
     /**
-     * Loads in the rules and glossary to the database, updating the count as it goes. The expected usage is that the
-     * main activity will have a progress dialog that gets updated as the count does.
-     *
-     * @param rulesToAdd         A place to store rules before inserting into the database
-     * @param glossaryItemsToAdd A place to store glossary items vefore inserting into the database
+     * @return The next line of the rules
+     * @throws IOException If the rules end before the EOF token, which means they were cut off
      */
-    public void loadRulesAndGlossary(ArrayList<RuleItem> rulesToAdd, ArrayList<GlossaryItem> glossaryItemsToAdd) {
-        int numTotalElements = mRules.size() + mGlossary.size();
-        int elementsParsed = 0;
-        mProgressReporter.reportRulesProgress((int) Math.round(100 * elementsParsed / (double) numTotalElements));
-
-        for (RuleItem rule : mRules) {
-            rulesToAdd.add(rule);
-            elementsParsed++;
-            mProgressReporter.reportRulesProgress((int) Math.round(100 * elementsParsed / (double) numTotalElements));
+    private String readLine() throws IOException {
+        String line = mBufferedReader.readLine();
+        if (null == line) {
+            throw new IOException("The rules ended early");
         }
+        return line;
+    }
 
-        for (GlossaryItem term : mGlossary) {
-            glossaryItemsToAdd.add(term);
-            elementsParsed++;
-            mProgressReporter.reportRulesProgress((int) Math.round(100 * elementsParsed / (double) numTotalElements));
+    /**
+     * Report how much of the stream has been read, if it's another percent
+     */
+    private void reportProgress() {
+        if (mLength <= 0) {
+            return;
+        }
+        int progress = (int) Math.min(100, 100 * mInputStream.mCount / mLength);
+        if (progress != mProgress) {
+            mProgress = progress;
+            mProgressReporter.reportRulesProgress(progress);
         }
     }
 
@@ -264,8 +279,13 @@ class RulesParser {
      */
     private void closeReader(PrintWriter logWriter) {
         try {
-            this.mInputStream.close();
-            this.mBufferedReader.close();
+            /* The stream is null if the rules couldn't be fetched */
+            if (null != this.mInputStream) {
+                this.mInputStream.close();
+            }
+            if (null != this.mBufferedReader) {
+                this.mBufferedReader.close();
+            }
         } catch (IOException e) {
             if (logWriter != null) {
                 e.printStackTrace(logWriter);
@@ -276,6 +296,15 @@ class RulesParser {
         this.mBufferedReader = null;
     }
 
+    /**
+     * Where the parsed rules and glossary terms go, one at a time
+     */
+    public interface RulesSink {
+        void addRule(RuleItem rule) throws FamiliarDbException;
+
+        void addGlossaryTerm(GlossaryItem term) throws FamiliarDbException;
+    }
+
     /**
      * This interface is implemented by ProgressReporter in DbUpdaterService. It's used to report progress to the
      * notification
@@ -284,6 +313,42 @@ class RulesParser {
         void reportRulesProgress(int progress);
     }
 
+    /**
+     * Counts the bytes read through it, for progress
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                mCount++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
     /**
      * Nested class which encapsulates all necessary information about a rule
      */
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.gelakinetic.GathererScraper.PrefixedFieldNamingStrategy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where an update spent its time. The updater times each phase, like downloading patches,
+ * decoding them and inserting their cards, and counts the bytes downloaded, download retries,
+ * items processed and time spent committing in each one. Phases which happen once per set add up.
+ * <p>
+ * Each run is appended as one line of JSON to a history file next to mtgf_update.txt, which keeps
+ * the last MAX_RUNS runs. Every run has the app version, so runs from different versions can be
+ * compared. The history is sent along with the query log from the About dialog.
+ */
+public class UpdateMetrics {
+
+    /* The history of recent runs, one JSON object per line, oldest first */
+    public static final String HISTORY_FILE_NAME = "mtgf_update_history.jsonl";
+
+    /* How many runs the history keeps */
+    static final int MAX_RUNS = 20;
+
+    /* The phases of an update, in the order they usually happen */
+    static final String PHASE_LEGALITY = "legality";
+    static final String PHASE_MANIFEST = "manifest";
+    static final String PHASE_DOWNLOAD = "download";
+    static final String PHASE_DECODE = "decode";
+    static final String PHASE_INSERT = "insert";
+    static final String PHASE_MERGE = "merge";
+    static final String PHASE_INDEXES = "indexes";
+    static final String PHASE_RULES = "rules";
+    static final String PHASE_DOCUMENTS = "documents";
+    static final String PHASE_MAINTENANCE = "maintenance";
+    static final String PHASE_PUBLISH = "publish";
+
+    private static final Gson GSON = new GsonBuilder()
+            .setFieldNamingStrategy(new PrefixedFieldNamingStrategy("m"))
+            .create();
+
+    /**
+     * Where the bytes downloaded and the retries are counted, which are read at the start and end
+     * of each phase
+     */
+    interface Counters {
+        long getBytesDownloaded();
+
+        int getRetries();
+    }
+
+    /**
+     * The totals for one phase of a run
+     */
+    static class Phase {
+        String mName;
+        /* How many times the phase ran, like once per set for the download phase */
+        int mCount;
+        long mWallMs;
+        long mBytesDownloaded;
+        int mRetries;
+        /* Cards, rules, or whatever else the phase works through */
+        long mItems;
+        double mItemsPerSecond;
+        /* Time spent committing the phase's transactions, which is part of mWallMs */
+        long mCommitMs;
+    }
+
+    /**
+     * One update, as it's stored in the history
+     */
+    static class Run {
+        String mAppVersion;
+        int mVersionCode;
+        /* When the update started, in milliseconds since the epoch */
+        long mStartTime;
+        long mWallMs;
+        long mBytesDownloaded;
+        int mRetries;
+        /* Whether the update finished well enough to save its dates */
+        boolean mSucceeded;
+        List<Phase> mPhases = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                    "Update metrics: %d ms, %d bytes downloaded, %d retries, %s\n", mWallMs,
+                    mBytesDownloaded, mRetries, mSucceeded ? "succeeded" : "failed"));
+            for (Phase phase : mPhases) {
+                builder.append(String.format(Locale.US,
+                        "  %s: %d ms in %d runs, %d bytes, %d retries, %d items (%.1f/s), %d ms committing\n",
+                        phase.mName, phase.mWallMs, phase.mCount, phase.mBytesDownloaded, phase.mRetries,
+                        phase.mItems, phase.mItemsPerSecond, phase.mCommitMs));
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * A phase which has started and not yet been stopped
+     */
+    class Timer {
+        private final String mPhase;
+        private final long mStartNanos;
+        private final long mStartBytes;
+        private final int mStartRetries;
+        private boolean mIsStopped = false;
+
+        private Timer(String phase) {
+            mPhase = phase;
+            mStartNanos = System.nanoTime();
+            mStartBytes = mCounters.getBytesDownloaded();
+            mStartRetries = mCounters.getRetries();
+        }
+
+        /**
+         * Add the time, bytes and retries since the timer started to the phase. Only the first
+         * call counts, so a timer can be stopped with a count when the phase works, and again in a
+         * finally block in case it doesn't
+         *
+         * @param items How many items the phase worked through
+         */
+        void stop(long items) {
+            if (mIsStopped) {
+                return;
+            }
+            mIsStopped = true;
+            Phase phase = getPhase(mPhase);
+            phase.mCount++;
+            phase.mWallMs += (System.nanoTime() - mStartNanos) / 1000000;
+            phase.mBytesDownloaded += mCounters.getBytesDownloaded() - mStartBytes;
+            phase.mRetries += mCounters.getRetries() - mStartRetries;
+            phase.mItems += items;
+        }
+    }
+
+    private final Counters mCounters;
+    private final Run mRun = new Run();
+    private final LinkedHashMap<String, Phase> mPhases = new LinkedHashMap<>();
+    private final long mStartNanos;
+    private final long mStartBytes;
+    private final int mStartRetries;
+
+    /**
+     * Start measuring an update
+     *
+     * @param appVersion  The app's version name
+     * @param versionCode The app's version code
+     * @param counters    Where bytes and retries are counted
+     */
+    UpdateMetrics(String appVersion, int versionCode, Counters counters) {
+        mCounters = counters;
+        mRun.mAppVersion = appVersion;
+        mRun.mVersionCode = versionCode;
+        mRun.mStartTime = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        mStartBytes = counters.getBytesDownloaded();
+        mStartRetries = counters.getRetries();
+    }
+
+    /**
+     * @param phase One of the PHASE_ constants
+     * @return A timer for the phase, which must be stopped to count
+     */
+    Timer start(String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Add time spent committing to a phase. It should be inside one of the phase's timers too
+     *
+     * @param phase    One of the PHASE_ constants
+     * @param commitMs How long the commit took
+     */
+    void addCommitTime(String phase, long commitMs) {
+        getPhase(phase).mCommitMs += commitMs;
+    }
+
+    /**
+     * @param name One of the PHASE_ constants
+     * @return The phase's totals, which are created the first time
+     */
+    private Phase getPhase(String name) {
+        Phase phase = mPhases.get(name);
+        if (null == phase) {
+            phase = new Phase();
+            phase.mName = name;
+            mPhases.put(name, phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Finish measuring the update
+     *
+     * @param succeeded Whether the update finished well enough to save its dates
+     * @return The run, ready to be added to the history
+     */
+    Run finish(boolean succeeded) {
+        mRun.mWallMs = (System.nanoTime() - mStartNanos) / 1000000;
+        mRun.mBytesDownloaded = mCounters.getBytesDownloaded() - mStartBytes;
+        mRun.mRetries = mCounters.getRetries() - mStartRetries;
+        mRun.mSucceeded = succeeded;
+        mRun.mPhases = new ArrayList<>(mPhases.values());
+        for (Phase phase : mRun.mPhases) {
+            phase.mItemsPerSecond = phase.mWallMs > 0 ? 1000.0 * phase.mItems / phase.mWallMs : 0;
+        }
+        return mRun;
+    }
+
+    /**
+     * Append a run to a history file, dropping the oldest runs past MAX_RUNS. The new history is
+     * written to a temporary file which is renamed over the old one. The rename replaces it in one
+     * step, so a crash leaves either the old history or the new one
+     *
+     * @param history The history file
+     * @param run     The run to append
+     * @throws IOException If the history can't be written
+     */
+    static void appendToHistory(File history, Run run) throws IOException {
+        List<String> lines = readLines(history);
+        lines.add(GSON.toJson(run));
+        if (lines.size() > MAX_RUNS) {
+            lines = lines.subList(lines.size() - MAX_RUNS, lines.size());
+        }
+
+        File temp = new File(history.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!temp.renameTo(history)) {
+            ResumableDownloader.delete(temp);
+            throw new IOException("Couldn't rename " + temp + " to " + history);
+        }
+    }
+
+    /**
+     * @param history A history file
+     * @return The runs in it, oldest first. Lines which can't be read are skipped
+     * @throws IOException If the file exists but can't be read
+     */
+    static List<Run> readHistory(File history) throws IOException {
+        List<Run> runs = new ArrayList<>();
+        for (String line : readLines(history)) {
+            try {
+                Run run = GSON.fromJson(line, Run.class);
+                if (null != run) {
+                    runs.add(run);
+                }
+            } catch (JsonParseException e) {
+                /* A line from a crash or an incompatible version, skip it */
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @param file A file
+     * @return The file's non-empty lines, or nothing if it doesn't exist
+     * @throws IOException If the file exists but can't be read
+     */
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (!file.exists()) {
+            return lines;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
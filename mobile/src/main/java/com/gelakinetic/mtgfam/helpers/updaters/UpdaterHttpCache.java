@@ -0,0 +1,346 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Fetches the small files the updater checks every time it runs, like legality.json, patches.json,
+ * the comprehensive rules and the MTR, IPG and JAR. The last response for each URL is kept on disk
+ * with its ETag and Last-Modified, and sent back in If-None-Match and If-Modified-Since, so a file
+ * which hasn't changed costs a 304 instead of the whole file.
+ * <p>
+ * Callers get a file either way and still decide from its contents whether there is anything new.
+ * The cache only saves the transfer.
+ * <p>
+ * Larger files can be fetched as resumable. Their new bodies are handed to a ResumableDownloader,
+ * which continues a dropped connection with a Range request instead of starting over.
+ */
+class UpdaterHttpCache {
+
+    /* Appended to a cached body's name for the file holding its validators */
+    private static final String META_SUFFIX = ".meta";
+
+    /* Appended to a cached body's name while a new one is downloaded */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final File mDirectory;
+    private final String mUserAgent;
+    private final ResumableDownloader mDownloader;
+
+    /* Totals over every request this cache made, for the update log */
+    private int mRequests = 0;
+    private int mNotModified = 0;
+    private long mBytesTransferred = 0;
+    private long mBytesSaved = 0;
+
+    /**
+     * A cached response
+     */
+    static class Response {
+        /* The response body */
+        final File mFile;
+        /* Whether the server sent a new body, rather than a 304 for the cached one */
+        final boolean mIsModified;
+        /* Bytes of body received over the network, 0 for a 304 */
+        final long mBytesTransferred;
+
+        Response(File file, boolean isModified, long bytesTransferred) {
+            mFile = file;
+            mIsModified = isModified;
+            mBytesTransferred = bytesTransferred;
+        }
+
+        /**
+         * @return A stream of the response body. The caller must close it
+         * @throws FileNotFoundException If the cached body was removed
+         */
+        InputStream open() throws FileNotFoundException {
+            return new FileInputStream(mFile);
+        }
+    }
+
+    /**
+     * @param directory  Where to keep the responses. It's created if it doesn't exist
+     * @param userAgent  The User-Agent to send with every request
+     * @param downloader Used to finish resumable fetches
+     */
+    UpdaterHttpCache(File directory, String userAgent, ResumableDownloader downloader) {
+        mDirectory = directory;
+        mUserAgent = userAgent;
+        mDownloader = downloader;
+    }
+
+    /**
+     * Fetch a URL, revalidating the cached copy if there is one
+     *
+     * @param url       The URL to fetch
+     * @param logWriter A writer to print debug statements when things go wrong. Can be null
+     * @return The response, whose body is the cached copy if the server said it's still current
+     * @throws IOException If the request fails. The cached copy isn't used, since the server
+     *                     didn't say it's current
+     */
+    Response fetch(URL url, PrintWriter logWriter) throws IOException {
+        return fetch(url, false, logWriter);
+    }
+
+    /**
+     * Fetch a URL, revalidating the cached copy if there is one
+     *
+     * @param url         The URL to fetch
+     * @param isResumable true to resume a new body with Range requests if its connection drops.
+     *                    The body is then requested without compression, so byte offsets match
+     * @param logWriter   A writer to print debug statements when things go wrong. Can be null
+     * @return The response, whose body is the cached copy if the server said it's still current
+     * @throws IOException If the request fails. The cached copy isn't used, since the server
+     *                     didn't say it's current
+     */
+    Response fetch(URL url, boolean isResumable, PrintWriter logWriter) throws IOException {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + mDirectory);
+        }
+        String key = getKey(url);
+        File body = new File(mDirectory, key);
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        File temp = new File(mDirectory, key + TEMP_SUFFIX);
+
+        /* Only ask for a 304 when there's a body to fall back on */
+        String[] validators = body.exists() ? readMeta(meta) : null;
+
+        mRequests++;
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        InputStream in = null;
+        FileOutputStream out = null;
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setInstanceFollowRedirects(true);
+            /* HttpURLConnection doesn't cache on its own unless a ResponseCache is installed */
+            connection.setUseCaches(false);
+            connection.setRequestProperty("User-Agent", mUserAgent);
+            if (isResumable) {
+                connection.setRequestProperty("Accept-Encoding", "identity");
+            }
+            if (null != validators) {
+                if (null != validators[0]) {
+                    connection.setRequestProperty("If-None-Match", validators[0]);
+                }
+                if (null != validators[1]) {
+                    connection.setRequestProperty("If-Modified-Since", validators[1]);
+                }
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && null != validators) {
+                mNotModified++;
+                mBytesSaved += body.length();
+                /* A 304 may carry updated validators */
+                String eTag = connection.getHeaderField("ETag");
+                String lastModified = connection.getHeaderField("Last-Modified");
+                if (null != eTag || null != lastModified) {
+                    writeMeta(meta, url, null != eTag ? eTag : validators[0],
+                            null != lastModified ? lastModified : validators[1]);
+                }
+                if (logWriter != null) {
+                    logWriter.write("Not modified: " + url + ", " + body.length() + " bytes cached" + '\n');
+                }
+                return new Response(body, false, 0);
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + responseCode + " for " + url);
+            }
+
+            if (isResumable) {
+                return finishResumable(connection, body, meta, temp, logWriter);
+            }
+
+            /* Download to the side, so a dropped connection doesn't leave a bad cached copy */
+            in = connection.getInputStream();
+            out = new FileOutputStream(temp);
+            long length = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                length += read;
+                mBytesTransferred += read;
+            }
+            out.close();
+            out = null;
+            int expectedLength = connection.getContentLength();
+            if (expectedLength >= 0 && length != expectedLength) {
+                throw new IOException("Connection closed after " + length + " of " + expectedLength + " bytes");
+            }
+
+            /* Forget the old validators first, so they're never paired with the new body */
+            ResumableDownloader.delete(meta);
+            if ((body.exists() && !body.delete()) || !temp.renameTo(body)) {
+                throw new IOException("Couldn't rename " + temp + " to " + body);
+            }
+            String eTag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (null != eTag || null != lastModified) {
+                writeMeta(meta, url, eTag, lastModified);
+            }
+            if (logWriter != null) {
+                logWriter.write("Fetched: " + url + ", " + length + " bytes" + '\n');
+            }
+            return new Response(body, true, length);
+        } finally {
+            if (null != out) {
+                out.close();
+            }
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    /* The connection is being thrown away anyway */
+                }
+            }
+            connection.disconnect();
+            ResumableDownloader.delete(temp);
+        }
+    }
+
+    /**
+     * Download a new body with the ResumableDownloader, and cache it
+     *
+     * @param connection A connection which was answered with a 200
+     * @param body       Where the body is cached
+     * @param meta       Where the body's validators are cached
+     * @param temp       Where to download the body before it replaces the cached one
+     * @param logWriter  A writer to print debug statements when things go wrong. Can be null
+     * @return The response
+     * @throws IOException If the body couldn't be downloaded
+     */
+    private Response finishResumable(HttpURLConnection connection, File body, File meta, File temp,
+                                     PrintWriter logWriter) throws IOException {
+        URL url = connection.getURL();
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        ResumableDownloader.Result result = mDownloader.download(connection, temp, null, logWriter);
+
+        ResumableDownloader.delete(meta);
+        if ((body.exists() && !body.delete()) || !temp.renameTo(body)) {
+            throw new IOException("Couldn't rename " + temp + " to " + body);
+        }
+        /* Only keep the validators if a resume didn't get a newer version of the file */
+        String validator = null != eTag ? eTag : lastModified;
+        if (null != validator && validator.equals(result.mValidator)) {
+            writeMeta(meta, url, eTag, lastModified);
+        }
+        /* The bytes are counted in the downloader's totals, not this cache's */
+        return new Response(body, true, result.mBytesTransferred);
+    }
+
+    /**
+     * @return A summary of every request this cache made, for the update log
+     */
+    String getTotals() {
+        return String.format(Locale.US, "Update checks: %d requests, %d not modified, " +
+                "%d bytes transferred, %d bytes not transferred", mRequests, mNotModified,
+                mBytesTransferred, mBytesSaved);
+    }
+
+    /**
+     * @return Bytes of response bodies received over the network so far
+     */
+    long getBytesTransferred() {
+        return mBytesTransferred;
+    }
+
+    /**
+     * @param url A URL
+     * @return A name for the URL's cached files
+     */
+    private static String getKey(URL url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return ResumableDownloader.toHex(digest.digest(url.toString().getBytes("UTF-8")))
+                    .substring(0, 32);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            /* Every Java platform must have SHA-256 and UTF-8 */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param meta A file written by writeMeta()
+     * @return The ETag and Last-Modified, either of which may be null, or null if there's no file
+     */
+    private static String[] readMeta(File meta) {
+        if (!meta.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(meta), "UTF-8"));
+            try {
+                /* The first line is the URL, for anyone reading the cache */
+                reader.readLine();
+                String eTag = reader.readLine();
+                String lastModified = reader.readLine();
+                String[] validators = new String[]{
+                        null == eTag || eTag.isEmpty() ? null : eTag,
+                        null == lastModified || lastModified.isEmpty() ? null : lastModified};
+                return null == validators[0] && null == validators[1] ? null : validators;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param meta         The file to write
+     * @param url          The URL the validators are for
+     * @param eTag         The ETag, or null
+     * @param lastModified The Last-Modified, or null
+     * @throws IOException If the file can't be written
+     */
+    private static void writeMeta(File meta, URL url, String eTag, String lastModified) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(meta), "UTF-8");
+        try {
+            writer.write(url.toString() + '\n');
+            writer.write((null == eTag ? "" : eTag) + '\n');
+            writer.write((null == lastModified ? "" : lastModified) + '\n');
+        } finally {
+            writer.close();
+        }
+    }
+}
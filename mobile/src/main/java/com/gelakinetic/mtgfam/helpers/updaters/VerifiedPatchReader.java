@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Adam Feinstein
+ *
+ * This file is part of MTG Familiar.
+ *
+ * MTG Familiar is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MTG Familiar is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MTG Familiar.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzipped JSON patch and checks it in the same pass, so a corrupted or truncated patch is
+ * rejected before anything from it is written to the database.
+ * <p>
+ * Gson stops reading as soon as it has the object, which left the end of the gzip stream unread,
+ * and with it the CRC-32 and length which GZIPInputStream checks there. So the JSON must be
+ * followed by the end of the document, which makes the gzip stream be read to its end. If there is
+ * an expected SHA-256, the compressed bytes are digested on their way to the inflater.
+ */
+class VerifiedPatchReader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Not instantiable
+     */
+    private VerifiedPatchReader() {
+    }
+
+    /**
+     * Decode a gzipped JSON patch, checking it as it's decoded
+     *
+     * @param compressed The gzipped JSON. It's read to the end but not closed
+     * @param sha256     The hex SHA-256 the compressed bytes must have, or null to only rely on the
+     *                   gzip CRC-32
+     * @param gson       The Gson to decode the JSON with
+     * @param type       The type of the JSON's object
+     * @param <T>        The type of the JSON's object
+     * @return The decoded object, which is never null
+     * @throws IOException If the patch is truncated, corrupted, malformed, empty or has the wrong
+     *                     digest
+     */
+    static <T> T read(InputStream compressed, String sha256, Gson gson, Class<T> type)
+            throws IOException {
+        MessageDigest digest = null;
+        InputStream stream = compressed;
+        if (null != sha256) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                /* Every Java platform must have SHA-256 */
+                throw new IllegalStateException(e);
+            }
+            stream = new DigestInputStream(compressed, digest);
+        }
+
+        T object;
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(
+                    new GZIPInputStream(stream, BUFFER_SIZE), "UTF-8"));
+            object = gson.fromJson(reader, type);
+            /* Reading to the end of the document reads the gzip trailer, which checks the CRC */
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new IOException("Data after the patch");
+            }
+        } catch (JsonParseException e) {
+            /* Gson wraps truncated and malformed JSON in unchecked exceptions */
+            throw new IOException("Malformed patch", e);
+        }
+        if (null == object) {
+            throw new IOException("Empty patch");
+        }
+
+        if (null != digest) {
+            /* Whatever follows the gzip stream is part of the file too */
+            byte[] buffer = new byte[BUFFER_SIZE];
+            //noinspection StatementWithEmptyBody
+            while (stream.read(buffer) != -1) {
+                /* Just digest it */
+            }
+            String actual = ResumableDownloader.toHex(digest.digest());
+            if (!sha256.equalsIgnoreCase(actual)) {
+                throw new IOException("Patch digest " + actual + " doesn't match " + sha256);
+            }
+        }
+        return object;
+    }
+}
@@ -0,0 +1,123 @@
+package com.gelakinetic.mtgfam.helpers.database;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Diff legality tables against updated legality.json contents
+ */
+public class LegalityDiffTest {
+
+    @Test
+    public void identicalRowsMakeEmptyDiff() {
+        LegalityDiff diff = new LegalityDiff(newRows(), newRows());
+
+        assertTrue(diff.isEmpty());
+        assertEquals(0, diff.getDeleteCount());
+        assertEquals(0, diff.getInsertCount());
+        assertTrue(diff.getChangedFormats().isEmpty());
+        assertFalse(diff.isStale("Modern", "Jace, the Mind Sculptor", Collections.singletonList("WWK")));
+    }
+
+    @Test
+    public void banIsOneInsert() {
+        LegalityDiff.Rows downloaded = newRows();
+        downloaded.addLegalCard("Modern", "Hogaak, Arisen Necropolis", CardDbAdapter.BANNED);
+        LegalityDiff diff = new LegalityDiff(newRows(), downloaded);
+
+        assertEquals(0, diff.getDeleteCount());
+        assertEquals(1, diff.getInsertCount());
+        assertEquals(Collections.singleton("Modern"), diff.getChangedFormats());
+        assertEquals(Collections.singleton("Hogaak, Arisen Necropolis"), diff.getChangedCards());
+        assertTrue(diff.getChangedSets().isEmpty());
+
+        assertTrue(diff.isStale("Modern", "Hogaak, Arisen Necropolis", Collections.singletonList("MH1")));
+        assertFalse(diff.isStale("Legacy", "Hogaak, Arisen Necropolis", Collections.singletonList("MH1")));
+        assertFalse(diff.isStale("Modern", "Tarmogoyf", Collections.singletonList("FUT")));
+    }
+
+    @Test
+    public void legalityChangeIsDeleteAndInsert() {
+        LegalityDiff.Rows stored = newRows();
+        stored.addLegalCard("Vintage", "Lodestone Golem", CardDbAdapter.BANNED);
+        LegalityDiff.Rows downloaded = newRows();
+        downloaded.addLegalCard("Vintage", "Lodestone Golem", CardDbAdapter.RESTRICTED);
+        LegalityDiff diff = new LegalityDiff(stored, downloaded);
+
+        assertEquals(1, diff.mLegalCardsRemoved.size());
+        assertEquals(CardDbAdapter.BANNED, diff.mLegalCardsRemoved.get(0).mLegality);
+        assertEquals(1, diff.mLegalCardsAdded.size());
+        assertEquals(CardDbAdapter.RESTRICTED, diff.mLegalCardsAdded.get(0).mLegality);
+        assertEquals(Collections.singleton("Lodestone Golem"), diff.getChangedCards());
+    }
+
+    @Test
+    public void rotationChangesSets() {
+        LegalityDiff.Rows downloaded = newRows();
+        downloaded.mLegalSets.remove(new LegalityDiff.Row("Standard", "XLN", 0));
+        downloaded.addLegalSet("Standard", "ELD");
+        downloaded.addLegalSet("Modern", "ELD");
+        LegalityDiff diff = new LegalityDiff(newRows(), downloaded);
+
+        assertEquals(1, diff.getDeleteCount());
+        assertEquals(2, diff.getInsertCount());
+        assertEquals(new HashSet<>(Arrays.asList("XLN", "ELD")), diff.getChangedSets());
+        assertTrue(diff.getChangedCards().isEmpty());
+
+        /* Every card from a changed set is stale in the changed formats */
+        assertTrue(diff.isStale("Standard", "Growing Rites of Itlimoc", Collections.singletonList("XLN")));
+        assertTrue(diff.isStale("Modern", "Opt", Arrays.asList("INV", "ELD")));
+        assertFalse(diff.isStale("Standard", "Opt", Collections.singletonList("DOM")));
+        assertFalse(diff.isStale("Legacy", "Opt", Collections.singletonList("ELD")));
+    }
+
+    @Test
+    public void removedFormatRemovesItsRows() {
+        LegalityDiff.Rows downloaded = new LegalityDiff.Rows();
+        downloaded.addFormat("Standard");
+        downloaded.addLegalSet("Standard", "XLN");
+        downloaded.addLegalSet("Standard", "DOM");
+        LegalityDiff diff = new LegalityDiff(newRows(), downloaded);
+
+        assertEquals(Collections.singletonList("Modern"), diff.mFormatsRemoved);
+        assertEquals(2, diff.mLegalSetsRemoved.size());
+        assertEquals(1, diff.mLegalCardsRemoved.size());
+        assertEquals(0, diff.getInsertCount());
+
+        /* Every card in a removed format is stale, whether or not it had a row */
+        assertTrue(diff.isStale("Modern", "Opt", Collections.singletonList("INV")));
+        assertFalse(diff.isStale("Standard", "Opt", Collections.singletonList("DOM")));
+    }
+
+    @Test
+    public void cardOnBothListsKeepsFirstLegality() {
+        LegalityDiff.Rows stored = newRows();
+        LegalityDiff.Rows downloaded = newRows();
+        downloaded.addLegalCard("Modern", "Jace, the Mind Sculptor", CardDbAdapter.RESTRICTED);
+
+        assertEquals(stored.mLegalCards, downloaded.mLegalCards);
+        assertTrue(new LegalityDiff(stored, downloaded).isEmpty());
+    }
+
+    /**
+     * @return A small database's worth of legality rows
+     */
+    private static LegalityDiff.Rows newRows() {
+        LegalityDiff.Rows rows = new LegalityDiff.Rows();
+        rows.addFormat("Standard");
+        rows.addFormat("Modern");
+        rows.addLegalSet("Standard", "XLN");
+        rows.addLegalSet("Standard", "DOM");
+        rows.addLegalSet("Modern", "WWK");
+        rows.addLegalSet("Modern", "FUT");
+        rows.addLegalCard("Modern", "Jace, the Mind Sculptor", CardDbAdapter.BANNED);
+        return rows;
+    }
+}
@@ -0,0 +1,127 @@
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test CompletionTracker with many concurrent completions, checking that every batch's
+ * callback runs exactly once, and only after every request in the batch completes
+ */
+public class CompletionTrackerTest {
+
+    private static final int NUM_THREADS = 16;
+    private ExecutorService mPool;
+
+    @Before
+    public void setUp() {
+        mPool = Executors.newFixedThreadPool(NUM_THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdownNow();
+    }
+
+    @Test
+    public void batchCallbackRunsExactlyOnce() throws InterruptedException {
+        int numRounds = 50;
+        int numRequests = 5000;
+        Random random = new Random(0);
+
+        for (int round = 0; round < numRounds; round++) {
+            AtomicInteger callbacks = new AtomicInteger();
+            AtomicInteger completed = new AtomicInteger();
+            AtomicInteger earlyCallbacks = new AtomicInteger();
+            CountDownLatch callbackLatch = new CountDownLatch(1);
+            CompletionTracker tracker = new CompletionTracker(Runnable::run);
+
+            // Begin every request, like a list loading, then complete them all concurrently
+            List<CompletionTracker.Completion> completions = new ArrayList<>(numRequests);
+            for (int i = 0; i < numRequests; i++) {
+                completions.add(tracker.begin(() -> {
+                    if (completed.get() != numRequests) {
+                        earlyCallbacks.incrementAndGet();
+                    }
+                    callbacks.incrementAndGet();
+                    callbackLatch.countDown();
+                }));
+            }
+            Collections.shuffle(completions, random);
+
+            for (CompletionTracker.Completion completion : completions) {
+                mPool.execute(() -> {
+                    // Increment first, so the callback can check everything completed
+                    completed.incrementAndGet();
+                    completion.complete();
+                    // Extra completions, i.e. from both a callback and cancellation, don't count
+                    completion.complete();
+                });
+            }
+
+            assertTrue(callbackLatch.await(10, TimeUnit.SECONDS));
+            // Give any duplicate callback a chance to show up
+            Thread.sleep(5);
+            assertEquals(1, callbacks.get());
+            assertEquals(0, earlyCallbacks.get());
+            assertEquals(0, tracker.getOutstanding());
+        }
+    }
+
+    @Test
+    public void interleavedBatchesAreNotLost() throws InterruptedException {
+        int numRequests = 20000;
+        AtomicInteger callbacks = new AtomicInteger();
+        CompletionTracker tracker = new CompletionTracker(Runnable::run);
+        CountDownLatch allDone = new CountDownLatch(numRequests);
+
+        // Requests begin and complete concurrently, so the outstanding count repeatedly drops to
+        // zero. Every time it does, exactly one callback should run
+        AtomicInteger batchesStarted = new AtomicInteger();
+        for (int i = 0; i < numRequests; i++) {
+            mPool.execute(() -> {
+                CompletionTracker.Completion completion;
+                synchronized (tracker) {
+                    if (0 == tracker.getOutstanding()) {
+                        batchesStarted.incrementAndGet();
+                    }
+                    completion = tracker.begin(callbacks::incrementAndGet);
+                }
+                completion.complete();
+                allDone.countDown();
+            });
+        }
+
+        assertTrue(allDone.await(10, TimeUnit.SECONDS));
+        assertEquals(0, tracker.getOutstanding());
+        assertEquals(batchesStarted.get(), callbacks.get());
+    }
+
+    @Test
+    public void abandonedBatchNeverCallsBack() {
+        AtomicInteger callbacks = new AtomicInteger();
+        CompletionTracker tracker = new CompletionTracker(Runnable::run);
+
+        CompletionTracker.Completion first = tracker.begin(callbacks::incrementAndGet);
+        tracker.abandon();
+        first.complete();
+        assertEquals(0, callbacks.get());
+
+        // The next batch has its own callback
+        tracker.begin(callbacks::incrementAndGet).complete();
+        assertEquals(1, callbacks.get());
+    }
+}
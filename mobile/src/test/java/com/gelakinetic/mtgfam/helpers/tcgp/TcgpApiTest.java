@@ -0,0 +1,267 @@
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.AccessToken;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductDetails;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductInformation;
+import com.gelakinetic.mtgfam.helpers.tcgp.JsonObjects.ProductMarketPrice;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test TcgpApi against a local server pretending to be TCGplayer.com
+ */
+public class TcgpApiTest {
+
+    private HttpServer mServer;
+    private TcgpApi mApi;
+    private final AtomicInteger mTokenRequests = new AtomicInteger();
+    private final Set<Integer> mClientPorts = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger mFailuresRemaining = new AtomicInteger();
+    private final Set<String> mRevokedTokens = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger mSearchRequests = new AtomicInteger();
+    private volatile long mTokenLifetimeMs = 14 * 24 * 60 * 60 * 1000L;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/token", exchange -> {
+            mTokenRequests.incrementAndGet();
+            drainRequest(exchange);
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            String expires = format.format(new Date(System.currentTimeMillis() + mTokenLifetimeMs));
+            respond(exchange, "{\"access_token\":\"token" + mTokenRequests.get() +
+                    "\",\"token_type\":\"bearer\",\".expires\":\"" + expires + "\"}");
+        });
+        mServer.createContext("/v1.19.0/pricing/product/", exchange -> {
+            mClientPorts.add(exchange.getRemoteAddress().getPort());
+            drainRequest(exchange);
+            String auth = exchange.getRequestHeaders().getFirst("Authorization");
+            if (mRevokedTokens.contains(auth)) {
+                respond(exchange, 401, "{\"success\":false,\"errors\":[\"Unauthorized\"],\"results\":[]}");
+                return;
+            }
+            respond(exchange, "{\"success\":true,\"errors\":[],\"results\":[{\"productId\":1," +
+                    "\"marketPrice\":1.25,\"subTypeName\":\"" + auth + "\"}]}");
+        });
+        mServer.createContext("/v1.19.0/catalog/products/", exchange -> {
+            drainRequest(exchange);
+            // Fail the first mFailuresRemaining requests with a 503
+            if (mFailuresRemaining.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            respond(exchange, "{\"success\":true,\"errors\":[],\"results\":[{\"productId\":1," +
+                    "\"name\":\"Lightning Bolt\"}]}");
+        });
+        mServer.createContext("/v1.19.0/catalog/categories/1/search", exchange -> {
+            mSearchRequests.incrementAndGet();
+            drainRequest(exchange);
+            respond(exchange, 404, "{\"success\":false,\"errors\":[\"No products were found.\"],\"results\":[]}");
+        });
+        mServer.start();
+        mApi = new TcgpApi("http://127.0.0.1:" + mServer.getAddress().getPort() + "/",
+                new TcgpRequestScheduler(1000, 1000, 1, 4, 1000, 4, 200));
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * Read and discard the request body
+     */
+    private static void drainRequest(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] buf = new byte[1024];
+        //noinspection StatementWithEmptyBody
+        while (in.read(buf) > 0) {
+        }
+        in.close();
+    }
+
+    /**
+     * Respond with the given body, gzipped if the client asked for it
+     */
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        respond(exchange, 200, body);
+    }
+
+    /**
+     * Respond with the given status and body, gzipped if the client asked for it
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (null != encoding && encoding.contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+            gzip.write(bytes);
+            gzip.close();
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    @Test
+    public void tokenIsRequestedOnceAndReused() throws IOException {
+        assertFalse(mApi.isTokenValid());
+
+        AccessToken token = mApi.getAccessToken("public", "private", "access");
+        assertNotNull(token);
+        assertEquals("token1", token.access_token);
+        assertTrue(mApi.isTokenValid());
+
+        // A valid token shouldn't be requested again
+        assertNull(mApi.getAccessToken("public", "private", "access"));
+        assertEquals(1, mTokenRequests.get());
+    }
+
+    @Test
+    public void tokenIsRefreshedBeforeExpiry() throws IOException {
+        // This token expires inside the refresh margin, so it's already considered invalid
+        mTokenLifetimeMs = TcgpApi.TOKEN_REFRESH_MARGIN_MS / 2;
+        mApi.getAccessToken("public", "private", "access");
+        assertFalse(mApi.isTokenValid());
+
+        mTokenLifetimeMs = 14 * 24 * 60 * 60 * 1000L;
+        AccessToken token = mApi.getAccessToken("public", "private", "access");
+        assertNotNull(token);
+        assertEquals("token2", token.access_token);
+        assertTrue(mApi.isTokenValid());
+    }
+
+    @Test
+    public void gzipResponsesAreDecodedOnKeptAliveConnections() throws IOException {
+        mApi.getAccessToken("public", "private", "access");
+
+        int numRequests = 20;
+        for (int i = 0; i < numRequests; i++) {
+            ProductMarketPrice price = mApi.getProductMarketPrice(new long[]{1, 2});
+            assertNotNull(price);
+            assertEquals(1, price.results.length);
+            assertEquals(1.25, price.results[0].marketPrice, 0.001);
+            assertEquals("bearer token1", price.results[0].subTypeName);
+        }
+
+        // Sequential requests should share a pooled connection rather than open new ones
+        assertEquals(1, mClientPorts.size());
+
+        LatencyHistogram latencies = mApi.getLatencyHistogram(TcgpApi.Endpoint.PRICING);
+        assertEquals(numRequests, latencies.getCount());
+        assertEquals(1, mApi.getLatencyHistogram(TcgpApi.Endpoint.TOKEN).getCount());
+        assertEquals(0, mApi.getLatencyHistogram(TcgpApi.Endpoint.SEARCH).getCount());
+    }
+
+    @Test
+    public void serverErrorsAreRetried() throws IOException {
+        mApi.getAccessToken("public", "private", "access");
+
+        // Two failures are under both the retry limit and the circuit breaker threshold
+        mFailuresRemaining.set(2);
+        ProductDetails details = mApi.getProductDetails(new long[]{1});
+        assertNotNull(details);
+        assertEquals("Lightning Bolt", details.results[0].name);
+        assertEquals(3, mApi.getLatencyHistogram(TcgpApi.Endpoint.DETAILS).getCount());
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mApi.getScheduler().getCircuitState());
+    }
+
+    @Test
+    public void circuitOpensAndRecovers() throws IOException, InterruptedException {
+        mApi.getAccessToken("public", "private", "access");
+
+        // Four failures exhaust the retries and open the circuit
+        mFailuresRemaining.set(4);
+        try {
+            mApi.getProductDetails(new long[]{1});
+            fail("Expected the request to fail");
+        } catch (IOException e) {
+            assertFalse(e instanceof TcgpRequestScheduler.CircuitOpenException);
+        }
+        assertEquals(TcgpRequestScheduler.CircuitState.OPEN, mApi.getScheduler().getCircuitState());
+
+        // While open, requests fail fast without reaching the server
+        try {
+            mApi.getProductDetails(new long[]{1});
+            fail("Expected the circuit to be open");
+        } catch (TcgpRequestScheduler.CircuitOpenException e) {
+            // Expected
+        }
+        assertEquals(4, mApi.getLatencyHistogram(TcgpApi.Endpoint.DETAILS).getCount());
+
+        // After the open duration, a trial request closes the circuit again
+        Thread.sleep(250);
+        assertNotNull(mApi.getProductDetails(new long[]{1}));
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mApi.getScheduler().getCircuitState());
+    }
+
+    @Test
+    public void clientErrorsAreReturnedWithoutRetrying() throws IOException {
+        mApi.getAccessToken("public", "private", "access");
+
+        ProductInformation information = mApi.getProductInformation("Not A Card", null);
+        assertNotNull(information);
+        assertEquals(1, information.errors.length);
+        assertEquals("No products were found.", information.errors[0]);
+        assertEquals(1, mSearchRequests.get());
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mApi.getScheduler().getCircuitState());
+    }
+
+    @Test
+    public void rejectedTokenIsRefreshedOnce() throws IOException {
+        mApi.getAccessToken("public", "private", "access");
+        mRevokedTokens.add("bearer token1");
+
+        ProductMarketPrice price = mApi.getProductMarketPrice(new long[]{1});
+        assertEquals("bearer token2", price.results[0].subTypeName);
+        assertEquals(2, mTokenRequests.get());
+        assertEquals(2, mApi.getLatencyHistogram(TcgpApi.Endpoint.PRICING).getCount());
+
+        // If the new token is rejected too, give up rather than requesting more
+        mRevokedTokens.add("bearer token2");
+        mRevokedTokens.add("bearer token3");
+        try {
+            mApi.getProductMarketPrice(new long[]{1});
+            fail("Expected the token to be rejected");
+        } catch (TcgpApi.UnauthorizedException e) {
+            // Expected
+        }
+        assertEquals(3, mTokenRequests.get());
+        assertEquals(4, mApi.getLatencyHistogram(TcgpApi.Endpoint.PRICING).getCount());
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mApi.getScheduler().getCircuitState());
+    }
+}
@@ -0,0 +1,111 @@
+package com.gelakinetic.mtgfam.helpers.tcgp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Make sure only the trial request moves the circuit breaker out of HALF_OPEN
+ */
+public class TcgpRequestSchedulerTest {
+
+    private static final long OPEN_DURATION_MS = 50;
+
+    private TcgpRequestScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TcgpRequestScheduler(1000, 1000, 1, 8, 1000, 2, OPEN_DURATION_MS);
+    }
+
+    @Test
+    public void lateSuccessDoesNotCloseTheCircuit() throws IOException, InterruptedException {
+        TcgpRequestScheduler.Permit late = mScheduler.acquire();
+        TcgpRequestScheduler.Permit trial = openThenAcquireTrial();
+
+        // A request from before the circuit opened finishes first
+        mScheduler.release(late, 10, true);
+        assertEquals(TcgpRequestScheduler.CircuitState.HALF_OPEN, mScheduler.getCircuitState());
+        assertTrialInFlight();
+
+        mScheduler.release(trial, 10, true);
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mScheduler.getCircuitState());
+    }
+
+    @Test
+    public void lateFailureDoesNotReopenTheCircuit() throws IOException, InterruptedException {
+        TcgpRequestScheduler.Permit late = mScheduler.acquire();
+        TcgpRequestScheduler.Permit trial = openThenAcquireTrial();
+
+        mScheduler.release(late, 10, false);
+        assertEquals(TcgpRequestScheduler.CircuitState.HALF_OPEN, mScheduler.getCircuitState());
+        assertTrialInFlight();
+
+        mScheduler.release(trial, 10, false);
+        assertEquals(TcgpRequestScheduler.CircuitState.OPEN, mScheduler.getCircuitState());
+    }
+
+    @Test
+    public void abandonedTrialLetsAnotherThrough() throws IOException, InterruptedException {
+        TcgpRequestScheduler.Permit trial = openThenAcquireTrial();
+
+        // An interrupted trial says nothing about the server, so the next request is the trial
+        mScheduler.abandon(trial);
+        assertEquals(TcgpRequestScheduler.CircuitState.HALF_OPEN, mScheduler.getCircuitState());
+        TcgpRequestScheduler.Permit nextTrial = mScheduler.acquire();
+        assertTrialInFlight();
+
+        mScheduler.release(nextTrial, 10, true);
+        assertEquals(TcgpRequestScheduler.CircuitState.CLOSED, mScheduler.getCircuitState());
+    }
+
+    @Test
+    public void abandonedRequestsDoNotCloseTheCircuit() throws IOException {
+        // Open the circuit
+        for (int i = 0; i < 2; i++) {
+            mScheduler.release(mScheduler.acquire(), 10, false);
+        }
+        assertEquals(TcgpRequestScheduler.CircuitState.OPEN, mScheduler.getCircuitState());
+
+        try {
+            mScheduler.abandon(mScheduler.acquire());
+            fail("Expected the circuit to be open");
+        } catch (TcgpRequestScheduler.CircuitOpenException e) {
+            // Expected
+        }
+        assertEquals(TcgpRequestScheduler.CircuitState.OPEN, mScheduler.getCircuitState());
+    }
+
+    /**
+     * Fail enough requests to open the circuit, wait out the open duration, then take the trial
+     *
+     * @return The trial's permit
+     */
+    private TcgpRequestScheduler.Permit openThenAcquireTrial() throws IOException, InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            mScheduler.release(mScheduler.acquire(), 10, false);
+        }
+        assertEquals(TcgpRequestScheduler.CircuitState.OPEN, mScheduler.getCircuitState());
+
+        Thread.sleep(OPEN_DURATION_MS + 10);
+        TcgpRequestScheduler.Permit trial = mScheduler.acquire();
+        assertEquals(TcgpRequestScheduler.CircuitState.HALF_OPEN, mScheduler.getCircuitState());
+        return trial;
+    }
+
+    /**
+     * Make sure a second trial isn't let through while one is in flight
+     */
+    private void assertTrialInFlight() throws IOException {
+        try {
+            mScheduler.abandon(mScheduler.acquire());
+            fail("Expected only one trial request");
+        } catch (TcgpRequestScheduler.CircuitOpenException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test ResumableDownloader against a local server which drops connections partway through a
+ * response, ignores ranges, or changes the file between requests
+ */
+public class ResumableDownloaderTest {
+
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    private HttpServer mServer;
+    private File mDirectory;
+    private File mDestination;
+    private URL mUrl;
+
+    /* What the server is serving, and its ETag */
+    private volatile byte[] mBody;
+    private volatile String mETag = "\"v1\"";
+
+    /* How many more responses to cut off, and after how many bytes of the response */
+    private final AtomicInteger mDisconnectsRemaining = new AtomicInteger();
+    private volatile int mDisconnectAfter = 0;
+
+    /* Whether the server pretends it can't send ranges */
+    private volatile boolean mIgnoreRanges = false;
+
+    /* A change to make to the served file after the next response */
+    private volatile byte[] mNextBody = null;
+
+    /* The Range header of every request, or "" if there wasn't one */
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        mBody = randomBytes(FILE_SIZE, 1);
+        mDirectory = Files.createTempDirectory("downloads").toFile();
+        mDestination = new File(mDirectory, "patch.json.gz");
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/patch.json.gz", this::serve);
+        mServer.createContext("/missing", exchange -> {
+            mRanges.add("");
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/patch.json.gz");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    @Test
+    public void downloadsWholeFile() throws IOException {
+        ResumableDownloader.Result result = newDownloader(3).download(mUrl, mDestination, sha256(mBody), null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(mDestination.toPath()));
+        assertEquals(FILE_SIZE, result.mLength);
+        assertEquals(FILE_SIZE, result.mBytesTransferred);
+        assertEquals(0, result.mBytesRefetched);
+        assertEquals(1, result.mAttempts);
+        assertEquals(0, result.mResumes);
+        assertFalse(ResumableDownloader.hasPartial(mDestination));
+    }
+
+    @Test
+    public void resumesAfterDisconnects() throws IOException {
+        mDisconnectsRemaining.set(3);
+        mDisconnectAfter = 100 * 1024;
+
+        ResumableDownloader.Result result = newDownloader(5).download(mUrl, mDestination, sha256(mBody), null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(mDestination.toPath()));
+        assertEquals(4, result.mAttempts);
+        assertEquals(3, result.mResumes);
+        /* Every byte was only sent once */
+        assertEquals(FILE_SIZE, result.mBytesTransferred);
+        assertEquals(0, result.mBytesRefetched);
+        assertEquals("", mRanges.get(0));
+        assertEquals("bytes=" + (100 * 1024) + "-", mRanges.get(1));
+        assertEquals("bytes=" + (200 * 1024) + "-", mRanges.get(2));
+        assertEquals("bytes=" + (300 * 1024) + "-", mRanges.get(3));
+    }
+
+    @Test
+    public void startsOverWhenServerIgnoresRanges() throws IOException {
+        mIgnoreRanges = true;
+        mDisconnectsRemaining.set(1);
+        mDisconnectAfter = 300 * 1024;
+
+        ResumableDownloader.Result result = newDownloader(3).download(mUrl, mDestination, sha256(mBody), null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(mDestination.toPath()));
+        assertEquals(2, result.mAttempts);
+        assertEquals(0, result.mResumes);
+        assertEquals(FILE_SIZE + 300 * 1024, result.mBytesTransferred);
+        assertEquals(300 * 1024, result.mBytesRefetched);
+    }
+
+    @Test
+    public void startsOverWhenFileChanges() throws IOException {
+        byte[] newBody = randomBytes(FILE_SIZE / 2, 2);
+        mDisconnectsRemaining.set(1);
+        mDisconnectAfter = 200 * 1024;
+        mNextBody = newBody;
+
+        ResumableDownloader.Result result = newDownloader(3).download(mUrl, mDestination, null, null);
+
+        /* The resume was sent with If-Range, so the new file came back whole instead of spliced */
+        assertArrayEquals(newBody, Files.readAllBytes(mDestination.toPath()));
+        assertEquals(0, result.mResumes);
+        assertEquals(200 * 1024, result.mBytesRefetched);
+    }
+
+    @Test
+    public void rejectsDigestMismatch() throws IOException {
+        byte[] wrong = mBody.clone();
+        wrong[12345] ^= 0x01;
+
+        try {
+            newDownloader(2).download(mUrl, mDestination, sha256(wrong), null);
+            fail("A file with the wrong digest was accepted");
+        } catch (IOException e) {
+            /* expected */
+        }
+        assertFalse(mDestination.exists());
+        assertFalse(ResumableDownloader.hasPartial(mDestination));
+        assertEquals(2, mRanges.size());
+        /* A bad file isn't resumed, it's fetched again from the start */
+        assertEquals("", mRanges.get(1));
+    }
+
+    @Test
+    public void resumesPartialFromEarlierUpdate() throws IOException {
+        mDisconnectsRemaining.set(1);
+        mDisconnectAfter = 400 * 1024;
+        try {
+            newDownloader(1).download(mUrl, mDestination, sha256(mBody), null);
+            fail("The download finished despite being cut off");
+        } catch (IOException e) {
+            /* expected */
+        }
+        assertFalse(mDestination.exists());
+        assertTrue(ResumableDownloader.hasPartial(mDestination));
+
+        ResumableDownloader.Result result = newDownloader(1).download(mUrl, mDestination, sha256(mBody), null);
+
+        assertArrayEquals(mBody, Files.readAllBytes(mDestination.toPath()));
+        assertEquals(400 * 1024, result.mBytesReused);
+        assertEquals(FILE_SIZE - 400 * 1024, result.mBytesTransferred);
+        assertEquals(0, result.mBytesRefetched);
+        assertEquals(1, result.mResumes);
+    }
+
+    @Test
+    public void missingFileIsNotRetried() throws IOException {
+        try {
+            newDownloader(5).download(new URL(mUrl, "/missing"), mDestination, null, null);
+            fail("A missing file was downloaded");
+        } catch (FileNotFoundException e) {
+            /* expected */
+        }
+        assertEquals(1, mRanges.size());
+    }
+
+    /**
+     * Serve mBody, honoring Range and If-Range unless told not to, and cutting the response off
+     * if there are disconnects remaining
+     *
+     * @param exchange The request to respond to
+     * @throws IOException If the response can't be sent
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        mRanges.add(null == range ? "" : range);
+
+        byte[] body = mBody;
+        int start = 0;
+        int status = 200;
+        if (null != range && !mIgnoreRanges && (null == ifRange || ifRange.equals(mETag))) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            if (start >= body.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + body.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+        }
+        exchange.getResponseHeaders().set("ETag", mETag);
+        exchange.sendResponseHeaders(status, body.length - start);
+
+        int length = body.length - start;
+        if (mDisconnectsRemaining.getAndDecrement() > 0) {
+            length = Math.min(length, mDisconnectAfter);
+        }
+        OutputStream out = exchange.getResponseBody();
+        out.write(body, start, length);
+        out.flush();
+
+        if (null != mNextBody) {
+            mBody = mNextBody;
+            mETag = "\"v2\"";
+            mNextBody = null;
+        }
+
+        /* Closing a response with bytes missing drops the connection */
+        exchange.close();
+    }
+
+    /**
+     * @param maxAttempts How many requests the downloader may make
+     * @return A downloader which doesn't wait between attempts
+     */
+    private static ResumableDownloader newDownloader(int maxAttempts) {
+        return new ResumableDownloader("MTG Familiar/test", maxAttempts, 0);
+    }
+
+    /**
+     * @param length How many bytes to make
+     * @param seed   The random seed, so tests are repeatable
+     * @return Random bytes
+     */
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @param bytes Bytes to digest
+     * @return The bytes' SHA-256 digest in hex
+     */
+    private static String sha256(byte[] bytes) {
+        try {
+            return ResumableDownloader.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parse comprehensive rules, from a short document and from a full size fixture
+ */
+public class RulesParserTest {
+
+    private static final String RULES_TOKEN = "RULES_VERYLONGSTRINGOFLETTERSUNLIKELYTOBEFOUNDINTHEACTUALRULES";
+    private static final String GLOSSARY_TOKEN = "GLOSSARY_VERYLONGSTRINGOFLETTERSUNLIKELYTOBEFOUNDINTHEACTUALRULES";
+    private static final String EOF_TOKEN = "EOF_VERYLONGSTRINGOFLETTERSUNLIKELYTOBEFOUNDINTHEACTUALRULES";
+
+    /* About the size of the real rules: ~9000 rules and subrules and ~700 glossary terms */
+    private static final int SECTIONS = 9;
+    private static final int RULES_PER_SECTION = 50;
+    private static final int SUBRULES_PER_RULE = 20;
+    private static final int GLOSSARY_TERMS = 700;
+
+    /* What BufferedReader and InputStreamReader may read ahead of the line being parsed */
+    private static final int READ_AHEAD = 2 * 8192;
+
+    private static final String SHORT_RULES = "2018-10-05\n" +
+            "Magic: The Gathering Comprehensive Rules\n" +
+            RULES_TOKEN + "\n" +
+            "1. Game Concepts\n" +
+            "\n" +
+            "100. General\n" +
+            "\n" +
+            "100.1. These Magic rules apply to any Magic game with two or more players.\n" +
+            "\n" +
+            "100.1a A two-player game is a game that begins with only two players.\n" +
+            "Example: A {P/W} and a {W/P} and a {PW} symbol.\n" +
+            "\n" +
+            "100.2. To play, each player needs their own deck.\n" +
+            "\n" +
+            GLOSSARY_TOKEN + "\n" +
+            "Abandon\n" +
+            "To turn a face-up ongoing scheme card face down.\n" +
+            "See rule 701.24.\n" +
+            "\n" +
+            "Ability\n" +
+            "Text on an object that explains what that object does.\n" +
+            EOF_TOKEN + "\n";
+
+    private File mFixture;
+
+    /* The offset in the fixture just past the end of each rule and term, in the order they're read */
+    private final List<Long> mItemEnds = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mFixture = File.createTempFile("MagicCompRules", ".txt");
+        writeFixture(mFixture);
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(mFixture.delete());
+    }
+
+    @Test
+    public void parsesRulesAndGlossary() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        assertTrue(newParser(new ByteArrayInputStream(SHORT_RULES.getBytes("UTF-8")), SHORT_RULES.length())
+                .parseRules(sink, null));
+
+        assertEquals(5, sink.mRules.size());
+        RulesParser.RuleItem category = sink.mRules.get(0);
+        assertEquals(1, category.category);
+        assertEquals(-1, category.subcategory);
+        assertNull(category.entry);
+        assertEquals("Game Concepts", category.text);
+
+        RulesParser.RuleItem subcategory = sink.mRules.get(1);
+        assertEquals(1, subcategory.category);
+        assertEquals(0, subcategory.subcategory);
+        assertEquals(-1, subcategory.position);
+
+        RulesParser.RuleItem example = sink.mRules.get(3);
+        assertEquals("1a", example.entry);
+        assertEquals(1, example.position);
+        assertEquals("A two-player game is a game that begins with only two players.<br><br>" +
+                "Example: A {PW} and a {WP} and a {PWK} symbol.", example.text);
+
+        assertEquals(2, sink.mTerms.size());
+        assertEquals("Abandon", sink.mTerms.get(0).term);
+        assertEquals("To turn a face-up ongoing scheme card face down.<br>See rule 701.24.",
+                sink.mTerms.get(0).definition);
+        assertEquals("Ability", sink.mTerms.get(1).term);
+    }
+
+    @Test
+    public void rejectsTruncatedRules() throws Exception {
+        for (String end : new String[]{GLOSSARY_TOKEN, "Abandon", EOF_TOKEN}) {
+            String truncated = SHORT_RULES.substring(0, SHORT_RULES.indexOf(end));
+            assertFalse("Rules cut off before " + end + " were accepted",
+                    newParser(new ByteArrayInputStream(truncated.getBytes("UTF-8")), truncated.length())
+                            .parseRules(new RecordingSink(), null));
+        }
+    }
+
+    @Test
+    public void streamsFullRulesFile() throws Exception {
+        final CountingStream stream = new CountingStream(new FileInputStream(mFixture));
+        final List<Integer> progress = new ArrayList<>();
+        RulesParser parser = new RulesParser(new Date(0), progress::add);
+        parser.open(stream, mFixture.length());
+
+        /* Each rule and term must arrive before the parser has read much past its end, which is
+         * what keeps memory flat however long the rules are */
+        RecordingSink sink = new RecordingSink() {
+            @Override
+            void check(int index) {
+                long end = mItemEnds.get(index);
+                assertTrue("Item " + index + " arrived after " + stream.mCount + " bytes, it ends at " + end,
+                        stream.mCount <= end + READ_AHEAD);
+            }
+        };
+        sink.mKeep = false;
+
+        assertTrue(parser.parseRules(sink, null));
+
+        int expectedRules = SECTIONS * (1 + RULES_PER_SECTION * (2 + SUBRULES_PER_RULE));
+        assertEquals(expectedRules, sink.mRuleCount);
+        assertEquals(GLOSSARY_TERMS, sink.mTermCount);
+        assertEquals(mItemEnds.size(), sink.mRuleCount + sink.mTermCount);
+
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+        assertTrue(progress.get(progress.size() - 1) >= 99);
+    }
+
+    /**
+     * @param stream The rules
+     * @param length The length of the rules, for progress
+     * @return A parser ready to parse the rules
+     */
+    private static RulesParser newParser(InputStream stream, long length) {
+        RulesParser parser = new RulesParser(new Date(0), progress -> {
+        });
+        parser.open(stream, length);
+        return parser;
+    }
+
+    /**
+     * Write a document in the comprehensive rules' format which is as big as the real thing, and
+     * note where each rule and term ends
+     *
+     * @param file The file to write
+     * @throws IOException If it can't be written
+     */
+    private void writeFixture(File file) throws IOException {
+        StringBuilder document = new StringBuilder();
+        document.append("2018-10-05\nMagic: The Gathering Comprehensive Rules\n\nIntroduction\n\n")
+                .append(RULES_TOKEN).append('\n');
+        for (int section = 1; section <= SECTIONS; section++) {
+            appendItem(document, section + ". Section " + section);
+            for (int rule = 0; rule < RULES_PER_SECTION; rule++) {
+                int number = section * 100 + rule;
+                appendItem(document, number + ". Rule " + number);
+                appendItem(document, number + ".1. The first rule of " + number + ", which says what " +
+                        "happens when a player casts a spell with {P/W} in its mana cost.");
+                for (int subrule = 0; subrule < SUBRULES_PER_RULE; subrule++) {
+                    appendItem(document, number + ".1" + (char) ('a' + subrule) + " A subrule which " +
+                            "explains a corner case of the rule above it at some length, so that the " +
+                            "whole document is about as long as the real comprehensive rules are.\n" +
+                            "Example: A player controls a permanent with an ability which does something.");
+                }
+            }
+        }
+        document.append(GLOSSARY_TOKEN).append('\n');
+        for (int term = 0; term < GLOSSARY_TERMS; term++) {
+            appendItem(document, "Term " + term + "\nWhat the term means, in a sentence or two.\n" +
+                    "See rule " + (100 + term % 900) + ".1.");
+        }
+        document.append(EOF_TOKEN).append('\n');
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(document.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param document The document to append to
+     * @param item     A rule or term, which is followed by a blank line
+     */
+    private void appendItem(StringBuilder document, String item) {
+        document.append(item).append("\n\n");
+        /* The fixture is ASCII, so characters are bytes */
+        mItemEnds.add((long) document.length());
+    }
+
+    /**
+     * Keeps or counts what the parser hands it
+     */
+    private static class RecordingSink implements RulesParser.RulesSink {
+        final List<RulesParser.RuleItem> mRules = new ArrayList<>();
+        final List<RulesParser.GlossaryItem> mTerms = new ArrayList<>();
+        boolean mKeep = true;
+        int mRuleCount = 0;
+        int mTermCount = 0;
+
+        @Override
+        public void addRule(RulesParser.RuleItem rule) {
+            check(mRuleCount + mTermCount);
+            mRuleCount++;
+            if (mKeep) {
+                mRules.add(rule);
+            }
+        }
+
+        @Override
+        public void addGlossaryTerm(RulesParser.GlossaryItem term) {
+            check(mRuleCount + mTermCount);
+            mTermCount++;
+            if (mKeep) {
+                mTerms.add(term);
+            }
+        }
+
+        /**
+         * @param index How many rules and terms came before this one
+         */
+        void check(int index) {
+        }
+    }
+
+    /**
+     * Counts the bytes the parser has read
+     */
+    private static class CountingStream extends FilterInputStream {
+        long mCount = 0;
+
+        CountingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                mCount++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+    }
+}
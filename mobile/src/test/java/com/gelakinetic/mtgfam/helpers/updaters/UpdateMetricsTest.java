@@ -0,0 +1,157 @@
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measure fake updates, and keep their history
+ */
+public class UpdateMetricsTest {
+
+    private File mDirectory;
+    private File mHistory;
+
+    /* What the fake downloaders have done so far */
+    private long mBytes = 0;
+    private int mRetries = 0;
+
+    private final UpdateMetrics.Counters mCounters = new UpdateMetrics.Counters() {
+        @Override
+        public long getBytesDownloaded() {
+            return mBytes;
+        }
+
+        @Override
+        public int getRetries() {
+            return mRetries;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("metrics").toFile();
+        mHistory = new File(mDirectory, UpdateMetrics.HISTORY_FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    @Test
+    public void phasesAddUpAcrossSets() throws InterruptedException {
+        mBytes = 1000;
+        UpdateMetrics metrics = new UpdateMetrics("1.0", 10, mCounters);
+
+        /* Two sets, the second of which needed a retry */
+        for (int set = 0; set < 2; set++) {
+            UpdateMetrics.Timer download = metrics.start(UpdateMetrics.PHASE_DOWNLOAD);
+            mBytes += 500;
+            mRetries += set;
+            download.stop(1);
+
+            UpdateMetrics.Timer insert = metrics.start(UpdateMetrics.PHASE_INSERT);
+            Thread.sleep(20);
+            metrics.addCommitTime(UpdateMetrics.PHASE_INSERT, 5);
+            insert.stop(300);
+        }
+
+        UpdateMetrics.Timer rules = metrics.start(UpdateMetrics.PHASE_RULES);
+        rules.stop(0);
+        /* Stopping again doesn't count twice */
+        rules.stop(100);
+
+        UpdateMetrics.Run run = metrics.finish(true);
+        assertEquals("1.0", run.mAppVersion);
+        assertEquals(10, run.mVersionCode);
+        assertTrue(run.mSucceeded);
+        assertEquals(1000, run.mBytesDownloaded);
+        assertEquals(1, run.mRetries);
+        assertTrue(run.mWallMs >= 40);
+
+        /* In the order they first ran */
+        assertEquals(3, run.mPhases.size());
+        UpdateMetrics.Phase download = run.mPhases.get(0);
+        assertEquals(UpdateMetrics.PHASE_DOWNLOAD, download.mName);
+        assertEquals(2, download.mCount);
+        assertEquals(1000, download.mBytesDownloaded);
+        assertEquals(1, download.mRetries);
+        assertEquals(2, download.mItems);
+
+        UpdateMetrics.Phase insert = run.mPhases.get(1);
+        assertEquals(600, insert.mItems);
+        assertEquals(10, insert.mCommitMs);
+        assertEquals(0, insert.mBytesDownloaded);
+        assertTrue(insert.mWallMs >= 40);
+        assertEquals(1000.0 * insert.mItems / insert.mWallMs, insert.mItemsPerSecond, 0.001);
+
+        UpdateMetrics.Phase rulesPhase = run.mPhases.get(2);
+        assertEquals(1, rulesPhase.mCount);
+        assertEquals(0, rulesPhase.mItems);
+    }
+
+    @Test
+    public void historyKeepsRecentRuns() throws IOException {
+        for (int i = 0; i < UpdateMetrics.MAX_RUNS + 5; i++) {
+            UpdateMetrics metrics = new UpdateMetrics("1." + i, i, mCounters);
+            metrics.start(UpdateMetrics.PHASE_MANIFEST).stop(i);
+            UpdateMetrics.appendToHistory(mHistory, metrics.finish(i % 2 == 0));
+        }
+
+        List<UpdateMetrics.Run> runs = UpdateMetrics.readHistory(mHistory);
+        assertEquals(UpdateMetrics.MAX_RUNS, runs.size());
+        /* The oldest were dropped, and the rest are oldest first */
+        assertEquals(5, runs.get(0).mVersionCode);
+        assertEquals("1.5", runs.get(0).mAppVersion);
+        assertFalse(runs.get(0).mSucceeded);
+        UpdateMetrics.Run last = runs.get(runs.size() - 1);
+        assertEquals(UpdateMetrics.MAX_RUNS + 4, last.mVersionCode);
+        assertEquals(UpdateMetrics.PHASE_MANIFEST, last.mPhases.get(0).mName);
+        assertEquals(UpdateMetrics.MAX_RUNS + 4, last.mPhases.get(0).mItems);
+
+        assertFalse(new File(mHistory.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void badLinesAreSkipped() throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mHistory), "UTF-8");
+        try {
+            writer.write("{\"appVersion\":\"0.9\",\"versionCode\":9,\"phases\":[]}\n");
+            writer.write("{\"appVersion\":\"0.9\",\"versi\n");
+            writer.write("\n");
+        } finally {
+            writer.close();
+        }
+
+        UpdateMetrics.appendToHistory(mHistory, new UpdateMetrics("1.0", 10, mCounters).finish(true));
+
+        List<UpdateMetrics.Run> runs = UpdateMetrics.readHistory(mHistory);
+        assertEquals(2, runs.size());
+        assertEquals(9, runs.get(0).mVersionCode);
+        assertEquals(10, runs.get(1).mVersionCode);
+    }
+
+    @Test
+    public void missingHistoryIsEmpty() throws IOException {
+        assertTrue(UpdateMetrics.readHistory(mHistory).isEmpty());
+    }
+}
@@ -0,0 +1,321 @@
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Test UpdaterHttpCache against a local server which answers conditional requests
+ */
+public class UpdaterHttpCacheTest {
+
+    private static final String LAST_MODIFIED = "Mon, 01 Oct 2018 00:00:00 GMT";
+
+    private HttpServer mServer;
+    private File mDirectory;
+    private URL mUrl;
+
+    /* What the server is serving, and its validators. A null validator isn't sent */
+    private volatile byte[] mBody = "{\"timestamp\":1}".getBytes();
+    private volatile String mETag = "\"v1\"";
+    private volatile String mLastModified = LAST_MODIFIED;
+
+    /* The status to answer with instead of the file, or 0 to serve it */
+    private volatile int mFailWith = 0;
+
+    /* Whether to drop the next response halfway through its body */
+    private volatile boolean mCutOff = false;
+
+    /* Whether the file changes on the server right after the next response is dropped */
+    private volatile boolean mChangeAfterCutOff = false;
+
+    /* The conditional headers of every request, as "If-None-Match|If-Modified-Since" */
+    private final List<String> mConditions = Collections.synchronizedList(new ArrayList<>());
+
+    /* The Range header of every request, or "" when there wasn't one */
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("updates").toFile();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/legality.json", this::serve);
+        mServer.start();
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/legality.json");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        File[] files = mDirectory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    @Test
+    public void unchangedFileIsNotTransferredAgain() throws IOException {
+        UpdaterHttpCache cache = newCache();
+
+        UpdaterHttpCache.Response first = cache.fetch(mUrl, null);
+        assertTrue(first.mIsModified);
+        assertEquals(mBody.length, first.mBytesTransferred);
+
+        UpdaterHttpCache.Response second = cache.fetch(mUrl, null);
+        assertFalse(second.mIsModified);
+        assertEquals(0, second.mBytesTransferred);
+        assertArrayEquals(mBody, read(second));
+
+        assertEquals("|", mConditions.get(0));
+        assertEquals("\"v1\"|" + LAST_MODIFIED, mConditions.get(1));
+        assertEquals(mBody.length, cache.getBytesTransferred());
+    }
+
+    @Test
+    public void cacheSurvivesBetweenUpdates() throws IOException {
+        newCache().fetch(mUrl, null);
+
+        /* A new update makes a new cache over the same directory */
+        UpdaterHttpCache.Response response = newCache().fetch(mUrl, null);
+        assertFalse(response.mIsModified);
+        assertArrayEquals(mBody, read(response));
+    }
+
+    @Test
+    public void changedFileIsTransferred() throws IOException {
+        UpdaterHttpCache cache = newCache();
+        cache.fetch(mUrl, null);
+
+        mBody = "{\"timestamp\":2}".getBytes();
+        mETag = "\"v2\"";
+        UpdaterHttpCache.Response response = cache.fetch(mUrl, null);
+        assertTrue(response.mIsModified);
+        assertArrayEquals(mBody, read(response));
+
+        /* The new validator replaced the old one */
+        assertFalse(cache.fetch(mUrl, null).mIsModified);
+        assertEquals("\"v2\"|" + LAST_MODIFIED, mConditions.get(2));
+    }
+
+    @Test
+    public void lastModifiedIsUsedWithoutETag() throws IOException {
+        mETag = null;
+        UpdaterHttpCache cache = newCache();
+        cache.fetch(mUrl, null);
+
+        assertFalse(cache.fetch(mUrl, null).mIsModified);
+        assertEquals("|" + LAST_MODIFIED, mConditions.get(1));
+    }
+
+    @Test
+    public void fileWithoutValidatorsIsAlwaysTransferred() throws IOException {
+        mETag = null;
+        mLastModified = null;
+        UpdaterHttpCache cache = newCache();
+        cache.fetch(mUrl, null);
+
+        UpdaterHttpCache.Response response = cache.fetch(mUrl, null);
+        assertTrue(response.mIsModified);
+        assertEquals("|", mConditions.get(1));
+        assertEquals(2 * mBody.length, cache.getBytesTransferred());
+    }
+
+    @Test
+    public void failedRequestKeepsCachedCopy() throws IOException {
+        UpdaterHttpCache cache = newCache();
+        byte[] original = mBody;
+        cache.fetch(mUrl, null);
+
+        mBody = "{\"timestamp\":2}".getBytes();
+        mETag = "\"v2\"";
+        mCutOff = true;
+        try {
+            cache.fetch(mUrl, null);
+            fail("A cut off response was accepted");
+        } catch (IOException e) {
+            /* expected */
+        }
+
+        mFailWith = 500;
+        try {
+            cache.fetch(mUrl, null);
+            fail("A server error was accepted");
+        } catch (IOException e) {
+            /* expected */
+        }
+
+        /* The old copy and its validator are intact, so the next check is still conditional */
+        mFailWith = 0;
+        mBody = original;
+        mETag = "\"v1\"";
+        UpdaterHttpCache.Response response = cache.fetch(mUrl, null);
+        assertFalse(response.mIsModified);
+        assertArrayEquals(original, read(response));
+    }
+
+    @Test
+    public void missingCachedBodyIsFetchedWhole() throws IOException {
+        UpdaterHttpCache cache = newCache();
+        UpdaterHttpCache.Response first = cache.fetch(mUrl, null);
+        assertTrue(first.mFile.delete());
+
+        UpdaterHttpCache.Response second = cache.fetch(mUrl, null);
+        assertTrue(second.mIsModified);
+        assertEquals("|", mConditions.get(1));
+        assertArrayEquals(mBody, read(second));
+    }
+
+    @Test
+    public void cutOffResumableFetchIsResumed() throws IOException {
+        UpdaterHttpCache cache = newCache();
+        cache.fetch(mUrl, true, null);
+
+        mBody = "{\"timestamp\":2,\"padding\":\"0123456789\"}".getBytes();
+        mETag = "\"v2\"";
+        mCutOff = true;
+        UpdaterHttpCache.Response response = cache.fetch(mUrl, true, null);
+        assertTrue(response.mIsModified);
+        assertArrayEquals(mBody, read(response));
+
+        /* Only the missing half was asked for again, and the new validators were kept */
+        assertEquals("", mRanges.get(1));
+        assertEquals("bytes=" + (mBody.length / 2) + "-", mRanges.get(2));
+        assertEquals(mBody.length, response.mBytesTransferred);
+        assertFalse(cache.fetch(mUrl, true, null).mIsModified);
+        assertEquals("\"v2\"|" + LAST_MODIFIED, mConditions.get(3));
+    }
+
+    @Test
+    public void fileChangedDuringResumeIsFetchedAgainNextTime() throws IOException {
+        UpdaterHttpCache cache = newCache();
+        mCutOff = true;
+        mChangeAfterCutOff = true;
+        UpdaterHttpCache.Response response = cache.fetch(mUrl, true, null);
+        assertArrayEquals(mBody, read(response));
+
+        /* The resume got the whole new file, whose validators weren't in the first response */
+        assertEquals("\"v2\"", mETag);
+        assertTrue(cache.fetch(mUrl, true, null).mIsModified);
+        assertEquals("|", mConditions.get(2));
+    }
+
+    /**
+     * Serve mBody with its validators, or a 304 if the request's validators match them. A Range
+     * request gets the rest of mBody if its If-Range still matches
+     *
+     * @param exchange The request to respond to
+     * @throws IOException If the response can't be sent
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        mConditions.add((null == ifNoneMatch ? "" : ifNoneMatch) + "|" +
+                (null == ifModifiedSince ? "" : ifModifiedSince));
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        mRanges.add(null == range ? "" : range);
+
+        if (0 != mFailWith) {
+            exchange.sendResponseHeaders(mFailWith, -1);
+            exchange.close();
+            return;
+        }
+
+        if (null != mETag) {
+            exchange.getResponseHeaders().set("ETag", mETag);
+        }
+        if (null != mLastModified) {
+            exchange.getResponseHeaders().set("Last-Modified", mLastModified);
+        }
+
+        /* If-None-Match wins over If-Modified-Since when both are sent */
+        boolean notModified;
+        if (null != ifNoneMatch) {
+            notModified = ifNoneMatch.equals(mETag);
+        } else {
+            notModified = null != ifModifiedSince && ifModifiedSince.equals(mLastModified);
+        }
+        if (notModified) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body = mBody;
+        OutputStream out = exchange.getResponseBody();
+        if (null != range && (null == ifRange || ifRange.equals(mETag))) {
+            int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, body.length - start);
+            out.write(body, start, body.length - start);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            if (mCutOff) {
+                mCutOff = false;
+                out.write(body, 0, body.length / 2);
+                if (mChangeAfterCutOff) {
+                    mChangeAfterCutOff = false;
+                    mBody = "{\"timestamp\":2}".getBytes();
+                    mETag = "\"v2\"";
+                    mLastModified = null;
+                }
+            } else {
+                out.write(body);
+            }
+        }
+        out.flush();
+        /* Closing a response with bytes missing drops the connection */
+        exchange.close();
+    }
+
+    /**
+     * @return A cache over the test's directory
+     */
+    private UpdaterHttpCache newCache() {
+        return new UpdaterHttpCache(mDirectory, "MTG Familiar/test",
+                new ResumableDownloader("MTG Familiar/test", 3, 0));
+    }
+
+    /**
+     * @param response A response
+     * @return The response's body
+     * @throws IOException If the body can't be read
+     */
+    private static byte[] read(UpdaterHttpCache.Response response) throws IOException {
+        InputStream in = response.open();
+        try {
+            byte[] bytes = new byte[(int) response.mFile.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
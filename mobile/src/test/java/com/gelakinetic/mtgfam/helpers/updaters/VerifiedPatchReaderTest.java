@@ -0,0 +1,183 @@
+package com.gelakinetic.mtgfam.helpers.updaters;
+
+import com.gelakinetic.GathererScraper.JsonTypes.Expansion;
+import com.gelakinetic.GathererScraper.PrefixedFieldNamingStrategy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Feed truncated, bit flipped and otherwise bad patches through VerifiedPatchReader
+ */
+public class VerifiedPatchReaderTest {
+
+    /* The gzip header is ten bytes, and only some of it is covered by the CRC */
+    private static final int GZIP_HEADER_LENGTH = 10;
+
+    private final Gson mGson = new GsonBuilder()
+            .setFieldNamingStrategy(new PrefixedFieldNamingStrategy("m"))
+            .create();
+
+    @Test
+    public void readsGoodPatch() throws IOException {
+        byte[] patch = gzip(mGson.toJson(newExpansion()));
+
+        Expansion withDigest = read(patch, sha256(patch));
+        Expansion withoutDigest = read(patch, null);
+
+        assertEquals("GRN", withDigest.mCode_gatherer);
+        assertEquals("Guilds of Ravnica", withDigest.mName_gatherer);
+        assertEquals("GRN", withoutDigest.mCode_gatherer);
+    }
+
+    @Test
+    public void rejectsEveryTruncation() throws IOException {
+        byte[] patch = gzip(mGson.toJson(newExpansion()));
+
+        for (int length = 0; length < patch.length; length++) {
+            assertRejected(Arrays.copyOf(patch, length), null, "truncated to " + length + " bytes");
+        }
+    }
+
+    @Test
+    public void rejectsMissingTrailer() throws IOException {
+        byte[] patch = gzip(mGson.toJson(newExpansion()));
+        byte[] noTrailer = Arrays.copyOf(patch, patch.length - 8);
+
+        /* Gson alone has the whole object before it gets to the trailer, so it doesn't notice */
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(noTrailer)), "UTF-8"));
+        assertNotNull(mGson.fromJson(reader, Expansion.class));
+
+        assertRejected(noTrailer, null, "without its trailer");
+    }
+
+    @Test
+    public void catchesEveryBitFlip() throws IOException {
+        String json = mGson.toJson(newExpansion());
+        byte[] patch = gzip(json);
+        String sha256 = sha256(patch);
+
+        for (int position = 0; position < patch.length; position++) {
+            for (int bit = 0; bit < 8; bit++) {
+                byte[] flipped = patch.clone();
+                flipped[position] ^= (byte) (1 << bit);
+                String description = "bit " + bit + " of byte " + position + " flipped";
+
+                /* With a digest every flip is caught, header included */
+                assertRejected(flipped, sha256, description);
+
+                /* Without one, the CRC and length in the trailer still catch flips in the data. The
+                 * only ones they miss are in the padding after the last deflate block, which doesn't
+                 * change what's decoded */
+                if (position >= GZIP_HEADER_LENGTH) {
+                    try {
+                        assertEquals(description, json, mGson.toJson(read(flipped, null)));
+                    } catch (IOException e) {
+                        /* rejected */
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsDataAfterPatch() throws IOException {
+        String json = mGson.toJson(newExpansion());
+        assertRejected(gzip(json + json), null, "with a second object");
+
+        byte[] patch = gzip(json);
+        byte[] padded = Arrays.copyOf(patch, patch.length + 16);
+        assertRejected(padded, sha256(patch), "with bytes after the gzip stream");
+    }
+
+    @Test
+    public void rejectsEmptyAndMalformedPatches() throws IOException {
+        assertRejected(gzip(""), null, "empty");
+        assertRejected(gzip("{\"code_gatherer\": "), null, "cut off mid-object");
+        assertRejected(gzip("[1, 2, 3]"), null, "the wrong type");
+        assertRejected("{\"code_gatherer\": \"GRN\"}".getBytes("UTF-8"), null, "not gzipped");
+    }
+
+    /**
+     * @param patch   A gzipped patch
+     * @param sha256  The digest to check, or null
+     * @param message What's wrong with the patch
+     */
+    private void assertRejected(byte[] patch, String sha256, String message) {
+        try {
+            read(patch, sha256);
+            fail("Accepted a patch " + message);
+        } catch (IOException e) {
+            /* expected */
+        }
+    }
+
+    /**
+     * @param patch  A gzipped patch
+     * @param sha256 The digest to check, or null
+     * @return The expansion in the patch
+     * @throws IOException If the patch is rejected
+     */
+    private Expansion read(byte[] patch, String sha256) throws IOException {
+        return VerifiedPatchReader.read(new ByteArrayInputStream(patch), sha256, mGson, Expansion.class);
+    }
+
+    /**
+     * @return An expansion with enough in it to make a patch of a few hundred bytes
+     */
+    private static Expansion newExpansion() {
+        Expansion expansion = new Expansion();
+        expansion.mCode_gatherer = "GRN";
+        expansion.mName_gatherer = "Guilds of Ravnica";
+        expansion.mCode_mtgi = "grn";
+        expansion.mName_tcgp = "Guilds of Ravnica";
+        expansion.mName_mkm = "Guilds of Ravnica";
+        expansion.mReleaseTimestamp = 1538712000;
+        expansion.mCanBeFoil = true;
+        expansion.mBorderColor = "Black";
+        expansion.mDigest = "0123456789abcdef0123456789abcdef";
+        return expansion;
+    }
+
+    /**
+     * @param json Text to compress
+     * @return The text, gzipped
+     * @throws IOException If it can't be compressed
+     */
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(json.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes Bytes to digest
+     * @return The bytes' SHA-256 digest in hex
+     */
+    private static String sha256(byte[] bytes) {
+        try {
+            return ResumableDownloader.toHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}